@@ -0,0 +1,318 @@
+/*
+ *   Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License").
+ *   You may not use this file except in compliance with the License.
+ *   A copy of the License is located at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   or in the "license" file accompanying this file. This file is distributed
+ *   on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *   express or implied. See the License for the specific language governing
+ *   permissions and limitations under the License.
+ */
+
+/*
+ * Times building, loading and querying a graph on synthetic data, once through nmslib directly and once through the
+ * JNI entry points of the plugin inside an embedded JVM. The difference between the two is the cost of the JNI
+ * boundary: array copies, string conversions and creation of the result objects.
+ *
+ * Usage: knn_benchmark [--docs N] [--dim N] [--queries N] [--k N] [--space l2|cosinesimil] [--dir DIR]
+ *                      [--index-param key=value]... [--query-param key=value]... [--classpath CLASSPATH]
+ *
+ * The JNI side needs the plugin classes (for KNNQueryResult), e.g. --classpath ../build/classes/java/main, and is
+ * skipped when no classpath is given.
+ */
+
+#include "com_amazon_opendistroforelasticsearch_knn_index_v206_KNNIndex.h"
+
+#include "init.h"
+#include "index.h"
+#include "params.h"
+#include "knnquery.h"
+#include "knnqueue.h"
+#include "methodfactory.h"
+#include "spacefactory.h"
+#include "space.h"
+
+#include <algorithm>
+#include <chrono>
+#include <cmath>
+#include <cstdio>
+#include <cstdlib>
+#include <memory>
+#include <random>
+#include <stdexcept>
+#include <string>
+#include <vector>
+
+using std::string;
+using std::vector;
+
+using similarity::initLibrary;
+using similarity::AnyParams;
+using similarity::Index;
+using similarity::MethodFactoryRegistry;
+using similarity::SpaceFactoryRegistry;
+using similarity::Space;
+using similarity::ObjectVector;
+using similarity::Object;
+using similarity::KNNQuery;
+using similarity::KNNQueue;
+
+typedef std::chrono::steady_clock Clock;
+
+struct Options {
+    int docs = 10000;
+    int dim = 128;
+    int queries = 1000;
+    int k = 10;
+    string space = "l2";
+    string dir = "/tmp";
+    vector<string> indexParams;
+    vector<string> queryParams;
+    string classpath;
+};
+
+struct Timings {
+    double buildMillis = 0;
+    double loadMillis = 0;
+    vector<double> queryMicros;
+};
+
+static double millisSince(Clock::time_point start) {
+    return std::chrono::duration<double, std::milli>(Clock::now() - start).count();
+}
+
+static double microsSince(Clock::time_point start) {
+    return std::chrono::duration<double, std::micro>(Clock::now() - start).count();
+}
+
+static Options parseOptions(int argc, char** argv) {
+    Options options;
+    for (int i = 1; i < argc; i++) {
+        string arg(argv[i]);
+        if (i + 1 >= argc) {
+            throw std::invalid_argument("Missing value for " + arg);
+        }
+        string value(argv[++i]);
+        if (arg == "--docs") options.docs = std::stoi(value);
+        else if (arg == "--dim") options.dim = std::stoi(value);
+        else if (arg == "--queries") options.queries = std::stoi(value);
+        else if (arg == "--k") options.k = std::stoi(value);
+        else if (arg == "--space") options.space = value;
+        else if (arg == "--dir") options.dir = value;
+        else if (arg == "--index-param") options.indexParams.push_back(value);
+        else if (arg == "--query-param") options.queryParams.push_back(value);
+        else if (arg == "--classpath") options.classpath = value;
+        else throw std::invalid_argument("Unknown option " + arg);
+    }
+    return options;
+}
+
+static vector<vector<float>> randomVectors(std::mt19937& random, int count, int dim) {
+    std::uniform_real_distribution<float> distribution(0.0f, 1.0f);
+    vector<vector<float>> vectors(count, vector<float>(dim));
+    for (auto& row : vectors) {
+        for (auto& value : row) {
+            value = distribution(random);
+        }
+    }
+    return vectors;
+}
+
+// Same calls as the JNI entry points, without any JNI
+static Timings runNative(const Options& options, const vector<vector<float>>& data,
+                         const vector<vector<float>>& queries, const string& indexPath) {
+    Timings timings;
+
+    Clock::time_point start = Clock::now();
+    {
+        std::unique_ptr<Space<float>> space(SpaceFactoryRegistry<float>::Instance().CreateSpace(options.space,
+                                                                                                  AnyParams()));
+        ObjectVector dataset;
+        for (size_t i = 0; i < data.size(); i++) {
+            dataset.push_back(new Object(i, -1, data[i].size() * sizeof(float), data[i].data()));
+        }
+        std::unique_ptr<Index<float>> index(MethodFactoryRegistry<float>::Instance().CreateMethod(
+                false, "hnsw", options.space, *space, dataset));
+        index->CreateIndex(AnyParams(options.indexParams));
+        index->SaveIndex(indexPath);
+        index.reset();
+        for (auto it = dataset.begin(); it != dataset.end(); it++) {
+            delete *it;
+        }
+    }
+    timings.buildMillis = millisSince(start);
+
+    start = Clock::now();
+    std::unique_ptr<Space<float>> space(SpaceFactoryRegistry<float>::Instance().CreateSpace(options.space,
+                                                                                              AnyParams()));
+    ObjectVector empty;
+    std::unique_ptr<Index<float>> index(MethodFactoryRegistry<float>::Instance().CreateMethod(
+            false, "hnsw", options.space, *space, empty));
+    index->LoadIndex(indexPath);
+    index->SetQueryTimeParams(AnyParams(options.queryParams));
+    timings.loadMillis = millisSince(start);
+
+    for (const auto& query : queries) {
+        start = Clock::now();
+        std::unique_ptr<const Object> queryObject(new Object(-1, -1, query.size() * sizeof(float), query.data()));
+        KNNQuery<float> knnQuery(*space, queryObject.get(), options.k);
+        index->Search(&knnQuery);
+        std::unique_ptr<KNNQueue<float>> result(knnQuery.Result()->Clone());
+        int resultSize = result->Size();
+        for (int i = 0; i < resultSize; i++) {
+            result->Pop();
+        }
+        timings.queryMicros.push_back(microsSince(start));
+    }
+    return timings;
+}
+
+static void checkException(JNIEnv* env, const char* operation) {
+    if (env->ExceptionCheck() == JNI_TRUE) {
+        env->ExceptionDescribe();
+        throw std::runtime_error(string("Exception thrown by ") + operation);
+    }
+}
+
+static jobjectArray toJavaStrings(JNIEnv* env, const vector<string>& strings) {
+    jobjectArray array = env->NewObjectArray(strings.size(), env->FindClass("java/lang/String"), NULL);
+    for (size_t i = 0; i < strings.size(); i++) {
+        jstring value = env->NewStringUTF(strings[i].c_str());
+        env->SetObjectArrayElement(array, i, value);
+        env->DeleteLocalRef(value);
+    }
+    return array;
+}
+
+static jfloatArray toJavaFloats(JNIEnv* env, const vector<float>& values) {
+    jfloatArray array = env->NewFloatArray(values.size());
+    env->SetFloatArrayRegion(array, 0, values.size(), values.data());
+    return array;
+}
+
+// Calls the JNI entry points the way KNNIndex does. Converting the inputs to Java objects is not timed, as the
+// plugin has them as Java objects already.
+static Timings runJni(JNIEnv* env, const Options& options, const vector<vector<float>>& data,
+                      const vector<vector<float>>& queries, const string& indexPath) {
+    Timings timings;
+    jclass cls = NULL;
+
+    env->PushLocalFrame(16);
+    jintArray ids = env->NewIntArray(data.size());
+    jobjectArray vectors = env->NewObjectArray(data.size(), env->FindClass("[F"), NULL);
+    for (size_t i = 0; i < data.size(); i++) {
+        jint id = i;
+        env->SetIntArrayRegion(ids, i, 1, &id);
+        jfloatArray array = toJavaFloats(env, data[i]);
+        env->SetObjectArrayElement(vectors, i, array);
+        env->DeleteLocalRef(array);
+    }
+    jstring path = env->NewStringUTF(indexPath.c_str());
+    jstring space = env->NewStringUTF(options.space.c_str());
+    jobjectArray indexParams = toJavaStrings(env, options.indexParams);
+    jobjectArray queryParams = toJavaStrings(env, options.queryParams);
+    checkException(env, "setup");
+
+    Clock::time_point start = Clock::now();
+    Java_com_amazon_opendistroforelasticsearch_knn_index_v206_KNNIndex_saveIndex(env, cls, ids, vectors, path,
+                                                                                indexParams, space);
+    timings.buildMillis = millisSince(start);
+    checkException(env, "saveIndex");
+
+    start = Clock::now();
+    jlong indexPointer = Java_com_amazon_opendistroforelasticsearch_knn_index_v206_KNNIndex_init(env, cls, path,
+                                                                                               queryParams, space);
+    timings.loadMillis = millisSince(start);
+    checkException(env, "init");
+
+    for (const auto& query : queries) {
+        jfloatArray queryVector = toJavaFloats(env, query);
+        start = Clock::now();
+        jobjectArray results = Java_com_amazon_opendistroforelasticsearch_knn_index_v206_KNNIndex_queryIndex(
+                env, cls, indexPointer, queryVector, options.k);
+        timings.queryMicros.push_back(microsSince(start));
+        checkException(env, "queryIndex");
+        // Results hold one local reference per hit, release them so the frame does not grow with the query count
+        for (jsize i = 0; i < env->GetArrayLength(results); i++) {
+            env->DeleteLocalRef(env->GetObjectArrayElement(results, i));
+        }
+        env->DeleteLocalRef(results);
+        env->DeleteLocalRef(queryVector);
+    }
+
+    Java_com_amazon_opendistroforelasticsearch_knn_index_v206_KNNIndex_gc(env, cls, indexPointer);
+    env->PopLocalFrame(NULL);
+    return timings;
+}
+
+static double percentile(vector<double> values, double percentile) {
+    std::sort(values.begin(), values.end());
+    size_t rank = (size_t) std::max(1.0, std::ceil(percentile / 100 * values.size()));
+    return values[rank - 1];
+}
+
+static double mean(const vector<double>& values) {
+    double sum = 0;
+    for (double value : values) {
+        sum += value;
+    }
+    return sum / values.size();
+}
+
+static void report(const char* name, const Timings& timings) {
+    printf("%-8s %12.1f %12.1f %12.2f %12.2f %12.2f\n", name, timings.buildMillis, timings.loadMillis,
+           mean(timings.queryMicros), percentile(timings.queryMicros, 50), percentile(timings.queryMicros, 99));
+}
+
+int main(int argc, char** argv) {
+    try {
+        Options options = parseOptions(argc, argv);
+        std::mt19937 random(42);
+        vector<vector<float>> data = randomVectors(random, options.docs, options.dim);
+        vector<vector<float>> queries = randomVectors(random, options.queries, options.dim);
+
+        printf("docs=%d dim=%d queries=%d k=%d space=%s\n\n", options.docs, options.dim, options.queries, options.k,
+               options.space.c_str());
+        printf("%-8s %12s %12s %12s %12s %12s\n", "", "build_ms", "load_ms", "query_us", "p50_us", "p99_us");
+
+        initLibrary();
+        Timings native = runNative(options, data, queries, options.dir + "/knn_benchmark_native.hnsw");
+        report("native", native);
+        std::remove((options.dir + "/knn_benchmark_native.hnsw").c_str());
+
+        if (options.classpath.empty()) {
+            printf("\nNo --classpath given, skipping the JNI benchmark\n");
+            return 0;
+        }
+
+        string classpathOption = "-Djava.class.path=" + options.classpath;
+        JavaVMOption vmOptions[1];
+        vmOptions[0].optionString = const_cast<char*>(classpathOption.c_str());
+        JavaVMInitArgs vmArgs;
+        vmArgs.version = JNI_VERSION_1_8;
+        vmArgs.nOptions = 1;
+        vmArgs.options = vmOptions;
+        vmArgs.ignoreUnrecognized = JNI_FALSE;
+        JavaVM* jvm;
+        JNIEnv* env;
+        if (JNI_CreateJavaVM(&jvm, (void**) &env, &vmArgs) != JNI_OK) {
+            throw std::runtime_error("Unable to create the JVM");
+        }
+
+        Timings jni = runJni(env, options, data, queries, options.dir + "/knn_benchmark_jni.hnsw");
+        report("jni", jni);
+        std::remove((options.dir + "/knn_benchmark_jni.hnsw").c_str());
+
+        printf("\nJNI overhead: build %.1f ms, load %.1f ms, query %.2f us\n", jni.buildMillis - native.buildMillis,
+               jni.loadMillis - native.loadMillis, mean(jni.queryMicros) - mean(native.queryMicros));
+        jvm->DestroyJavaVM();
+    } catch (const std::exception& e) {
+        fprintf(stderr, "%s\n", e.what());
+        return 1;
+    }
+    return 0;
+}
@@ -0,0 +1,95 @@
+/*
+ *   Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License").
+ *   You may not use this file except in compliance with the License.
+ *   A copy of the License is located at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   or in the "license" file accompanying this file. This file is distributed
+ *   on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *   express or implied. See the License for the specific language governing
+ *   permissions and limitations under the License.
+ */
+
+
+package com.amazon.opendistroforelasticsearch.knn.index;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.Explanation;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.Weight;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Construction of the scorer of a segment from the results of its graph search, done by KNNWeight.scorer for every
+ * segment of every query. The graph search is measured separately by KNNEngineQueryBenchmark.
+ */
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class KNNScorerBenchmark {
+    @Param({"1", "10", "100", "1000"})
+    private int k;
+
+    @Param({"1000000"})
+    private int maxDoc;
+
+    private KNNQueryResult[] results;
+    private Weight weight;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        results = new KNNQueryResult[k];
+        for (int i = 0; i < k; i++) {
+            // Graph results come back in order of distance, so their doc ids are in random order
+            results[i] = new KNNQueryResult(random.nextInt(maxDoc / k) * k + i, random.nextFloat());
+        }
+        weight = new Weight(new MatchAllDocsQuery()) {
+            @Override
+            public void extractTerms(Set<Term> terms) {}
+
+            @Override
+            public Explanation explain(LeafReaderContext context, int doc) {
+                return Explanation.noMatch("benchmark");
+            }
+
+            @Override
+            public Scorer scorer(LeafReaderContext context) {
+                return null;
+            }
+
+            @Override
+            public boolean isCacheable(LeafReaderContext ctx) {
+                return false;
+            }
+        };
+    }
+
+    @Benchmark
+    public KNNScorer fromResults() throws IOException {
+        return KNNScorer.fromResults(weight, results, 1.0f);
+    }
+}
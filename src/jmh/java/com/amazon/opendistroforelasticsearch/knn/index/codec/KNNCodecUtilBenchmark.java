@@ -0,0 +1,117 @@
+/*
+ *   Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License").
+ *   You may not use this file except in compliance with the License.
+ *   A copy of the License is located at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   or in the "license" file accompanying this file. This file is distributed
+ *   on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *   express or implied. See the License for the specific language governing
+ *   permissions and limitations under the License.
+ */
+
+
+package com.amazon.opendistroforelasticsearch.knn.index.codec;
+
+import com.amazon.opendistroforelasticsearch.knn.index.VectorField;
+import org.apache.lucene.index.BinaryDocValues;
+import org.apache.lucene.util.BytesRef;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deserialization of the vectors of a segment, done for every graph built by a flush or a merge
+ */
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class KNNCodecUtilBenchmark {
+    @Param({"16", "128", "512", "1024"})
+    private int dimension;
+
+    @Param({"10000"})
+    private int docCount;
+
+    private BytesRef[] values;
+
+    @Setup
+    public void setup() throws Exception {
+        Random random = new Random(42);
+        values = new BytesRef[docCount];
+        for (int doc = 0; doc < docCount; doc++) {
+            float[] vector = new float[dimension];
+            for (int i = 0; i < dimension; i++) {
+                vector[i] = random.nextFloat();
+            }
+            values[doc] = new BytesRef(VectorField.floatToByte(vector));
+        }
+    }
+
+    @Benchmark
+    public KNNCodecUtil.Pair getFloats() throws IOException {
+        return KNNCodecUtil.getFloats(new ArrayBinaryDocValues(values));
+    }
+
+    /**
+     * Doc values with a value for every doc, served from memory so that only the deserialization is measured
+     */
+    private static class ArrayBinaryDocValues extends BinaryDocValues {
+        private final BytesRef[] values;
+        private int doc = -1;
+
+        ArrayBinaryDocValues(BytesRef[] values) {
+            this.values = values;
+        }
+
+        @Override
+        public BytesRef binaryValue() {
+            return values[doc];
+        }
+
+        @Override
+        public boolean advanceExact(int target) {
+            doc = target;
+            return target < values.length;
+        }
+
+        @Override
+        public int docID() {
+            return doc;
+        }
+
+        @Override
+        public int nextDoc() {
+            return advance(doc + 1);
+        }
+
+        @Override
+        public int advance(int target) {
+            doc = target < values.length ? target : NO_MORE_DOCS;
+            return doc;
+        }
+
+        @Override
+        public long cost() {
+            return values.length;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ *   Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License").
+ *   You may not use this file except in compliance with the License.
+ *   A copy of the License is located at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   or in the "license" file accompanying this file. This file is distributed
+ *   on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *   express or implied. See the License for the specific language governing
+ *   permissions and limitations under the License.
+ */
+
+
+package com.amazon.opendistroforelasticsearch.knn.index.engine;
+
+import com.amazon.opendistroforelasticsearch.knn.index.KNNQueryResult;
+import com.amazon.opendistroforelasticsearch.knn.index.SpaceTypes;
+import com.amazon.opendistroforelasticsearch.knn.index.hnsw.JavaHnswEngine;
+import com.amazon.opendistroforelasticsearch.knn.index.hnsw.JavaHnswIndex;
+import com.amazon.opendistroforelasticsearch.knn.index.ivf.IvfEngine;
+import com.amazon.opendistroforelasticsearch.knn.index.ivf.IvfIndex;
+import com.amazon.opendistroforelasticsearch.knn.index.util.KNNConstants;
+import com.amazon.opendistroforelasticsearch.knn.index.v206.KNNIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Search of a single graph, the part of KNNWeight.scorer that is not measured by KNNScorerBenchmark, compared across
+ * engines: nmslib through JNI, java_hnsw with the graph on and off heap and with product quantized vectors, and ivf.
+ * The indices are built with the default parameters of the plugin. Rescoring of product quantized results happens in
+ * KNNWeight and is not measured. The nmslib case requires the native library, see the jmh task in build.gradle.
+ */
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class KNNEngineQueryBenchmark {
+    private static final int QUERY_COUNT = 1000;
+    private static final int M = 16;
+    private static final int EF_CONSTRUCTION = 512;
+    private static final int EF_SEARCH = 512;
+    private static final int NPROBE = 16;
+    // 8 dimensions per byte of code
+    private static final int PQ_DIMENSIONS_PER_SUBSPACE = 8;
+
+    @Param({"nmslib", "java_hnsw", "java_hnsw_off_heap", "java_hnsw_pq", "ivf", "ivf_off_heap"})
+    private String engine;
+
+    @Param({"128"})
+    private int dimension;
+
+    @Param({"10000"})
+    private int docCount;
+
+    @Param({"10", "100"})
+    private int k;
+
+    private File directory;
+    private KNNEngineIndex knnIndex;
+    private float[][] queries;
+    private long[] searchStats;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        Random random = new Random(42);
+        int[] docs = new int[docCount];
+        float[][] vectors = new float[docCount][];
+        for (int i = 0; i < docCount; i++) {
+            docs[i] = i;
+            vectors[i] = randomVector(random);
+        }
+        queries = new float[QUERY_COUNT][];
+        for (int i = 0; i < QUERY_COUNT; i++) {
+            queries[i] = randomVector(random);
+        }
+        searchStats = new long[KNNEngineIndex.SEARCH_STATS_SIZE];
+
+        directory = Files.createTempDirectory("knn-benchmark").toFile();
+        String indexPath = new File(directory, "benchmark.hnsw").getAbsolutePath();
+        if ("nmslib".equals(engine)) {
+            KNNIndex.saveIndex(docs, vectors, indexPath, new String[] {KNNConstants.HNSW_ALGO_M + "=" + M,
+                    KNNConstants.HNSW_ALGO_EF_CONSTRUCTION + "=" + EF_CONSTRUCTION}, SpaceTypes.l2.getValue());
+            knnIndex = KNNIndex.loadIndex(indexPath, new String[] {KNNConstants.HNSW_ALGO_EF_SEARCH + "=" + EF_SEARCH},
+                    SpaceTypes.l2.getValue());
+        } else if (engine.startsWith(IvfEngine.NAME)) {
+            Map<String, String> fieldAttributes = new HashMap<>();
+            fieldAttributes.put(KNNConstants.SPACE_TYPE, SpaceTypes.l2.getValue());
+            IvfEngine.INSTANCE.buildIndex(docs, vectors, indexPath, fieldAttributes);
+            knnIndex = IvfIndex.loadIndex(indexPath, NPROBE, "ivf_off_heap".equals(engine));
+        } else {
+            Map<String, String> fieldAttributes = new HashMap<>();
+            fieldAttributes.put(KNNConstants.SPACE_TYPE, SpaceTypes.l2.getValue());
+            fieldAttributes.put(KNNConstants.HNSW_ALGO_M, String.valueOf(M));
+            fieldAttributes.put(KNNConstants.HNSW_ALGO_EF_CONSTRUCTION, String.valueOf(EF_CONSTRUCTION));
+            if ("java_hnsw_pq".equals(engine)) {
+                fieldAttributes.put(KNNConstants.PQ_ALGO_M, String.valueOf(dimension / PQ_DIMENSIONS_PER_SUBSPACE));
+            }
+            JavaHnswEngine.INSTANCE.buildIndex(docs, vectors, indexPath, fieldAttributes);
+            knnIndex = JavaHnswIndex.loadIndex(indexPath, EF_SEARCH, "java_hnsw_off_heap".equals(engine));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        knnIndex.close();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Benchmark
+    public KNNQueryResult[] queryIndex() throws IOException {
+        next = (next + 1) % QUERY_COUNT;
+        return knnIndex.queryIndex(queries[next], k, searchStats);
+    }
+
+    private float[] randomVector(Random random) {
+        float[] vector = new float[dimension];
+        for (int i = 0; i < dimension; i++) {
+            vector[i] = random.nextFloat();
+        }
+        return vector;
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ *   Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License").
+ *   You may not use this file except in compliance with the License.
+ *   A copy of the License is located at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   or in the "license" file accompanying this file. This file is distributed
+ *   on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *   express or implied. See the License for the specific language governing
+ *   permissions and limitations under the License.
+ */
+
+package com.amazon.opendistroforelasticsearch.knn.index;
+
+/**
+ * Approximate access frequency of cache keys, used by {@link KNNIndexCache} to decide which graphs are worth keeping
+ * in native memory. This is the count-min sketch of TinyLFU (https://arxiv.org/abs/1512.00727): every key maps to one
+ * counter in each of DEPTH rows and its frequency is the smallest of those counters. Counters saturate at
+ * MAX_FREQUENCY, and once the number of recorded accesses reaches the sample size every counter is halved, so that
+ * the frequencies follow recent traffic instead of the whole history of the node.
+ */
+public class FrequencySketch {
+    static final int MAX_FREQUENCY = 15;
+    private static final int DEPTH = 4;
+    private static final int[] SEEDS = {0x97cb3127, 0xb1c1b1c3, 0x5bd1e995, 0xcc9e2d51};
+
+    private final int[][] table;
+    private final int mask;
+    private final int sampleSize;
+    private int additions;
+
+    /**
+     * Constructor
+     *
+     * @param width number of counters per row, rounded up to a power of two. Should be larger than the number of
+     *              distinct keys expected to be tracked at once.
+     */
+    public FrequencySketch(int width) {
+        this(width, 10 * tableWidth(width));
+    }
+
+    FrequencySketch(int width, int sampleSize) {
+        this.table = new int[DEPTH][tableWidth(width)];
+        this.mask = table[0].length - 1;
+        this.sampleSize = sampleSize;
+    }
+
+    private static int tableWidth(int width) {
+        return Integer.highestOneBit(Math.max(width - 1, 1)) << 1;
+    }
+
+    /**
+     * Record an access to the key
+     *
+     * @param key cache key
+     */
+    public synchronized void increment(String key) {
+        int hash = spread(key.hashCode());
+        boolean added = false;
+        for (int i = 0; i < DEPTH; i++) {
+            int index = indexOf(hash, i);
+            if (table[i][index] < MAX_FREQUENCY) {
+                table[i][index]++;
+                added = true;
+            }
+        }
+
+        if (added && ++additions == sampleSize) {
+            reset();
+        }
+    }
+
+    /**
+     * Get the estimated number of recent accesses to the key
+     *
+     * @param key cache key
+     * @return estimated frequency, between 0 and MAX_FREQUENCY
+     */
+    public synchronized int frequency(String key) {
+        int hash = spread(key.hashCode());
+        int frequency = MAX_FREQUENCY;
+        for (int i = 0; i < DEPTH; i++) {
+            frequency = Math.min(frequency, table[i][indexOf(hash, i)]);
+        }
+        return frequency;
+    }
+
+    private void reset() {
+        for (int[] row : table) {
+            for (int i = 0; i < row.length; i++) {
+                row[i] >>>= 1;
+            }
+        }
+        additions /= 2;
+    }
+
+    private int indexOf(int hash, int row) {
+        int h = (hash ^ SEEDS[row]) * SEEDS[(row + 1) % DEPTH];
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    private static int spread(int hash) {
+        hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+        return (hash >>> 16) ^ hash;
+    }
+}
@@ -0,0 +1,317 @@
+/*
+ *   Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License").
+ *   You may not use this file except in compliance with the License.
+ *   A copy of the License is located at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   or in the "license" file accompanying this file. This file is distributed
+ *   on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *   express or implied. See the License for the specific language governing
+ *   permissions and limitations under the License.
+ */
+
+
+package com.amazon.opendistroforelasticsearch.knn.index;
+
+import com.amazon.opendistroforelasticsearch.knn.index.engine.KNNEngineIndex.MemoryType;
+import com.amazon.opendistroforelasticsearch.knn.index.engine.KNNEngines;
+import com.amazon.opendistroforelasticsearch.knn.plugin.KNNPlugin;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.component.AbstractLifecycleComponent;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.DeprecationHandler;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.json.JsonXContent;
+import org.elasticsearch.env.NodeEnvironment;
+import org.elasticsearch.index.engine.Engine;
+import org.elasticsearch.index.shard.IndexEventListener;
+import org.elasticsearch.index.shard.IndexShard;
+import org.elasticsearch.threadpool.Scheduler;
+import org.elasticsearch.threadpool.ThreadPool;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps a manifest of the graphs in the {@link KNNIndexCache} in the node's data path, so that a restarted node does
+ * not have to wait for queries to fault its working set back into the cache.
+ *
+ * Every knn.cache.manifest.interval, and when the node stops, the path and access frequency of each cached graph is
+ * written to the manifest. When the node starts it reads the manifest back and, as each k-NN shard starts, reloads
+ * the graphs recorded for the node that are still part of the segments of a started shard in the background on the
+ * knn_warmup pool. The graphs of all the shards are reloaded in one order, most frequently used first: a graph is
+ * only reloaded if it fits under the limit of the memory it is held in next to the more frequently used graphs
+ * whose shard has not started yet, so that the first shards to start do not fill the cache with their cold graphs.
+ */
+public class KNNCacheManifest extends AbstractLifecycleComponent implements IndexEventListener {
+    public static final String MANIFEST_FILE_NAME = "knn_cache_manifest.json";
+    private static final String GRAPHS = "graphs";
+    private static final String PATH = "path";
+    private static final String FREQUENCY = "frequency";
+    private static final String INDEX = "index";
+
+    private static Logger logger = LogManager.getLogger(KNNCacheManifest.class);
+
+    private final Path manifestPath;
+    private final TimeValue interval;
+    private final ThreadPool threadPool;
+    private final Map<String, PendingGraph> pendingGraphs = new ConcurrentHashMap<>();
+    private volatile Scheduler.Cancellable scheduledPersist;
+
+    /**
+     * Constructor
+     *
+     * @param settings node settings
+     * @param nodeEnvironment environment holding the data paths of the node
+     * @param threadPool node thread pool
+     */
+    public KNNCacheManifest(Settings settings, NodeEnvironment nodeEnvironment, ThreadPool threadPool) {
+        this(nodeEnvironment.nodeDataPaths()[0].resolve(MANIFEST_FILE_NAME),
+                KNNSettings.KNN_CACHE_MANIFEST_INTERVAL_SETTING.get(settings), threadPool);
+    }
+
+    KNNCacheManifest(Path manifestPath, TimeValue interval, ThreadPool threadPool) {
+        this.manifestPath = manifestPath;
+        this.interval = interval;
+        this.threadPool = threadPool;
+    }
+
+    @Override
+    protected void doStart() {
+        if (!isEnabled()) {
+            return;
+        }
+
+        try {
+            load();
+        } catch (Exception e) {
+            logger.warn("[KNN] Failed to read the cache manifest " + manifestPath, e);
+        }
+        scheduledPersist = threadPool.scheduleWithFixedDelay(this::persistQuietly, interval, ThreadPool.Names.GENERIC);
+    }
+
+    @Override
+    protected void doStop() {
+        if (!isEnabled()) {
+            return;
+        }
+
+        if (scheduledPersist != null) {
+            scheduledPersist.cancel();
+        }
+        persistQuietly();
+    }
+
+    @Override
+    protected void doClose() {}
+
+    private boolean isEnabled() {
+        return interval.millis() > 0;
+    }
+
+    @Override
+    public void afterIndexShardStarted(IndexShard indexShard) {
+        if (!pendingGraphs.isEmpty()) {
+            threadPool.executor(KNNPlugin.KNN_WARMUP_THREAD_POOL).execute(() -> reload(indexShard));
+        }
+    }
+
+    /**
+     * Write the graphs currently in the cache to the manifest. Graphs read from the manifest whose shard has not
+     * started yet are kept in it, unless their file is gone, for instance because the shard was relocated or deleted,
+     * in which case they are dropped for good.
+     *
+     * @throws IOException Thrown when the manifest cannot be written
+     */
+    void persist() throws IOException {
+        pendingGraphs.keySet().removeIf(path -> !Files.exists(Paths.get(path)));
+        KNNIndexCache knnIndexCache = KNNIndexCache.getInstance();
+        Map<String, PendingGraph> graphs = new LinkedHashMap<>();
+        knnIndexCache.getGraphFrequencies().forEach((path, frequency) -> graphs.put(path,
+                new PendingGraph(path, knnIndexCache.getGraphIndexName(path), frequency)));
+        pendingGraphs.forEach(graphs::putIfAbsent);
+
+        XContentBuilder builder = XContentFactory.jsonBuilder();
+        builder.startObject();
+        builder.startArray(GRAPHS);
+        for (PendingGraph graph : graphs.values()) {
+            builder.startObject();
+            builder.field(PATH, graph.path);
+            if (graph.indexName != null) {
+                builder.field(INDEX, graph.indexName);
+            }
+            builder.field(FREQUENCY, graph.frequency);
+            builder.endObject();
+        }
+        builder.endArray();
+        builder.endObject();
+
+        // Write to a temporary file first so that a crash mid-write never leaves a truncated manifest behind
+        Path tempPath = manifestPath.resolveSibling(MANIFEST_FILE_NAME + ".tmp");
+        Files.write(tempPath, BytesReference.toBytes(BytesReference.bytes(builder)));
+        Files.move(tempPath, manifestPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        logger.debug("[KNN] Recorded {} graphs in the cache manifest", graphs.size());
+    }
+
+    private void persistQuietly() {
+        try {
+            persist();
+        } catch (Exception e) {
+            logger.warn("[KNN] Failed to write the cache manifest " + manifestPath, e);
+        }
+    }
+
+    /**
+     * Read the graphs recorded in the manifest. They are reloaded as their shards start.
+     *
+     * @throws IOException Thrown when the manifest cannot be read
+     */
+    @SuppressWarnings("unchecked")
+    void load() throws IOException {
+        if (!Files.exists(manifestPath)) {
+            return;
+        }
+
+        Map<String, Object> manifest;
+        try (InputStream inputStream = Files.newInputStream(manifestPath);
+             XContentParser parser = JsonXContent.jsonXContent.createParser(NamedXContentRegistry.EMPTY,
+                     DeprecationHandler.THROW_UNSUPPORTED_OPERATION, inputStream)) {
+            manifest = parser.map();
+        }
+
+        for (Object graph : (List<Object>) manifest.get(GRAPHS)) {
+            Map<String, Object> graphEntry = (Map<String, Object>) graph;
+            String path = (String) graphEntry.get(PATH);
+            pendingGraphs.put(path, new PendingGraph(path, (String) graphEntry.get(INDEX),
+                    ((Number) graphEntry.get(FREQUENCY)).intValue()));
+        }
+        logger.info("[KNN] Read {} graphs from the cache manifest", pendingGraphs.size());
+    }
+
+    /**
+     * Mark the graphs of the shard that were recorded in the manifest as ready to be reloaded, then reload the graphs
+     * of the started shards. Graphs whose segment no longer exists are dropped.
+     *
+     * @param indexShard shard that started
+     */
+    void reload(IndexShard indexShard) {
+        Path shardDirectory = indexShard.shardPath().resolveIndex();
+        List<PendingGraph> shardGraphs = pendingGraphs.values().stream()
+                .filter(graph -> Paths.get(graph.path).startsWith(shardDirectory))
+                .collect(Collectors.toList());
+        if (shardGraphs.isEmpty()) {
+            return;
+        }
+
+        KNNIndexShard knnIndexShard = new KNNIndexShard(indexShard);
+        try (Engine.Searcher searcher = indexShard.acquireSearcher("knn-cache-manifest")) {
+            Set<String> hnswPaths = new HashSet<>(knnIndexShard.getHNSWPaths(searcher.getIndexReader()));
+            for (PendingGraph graph : shardGraphs) {
+                if (!hnswPaths.contains(graph.path)) {
+                    pendingGraphs.remove(graph.path);
+                    continue;
+                }
+                KNNIndexCache.getInstance().restoreFrequency(graph.path, graph.frequency);
+                graph.indexName = knnIndexShard.getIndexName();
+                graph.shardStarted = true;
+            }
+        } catch (Exception e) {
+            logger.warn("[KNN] Failed to read the graphs of shard " + indexShard.shardId()
+                    + " recorded in the cache manifest", e);
+            shardGraphs.forEach(graph -> pendingGraphs.remove(graph.path));
+            return;
+        }
+        reloadStartedGraphs();
+    }
+
+    /**
+     * Load the graphs recorded in the manifest whose shard has started, most frequently used first across the whole
+     * node. Graphs whose shard has not started yet stay in the queue, and the room they need is held back from the
+     * graphs that come after them, which are skipped when they do not fit under the limit of their memory next to it.
+     * Graphs whose file or index is gone are dropped.
+     */
+    synchronized void reloadStartedGraphs() {
+        KNNIndexCache knnIndexCache = KNNIndexCache.getInstance();
+        List<PendingGraph> graphs = pendingGraphs.values().stream()
+                .sorted(Comparator.comparingInt((PendingGraph graph) -> graph.frequency).reversed())
+                .collect(Collectors.toList());
+        Map<MemoryType, Long> heldBackKiloBytes = new EnumMap<>(MemoryType.class);
+
+        int reloaded = 0;
+        int skipped = 0;
+        for (PendingGraph graph : graphs) {
+            if (!Files.exists(Paths.get(graph.path))) {
+                pendingGraphs.remove(graph.path);
+                continue;
+            }
+            if (!graph.shardStarted) {
+                // Graphs recorded before the manifest held the index are reloaded in turn but hold nothing back
+                if (graph.indexName != null) {
+                    try {
+                        heldBackKiloBytes.merge(
+                                KNNEngines.getEngineForGraphFile(graph.path).getMemoryType(graph.indexName),
+                                KNNIndexCache.getGraphSizeInKilobytes(graph.path), Long::sum);
+                    } catch (Exception e) {
+                        logger.debug("[KNN] Dropping graph {} of a deleted index from the cache manifest", graph.path);
+                        pendingGraphs.remove(graph.path);
+                    }
+                }
+                continue;
+            }
+
+            pendingGraphs.remove(graph.path);
+            try {
+                MemoryType memoryType = KNNEngines.getEngineForGraphFile(graph.path).getMemoryType(graph.indexName);
+                if (!knnIndexCache.fitsInCache(graph.path, graph.indexName,
+                        heldBackKiloBytes.getOrDefault(memoryType, 0L))) {
+                    skipped++;
+                    continue;
+                }
+                knnIndexCache.getIndex(graph.path, graph.indexName, true);
+                reloaded++;
+            } catch (Exception e) {
+                logger.warn("[KNN] Failed to reload graph " + graph.path + " from the cache manifest", e);
+            }
+        }
+        logger.info("[KNN] Reloaded {} graphs recorded in the cache manifest, skipped {} that did not fit, {} wait for "
+                + "their shard to start", reloaded, skipped, pendingGraphs.size());
+    }
+
+    /**
+     * Graph recorded in the manifest that has not been reloaded yet
+     */
+    private static class PendingGraph {
+        private final String path;
+        private final int frequency;
+        private volatile String indexName;
+        private volatile boolean shardStarted;
+
+        private PendingGraph(String path, String indexName, int frequency) {
+            this.path = path;
+            this.indexName = indexName;
+            this.frequency = frequency;
+        }
+    }
+}
@@ -15,33 +15,29 @@
 
 package com.amazon.opendistroforelasticsearch.knn.index;
 
-import com.amazon.opendistroforelasticsearch.knn.plugin.stats.KNNStatsConfig;
-import com.amazon.opendistroforelasticsearch.knn.plugin.stats.StatNames;
-import com.amazon.opendistroforelasticsearch.knn.plugin.transport.KNNStatsAction;
-import com.amazon.opendistroforelasticsearch.knn.plugin.transport.KNNStatsNodeResponse;
-import com.amazon.opendistroforelasticsearch.knn.plugin.transport.KNNStatsRequest;
-import com.amazon.opendistroforelasticsearch.knn.plugin.transport.KNNStatsResponse;
-import org.apache.logging.log4j.LogManager;
-import org.apache.logging.log4j.Logger;
-import org.elasticsearch.client.Client;
-import org.elasticsearch.cluster.service.ClusterService;
-import org.elasticsearch.common.unit.TimeValue;
-import org.elasticsearch.threadpool.ThreadPool;
-
-import java.util.ArrayList;
-import java.util.List;
+import org.elasticsearch.common.breaker.CircuitBreaker;
+import org.elasticsearch.common.breaker.CircuitBreakingException;
+import org.elasticsearch.common.breaker.NoopCircuitBreaker;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.indices.breaker.BreakerSettings;
 
 /**
- * Runs the circuit breaker logic and updates the settings
+ * Node-local circuit breaker for the native memory used by graphs. It is registered with Elasticsearch's
+ * CircuitBreakerService as the knn_native_memory breaker, so its usage and limit show up in the breaker section of
+ * the node stats API: the cache reserves the size of a graph in native memory when it loads it and releases it when
+ * the graph is evicted. Graphs held on the Java heap are bounded by knn.memory.heap.limit instead.
+ *
+ * The breaker trips when the cache has to evict graphs because it is full, and resets as soon as the cache's weight
+ * goes back under knn.circuit_breaker.unset.percentage of the limit. While it is tripped, primary shards on the node
+ * reject documents with knn_vector fields, so that indexing backs off on the nodes that are short on native memory
+ * only.
  */
 public class KNNCircuitBreaker {
-    private static Logger logger = LogManager.getLogger(KNNCircuitBreaker.class);
-    public static int CB_TIME_INTERVAL = 2*60; // seconds
+    public static final String KNN_CIRCUIT_BREAKER_NAME = "knn_native_memory";
 
     private static KNNCircuitBreaker INSTANCE;
-    private ThreadPool threadPool;
-    private ClusterService clusterService;
-    private Client client;
+    private volatile CircuitBreaker circuitBreaker = new NoopCircuitBreaker(KNN_CIRCUIT_BREAKER_NAME);
 
     private KNNCircuitBreaker() {
     }
@@ -62,54 +58,126 @@ public class KNNCircuitBreaker {
         INSTANCE = instance;
     }
 
-    public void initialize(ThreadPool threadPool, ClusterService clusterService, Client client) {
-        this.threadPool = threadPool;
-        this.clusterService = clusterService;
-        this.client = client;
-        Runnable runnable = () -> {
-            if (KNNWeight.knnIndexCache.isCacheCapacityReached() && clusterService.localNode().isDataNode()) {
-                long currentSizeKiloBytes =  KNNWeight.knnIndexCache.getWeightInKilobytes();
-                long circuitBreakerLimitSizeKiloBytes = KNNSettings.getCircuitBreakerLimit().getKb();
-                long circuitBreakerUnsetSizeKiloBytes = (long) ((KNNSettings.getCircuitBreakerUnsetPercentage()/100)
-                        * circuitBreakerLimitSizeKiloBytes);
-                /**
-                 * Unset capacityReached flag if currentSizeBytes is less than circuitBreakerUnsetSizeBytes
-                 */
-                if (currentSizeKiloBytes <= circuitBreakerUnsetSizeKiloBytes) {
-                    KNNWeight.knnIndexCache.setCacheCapacityReached(false);
-                }
-            }
-
-            // Master node untriggers CB if all nodes have not reached their max capacity
-            if (KNNSettings.isCircuitBreakerTriggered() && clusterService.state().nodes().isLocalNodeElectedMaster()) {
-                KNNStatsRequest knnStatsRequest = new KNNStatsRequest(KNNStatsConfig.KNN_STATS.keySet());
-                knnStatsRequest.addStat(StatNames.CACHE_CAPACITY_REACHED.getName());
-                knnStatsRequest.timeout(new TimeValue(1000*10)); // 10 second timeout
-
-                try {
-                    KNNStatsResponse knnStatsResponse = client.execute(KNNStatsAction.INSTANCE, knnStatsRequest).get();
-                    List<KNNStatsNodeResponse> nodeResponses = knnStatsResponse.getNodes();
-
-                    List<String> nodesAtMaxCapacity = new ArrayList<>();
-                    for (KNNStatsNodeResponse nodeResponse : nodeResponses) {
-                        if ((Boolean) nodeResponse.getStatsMap().get(StatNames.CACHE_CAPACITY_REACHED.getName())) {
-                            nodesAtMaxCapacity.add(nodeResponse.getNode().getId());
-                        }
-                    }
-
-                    if (!nodesAtMaxCapacity.isEmpty()) {
-                        logger.info("[KNN] knn.circuit_breaker.triggered stays set. Nodes at max cache capacity: "
-                                + String.join(",", nodesAtMaxCapacity) + ".");
-                    } else {
-                        logger.info("[KNN] Cache capacity below 75% of the circuit breaker limit for all nodes." +
-                                " Unsetting knn.circuit_breaker.triggered flag.");
-                        KNNSettings.state().updateCircuitBreakerSettings(false);
-                    }
-                } catch (Exception e) {
-                    logger.error("[KNN] Exception getting stats: " + e);
-                }
-            }
-        };
-        this.threadPool.scheduleWithFixedDelay(runnable, TimeValue.timeValueSeconds(CB_TIME_INTERVAL), ThreadPool.Names.GENERIC);
+    /**
+     * Settings of the breaker to register with the CircuitBreakerService. Graphs live outside of the heap, so the
+     * breaker has no overhead and never counts towards the heap based parent breaker.
+     *
+     * @param settings node settings
+     * @return BreakerSettings of the knn_native_memory breaker
+     */
+    public static BreakerSettings getBreakerSettings(Settings settings) {
+        ByteSizeValue limit = (ByteSizeValue) KNNSettings.dynamicCacheSettings
+                .get(KNNSettings.KNN_MEMORY_CIRCUIT_BREAKER_LIMIT).get(settings);
+        return new BreakerSettings(KNN_CIRCUIT_BREAKER_NAME, limit.getBytes(), 0, CircuitBreaker.Type.MEMORY,
+                CircuitBreaker.Durability.PERMANENT);
+    }
+
+    /**
+     * Set the breaker created by the CircuitBreakerService
+     *
+     * @param circuitBreaker knn_native_memory breaker
+     */
+    public void setCircuitBreaker(CircuitBreaker circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /**
+     * Update the limit of the breaker, following knn.memory.circuit_breaker.limit
+     *
+     * @param limitInBytes new limit
+     */
+    public void setLimit(long limitInBytes) {
+        circuitBreaker.setLimitAndOverhead(limitInBytes, 0);
+    }
+
+    /**
+     * Account for the native memory of a graph loaded into the cache. The cache makes room for the graph by evicting
+     * others, or rejects it, so the reservation itself never breaks.
+     *
+     * @param bytes size of the graph
+     */
+    public void reserve(long bytes) {
+        circuitBreaker.addWithoutBreaking(bytes);
+    }
+
+    /**
+     * Give back the native memory of a graph evicted from the cache
+     *
+     * @param bytes size of the graph
+     */
+    public void release(long bytes) {
+        circuitBreaker.addWithoutBreaking(-bytes);
+    }
+
+    /**
+     * Exception rejecting a graph the cache has no room for
+     *
+     * @param graphPath path of the graph
+     * @param bytes estimated size of the graph
+     * @param reason why the cache cannot make room for the graph
+     * @return CircuitBreakingException to throw
+     */
+    public CircuitBreakingException graphLoadRejection(String graphPath, long bytes, String reason) {
+        return graphLoadRejection(graphPath, bytes, KNN_CIRCUIT_BREAKER_NAME, circuitBreaker.getLimit(), reason);
+    }
+
+    /**
+     * Exception rejecting a graph that does not fit in another limit than the breaker's, like the heap limit
+     *
+     * @param graphPath path of the graph
+     * @param bytes estimated size of the graph
+     * @param limitName name of the limit
+     * @param limitBytes value of the limit
+     * @param reason why the cache cannot make room for the graph
+     * @return CircuitBreakingException to throw
+     */
+    public CircuitBreakingException graphLoadRejection(String graphPath, long bytes, String limitName, long limitBytes,
+                                                       String reason) {
+        return graphLoadRejection(graphPath, bytes, limitName, limitBytes, reason, circuitBreaker.getDurability());
+    }
+
+    /**
+     * Exception rejecting a graph, with the durability telling whether retrying may succeed
+     *
+     * @param graphPath path of the graph
+     * @param bytes estimated size of the graph
+     * @param limitName name of the limit
+     * @param limitBytes value of the limit
+     * @param reason why the cache cannot make room for the graph
+     * @param durability TRANSIENT if the graph may be loaded when the query is retried
+     * @return CircuitBreakingException to throw
+     */
+    public CircuitBreakingException graphLoadRejection(String graphPath, long bytes, String limitName, long limitBytes,
+                                                       String reason, CircuitBreaker.Durability durability) {
+        return new CircuitBreakingException("[" + limitName + "] Loading graph [" + graphPath + "] of ["
+                + new ByteSizeValue(bytes) + "] is rejected as " + reason, bytes, limitBytes, durability);
+    }
+
+    /**
+     * Returns whether the breaker is tripped on this node
+     *
+     * @return true if the cache is full and has not yet gone back under knn.circuit_breaker.unset.percentage
+     */
+    public boolean isTripped() {
+        return KNNIndexCache.getInstance().isCacheCapacityReached();
+    }
+
+    /**
+     * Reject indexing into a knn_vector field while the breaker is tripped
+     *
+     * @param fieldName name of the field being indexed
+     * @throws CircuitBreakingException if the breaker is tripped
+     */
+    public void checkIndexing(String fieldName) {
+        if (isTripped()) {
+            throw new CircuitBreakingException("[" + KNN_CIRCUIT_BREAKER_NAME + "] Indexing knn vector field ["
+                    + fieldName + "] is rejected as the graphs in native memory on this node reached the limit of ["
+                    + new ByteSizeValue(circuitBreaker.getLimit()) + "]. Check _opendistro/_knn/stats for detailed state",
+                    circuitBreaker.getUsed(), circuitBreaker.getLimit(), circuitBreaker.getDurability());
+        }
     }
 }
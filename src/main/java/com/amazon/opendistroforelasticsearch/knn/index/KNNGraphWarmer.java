@@ -0,0 +1,86 @@
+/*
+ *   Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License").
+ *   You may not use this file except in compliance with the License.
+ *   A copy of the License is located at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   or in the "license" file accompanying this file. This file is distributed
+ *   on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *   express or implied. See the License for the specific language governing
+ *   permissions and limitations under the License.
+ */
+
+package com.amazon.opendistroforelasticsearch.knn.index;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.FilterDirectory;
+import org.elasticsearch.common.lucene.index.ElasticsearchDirectoryReader;
+import org.elasticsearch.index.IndexSettings;
+import org.elasticsearch.index.engine.Engine;
+
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Engine warmer that loads the graphs of a new reader into the {@link KNNIndexCache} before the reader is exposed to
+ * search. Elasticsearch calls the warmer when the shard's engine opens its first reader and on every refresh that
+ * produces new segments (flushes and merges), so with index.knn.preload enabled queries never pay the graph load.
+ *
+ * Preloading is best effort: failures are logged and never fail the refresh, the graph is then loaded lazily by the
+ * first query as before.
+ */
+public class KNNGraphWarmer implements Engine.Warmer {
+    private static Logger logger = LogManager.getLogger(KNNGraphWarmer.class);
+
+    private final Engine.Warmer delegate;
+    private final IndexSettings indexSettings;
+
+    /**
+     * Constructor
+     *
+     * @param delegate warmer configured by Elasticsearch; always invoked first. May be null.
+     * @param indexSettings settings of the index the engine belongs to
+     */
+    public KNNGraphWarmer(Engine.Warmer delegate, IndexSettings indexSettings) {
+        this.delegate = delegate;
+        this.indexSettings = indexSettings;
+    }
+
+    @Override
+    public void warm(ElasticsearchDirectoryReader reader) {
+        if (delegate != null) {
+            delegate.warm(reader);
+        }
+
+        if (!indexSettings.getValue(KNNSettings.INDEX_KNN_PRELOAD_SETTING) || !KNNSettings.isKNNPluginEnabled()) {
+            return;
+        }
+
+        String indexName = indexSettings.getIndex().getName();
+        try {
+            List<String> hnswPaths = KNNIndexShard.getHNSWPaths(reader, getIndexDirectory(reader));
+            if (!hnswPaths.isEmpty()) {
+                logger.debug("[KNN] Preloading {} graphs for index {}", hnswPaths.size(), indexName);
+                KNNIndexCache.getInstance().getIndices(hnswPaths, indexName);
+            }
+        } catch (Exception e) {
+            logger.warn("[KNN] Failed to preload graphs for index " + indexName, e);
+        }
+    }
+
+    /**
+     * Get the directory holding the segment files of the reader
+     *
+     * @param reader reader about to be exposed to search
+     * @return index directory of the shard
+     */
+    static Path getIndexDirectory(DirectoryReader reader) {
+        return ((FSDirectory) FilterDirectory.unwrap(reader.directory())).getDirectory();
+    }
+}
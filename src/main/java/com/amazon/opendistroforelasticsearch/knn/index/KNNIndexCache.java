@@ -15,33 +15,50 @@
 
 package com.amazon.opendistroforelasticsearch.knn.index;
 
-import com.amazon.opendistroforelasticsearch.knn.index.v206.KNNIndex;
+import com.amazon.opendistroforelasticsearch.knn.index.engine.KNNEngineIndex;
+import com.amazon.opendistroforelasticsearch.knn.index.engine.KNNEngineIndex.MemoryType;
+import com.amazon.opendistroforelasticsearch.knn.index.engine.KNNEngines;
 import com.amazon.opendistroforelasticsearch.knn.plugin.stats.StatNames;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheStats;
-import com.google.common.cache.RemovalCause;
 import com.google.common.cache.RemovalNotification;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.breaker.CircuitBreaker;
+import org.elasticsearch.common.breaker.CircuitBreakingException;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
 import org.elasticsearch.watcher.FileChangesListener;
 import org.elasticsearch.watcher.FileWatcher;
 import org.elasticsearch.watcher.ResourceWatcherService;
 import org.elasticsearch.watcher.WatcherHandle;
 
 import java.io.Closeable;
+import java.io.File;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import static com.amazon.opendistroforelasticsearch.knn.index.KNNSettings.getCircuitBreakerLimit;
@@ -53,15 +70,48 @@ import static com.amazon.opendistroforelasticsearch.knn.index.KNNSettings.getCir
  */
 public class KNNIndexCache implements Closeable {
     public static String GRAPH_COUNT = "graph_count";
+    public static String HIT_COUNT = "hit_count";
+    public static String MISS_COUNT = "miss_count";
+    public static String HIT_RATIO = "hit_ratio";
+    public static String GRAPH_MEMORY_QUOTA = "graph_memory_quota";
+    public static String GRAPH_MEMORY_QUOTA_PERCENTAGE = "graph_memory_quota_percentage";
+
+    /**
+     * Admission policies, see knn.cache.admission_policy
+     */
+    public static final String ADMISSION_POLICY_NONE = "none";
+    public static final String ADMISSION_POLICY_TINYLFU = "tinylfu";
+
+    private static final int FREQUENCY_SKETCH_WIDTH = 1 << 14;
+    private static final int FREE_THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+    private static final int FREE_QUEUE_SIZE = 1024;
+    private static final long RESERVATION_WAIT_MILLIS = 10;
 
     private static Logger logger = LogManager.getLogger(KNNIndexCache.class);
 
     private static KNNIndexCache INSTANCE;
 
-    private Cache<String, KNNIndexCacheEntry> cache;
-    private ExecutorService executor = Executors.newSingleThreadExecutor();
+    private volatile Cache<String, KNNIndexCacheEntry> cache;
+    private ExecutorService executor = newRebuildExecutor();
+    private final ThreadPoolExecutor freeExecutor = newFreeExecutor();
+    private final AtomicInteger pendingFrees = new AtomicInteger();
+    private final LongAdder freeCount = new LongAdder();
+    private final LongAdder totalFreeTime = new LongAdder();
     private AtomicBoolean cacheCapacityReached;
     private ResourceWatcherService resourceWatcherService;
+    private final Set<String> pinnedIndices = ConcurrentHashMap.newKeySet();
+    private final Map<String, Long> indexQuotas = new ConcurrentHashMap<>();
+    private final FrequencySketch frequencySketch = new FrequencySketch(FREQUENCY_SKETCH_WIDTH);
+    private final Map<String, IndexAccessStats> indexAccessStats = new ConcurrentHashMap<>();
+    private final LongAdder capacityEvictions = new LongAdder();
+    private final Set<String> loadingKeys = new HashSet<>();
+
+    /**
+     * Memory reserved for the graphs in the cache and the graphs being loaded, in total for each type of memory, and
+     * per index across types
+     */
+    private final Map<MemoryType, Long> reservedKiloBytes = new EnumMap<>(MemoryType.class);
+    private final Map<String, Long> indexReservedKiloBytes = new HashMap<>();
 
     private KNNIndexCache() {
         initCache();
@@ -73,6 +123,29 @@ public class KNNIndexCache implements Closeable {
 
     public void close() {
         executor.shutdown();
+        freeExecutor.shutdown();
+    }
+
+    /**
+     * Graphs are freed on a small pool rather than on the thread evicting them, so that freeing a burst of evicted
+     * graphs proceeds in parallel without holding up queries. When the pool falls behind, or once it is shut down,
+     * the evicting thread frees the graph itself.
+     */
+    private static ThreadPoolExecutor newFreeExecutor() {
+        ThreadPoolExecutor freeExecutor = new ThreadPoolExecutor(FREE_THREADS, FREE_THREADS, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(FREE_QUEUE_SIZE), EsExecutors.daemonThreadFactory("knn_graph_free"),
+                (runnable, threadPoolExecutor) -> runnable.run());
+        freeExecutor.allowCoreThreadTimeOut(true);
+        return freeExecutor;
+    }
+
+    /**
+     * Rebuilds run one at a time in the background. Once the executor is shut down, the thread asking for the rebuild
+     * runs it itself.
+     */
+    private static ThreadPoolExecutor newRebuildExecutor() {
+        return new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                (runnable, threadPoolExecutor) -> runnable.run());
     }
 
     /**
@@ -91,10 +164,6 @@ public class KNNIndexCache implements Closeable {
                 .recordStats()
                 .concurrencyLevel(1)
                 .removalListener(k -> onRemoval(k));
-        if(KNNSettings.state().getSettingValue(KNNSettings.KNN_MEMORY_CIRCUIT_BREAKER_ENABLED)) {
-            cacheBuilder.maximumWeight(getCircuitBreakerLimit().getKb()).weigher((k, v) -> (int)v.getKnnIndex().getIndexSize());
-        }
-
         if(KNNSettings.state().getSettingValue(KNNSettings.KNN_CACHE_ITEM_EXPIRY_ENABLED)) {
             /**
              * If the hnsw index is not accessed for knn.cache.item.expiry.minutes, it would be garbage collected.
@@ -104,6 +173,7 @@ public class KNNIndexCache implements Closeable {
         }
 
         cacheCapacityReached = new AtomicBoolean(false);
+        KNNCircuitBreaker.getInstance().setLimit(getCircuitBreakerLimit().getBytes());
 
         cache = cacheBuilder.build();
     }
@@ -111,9 +181,12 @@ public class KNNIndexCache implements Closeable {
     public synchronized void rebuild() {
         logger.info("KNN Cache rebuilding.");
         executor.execute(() -> {
-            cache.invalidateAll();
-            initCache(); }
-        );
+            // The new cache is in place before the old one is emptied, so a graph loaded into the old cache during the
+            // swap is either invalidated here or evicted by the query that loaded it, see evictIfStale
+            Cache<String, KNNIndexCacheEntry> oldCache = cache;
+            initCache();
+            oldCache.invalidateAll();
+        });
     }
 
     /**
@@ -125,46 +198,514 @@ public class KNNIndexCache implements Closeable {
         KNNIndexCacheEntry knnIndexCacheEntry = removalNotification.getValue();
 
         knnIndexCacheEntry.getFileWatcherHandle().stop();
+        releaseReservation(knnIndexCacheEntry);
 
-        executor.execute(() -> knnIndexCacheEntry.getKnnIndex().close());
+        free(knnIndexCacheEntry.getKnnIndex());
 
-        String esIndexName = removalNotification.getValue().getEsIndexName();
-        String indexPathUrl = removalNotification.getValue().getIndexPathUrl();
-
-        if (RemovalCause.SIZE == removalNotification.getCause()) {
-            KNNSettings.state().updateCircuitBreakerSettings(true);
-            setCacheCapacityReached(true);
-        }
         // TODO will change below logger to debug when close to ship it
         logger.info("[KNN] Cache evicted. Key {}, Reason: {}", removalNotification.getKey()
                 ,removalNotification.getCause());
     }
 
+    private void free(KNNEngineIndex knnIndex) {
+        long evictionTime = System.nanoTime();
+        pendingFrees.incrementAndGet();
+        freeExecutor.execute(() -> {
+            try {
+                knnIndex.close();
+            } finally {
+                pendingFrees.decrementAndGet();
+                freeCount.increment();
+                totalFreeTime.add(System.nanoTime() - evictionTime);
+            }
+        });
+    }
+
+    private void onCacheCapacityReached() {
+        setCacheCapacityReached(true);
+    }
+
+    /**
+     * Loads corresponding index for the given key to memory and returns the index object. The access is subject to
+     * the admission policy: a graph that is not admitted is rejected with a transient CircuitBreakingException, and
+     * each rejection counts as an access towards its admission. The caller gets a reference to the index, so that it
+     * is not freed while in use, and must give it back with {@link #release(KNNEngineIndex)}.
+     *
+     * @param key indexPath where the serialized hnsw graph is stored
+     * @param indexName index name
+     * @return KNNIndex holding the heap pointer of the loaded graph
+     */
+    public KNNEngineIndex getIndex(String key, final String indexName) {
+        return getIndex(key, indexName, new AtomicBoolean(false));
+    }
+
+    /**
+     * Loads corresponding index for the given key to memory and returns the index object, like
+     * {@link #getIndex(String, String)}, and tells whether the graph had to be loaded
+     *
+     * @param key indexPath where the serialized hnsw graph is stored
+     * @param indexName index name
+     * @param loaded set to true when the graph was not in the cache and was loaded for this call
+     * @return KNNIndex holding the heap pointer of the loaded graph
+     */
+    public KNNEngineIndex getIndex(String key, final String indexName, AtomicBoolean loaded) {
+        return getIndex(key, indexName, false, loaded);
+    }
+
     /**
      * Loads corresponding index for the given key to memory and returns the index object.
      *
      * @param key indexPath where the serialized hnsw graph is stored
      * @param indexName index name
+     * @param explicitLoad true when the graph is loaded on request, like a warmup, rather than by a query. Explicit
+     *                     loads are always admitted and are not counted as accesses. They do not acquire a reference
+     *                     to the index, so the index they return must not be queried or released.
      * @return KNNIndex holding the heap pointer of the loaded graph
      */
-    public KNNIndex getIndex(String key, final String indexName) {
+    public KNNEngineIndex getIndex(String key, final String indexName, boolean explicitLoad) {
+        return getIndex(key, indexName, explicitLoad, new AtomicBoolean(false));
+    }
+
+    private KNNEngineIndex getIndex(String key, String indexName, boolean explicitLoad, AtomicBoolean loaded) {
+        if (!explicitLoad) {
+            frequencySketch.increment(key);
+        }
+
+        while (true) {
+            Cache<String, KNNIndexCacheEntry> lookedUpCache = cache;
+            loaded.set(false);
+            // Looked up through the map first, which is not counted in the cache stats, so that a miss counts once
+            KNNIndexCacheEntry knnIndexCacheEntry = lookedUpCache.asMap().containsKey(key)
+                    ? lookedUpCache.getIfPresent(key) : null;
+            if (knnIndexCacheEntry == null) {
+                try {
+                    knnIndexCacheEntry = load(lookedUpCache, key, indexName, explicitLoad, loaded);
+                } catch (CircuitBreakingException e) {
+                    recordAccess(indexName, false);
+                    throw e;
+                }
+                if (knnIndexCacheEntry == null) {
+                    // Another thread was loading the graph, look it up again
+                    continue;
+                }
+            }
+
+            knnIndexCacheEntry.lastAccessNanos = System.nanoTime();
+            if (explicitLoad) {
+                evictIfStale(lookedUpCache, key, loaded.get());
+                return knnIndexCacheEntry.getKnnIndex();
+            }
+            // Fails only if the graph was evicted and freed since it was looked up, in which case it is loaded again
+            if (knnIndexCacheEntry.getKnnIndex().tryIncRef()) {
+                recordAccess(indexName, !loaded.get());
+                evictIfStale(lookedUpCache, key, loaded.get());
+                return knnIndexCacheEntry.getKnnIndex();
+            }
+        }
+    }
+
+    /**
+     * Reserves memory for a graph that is not in the cache, then loads it into the cache. Making room can mean waiting
+     * for other graphs to finish loading, so it is done before the cache is asked to load the graph: the cache holds a
+     * lock on the key while its loader runs, which would hold up every query of the graph. Only one thread reserves
+     * and loads a given graph at a time; the others wait for it outside of the cache, then look the graph up again.
+     *
+     * @return the entry of the loaded graph, or null if another thread was loading it
+     * @throws CircuitBreakingException if there is no room for the graph, or the admission policy rejects it
+     */
+    private KNNIndexCacheEntry load(Cache<String, KNNIndexCacheEntry> lookedUpCache, String key, String indexName,
+                                    boolean explicitLoad, AtomicBoolean loaded) {
+        MemoryType memoryType = KNNEngines.getEngineForGraphFile(key).getMemoryType(indexName);
+        long kiloBytes = getGraphSizeInKilobytes(key);
+        try {
+            if (!startLoad(key)) {
+                return null;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
         try {
-            final KNNIndexCacheEntry knnIndexCacheEntry = cache.get(key, () -> loadIndex(key, indexName));
-            return knnIndexCacheEntry.getKnnIndex();
-        } catch (ExecutionException e) {
+            reserve(key, indexName, memoryType, kiloBytes, explicitLoad);
+            AtomicBoolean reservationUsed = new AtomicBoolean(false);
+            try {
+                return lookedUpCache.get(key, () -> {
+                    reservationUsed.set(true);
+                    loaded.set(true);
+                    try {
+                        KNNIndexCacheEntry entry = loadIndex(key, indexName);
+                        // The reservation was estimated from the size of the file
+                        replaceReservation(indexName, memoryType, kiloBytes, entry.getKnnIndex());
+                        return entry;
+                    } catch (Exception e) {
+                        addReservation(indexName, memoryType, -kiloBytes);
+                        throw e;
+                    }
+                });
+            } catch (UncheckedExecutionException e) {
+                if (e.getCause() instanceof CircuitBreakingException) {
+                    throw (CircuitBreakingException) e.getCause();
+                }
+                throw e;
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e);
+            } finally {
+                if (!reservationUsed.get()) {
+                    addReservation(indexName, memoryType, -kiloBytes);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             throw new RuntimeException(e);
+        } finally {
+            finishLoad(key);
         }
     }
 
     /**
-     * Loads list of segments for the given index into the cache and returns list of KNNIndex's.
+     * Claims the load of a graph for the calling thread
+     *
+     * @return true if the graph is to be loaded by the caller, false if another thread was loading it and is done
+     */
+    private synchronized boolean startLoad(String key) throws InterruptedException {
+        if (loadingKeys.add(key)) {
+            return true;
+        }
+        while (loadingKeys.contains(key)) {
+            wait(RESERVATION_WAIT_MILLIS);
+        }
+        return false;
+    }
+
+    private synchronized void finishLoad(String key) {
+        loadingKeys.remove(key);
+        notifyAll();
+    }
+
+    /**
+     * Evicts a graph that was just looked up if it must not stay in the cache: either a rebuild swapped out the cache
+     * it is in, which would then never evict it, or its file was deleted while it was loading, which the file watcher
+     * does not report as there was nothing in the cache to invalidate yet. A reference acquired by the caller keeps
+     * the graph usable until it is released.
+     */
+    private void evictIfStale(Cache<String, KNNIndexCacheEntry> lookedUpCache, String key, boolean loaded) {
+        if (lookedUpCache != cache || (loaded && !new File(key).exists())) {
+            logger.debug("[KNN] Evicting stale graph {}", key);
+            lookedUpCache.invalidate(key);
+        }
+    }
+
+    /**
+     * Releases the reference to an index returned by getIndex once the caller is done with it. If the index has been
+     * evicted in the meantime, this frees it.
+     *
+     * @param knnIndex index returned by getIndex
+     */
+    public void release(KNNEngineIndex knnIndex) {
+        knnIndex.decRef();
+    }
+
+    /**
+     * Loads list of segments for the given index into the cache and returns list of KNNIndex's. These loads are
+     * explicit and bypass the admission policy.
      *
      * @param segmentPaths List of segmentPaths
      * @param indexName Name of index
      * @return List of KNNIndex's from the segment paths
      */
-    public List<KNNIndex> getIndices(List<String> segmentPaths, String indexName) {
-        return segmentPaths.stream().map(segmentPath -> getIndex(segmentPath, indexName)).collect(Collectors.toList());
+    public List<KNNEngineIndex> getIndices(List<String> segmentPaths, String indexName) {
+        return segmentPaths.stream().map(segmentPath -> getIndex(segmentPath, indexName, true))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Reserves memory for a graph about to be loaded into the cache. The reservation is made in one step with the
+     * evictions that make room for it, so that concurrent loads never take an index over its quota or the cache over
+     * the limit of the memory the graph is held in, see {@link #getLimitInKilobytes(MemoryType)}:
+     *
+     * - when the graphs of the index would exceed its quota, its least frequently used graphs are evicted. A graph
+     *   larger than the whole quota is rejected.
+     * - when the graphs held in the same memory would exceed its limit, unpinned graphs held in that memory are
+     *   evicted. Pinned graphs count towards the limit like any other graph, they are only never picked for eviction,
+     *   so a graph that does not fit next to them is rejected.
+     *
+     * Graphs that are still loading count too but can only be evicted once loaded, so the reservation waits for them
+     * when they are in the way.
+     *
+     * With the TinyLFU admission policy, the graph is only admitted if it has been accessed more often recently than
+     * each of the graphs that would have to be evicted to make room for it under the limit. Those are picked least
+     * frequently used first, so that the cache never evicts the least recently used graphs, which may be hot. Without
+     * it, and for explicit loads, the least recently used graphs are evicted.
+     *
+     * @throws CircuitBreakingException if the graph is larger than the quota of its index, does not fit even with
+     *                                  every unpinned graph evicted, or is not admitted. The latter is transient: the
+     *                                  graph is admitted once it is used more often than the graphs in its way.
+     */
+    private synchronized void reserve(String key, String indexName, MemoryType memoryType, long kiloBytes,
+                                         boolean explicitLoad) throws InterruptedException {
+        Long quotaKiloBytes = indexQuotas.get(indexName);
+        if (quotaKiloBytes != null && kiloBytes > quotaKiloBytes) {
+            throw KNNCircuitBreaker.getInstance().graphLoadRejection(key, kiloBytes * 1024,
+                    "it is larger than the memory quota of index [" + indexName + "]");
+        }
+
+        boolean tinyLfu = !explicitLoad && ADMISSION_POLICY_TINYLFU.equals(KNNSettings.getCacheAdmissionPolicy());
+        while (true) {
+            // Expired graphs are still reserved until the cache gets rid of them
+            cache.cleanUp();
+            List<KNNIndexCacheEntry> entries = new ArrayList<>(cache.asMap().values());
+
+            if (quotaKiloBytes != null) {
+                long excessKiloBytes = indexReservedKiloBytes.getOrDefault(indexName, 0L) + kiloBytes - quotaKiloBytes;
+                if (excessKiloBytes > 0) {
+                    List<KNNIndexCacheEntry> indexEntries = entries.stream()
+                            .filter(entry -> indexName.equals(entry.getEsIndexName()))
+                            .collect(Collectors.toList());
+                    List<KNNIndexCacheEntry> victims = pickVictims(getLeastFrequentlyUsed(indexEntries),
+                            excessKiloBytes);
+                    if (getKiloBytes(victims) >= excessKiloBytes) {
+                        logger.debug("[KNN] Evicting {} graphs of index {} to stay within its quota", victims.size(),
+                                indexName);
+                        evict(victims);
+                        continue;
+                    }
+                    // Graphs of the index reserved but not in the cache are being loaded
+                    if (indexReservedKiloBytes.getOrDefault(indexName, 0L) <= getKiloBytes(indexEntries)) {
+                        throw KNNCircuitBreaker.getInstance().graphLoadRejection(key, kiloBytes * 1024,
+                                "it does not fit in the memory quota of index [" + indexName + "]");
+                    }
+                    wait(RESERVATION_WAIT_MILLIS);
+                    continue;
+                }
+            }
+
+            Long limitKiloBytes = getLimitInKilobytes(memoryType);
+            if (limitKiloBytes != null) {
+                long excessKiloBytes = getReservedKiloBytes(memoryType) + kiloBytes - limitKiloBytes;
+                if (excessKiloBytes > 0) {
+                    List<KNNIndexCacheEntry> memoryEntries = entries.stream()
+                            .filter(entry -> entry.getKnnIndex().getMemoryType() == memoryType)
+                            .collect(Collectors.toList());
+                    List<KNNIndexCacheEntry> unpinnedEntries = memoryEntries.stream()
+                            .filter(entry -> !isIndexPinned(entry.getEsIndexName()))
+                            .collect(Collectors.toList());
+                    if (!tinyLfu) {
+                        unpinnedEntries.sort(Comparator.comparingLong(entry -> entry.lastAccessNanos));
+                    }
+                    List<KNNIndexCacheEntry> victims = pickVictims(
+                            tinyLfu ? getLeastFrequentlyUsed(unpinnedEntries) : unpinnedEntries, excessKiloBytes);
+                    int candidateFrequency = frequencySketch.frequency(key);
+                    if (tinyLfu && victims.stream().anyMatch(
+                            entry -> frequencySketch.frequency(entry.getIndexPathUrl()) >= candidateFrequency)) {
+                        logger.debug("[KNN] Graph {} not admitted into the cache", key);
+                        throw KNNCircuitBreaker.getInstance().graphLoadRejection(key, kiloBytes * 1024,
+                                getLimitName(memoryType), limitKiloBytes * 1024,
+                                "it is used less often than the graphs it would evict from the cache",
+                                CircuitBreaker.Durability.TRANSIENT);
+                    }
+
+                    if (memoryType == MemoryType.NATIVE) {
+                        onCacheCapacityReached();
+                    }
+                    if (getKiloBytes(victims) >= excessKiloBytes) {
+                        logger.debug("[KNN] Evicting {} graphs to make room for {}", victims.size(), key);
+                        capacityEvictions.add(victims.size());
+                        evict(victims);
+                        continue;
+                    }
+                    // Graphs reserved but not in the cache are being loaded, or being evicted by a rebuild
+                    if (getReservedKiloBytes(memoryType) <= getKiloBytes(memoryEntries)) {
+                        throw memoryType == MemoryType.NATIVE
+                                ? KNNCircuitBreaker.getInstance().graphLoadRejection(key, kiloBytes * 1024,
+                                        "it does not fit next to the pinned graphs")
+                                : KNNCircuitBreaker.getInstance().graphLoadRejection(key, kiloBytes * 1024,
+                                        getLimitName(memoryType), limitKiloBytes * 1024,
+                                        "it does not fit next to the pinned graphs on the heap");
+                    }
+                    wait(RESERVATION_WAIT_MILLIS);
+                    continue;
+                }
+            }
+
+            addReservation(indexName, memoryType, kiloBytes);
+            return;
+        }
+    }
+
+    private static String getLimitName(MemoryType memoryType) {
+        return memoryType == MemoryType.NATIVE ? KNNCircuitBreaker.KNN_CIRCUIT_BREAKER_NAME
+                : KNNSettings.KNN_MEMORY_HEAP_LIMIT;
+    }
+
+    /**
+     * Limit of the graphs held in a type of memory: knn.memory.circuit_breaker.limit for native memory, when the
+     * breaker is enabled, and knn.memory.heap.limit for the heap. Memory mapped graphs are left to the operating
+     * system, like the other files of the segments.
+     *
+     * @return limit in kilobytes, null if there is none
+     */
+    private static Long getLimitInKilobytes(MemoryType memoryType) {
+        switch (memoryType) {
+            case NATIVE:
+                return KNNSettings.state().getSettingValue(KNNSettings.KNN_MEMORY_CIRCUIT_BREAKER_ENABLED)
+                        ? getCircuitBreakerLimit().getKb() : null;
+            case HEAP:
+                return KNNSettings.getHeapLimit().getKb();
+            default:
+                return null;
+        }
+    }
+
+    private List<KNNIndexCacheEntry> getLeastFrequentlyUsed(List<KNNIndexCacheEntry> entries) {
+        Map<KNNIndexCacheEntry, Integer> frequencies = entries.stream()
+                .collect(Collectors.toMap(Function.identity(),
+                        entry -> frequencySketch.frequency(entry.getIndexPathUrl())));
+        return entries.stream().sorted(Comparator.comparing(frequencies::get)).collect(Collectors.toList());
+    }
+
+    /**
+     * Takes graphs from the front of the candidates until they add up to the excess, or until there are none left
+     */
+    private static List<KNNIndexCacheEntry> pickVictims(List<KNNIndexCacheEntry> candidates, long excessKiloBytes) {
+        List<KNNIndexCacheEntry> victims = new ArrayList<>();
+        long freedKiloBytes = 0;
+        for (KNNIndexCacheEntry entry : candidates) {
+            if (freedKiloBytes >= excessKiloBytes) {
+                break;
+            }
+            victims.add(entry);
+            freedKiloBytes += entry.getKnnIndex().getIndexSize();
+        }
+        return victims;
+    }
+
+    private static long getKiloBytes(List<KNNIndexCacheEntry> entries) {
+        return entries.stream().mapToLong(entry -> entry.getKnnIndex().getIndexSize()).sum();
+    }
+
+    /**
+     * Evicts graphs from the cache. Their reservations are released right away rather than when the cache notifies
+     * the removal, which may happen on another thread, so that the room they leave can be reserved at once.
+     */
+    private synchronized void evict(List<KNNIndexCacheEntry> victims) {
+        victims.forEach(this::releaseReservation);
+        cache.invalidateAll(victims.stream().map(KNNIndexCacheEntry::getIndexPathUrl).collect(Collectors.toList()));
+    }
+
+    private synchronized void releaseReservation(KNNIndexCacheEntry entry) {
+        if (entry.reservationReleased.compareAndSet(false, true)) {
+            addReservation(entry.getEsIndexName(), entry.getKnnIndex().getMemoryType(),
+                    -entry.getKnnIndex().getIndexSize());
+        }
+    }
+
+    /**
+     * Replaces the reservation estimated before loading a graph of an index in the cache with the actual memory of
+     * the loaded graph
+     */
+    private synchronized void replaceReservation(String indexName, MemoryType memoryType, long kiloBytes,
+                                                 KNNEngineIndex knnIndex) {
+        addReservation(indexName, memoryType, -kiloBytes);
+        addReservation(indexName, knnIndex.getMemoryType(), knnIndex.getIndexSize());
+    }
+
+    /**
+     * Updates the memory reserved for the graphs of an index in the cache
+     */
+    private synchronized void addReservation(String indexName, MemoryType memoryType, long kiloBytes) {
+        indexReservedKiloBytes.compute(indexName, (name, reserved) -> {
+            long indexKiloBytes = (reserved == null ? 0 : reserved) + kiloBytes;
+            return indexKiloBytes == 0 ? null : indexKiloBytes;
+        });
+        addReservation(memoryType, kiloBytes);
+    }
+
+    /**
+     * Updates the memory reserved for graphs held in a type of memory. Only native memory is reserved in the circuit
+     * breaker, which accounts for the memory outside of the heap.
+     */
+    private synchronized void addReservation(MemoryType memoryType, long kiloBytes) {
+        reservedKiloBytes.merge(memoryType, kiloBytes, Long::sum);
+        if (memoryType == MemoryType.NATIVE) {
+            KNNCircuitBreaker.getInstance().reserve(kiloBytes * 1024);
+        }
+        notifyAll();
+    }
+
+    private synchronized long getReservedKiloBytes(MemoryType memoryType) {
+        return reservedKiloBytes.getOrDefault(memoryType, 0L);
+    }
+
+    private void recordAccess(String indexName, boolean hit) {
+        IndexAccessStats accessStats = indexAccessStats.computeIfAbsent(indexName, name -> new IndexAccessStats());
+        if (hit) {
+            accessStats.hits.increment();
+        } else {
+            accessStats.misses.increment();
+        }
+    }
+
+    /**
+     * Size of the graph in the same unit KNNIndex uses for the weight of loaded graphs, known before it is loaded
+     */
+    static long getGraphSizeInKilobytes(String key) {
+        return new File(key).length() / 1024 + 1;
+    }
+
+    /**
+     * Returns whether the graph for the given key is already loaded. Unlike getIndex, this is not recorded as an access.
+     *
+     * @param key indexPath where the serialized hnsw graph is stored
+     * @return true if the graph is in the cache
+     */
+    public boolean isIndexLoaded(String key) {
+        return cache.asMap().containsKey(key);
+    }
+
+    /**
+     * Returns whether the graph for the given key can be loaded into the cache without evicting other graphs. It is
+     * checked against the same limits as the reservation made to load it: the quota of its index, and the limit of
+     * the memory it will be held in, see {@link #getLimitInKilobytes(MemoryType)}.
+     *
+     * @param key indexPath where the serialized hnsw graph is stored
+     * @param indexName index name
+     * @param heldBackKiloBytes memory of that type to leave free, for instance for graphs yet to be loaded
+     * @return true if the graph is already loaded or fits next to the graphs in the cache
+     */
+    public synchronized boolean fitsInCache(String key, String indexName, long heldBackKiloBytes) {
+        if (isIndexLoaded(key)) {
+            return true;
+        }
+
+        long kiloBytes = getGraphSizeInKilobytes(key);
+        Long quotaKiloBytes = indexQuotas.get(indexName);
+        if (quotaKiloBytes != null && indexReservedKiloBytes.getOrDefault(indexName, 0L) + kiloBytes > quotaKiloBytes) {
+            return false;
+        }
+        MemoryType memoryType = KNNEngines.getEngineForGraphFile(key).getMemoryType(indexName);
+        Long limitKiloBytes = getLimitInKilobytes(memoryType);
+        return limitKiloBytes == null
+                || getReservedKiloBytes(memoryType) + heldBackKiloBytes + kiloBytes <= limitKiloBytes;
+    }
+
+    /**
+     * Returns the name of the index the graph for the given key belongs to
+     *
+     * @param key indexPath where the serialized hnsw graph is stored
+     * @return index name, null if the graph is not loaded
+     */
+    public String getGraphIndexName(String key) {
+        KNNIndexCacheEntry knnIndexCacheEntry = cache.asMap().get(key);
+        return knnIndexCacheEntry == null ? null : knnIndexCacheEntry.getEsIndexName();
+    }
+
+    /**
+     * Returns the number of graphs evicted because they expired or to make room for other graphs
+     *
+     * @return number of evictions
+     */
+    public Long getEvictionCount() {
+        return cache.stats().evictionCount() + capacityEvictions.sum();
     }
 
     /**
@@ -194,10 +735,55 @@ public class KNNIndexCache implements Closeable {
             statValues.get(indexName).putIfAbsent(StatNames.GRAPH_MEMORY_USAGE_PERCENTAGE.getName(),
                     getWeightAsPercentage(indexName));
         }
+
+        for (Map.Entry<String, Map<String, Object>> indexStats : statValues.entrySet()) {
+            IndexAccessStats accessStats = indexAccessStats.get(indexStats.getKey());
+            long hits = accessStats == null ? 0 : accessStats.hits.sum();
+            long misses = accessStats == null ? 0 : accessStats.misses.sum();
+            indexStats.getValue().put(HIT_COUNT, hits);
+            indexStats.getValue().put(MISS_COUNT, misses);
+            indexStats.getValue().put(HIT_RATIO, hits + misses == 0 ? 1.0 : (double) hits / (hits + misses));
+
+            Long quotaKiloBytes = indexQuotas.get(indexStats.getKey());
+            if (quotaKiloBytes != null) {
+                indexStats.getValue().put(GRAPH_MEMORY_QUOTA, quotaKiloBytes);
+                indexStats.getValue().put(GRAPH_MEMORY_QUOTA_PERCENTAGE,
+                        100 * getWeightInKilobytes(indexStats.getKey()) / (float) Math.max(quotaKiloBytes, 1));
+            }
+        }
         
         return statValues;
     }
 
+    /**
+     * Get the access frequency of every graph in the cache, most frequently used first
+     *
+     * @return Map from the path of each cached graph to its estimated recent access frequency
+     */
+    public Map<String, Integer> getGraphFrequencies() {
+        Map<String, Integer> frequencies = new LinkedHashMap<>();
+        cache.asMap().keySet().stream()
+                .collect(Collectors.toMap(Function.identity(), frequencySketch::frequency))
+                .entrySet().stream()
+                .sorted(Map.Entry.<String, Integer>comparingByValue().reversed())
+                .forEach(entry -> frequencies.put(entry.getKey(), entry.getValue()));
+        return frequencies;
+    }
+
+    /**
+     * Restore the access frequency of a graph, for instance one recorded before a restart, so that the admission
+     * policy treats it as the hot graph it was. Frequencies never decrease through this call.
+     *
+     * @param key indexPath where the serialized hnsw graph is stored
+     * @param frequency access frequency to restore
+     */
+    public void restoreFrequency(String key, int frequency) {
+        int target = Math.min(frequency, FrequencySketch.MAX_FREQUENCY);
+        while (frequencySketch.frequency(key) < target) {
+            frequencySketch.increment(key);
+        }
+    }
+
     protected Set<String> getGraphNamesForIndex(String indexName) {
         return cache.asMap().values().stream()
                 .filter(knnIndexCacheEntry -> indexName.equals(knnIndexCacheEntry.getEsIndexName()))
@@ -211,7 +797,7 @@ public class KNNIndexCache implements Closeable {
      * @return Weight of the cache in kilobytes
      */
     public Long getWeightInKilobytes() {
-        return cache.asMap().values().stream().map(KNNIndexCacheEntry::getKnnIndex).mapToLong(KNNIndex::getIndexSize).sum();
+        return cache.asMap().values().stream().map(KNNIndexCacheEntry::getKnnIndex).mapToLong(KNNEngineIndex::getIndexSize).sum();
     }
 
     /**
@@ -223,7 +809,7 @@ public class KNNIndexCache implements Closeable {
     public Long getWeightInKilobytes(final String indexName) {
         return cache.asMap().values().stream()
                 .filter(knnIndexCacheEntry -> indexName.equals(knnIndexCacheEntry.getEsIndexName()))
-                .map(KNNIndexCacheEntry::getKnnIndex).mapToLong(KNNIndex::getIndexSize).sum();
+                .map(KNNIndexCacheEntry::getKnnIndex).mapToLong(KNNEngineIndex::getIndexSize).sum();
     }
 
     /**
@@ -245,11 +831,49 @@ public class KNNIndexCache implements Closeable {
     }
 
     /**
-     * Returns whether or not the capacity of the cache has been reached
+     * Returns the number of evicted graphs whose native memory has not been freed yet
+     *
+     * @return number of graphs waiting to be freed
+     */
+    public Integer getFreeQueueDepth() {
+        return pendingFrees.get();
+    }
+
+    /**
+     * Returns the number of evicted graphs whose native memory has been freed
+     *
+     * @return number of graphs freed
+     */
+    public Long getFreeCount() {
+        return freeCount.sum();
+    }
+
+    /**
+     * Returns the total time between the eviction of graphs and their native memory being freed
+     *
+     * @return total free time in nanoseconds
+     */
+    public Long getTotalFreeTime() {
+        return totalFreeTime.sum();
+    }
+
+    /**
+     * Returns whether or not the capacity of the cache has been reached. Once reached, it stays so until the weight
+     * of the cache goes back under knn.circuit_breaker.unset.percentage of the circuit breaker limit.
      *
      * @return Boolean of whether cache limit has been reached
      */
     public Boolean isCacheCapacityReached() {
+        if (cacheCapacityReached.get()) {
+            long unsetKiloBytes = (long) ((KNNSettings.getCircuitBreakerUnsetPercentage() / 100)
+                    * getCircuitBreakerLimit().getKb());
+            long nativeKiloBytes = cache.asMap().values().stream().map(KNNIndexCacheEntry::getKnnIndex)
+                    .filter(knnIndex -> knnIndex.getMemoryType() == MemoryType.NATIVE)
+                    .mapToLong(KNNEngineIndex::getIndexSize).sum();
+            if (nativeKiloBytes <= unsetKiloBytes) {
+                cacheCapacityReached.set(false);
+            }
+        }
         return cacheCapacityReached.get();
     }
 
@@ -272,6 +896,90 @@ public class KNNIndexCache implements Closeable {
         cache.invalidate(indexFilePath);
     }
 
+    /**
+     * Evict all graphs of an Elasticsearch index from the cache manually
+     *
+     * @param indexName name of the Elasticsearch index
+     * @return Map with the number of graphs evicted and the native memory they used in kilobytes
+     */
+    public Map<String, Object> evictGraphsForIndex(String indexName) {
+        Map<String, Object> evicted = new HashMap<>();
+        evicted.put(GRAPH_COUNT, getGraphNamesForIndex(indexName).size());
+        evicted.put(StatNames.GRAPH_MEMORY_USAGE.getName(), getWeightInKilobytes(indexName));
+        logger.info("[KNN] Graphs of index " + indexName + " invalidated explicitly");
+        cache.invalidateAll(getGraphNamesForIndex(indexName));
+        return evicted;
+    }
+
+    /**
+     * Pin or unpin the graphs of an Elasticsearch index. Graphs of pinned indices count towards the capacity of the
+     * cache but are never evicted because it is full, so a graph that does not fit next to them is rejected. They are
+     * still evicted when their segment is deleted, when they expire or when evicted explicitly.
+     *
+     * @param indexName name of the Elasticsearch index
+     * @param pinned whether the graphs of the index should be pinned
+     */
+    public void setIndexPinned(String indexName, boolean pinned) {
+        boolean changed = pinned ? pinnedIndices.add(indexName) : pinnedIndices.remove(indexName);
+        if (changed) {
+            logger.info("[KNN] Graphs of index {} {}", indexName, pinned ? "pinned" : "unpinned");
+        }
+    }
+
+    /**
+     * Set the quota of an Elasticsearch index: the most native memory its graphs may use in the cache. Graphs over
+     * a lowered quota are evicted right away, and graphs larger than the quota are rejected.
+     *
+     * @param indexName name of the Elasticsearch index
+     * @param quota quota of the index, negative for no quota
+     */
+    public void setIndexQuota(String indexName, ByteSizeValue quota) {
+        if (quota.getBytes() < 0) {
+            indexQuotas.remove(indexName);
+            return;
+        }
+
+        indexQuotas.put(indexName, quota.getKb());
+        evictOverQuota(indexName, quota.getKb());
+    }
+
+    /**
+     * Evicts the least frequently used graphs of the index until it is back within its quota. Graphs that are still
+     * loading cannot be evicted yet.
+     */
+    private synchronized void evictOverQuota(String indexName, long quotaKiloBytes) {
+        long excessKiloBytes = indexReservedKiloBytes.getOrDefault(indexName, 0L) - quotaKiloBytes;
+        if (excessKiloBytes <= 0) {
+            return;
+        }
+        List<KNNIndexCacheEntry> victims = pickVictims(getLeastFrequentlyUsed(cache.asMap().values().stream()
+                .filter(entry -> indexName.equals(entry.getEsIndexName()))
+                .collect(Collectors.toList())), excessKiloBytes);
+        logger.debug("[KNN] Evicting {} graphs of index {} to stay within its quota", victims.size(), indexName);
+        evict(victims);
+    }
+
+    /**
+     * Forget the state kept for an Elasticsearch index once it is removed from the node
+     *
+     * @param indexName name of the Elasticsearch index
+     */
+    public void onIndexRemoved(String indexName) {
+        setIndexPinned(indexName, false);
+        indexQuotas.remove(indexName);
+        indexAccessStats.remove(indexName);
+    }
+
+    /**
+     * Returns whether the graphs of an Elasticsearch index are pinned in the cache
+     *
+     * @param indexName name of the Elasticsearch index
+     * @return true if the index is pinned
+     */
+    public boolean isIndexPinned(String indexName) {
+        return pinnedIndices.contains(indexName);
+    }
+
     /**
      * Evict all graphs in the cache manually
      */
@@ -298,15 +1006,15 @@ public class KNNIndexCache implements Closeable {
         fileWatcher.addListener(KNN_INDEX_FILE_DELETED_LISTENER);
 
         // Calling init() on the FileWatcher will bootstrap initial state that indicates whether or not the file
-        // is present. If it is not present at time of init(), then KNNIndex.loadIndex will fail and we won't cache
+        // is present. If it is not present at time of init(), then the engine will fail to load it and we won't cache
         // the entry
         fileWatcher.init();
 
-        final KNNIndex knnIndex = KNNIndex.loadIndex(indexPathUrl, getQueryParams(indexName), KNNSettings.getSpaceType(indexName));
+        // The engine that wrote the graph is recorded in the name of its file
+        final KNNEngineIndex knnIndex = KNNEngines.getEngineForGraphFile(indexPathUrl).loadIndex(indexPathUrl, indexName);
 
-        // TODO verify that this is safe - ideally we'd explicitly ensure that the FileWatcher is only checked
-        // after the guava cache has finished loading the key to avoid a race condition where the watcher
-        // causes us to invalidate an entry before the key has been fully loaded.
+        // The watcher may report the deletion of the file before the entry is in the cache, in which case the
+        // invalidation is lost. getIndex checks for the file once the entry is cached, see evictIfStale.
         final WatcherHandle<FileWatcher> watcherHandle = resourceWatcherService.add(fileWatcher);
 
         return new KNNIndexCacheEntry(knnIndex, indexPathUrl, indexName, watcherHandle);
@@ -318,12 +1026,14 @@ public class KNNIndexCache implements Closeable {
      * upon expiration of the cache.
      */
     private static class KNNIndexCacheEntry {
-        private final KNNIndex knnIndex;
+        private final KNNEngineIndex knnIndex;
         private final String indexPathUrl;
         private final String esIndexName;
         private final WatcherHandle<FileWatcher> fileWatcherHandle;
+        private volatile long lastAccessNanos = System.nanoTime();
+        private final AtomicBoolean reservationReleased = new AtomicBoolean(false);
 
-        private KNNIndexCacheEntry(final KNNIndex knnIndex, final String indexPathUrl, final String esIndexName,
+        private KNNIndexCacheEntry(final KNNEngineIndex knnIndex, final String indexPathUrl, final String esIndexName,
                                    final WatcherHandle<FileWatcher> fileWatcherHandle) {
             this.knnIndex = knnIndex;
             this.indexPathUrl = indexPathUrl;
@@ -331,7 +1041,7 @@ public class KNNIndexCache implements Closeable {
             this.fileWatcherHandle = fileWatcherHandle;
         }
 
-        private KNNIndex getKnnIndex() {
+        private KNNEngineIndex getKnnIndex() {
             return knnIndex;
         }
 
@@ -348,6 +1058,14 @@ public class KNNIndexCache implements Closeable {
         }
     }
 
+    /**
+     * Queries of an index that found their graph in the cache (hits) or had to load it (misses)
+     */
+    private static class IndexAccessStats {
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+    }
+
     private static FileChangesListener KNN_INDEX_FILE_DELETED_LISTENER = new FileChangesListener() {
         @Override
         public void onFileDeleted(Path indexFilePath) {
@@ -355,8 +1073,4 @@ public class KNNIndexCache implements Closeable {
             getInstance().cache.invalidate(indexFilePath.toString());
         }
     };
-
-    private String[] getQueryParams(String indexName) {
-        return new String[] {"efSearch=" + KNNSettings.getEfSearchParam(indexName)};
-    }
 }
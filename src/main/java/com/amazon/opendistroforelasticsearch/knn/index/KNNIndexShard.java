@@ -16,7 +16,7 @@
 package com.amazon.opendistroforelasticsearch.knn.index;
 
 import com.amazon.opendistroforelasticsearch.knn.index.codec.KNNCodecUtil;
-import com.amazon.opendistroforelasticsearch.knn.index.v206.KNNIndex;
+import com.amazon.opendistroforelasticsearch.knn.index.engine.KNNEngineIndex;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.lucene.index.FilterLeafReader;
@@ -24,14 +24,29 @@ import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.LeafReaderContext;
 import org.apache.lucene.index.SegmentInfo;
 import org.apache.lucene.index.SegmentReader;
+import org.apache.lucene.store.RateLimiter;
 import org.elasticsearch.index.engine.Engine;
 import org.elasticsearch.index.shard.IndexShard;
 import org.elasticsearch.index.shard.ShardPath;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.AccessController;
+import java.security.PrivilegedActionException;
+import java.security.PrivilegedExceptionAction;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 import java.util.stream.Collectors;
 
 /**
@@ -43,6 +58,16 @@ public class KNNIndexShard {
 
     private static Logger logger = LogManager.getLogger(KNNIndexShard.class);
 
+    /**
+     * Shared by all warmups on the node so that knn.warmup.max_bytes_per_sec bounds the node's total read rate. Each
+     * read reserves its own slot, so concurrent loads share the budget without waiting on each other's pauses.
+     */
+    private static final RateLimiter.SimpleRateLimiter warmupRateLimiter = new RateLimiter.SimpleRateLimiter(
+            Double.MAX_VALUE);
+
+    // Small enough that a cancelled warmup stops after a short pause, even with many graphs loading at once
+    private static final int WARMUP_READ_CHUNK_BYTES = 64 * 1024;
+
     /**
      * Constructor to generate KNNIndexShard. We do not perform validation that the index the shard is from
      * is in fact a k-NN Index (index.knn = true). This may make sense to add later, but for now the operations for
@@ -80,16 +105,113 @@ public class KNNIndexShard {
      * @return a List of KNNIndex's from this shard that are in the cache after this operation.
      * @throws IOException Thrown when getting the HNSW Paths to be loaded in
      */
-    public List<KNNIndex> warmup() throws IOException {
+    public List<KNNEngineIndex> warmup() throws IOException {
+        return warmup(Runnable::run);
+    }
+
+    /**
+     * Load all of the HNSW graphs for this shard into the cache, loading each graph as a separate task on the given
+     * executor. Graphs that are not yet cached are read at knn.warmup.max_bytes_per_sec before they are loaded.
+     * Returns once every graph has been loaded; the searcher is held until then so that no graph file is deleted
+     * mid-load.
+     *
+     * @param executor Executor to load the graphs on
+     * @return a List of KNNIndex's from this shard that are in the cache after this operation.
+     * @throws IOException Thrown when getting the HNSW Paths to be loaded in
+     */
+    public List<KNNEngineIndex> warmup(Executor executor) throws IOException {
+        return warmup(executor, WarmupListener.NOOP);
+    }
+
+    /**
+     * Load all of the HNSW graphs for this shard into the cache on the given executor, reporting progress to the
+     * listener.
+     *
+     * @param executor Executor to load the graphs on
+     * @param listener WarmupListener notified as graphs are loaded. It can abort the warmup by throwing from
+     *                 beforeGraphLoad, in which case graphs that have not started loading are skipped.
+     * @return a List of KNNIndex's from this shard that are in the cache after this operation.
+     * @throws IOException Thrown when getting the HNSW Paths to be loaded in
+     */
+    public List<KNNEngineIndex> warmup(Executor executor, WarmupListener listener) throws IOException {
         logger.info("[KNN] Warming up index: " + getIndexName());
         Engine.Searcher searcher = indexShard.acquireSearcher("knn-warmup");
-        List<KNNIndex> indices;
         try {
-            indices = knnIndexCache.getIndices(getHNSWPaths(searcher.getIndexReader()), getIndexName());
+            List<String> hnswPaths = getHNSWPaths(searcher.getIndexReader());
+            long[] graphSizes = hnswPaths.stream().mapToLong(hnswPath -> new File(hnswPath).length()).toArray();
+            listener.onStart(hnswPaths.size(), Arrays.stream(graphSizes).sum());
+
+            List<CompletableFuture<KNNEngineIndex>> futures = new ArrayList<>(hnswPaths.size());
+            for (int i = 0; i < hnswPaths.size(); i++) {
+                String hnswPath = hnswPaths.get(i);
+                long graphSize = graphSizes[i];
+                futures.add(CompletableFuture.supplyAsync(() -> warmupGraph(hnswPath, graphSize, listener), executor));
+            }
+            try {
+                CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw e;
+            }
+            return futures.stream().map(CompletableFuture::join).collect(Collectors.toList());
         } finally {
             searcher.close();
         }
-        return indices;
+    }
+
+    private KNNEngineIndex warmupGraph(String hnswPath, long graphSize, WarmupListener listener) {
+        listener.beforeGraphLoad(hnswPath);
+        if (!knnIndexCache.isIndexLoaded(hnswPath)) {
+            readThrottled(hnswPath, listener);
+        }
+        KNNEngineIndex knnIndex = knnIndexCache.getIndex(hnswPath, getIndexName(), true);
+        listener.onGraphLoaded(hnswPath, graphSize);
+        return knnIndex;
+    }
+
+    /**
+     * Engines read graph files on their own, natively for nmslib, so their reads cannot be rate limited. Instead the
+     * file is read here first, chunk by chunk at knn.warmup.max_bytes_per_sec, which brings it into the page cache:
+     * the engine's reads that follow are served from memory rather than from the disk.
+     */
+    private static void readThrottled(String hnswPath, WarmupListener listener) {
+        long maxBytesPerSec = KNNSettings.getWarmupMaxBytesPerSec().getBytes();
+        if (maxBytesPerSec <= 0) {
+            return;
+        }
+        double mbPerSec = maxBytesPerSec / (1024.0 * 1024.0);
+        if (warmupRateLimiter.getMBPerSec() != mbPerSec) {
+            warmupRateLimiter.setMBPerSec(mbPerSec);
+        }
+
+        try {
+            AccessController.doPrivileged(
+                    new PrivilegedExceptionAction<Void>() {
+                        public Void run() throws IOException {
+                            try (FileChannel channel = FileChannel.open(Paths.get(hnswPath),
+                                    StandardOpenOption.READ)) {
+                                ByteBuffer buffer = ByteBuffer.allocate(WARMUP_READ_CHUNK_BYTES);
+                                long remaining = channel.size();
+                                while (remaining > 0) {
+                                    warmupRateLimiter.pause(Math.min(remaining, WARMUP_READ_CHUNK_BYTES));
+                                    listener.beforeGraphRead(hnswPath);
+                                    buffer.clear();
+                                    int read = channel.read(buffer);
+                                    if (read < 0) {
+                                        break;
+                                    }
+                                    remaining -= read;
+                                }
+                            }
+                            return null;
+                        }
+                    }
+            );
+        } catch (PrivilegedActionException e) {
+            throw new UncheckedIOException((IOException) e.getException());
+        }
     }
 
     /**
@@ -100,12 +222,24 @@ public class KNNIndexShard {
      * @throws IOException Thrown when the SegmentReader is attempting to read the segments files
      */
     public List<String> getHNSWPaths(IndexReader indexReader) throws IOException {
+        return getHNSWPaths(indexReader, shardPath().resolveIndex());
+    }
+
+    /**
+     * Get the HNSW paths of all of the segments in the reader
+     *
+     * @param indexReader IndexReader to read the file paths for
+     * @param indexDirectory directory holding the segment files
+     * @return List of HNSW Paths
+     * @throws IOException Thrown when the SegmentReader is attempting to read the segments files
+     */
+    public static List<String> getHNSWPaths(IndexReader indexReader, Path indexDirectory) throws IOException {
         List<String> hnswFiles = new ArrayList<>();
         for (LeafReaderContext leafReaderContext : indexReader.leaves()) {
             SegmentReader reader = (SegmentReader) FilterLeafReader.unwrap(leafReaderContext.reader());
             hnswFiles.addAll(reader.getSegmentInfo().files().stream()
                     .filter(fileName -> fileName.endsWith(getHNSWFileExtension(reader.getSegmentInfo().info)))
-                    .map(fileName -> shardPath().resolveIndex().resolve(fileName).toString())
+                    .map(fileName -> indexDirectory.resolve(fileName).toString())
                     .filter(Objects::nonNull)
                     .collect(Collectors.toList()));
         }
@@ -116,7 +250,58 @@ public class KNNIndexShard {
         return indexShard.shardPath();
     }
 
-    private String getHNSWFileExtension(SegmentInfo info) {
+    private static String getHNSWFileExtension(SegmentInfo info) {
         return info.getUseCompoundFile() ? KNNCodecUtil.HNSW_COMPOUND_EXTENSION : KNNCodecUtil.HNSW_EXTENSION;
     }
+
+    /**
+     * Receives the progress of a shard warmup. Graphs may be loaded concurrently, so implementations must be
+     * thread-safe.
+     */
+    public interface WarmupListener {
+        WarmupListener NOOP = new WarmupListener() {
+            @Override
+            public void onStart(int totalGraphs, long totalBytes) {}
+
+            @Override
+            public void beforeGraphLoad(String hnswPath) {}
+
+            @Override
+            public void beforeGraphRead(String hnswPath) {}
+
+            @Override
+            public void onGraphLoaded(String hnswPath, long bytes) {}
+        };
+
+        /**
+         * Called once, before any graph is loaded
+         *
+         * @param totalGraphs number of graphs of the shard
+         * @param totalBytes combined size of the graph files
+         */
+        void onStart(int totalGraphs, long totalBytes);
+
+        /**
+         * Called before a graph is loaded. An exception thrown here fails the warmup.
+         *
+         * @param hnswPath path of the graph about to be loaded
+         */
+        void beforeGraphLoad(String hnswPath);
+
+        /**
+         * Called before each chunk of a graph file is read while the warmup is throttled. An exception thrown here
+         * aborts the load of the graph and fails the warmup.
+         *
+         * @param hnswPath path of the graph being read
+         */
+        void beforeGraphRead(String hnswPath);
+
+        /**
+         * Called after a graph has been loaded, or found to already be in the cache
+         *
+         * @param hnswPath path of the graph
+         * @param bytes size of the graph file
+         */
+        void onGraphLoaded(String hnswPath, long bytes);
+    }
 }
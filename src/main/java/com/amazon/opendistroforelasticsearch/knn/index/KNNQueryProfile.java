@@ -0,0 +1,232 @@
+/*
+ *   Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License").
+ *   You may not use this file except in compliance with the License.
+ *   A copy of the License is located at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   or in the "license" file accompanying this file. This file is distributed
+ *   on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *   express or implied. See the License for the specific language governing
+ *   permissions and limitations under the License.
+ */
+
+
+package com.amazon.opendistroforelasticsearch.knn.index;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Breakdown of the work the knn queries of a search did on each segment of a shard. Queries are immutable and may be
+ * cached or reused, so the breakdown is not kept on them: it is collected for the query phase of a search context,
+ * and only while the search is profiled or the knn slow log is enabled.
+ *
+ * The query phase of a shard runs on a single thread, so the breakdown being collected is held in a thread local
+ * between {@link #start()} and {@link #stop()}.
+ */
+public class KNNQueryProfile {
+    /**
+     * Value of the breakdown entries that the engine of the graph does not report
+     */
+    public static final long UNKNOWN = -1;
+
+    private static final ThreadLocal<KNNQueryProfile> current = new ThreadLocal<>();
+
+    private final List<WeightProfile> weightProfiles = Collections.synchronizedList(new ArrayList<>());
+
+    /**
+     * Starts collecting the breakdown of the knn queries searched on this thread
+     */
+    public static void start() {
+        current.set(new KNNQueryProfile());
+    }
+
+    /**
+     * Stops collecting the breakdown of the knn queries searched on this thread
+     *
+     * @return breakdown collected since {@link #start()}, null if none was being collected
+     */
+    public static KNNQueryProfile stop() {
+        KNNQueryProfile profile = current.get();
+        current.remove();
+        return profile;
+    }
+
+    /**
+     * Registers a weight created for a knn query
+     *
+     * @param knnQuery query of the weight
+     * @return breakdown the weight adds the segments it searches to, null if no breakdown is being collected
+     */
+    static WeightProfile newWeight(KNNQuery knnQuery) {
+        KNNQueryProfile profile = current.get();
+        if (profile == null) {
+            return null;
+        }
+        WeightProfile weightProfile = new WeightProfile(knnQuery);
+        profile.weightProfiles.add(weightProfile);
+        return weightProfile;
+    }
+
+    /**
+     * Get the breakdown of each weight created for a knn query
+     *
+     * @return copy of the breakdown of each weight, in the order the weights were created
+     */
+    public List<WeightProfile> getWeightProfiles() {
+        synchronized (weightProfiles) {
+            return new ArrayList<>(weightProfiles);
+        }
+    }
+
+    /**
+     * Get the breakdown of the segments searched for a query, by all the weights created for it
+     *
+     * @param knnQuery query
+     * @return breakdown of each segment searched for the query
+     */
+    public List<SegmentProfile> getSegmentProfiles(KNNQuery knnQuery) {
+        List<SegmentProfile> segmentProfiles = new ArrayList<>();
+        for (WeightProfile weightProfile : getWeightProfiles()) {
+            if (weightProfile.getQuery() == knnQuery) {
+                segmentProfiles.addAll(weightProfile.getSegmentProfiles());
+            }
+        }
+        return segmentProfiles;
+    }
+
+    /**
+     * Breakdown of the segments searched by one weight
+     */
+    public static class WeightProfile {
+        private final KNNQuery knnQuery;
+        private final List<SegmentProfile> segmentProfiles = Collections.synchronizedList(new ArrayList<>());
+
+        WeightProfile(KNNQuery knnQuery) {
+            this.knnQuery = knnQuery;
+        }
+
+        public KNNQuery getQuery() {
+            return knnQuery;
+        }
+
+        /**
+         * Get the breakdown of the segments searched so far
+         *
+         * @return copy of the breakdown of each segment, in the order they were searched
+         */
+        public List<SegmentProfile> getSegmentProfiles() {
+            synchronized (segmentProfiles) {
+                return new ArrayList<>(segmentProfiles);
+            }
+        }
+
+        void addSegmentProfile(SegmentProfile segmentProfile) {
+            segmentProfiles.add(segmentProfile);
+        }
+    }
+
+    /**
+     * Breakdown of the search of one segment: whether its graph was in the cache, the time spent getting the graph
+     * from the cache (loading it on a miss), searching it, the work of the search, and building the doc id set of the
+     * results.
+     */
+    public static class SegmentProfile {
+        private final String segmentName;
+        private final boolean cacheHit;
+        private final long graphLoadTime;
+        private final long nativeSearchTime;
+        private final long rescoreTime;
+        private final int resultCount;
+        private final long distanceComputations;
+        private final long docIdSetBuildTime;
+
+        /**
+         * Constructor
+         *
+         * @param segmentName name of the segment
+         * @param cacheHit true if the graph was already in the cache
+         * @param graphLoadTime nanoseconds spent getting the graph from the cache
+         * @param nativeSearchTime nanoseconds spent searching the graph
+         * @param rescoreTime nanoseconds spent ranking the results again by their exact distances, 0 if they were not
+         * @param resultCount number of results returned by the graph
+         * @param distanceComputations number of distance computations of the search, UNKNOWN if the engine does not
+         *                             count them
+         * @param docIdSetBuildTime nanoseconds spent building the doc id set and scores of the results
+         */
+        public SegmentProfile(String segmentName, boolean cacheHit, long graphLoadTime, long nativeSearchTime,
+                              long rescoreTime, int resultCount, long distanceComputations, long docIdSetBuildTime) {
+            this.segmentName = segmentName;
+            this.cacheHit = cacheHit;
+            this.graphLoadTime = graphLoadTime;
+            this.nativeSearchTime = nativeSearchTime;
+            this.rescoreTime = rescoreTime;
+            this.resultCount = resultCount;
+            this.distanceComputations = distanceComputations;
+            this.docIdSetBuildTime = docIdSetBuildTime;
+        }
+
+        public String getSegmentName() {
+            return segmentName;
+        }
+
+        public boolean isCacheHit() {
+            return cacheHit;
+        }
+
+        public long getGraphLoadTime() {
+            return graphLoadTime;
+        }
+
+        public long getNativeSearchTime() {
+            return nativeSearchTime;
+        }
+
+        public long getRescoreTime() {
+            return rescoreTime;
+        }
+
+        public int getResultCount() {
+            return resultCount;
+        }
+
+        public long getDistanceComputations() {
+            return distanceComputations;
+        }
+
+        public long getDocIdSetBuildTime() {
+            return docIdSetBuildTime;
+        }
+
+        /**
+         * Get the breakdown as it is reported in the debug section of the Profile API
+         *
+         * @return breakdown by name
+         */
+        public Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("segment", segmentName);
+            map.put("cache_hit", cacheHit);
+            map.put("graph_load_time_in_nanos", graphLoadTime);
+            map.put("native_search_time_in_nanos", nativeSearchTime);
+            map.put("rescore_time_in_nanos", rescoreTime);
+            map.put("result_count", resultCount);
+            if (distanceComputations != UNKNOWN) {
+                map.put("distance_computations", distanceComputations);
+            }
+            map.put("doc_id_set_build_time_in_nanos", docIdSetBuildTime);
+            return map;
+        }
+
+        @Override
+        public String toString() {
+            return toMap().toString();
+        }
+    }
+}
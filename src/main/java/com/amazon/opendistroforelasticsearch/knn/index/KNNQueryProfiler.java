@@ -0,0 +1,116 @@
+/*
+ *   Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License").
+ *   You may not use this file except in compliance with the License.
+ *   A copy of the License is located at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   or in the "license" file accompanying this file. This file is distributed
+ *   on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *   express or implied. See the License for the specific language governing
+ *   permissions and limitations under the License.
+ */
+
+
+package com.amazon.opendistroforelasticsearch.knn.index;
+
+import org.elasticsearch.index.shard.SearchOperationListener;
+import org.elasticsearch.search.internal.SearchContext;
+import org.elasticsearch.search.profile.ProfileResult;
+import org.elasticsearch.search.profile.ProfileShardResult;
+import org.elasticsearch.search.profile.query.QueryProfileShardResult;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Collects the breakdown of the knn queries of the query phase of a search, when the search is profiled or the knn
+ * slow log is enabled, and hands it to them once the query phase is done.
+ *
+ * Elasticsearch's query breakdown has a fixed set of timings, so the breakdown of each segment is added to the debug
+ * section of the profile of the knn query, under "segments".
+ */
+public class KNNQueryProfiler implements SearchOperationListener {
+    static final String SEGMENTS = "segments";
+
+    private final KNNSlowLog slowLog;
+
+    /**
+     * Constructor
+     *
+     * @param slowLog slow log of the index
+     */
+    public KNNQueryProfiler(KNNSlowLog slowLog) {
+        this.slowLog = slowLog;
+    }
+
+    @Override
+    public void onPreQueryPhase(SearchContext searchContext) {
+        if (searchContext.getProfilers() != null || slowLog.isEnabled()) {
+            KNNQueryProfile.start();
+        }
+    }
+
+    @Override
+    public void onFailedQueryPhase(SearchContext searchContext) {
+        KNNQueryProfile.stop();
+    }
+
+    @Override
+    public void onQueryPhase(SearchContext searchContext, long tookInNanos) {
+        KNNQueryProfile profile = KNNQueryProfile.stop();
+        if (profile == null) {
+            return;
+        }
+        if (searchContext.queryResult().hasProfileResults()) {
+            searchContext.queryResult().profileResults(addBreakdown(searchContext.queryResult().consumeProfileResult(),
+                    profile));
+        }
+        slowLog.onQueryPhase(searchContext, tookInNanos, profile);
+    }
+
+    /**
+     * Adds the breakdown of the knn queries to their profile. Every weight created while profiling gets a profile, in
+     * the order the weights are created, so the knn profiles match the weights of the breakdown in that order.
+     *
+     * @param profileShardResult profile of the search on the shard
+     * @param profile breakdown of the knn queries of the search
+     * @return profile of the search on the shard with the breakdown of the knn queries
+     */
+    static ProfileShardResult addBreakdown(ProfileShardResult profileShardResult, KNNQueryProfile profile) {
+        Iterator<KNNQueryProfile.WeightProfile> weightProfiles = profile.getWeightProfiles().iterator();
+        List<QueryProfileShardResult> queryProfileResults = new ArrayList<>();
+        for (QueryProfileShardResult queryProfileResult : profileShardResult.getQueryProfileResults()) {
+            List<ProfileResult> queryResults = new ArrayList<>();
+            for (ProfileResult queryResult : queryProfileResult.getQueryResults()) {
+                queryResults.add(addBreakdown(queryResult, weightProfiles));
+            }
+            queryProfileResults.add(new QueryProfileShardResult(queryResults, queryProfileResult.getRewriteTime(),
+                    queryProfileResult.getCollectorResult()));
+        }
+        return new ProfileShardResult(queryProfileResults, profileShardResult.getAggregationProfileResults());
+    }
+
+    private static ProfileResult addBreakdown(ProfileResult profileResult,
+                                              Iterator<KNNQueryProfile.WeightProfile> weightProfiles) {
+        Map<String, Object> debugInfo = profileResult.getDebugInfo();
+        if (KNNQuery.class.getSimpleName().equals(profileResult.getQueryName()) && weightProfiles.hasNext()) {
+            debugInfo = new HashMap<>(debugInfo);
+            debugInfo.put(SEGMENTS, weightProfiles.next().getSegmentProfiles().stream()
+                    .map(KNNQueryProfile.SegmentProfile::toMap)
+                    .collect(Collectors.toList()));
+        }
+        List<ProfileResult> children = new ArrayList<>();
+        for (ProfileResult child : profileResult.getProfiledChildren()) {
+            children.add(addBreakdown(child, weightProfiles));
+        }
+        return new ProfileResult(profileResult.getQueryName(), profileResult.getLuceneDescription(),
+                profileResult.getTimeBreakdown(), debugInfo, profileResult.getTime(), children);
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ *   Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License").
+ *   You may not use this file except in compliance with the License.
+ *   A copy of the License is located at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   or in the "license" file accompanying this file. This file is distributed
+ *   on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *   express or implied. See the License for the specific language governing
+ *   permissions and limitations under the License.
+ */
+
+
+package com.amazon.opendistroforelasticsearch.knn.index;
+
+import com.amazon.opendistroforelasticsearch.knn.index.codec.KNNCodecUtil;
+import com.amazon.opendistroforelasticsearch.knn.index.util.VectorMath;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.lucene.index.BinaryDocValues;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Estimates the recall of the graphs online. A fraction of the graph searches of an index, set by
+ * index.knn.recall.sample_rate, is repeated as an exact brute force search over the vectors in the doc values of the
+ * segment, and the graph results are compared with the exact ones. The comparison runs on a single background thread
+ * so that it never adds to the latency of the query; samples are dropped when it falls behind.
+ *
+ * A graph result counts as a match if it is no further from the query vector than the k-th exact neighbor, so ties
+ * at the k-th distance do not lower the recall. Each index keeps the recall@k of its last {@value #WINDOW_SIZE}
+ * samples.
+ */
+public class KNNRecallEstimator {
+    private static Logger logger = LogManager.getLogger(KNNRecallEstimator.class);
+
+    public static final String RECALL_AT_K = "recall_at_k";
+    public static final String SAMPLE_COUNT = "sample_count";
+    public static final String DROPPED_SAMPLE_COUNT = "dropped_sample_count";
+
+    static final int WINDOW_SIZE = 1000;
+    private static final int QUEUE_SIZE = 64;
+
+    private static KNNRecallEstimator INSTANCE;
+
+    private final ThreadPoolExecutor executor;
+    private final Map<String, RollingRecall> indexRecalls = new ConcurrentHashMap<>();
+    private final LongAdder droppedSamples = new LongAdder();
+
+    private KNNRecallEstimator() {
+        executor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(QUEUE_SIZE),
+                EsExecutors.daemonThreadFactory("knn_recall_sampler"), new ThreadPoolExecutor.AbortPolicy());
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Make sure we just have one instance of the estimator
+     *
+     * @return KNNRecallEstimator instance
+     */
+    public static synchronized KNNRecallEstimator getInstance() {
+        if (INSTANCE == null) {
+            INSTANCE = new KNNRecallEstimator();
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * Decide whether a graph search is sampled
+     *
+     * @param sampleRate fraction of the searches to sample, see index.knn.recall.sample_rate
+     * @return true if the search should be sampled
+     */
+    public boolean shouldSample(double sampleRate) {
+        return sampleRate > 0 && ThreadLocalRandom.current().nextDouble() < sampleRate;
+    }
+
+    /**
+     * Compare, in the background, the results of a graph search of a segment with an exact search of the segment. The
+     * segment is kept open until the comparison is done.
+     *
+     * @param reader reader of the segment that was searched
+     * @param knnQuery query that was run
+     * @param results results of the graph search
+     */
+    public void sample(LeafReader reader, KNNQuery knnQuery, KNNQueryResult[] results) {
+        if (!reader.tryIncRef()) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    String spaceType = KNNSettings.getSpaceType(knnQuery.getIndexName());
+                    double recall = computeRecall(reader, knnQuery.getField(), knnQuery.getQueryVector(),
+                            knnQuery.getK(), spaceType, results);
+                    if (!Double.isNaN(recall)) {
+                        record(knnQuery.getIndexName(), recall);
+                    }
+                } catch (Exception e) {
+                    logger.debug("[KNN] Failed to estimate the recall of a graph search", e);
+                } finally {
+                    decRef(reader);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            droppedSamples.increment();
+            decRef(reader);
+        }
+    }
+
+    private static void decRef(LeafReader reader) {
+        try {
+            reader.decRef();
+        } catch (IOException e) {
+            logger.debug("[KNN] Failed to release a sampled segment", e);
+        }
+    }
+
+    /**
+     * Compute the recall of graph results against an exact search of the vectors of the segment
+     *
+     * @param reader reader of the segment
+     * @param field knn field searched
+     * @param queryVector query vector
+     * @param k number of neighbors searched
+     * @param spaceType space type of the index
+     * @param results results of the graph search
+     * @return recall@k of the results, or NaN if the segment has no vector
+     */
+    static double computeRecall(LeafReader reader, String field, float[] queryVector, int k, String spaceType,
+                                KNNQueryResult[] results) throws IOException {
+        BinaryDocValues values = reader.getBinaryDocValues(field);
+        if (values == null) {
+            return Double.NaN;
+        }
+
+        Set<Integer> graphDocs = new HashSet<>();
+        for (KNNQueryResult result : results) {
+            graphDocs.add(result.getId());
+        }
+
+        // Max heap of the k closest distances seen so far
+        PriorityQueue<Float> exactDistances = new PriorityQueue<>(k, (a, b) -> Float.compare(b, a));
+        Map<Integer, Float> graphDocDistances = new HashMap<>();
+        for (int doc = values.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = values.nextDoc()) {
+            float distance = VectorMath.exactDistance(spaceType, queryVector,
+                    KNNCodecUtil.bytesToFloatArray(values.binaryValue()));
+            if (exactDistances.size() < k) {
+                exactDistances.add(distance);
+            } else if (distance < exactDistances.peek()) {
+                exactDistances.poll();
+                exactDistances.add(distance);
+            }
+            if (graphDocs.contains(doc)) {
+                graphDocDistances.put(doc, distance);
+            }
+        }
+
+        if (exactDistances.isEmpty()) {
+            return Double.NaN;
+        }
+        float kthDistance = exactDistances.peek();
+        long matches = graphDocDistances.values().stream().filter(distance -> distance <= kthDistance).count();
+        return Math.min(1.0, (double) matches / exactDistances.size());
+    }
+
+    void record(String indexName, double recall) {
+        indexRecalls.computeIfAbsent(indexName, k -> new RollingRecall()).add(recall);
+    }
+
+    /**
+     * Returns the rolling recall@k and the number of samples of each index with samples
+     *
+     * @return map of index name to its recall stats
+     */
+    public Map<String, Map<String, Object>> getRecallStats() {
+        Map<String, Map<String, Object>> stats = new HashMap<>();
+        for (Map.Entry<String, RollingRecall> entry : indexRecalls.entrySet()) {
+            Map<String, Object> indexStats = new HashMap<>();
+            synchronized (entry.getValue()) {
+                indexStats.put(RECALL_AT_K, entry.getValue().getRecall());
+                indexStats.put(SAMPLE_COUNT, entry.getValue().count);
+            }
+            stats.put(entry.getKey(), indexStats);
+        }
+        return stats;
+    }
+
+    /**
+     * Returns the number of samples dropped because the sampler was behind
+     *
+     * @return number of dropped samples
+     */
+    public long getDroppedSampleCount() {
+        return droppedSamples.sum();
+    }
+
+    /**
+     * Forget the recall of an Elasticsearch index once it is removed from the node
+     *
+     * @param indexName name of the Elasticsearch index
+     */
+    public void onIndexRemoved(String indexName) {
+        indexRecalls.remove(indexName);
+    }
+
+    /**
+     * Forget the recall of every index
+     */
+    public void reset() {
+        indexRecalls.clear();
+        droppedSamples.reset();
+    }
+
+    /**
+     * Recall of the last WINDOW_SIZE samples of an index
+     */
+    private static class RollingRecall {
+        private final double[] window = new double[WINDOW_SIZE];
+        private long count;
+        private double sum;
+
+        synchronized void add(double recall) {
+            int slot = (int) (count % WINDOW_SIZE);
+            if (count >= WINDOW_SIZE) {
+                sum -= window[slot];
+            }
+            window[slot] = recall;
+            sum += recall;
+            count++;
+        }
+
+        synchronized double getRecall() {
+            return sum / Math.min(count, WINDOW_SIZE);
+        }
+    }
+}
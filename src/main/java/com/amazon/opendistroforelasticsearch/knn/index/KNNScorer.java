@@ -18,9 +18,13 @@ package com.amazon.opendistroforelasticsearch.knn.index;
 import org.apache.lucene.search.DocIdSetIterator;
 import org.apache.lucene.search.Scorer;
 import org.apache.lucene.search.Weight;
+import org.apache.lucene.util.DocIdSetBuilder;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Map;
+import java.util.stream.Collectors;
 
 /**
  * <p>
@@ -44,6 +48,32 @@ public class KNNScorer extends Scorer {
         this.boost = boost;
     }
 
+    /**
+     * Builds the scorer of the results of a graph search
+     *
+     * @param weight weight the scorer belongs to
+     * @param results results of the graph search, must not be empty
+     * @param boost boost of the query
+     * @return scorer over the results in increasing order of doc Id
+     * @throws IOException Thrown when the doc id set cannot be built
+     */
+    public static KNNScorer fromResults(Weight weight, KNNQueryResult[] results, float boost) throws IOException {
+        /**
+         * Scores represent the distance of the documents with respect to given query vector.
+         * Lesser the score, the closer the document is to the query vector.
+         * Since by default results are retrieved in the descending order of scores, to get the nearest
+         * neighbors we are inverting the scores.
+         */
+        Map<Integer, Float> scores = Arrays.stream(results).collect(
+                Collectors.toMap(result -> result.getId(), result -> 1/(1 + result.getScore())));
+        int maxDoc = Collections.max(scores.keySet()) + 1;
+        DocIdSetBuilder docIdSetBuilder = new DocIdSetBuilder(maxDoc);
+        DocIdSetBuilder.BulkAdder setAdder = docIdSetBuilder.grow(maxDoc);
+        Arrays.stream(results).forEach(result -> setAdder.add(result.getId()));
+        DocIdSetIterator docIdSetIter = docIdSetBuilder.build().iterator();
+        return new KNNScorer(weight, docIdSetIter, scores, boost);
+    }
+
     @Override
     public DocIdSetIterator iterator() {
         return docIdsIter;
@@ -15,12 +15,10 @@
 
 package com.amazon.opendistroforelasticsearch.knn.index;
 
+import com.amazon.opendistroforelasticsearch.knn.plugin.stats.KNNLatency;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.elasticsearch.ElasticsearchParseException;
-import org.elasticsearch.action.ActionListener;
-import org.elasticsearch.action.admin.cluster.settings.ClusterUpdateSettingsRequest;
-import org.elasticsearch.action.admin.cluster.settings.ClusterUpdateSettingsResponse;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.cluster.service.ClusterService;
 import org.elasticsearch.common.settings.Setting;
@@ -28,7 +26,11 @@ import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.unit.ByteSizeUnit;
 import org.elasticsearch.common.unit.ByteSizeValue;
 import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.Index;
 import org.elasticsearch.index.IndexModule;
+import org.elasticsearch.index.IndexSettings;
+import org.elasticsearch.index.shard.IndexEventListener;
+import org.elasticsearch.indices.cluster.IndicesClusterStateService;
 import org.elasticsearch.monitor.jvm.JvmInfo;
 import org.elasticsearch.monitor.os.OsProbe;
 
@@ -70,15 +72,31 @@ public class KNNSettings {
     public static final String KNN_ALGO_PARAM_M = "index.knn.algo_param.m";
     public static final String KNN_ALGO_PARAM_EF_CONSTRUCTION = "index.knn.algo_param.ef_construction";
     public static final String KNN_ALGO_PARAM_EF_SEARCH = "index.knn.algo_param.ef_search";
+    public static final String KNN_ALGO_PARAM_NLIST = "index.knn.algo_param.nlist";
+    public static final String KNN_ALGO_PARAM_NPROBE = "index.knn.algo_param.nprobe";
+    public static final String KNN_ALGO_PARAM_PQ_M = "index.knn.algo_param.pq_m";
+    public static final String KNN_PQ_RESCORE_FACTOR = "index.knn.pq.rescore_factor";
     public static final String KNN_ALGO_PARAM_INDEX_THREAD_QTY = "knn.algo_param.index_thread_qty";
     public static final String KNN_MEMORY_CIRCUIT_BREAKER_ENABLED = "knn.memory.circuit_breaker.enabled";
     public static final String KNN_MEMORY_CIRCUIT_BREAKER_LIMIT = "knn.memory.circuit_breaker.limit";
+    public static final String KNN_MEMORY_HEAP_LIMIT = "knn.memory.heap.limit";
     public static final String KNN_CIRCUIT_BREAKER_TRIGGERED = "knn.circuit_breaker.triggered";
     public static final String KNN_CACHE_ITEM_EXPIRY_ENABLED = "knn.cache.item.expiry.enabled";
     public static final String KNN_CACHE_ITEM_EXPIRY_TIME_MINUTES = "knn.cache.item.expiry.minutes";
     public static final String KNN_PLUGIN_ENABLED = "knn.plugin.enabled";
     public static final String KNN_CIRCUIT_BREAKER_UNSET_PERCENTAGE = "knn.circuit_breaker.unset.percentage";
     public static final String KNN_INDEX = "index.knn";
+    public static final String KNN_PRELOAD = "index.knn.preload";
+    public static final String KNN_CACHE_PINNED = "index.knn.cache.pinned";
+    public static final String KNN_MEMORY_QUOTA = "index.knn.memory.quota";
+    public static final String KNN_RECALL_SAMPLE_RATE = "index.knn.recall.sample_rate";
+    public static final String KNN_SLOWLOG_THRESHOLD = "index.knn.slowlog.threshold";
+    public static final String KNN_SLOWLOG_INCLUDE_VECTOR = "index.knn.slowlog.include_vector";
+    public static final String KNN_JAVA_HNSW_OFF_HEAP = "index.knn.java_hnsw.off_heap";
+    public static final String KNN_IVF_OFF_HEAP = "index.knn.ivf.off_heap";
+    public static final String KNN_WARMUP_MAX_BYTES_PER_SEC = "knn.warmup.max_bytes_per_sec";
+    public static final String KNN_CACHE_ADMISSION_POLICY = "knn.cache.admission_policy";
+    public static final String KNN_CACHE_MANIFEST_INTERVAL = "knn.cache.manifest.interval";
 
     /**
      * Settings Definition
@@ -120,11 +138,109 @@ public class KNNSettings {
             2,
             IndexScope);
 
+    /**
+     * nlist - the number of lists the vectors of a segment are split into by the ivf engine. 0 uses the square root
+     * of the number of vectors of the segment.
+     */
+    public static final Setting<Integer> INDEX_KNN_ALGO_PARAM_NLIST_SETTING =  Setting.intSetting(KNN_ALGO_PARAM_NLIST,
+            0,
+            0,
+            IndexScope);
+
+    /**
+     * nprobe - the number of lists scanned by a search of the ivf engine. Higher nprobe leads to more accurate but
+     * slower search.
+     */
+    public static final Setting<Integer> INDEX_KNN_ALGO_PARAM_NPROBE_SETTING =  Setting.intSetting(KNN_ALGO_PARAM_NPROBE,
+            16,
+            1,
+            IndexScope,
+            Dynamic);
+
+    /**
+     * pq_m - the number of subspaces the vectors held by java_hnsw graphs are product quantized with, one byte per
+     * subspace instead of four bytes per dimension. It must divide the dimension of the fields. 0 keeps full vectors.
+     */
+    public static final Setting<Integer> INDEX_KNN_ALGO_PARAM_PQ_M_SETTING =  Setting.intSetting(KNN_ALGO_PARAM_PQ_M,
+            0,
+            0,
+            IndexScope);
+
+    /**
+     * pq rescore_factor - searches of product quantized graphs return rescore_factor * k candidates, which are then
+     * ranked by their exact distance to the query, read from doc values. 0 returns the k approximate nearest neighbors
+     * with their approximate distances.
+     */
+    public static final Setting<Integer> INDEX_KNN_PQ_RESCORE_FACTOR_SETTING =  Setting.intSetting(KNN_PQ_RESCORE_FACTOR,
+            2,
+            0,
+            IndexScope,
+            Dynamic);
+
     /**
      * This setting identifies KNN index.
      */
     public static final Setting<Boolean> IS_KNN_INDEX_SETTING =  Setting.boolSetting(KNN_INDEX, false, IndexScope);
 
+    /**
+     * preload - load the graphs of new segments into the cache before the segments become visible to search, so that
+     * queries after a refresh, merge or shard relocation do not pay the graph load time.
+     */
+    public static final Setting<Boolean> INDEX_KNN_PRELOAD_SETTING =  Setting.boolSetting(KNN_PRELOAD, false,
+            IndexScope, Dynamic);
+
+    /**
+     * java_hnsw.off_heap - read the graphs of the java_hnsw engine from their memory mapped files rather than copy them
+     * to the heap. Applies to the graphs loaded after the setting is set.
+     */
+    public static final Setting<Boolean> INDEX_KNN_JAVA_HNSW_OFF_HEAP_SETTING =  Setting.boolSetting(KNN_JAVA_HNSW_OFF_HEAP,
+            false, IndexScope);
+
+    /**
+     * ivf.off_heap - read the indices of the ivf engine from their memory mapped files rather than copy them to the
+     * heap. Applies to the indices loaded after the setting is set.
+     */
+    public static final Setting<Boolean> INDEX_KNN_IVF_OFF_HEAP_SETTING =  Setting.boolSetting(KNN_IVF_OFF_HEAP,
+            false, IndexScope);
+
+    /**
+     * pinned - keep the graphs of the index in the cache when it is full. Graphs of pinned indices are not counted
+     * towards knn.memory.circuit_breaker.limit.
+     */
+    public static final Setting<Boolean> INDEX_KNN_CACHE_PINNED_SETTING =  Setting.boolSetting(KNN_CACHE_PINNED, false,
+            IndexScope, Dynamic);
+
+    /**
+     * quota - the most native memory the graphs of the index may use in the cache of each node. When loading a graph
+     * would exceed it, the least frequently used graphs of the same index are evicted first. -1 means no quota.
+     */
+    public static final Setting<ByteSizeValue> INDEX_KNN_MEMORY_QUOTA_SETTING = Setting.byteSizeSetting(KNN_MEMORY_QUOTA,
+            new ByteSizeValue(-1),
+            IndexScope,
+            Dynamic);
+
+    /**
+     * recall sample_rate - fraction of the graph searches of the index that are checked against an exact search, off
+     * the request path, to estimate the recall of the graphs
+     */
+    public static final Setting<Double> INDEX_KNN_RECALL_SAMPLE_RATE_SETTING = Setting.doubleSetting(
+            KNN_RECALL_SAMPLE_RATE, 0.0, 0.0, 1.0, IndexScope, Dynamic);
+
+    /**
+     * slowlog threshold - knn queries whose query phase on a shard takes longer are written to the knn slow log with
+     * their per segment timing. -1 disables the slow log.
+     */
+    public static final Setting<TimeValue> INDEX_KNN_SLOWLOG_THRESHOLD_SETTING = Setting.timeSetting(KNN_SLOWLOG_THRESHOLD,
+            TimeValue.timeValueNanos(-1),
+            TimeValue.timeValueMillis(-1),
+            IndexScope,
+            Dynamic);
+
+    /**
+     * slowlog include_vector - whether the knn slow log writes the query vector
+     */
+    public static final Setting<Boolean> INDEX_KNN_SLOWLOG_INCLUDE_VECTOR_SETTING = Setting.boolSetting(
+            KNN_SLOWLOG_INCLUDE_VECTOR, false, IndexScope, Dynamic);
 
     /**
      * index_thread_quantity - the parameter specifies how many threads the nms library should use to create the graph.
@@ -140,10 +256,15 @@ public class KNNSettings {
             NodeScope,
             Dynamic);
 
+    /**
+     * No longer used: the circuit breaker is tracked on each node by {@link KNNCircuitBreaker}. Kept registered so that
+     * clusters which persisted it still start.
+     */
     public static final Setting<Boolean> KNN_CIRCUIT_BREAKER_TRIGGERED_SETTING =  Setting.boolSetting(KNN_CIRCUIT_BREAKER_TRIGGERED,
             false,
             NodeScope,
-            Dynamic);
+            Dynamic,
+            Setting.Property.Deprecated);
 
     public static final Setting<Double> KNN_CIRCUIT_BREAKER_UNSET_PERCENTAGE_SETTING =  Setting.doubleSetting(
             KNN_CIRCUIT_BREAKER_UNSET_PERCENTAGE,
@@ -152,6 +273,39 @@ public class KNNSettings {
             100,
             NodeScope,
             Dynamic);
+    /**
+     * max_bytes_per_sec - upper bound on the rate at which the warmup API reads graph files from disk on a node, so that
+     * warming a large index does not saturate the disks serving live queries. 0 disables the limit.
+     */
+    public static final Setting<ByteSizeValue> KNN_WARMUP_MAX_BYTES_PER_SEC_SETTING = Setting.byteSizeSetting(
+            KNN_WARMUP_MAX_BYTES_PER_SEC,
+            new ByteSizeValue(0),
+            NodeScope,
+            Dynamic);
+
+    /**
+     * admission_policy - decides which graphs are loaded into a full cache. "none" admits every graph and lets the
+     * cache evict the least recently used ones. "tinylfu" only admits a graph if it is used more frequently than the
+     * graphs it would replace, so that a scan over a cold index cannot flush the hot graphs out of the cache.
+     */
+    public static final Setting<String> KNN_CACHE_ADMISSION_POLICY_SETTING = Setting.simpleString(
+            KNN_CACHE_ADMISSION_POLICY,
+            KNNIndexCache.ADMISSION_POLICY_NONE,
+            new AdmissionPolicyValidator(),
+            NodeScope,
+            Dynamic);
+
+    /**
+     * manifest.interval - how often a node records the graphs in its cache, and how frequently they are used, in a
+     * manifest in its data path. After a restart the node reloads those graphs as its shards start. 0 disables the
+     * manifest.
+     */
+    public static final Setting<TimeValue> KNN_CACHE_MANIFEST_INTERVAL_SETTING = Setting.timeSetting(
+            KNN_CACHE_MANIFEST_INTERVAL,
+            TimeValue.timeValueMinutes(10),
+            TimeValue.ZERO,
+            NodeScope);
+
     /**
      * Dynamic settings
      */
@@ -170,6 +324,13 @@ public class KNNSettings {
             put(KNN_MEMORY_CIRCUIT_BREAKER_LIMIT, knnMemoryCircuitBreakerSetting(KNN_MEMORY_CIRCUIT_BREAKER_LIMIT, "50%",
                     NodeScope, Dynamic));
 
+            /**
+             * Limit of the graphs held on the heap, like those of the java_hnsw engine, as a size or a percentage of
+             * the heap. They do not count towards knn.memory.circuit_breaker.limit, which is taken out of the memory
+             * left outside of the heap.
+             */
+            put(KNN_MEMORY_HEAP_LIMIT, Setting.memorySizeSetting(KNN_MEMORY_HEAP_LIMIT, "10%", NodeScope, Dynamic));
+
             /**
              * Cache expiry time settings
              */
@@ -227,6 +388,18 @@ public class KNNSettings {
                     latestSettings.put(KNN_ALGO_PARAM_INDEX_THREAD_QTY, newVal);
                 }
         );
+        clusterService.getClusterSettings().addSettingsUpdateConsumer(
+                KNN_CACHE_ADMISSION_POLICY_SETTING,
+                newVal -> {
+                    latestSettings.put(KNN_CACHE_ADMISSION_POLICY, newVal);
+                }
+        );
+        clusterService.getClusterSettings().addSettingsUpdateConsumer(
+                KNN_WARMUP_MAX_BYTES_PER_SEC_SETTING,
+                newVal -> {
+                    latestSettings.put(KNN_WARMUP_MAX_BYTES_PER_SEC, newVal);
+                }
+        );
     }
 
     /**
@@ -258,6 +431,14 @@ public class KNNSettings {
             return KNN_ALGO_PARAM_INDEX_THREAD_QTY_SETTING;
         }
 
+        if (KNN_CACHE_ADMISSION_POLICY.equals(key)) {
+            return KNN_CACHE_ADMISSION_POLICY_SETTING;
+        }
+
+        if (KNN_WARMUP_MAX_BYTES_PER_SEC.equals(key)) {
+            return KNN_WARMUP_MAX_BYTES_PER_SEC_SETTING;
+        }
+
         throw new IllegalArgumentException("Cannot find setting by key [" + key + "]");
     }
 
@@ -266,10 +447,25 @@ public class KNNSettings {
                 INDEX_KNN_ALGO_PARAM_M_SETTING,
                 INDEX_KNN_ALGO_PARAM_EF_CONSTRUCTION_SETTING,
                 INDEX_KNN_ALGO_PARAM_EF_SEARCH_SETTING,
+                INDEX_KNN_ALGO_PARAM_NLIST_SETTING,
+                INDEX_KNN_ALGO_PARAM_NPROBE_SETTING,
+                INDEX_KNN_ALGO_PARAM_PQ_M_SETTING,
+                INDEX_KNN_PQ_RESCORE_FACTOR_SETTING,
                 KNN_ALGO_PARAM_INDEX_THREAD_QTY_SETTING,
                 KNN_CIRCUIT_BREAKER_TRIGGERED_SETTING,
                 KNN_CIRCUIT_BREAKER_UNSET_PERCENTAGE_SETTING,
-                IS_KNN_INDEX_SETTING);
+                IS_KNN_INDEX_SETTING,
+                INDEX_KNN_PRELOAD_SETTING,
+                INDEX_KNN_CACHE_PINNED_SETTING,
+                INDEX_KNN_MEMORY_QUOTA_SETTING,
+                INDEX_KNN_RECALL_SAMPLE_RATE_SETTING,
+                INDEX_KNN_SLOWLOG_THRESHOLD_SETTING,
+                INDEX_KNN_SLOWLOG_INCLUDE_VECTOR_SETTING,
+                INDEX_KNN_JAVA_HNSW_OFF_HEAP_SETTING,
+                INDEX_KNN_IVF_OFF_HEAP_SETTING,
+                KNN_WARMUP_MAX_BYTES_PER_SEC_SETTING,
+                KNN_CACHE_ADMISSION_POLICY_SETTING,
+                KNN_CACHE_MANIFEST_INTERVAL_SETTING);
         return Stream.concat(settings.stream(), dynamicCacheSettings.values().stream())
                      .collect(Collectors.toList());
     }
@@ -278,14 +474,22 @@ public class KNNSettings {
         return KNNSettings.state().getSettingValue(KNNSettings.KNN_PLUGIN_ENABLED);
     }
 
-    public static boolean isCircuitBreakerTriggered() {
-        return KNNSettings.state().getSettingValue(KNNSettings.KNN_CIRCUIT_BREAKER_TRIGGERED);
-    }
-
     public static ByteSizeValue getCircuitBreakerLimit() {
         return KNNSettings.state().getSettingValue(KNNSettings.KNN_MEMORY_CIRCUIT_BREAKER_LIMIT);
     }
 
+    public static ByteSizeValue getHeapLimit() {
+        return KNNSettings.state().getSettingValue(KNNSettings.KNN_MEMORY_HEAP_LIMIT);
+    }
+
+    public static ByteSizeValue getWarmupMaxBytesPerSec() {
+        return KNNSettings.state().getSettingValue(KNNSettings.KNN_WARMUP_MAX_BYTES_PER_SEC);
+    }
+
+    public static String getCacheAdmissionPolicy() {
+        return KNNSettings.state().getSettingValue(KNNSettings.KNN_CACHE_ADMISSION_POLICY);
+    }
+
     public static double getCircuitBreakerUnsetPercentage() {
         return KNNSettings.state().getSettingValue(KNNSettings.KNN_CIRCUIT_BREAKER_UNSET_PERCENTAGE);
     }
@@ -334,38 +538,30 @@ public class KNNSettings {
     }
 
     /**
-     * Updates knn.circuit_breaker.triggered setting to true/false
-     * @param flag true/false
+     *
+     * @param index Name of the index
+     * @return efSearch value
      */
-    public synchronized void updateCircuitBreakerSettings(boolean flag) {
-        ClusterUpdateSettingsRequest clusterUpdateSettingsRequest = new ClusterUpdateSettingsRequest();
-        Settings circuitBreakerSettings = Settings.builder()
-                                                  .put(KNNSettings.KNN_CIRCUIT_BREAKER_TRIGGERED, flag)
-                                                  .build();
-        clusterUpdateSettingsRequest.persistentSettings(circuitBreakerSettings);
-        client.admin().cluster().updateSettings(clusterUpdateSettingsRequest,
-                new ActionListener<ClusterUpdateSettingsResponse>() {
-            @Override
-            public void onResponse(ClusterUpdateSettingsResponse clusterUpdateSettingsResponse) {
-                logger.debug("Cluster setting {}, acknowledged: {} ",
-                        clusterUpdateSettingsRequest.persistentSettings(),
-                        clusterUpdateSettingsResponse.isAcknowledged());
-            }
-            @Override
-            public void onFailure(Exception e) {
-                logger.info("Exception while updating circuit breaker setting {} to {}",
-                        clusterUpdateSettingsRequest.persistentSettings(), e.getMessage());
-            }
-        });
+    public static int getEfSearchParam(String index) {
+        return getIndexSettingValue(index, KNN_ALGO_PARAM_EF_SEARCH, 512);
     }
 
     /**
      *
      * @param index Name of the index
-     * @return efSearch value
+     * @return nprobe value
      */
-    public static int getEfSearchParam(String index) {
-        return getIndexSettingValue(index, KNN_ALGO_PARAM_EF_SEARCH, 512);
+    public static int getNprobeParam(String index) {
+        return getIndexSettingValue(index, KNN_ALGO_PARAM_NPROBE, 16);
+    }
+
+    /**
+     *
+     * @param index Name of the index
+     * @return number of candidates per neighbor rescored with exact distances, 0 to not rescore
+     */
+    public static int getPqRescoreFactor(String index) {
+        return getIndexSettingValue(index, KNN_PQ_RESCORE_FACTOR, 2);
     }
 
     /**
@@ -378,6 +574,36 @@ public class KNNSettings {
             .index(index).getSettings().get(KNN_SPACE_TYPE, SpaceTypes.l2.getValue());
     }
 
+    /**
+     *
+     * @param index Name of the index
+     * @return fraction of the graph searches sampled for recall estimation
+     */
+    public static double getRecallSampleRate(String index) {
+        return KNNSettings.state().clusterService.state().getMetadata()
+                .index(index).getSettings().getAsDouble(KNN_RECALL_SAMPLE_RATE, 0.0);
+    }
+
+    /**
+     *
+     * @param index Name of the index
+     * @return true if the java_hnsw graphs of the index are kept off heap
+     */
+    public static boolean isJavaHnswOffHeap(String index) {
+        return KNNSettings.state().clusterService.state().getMetadata()
+                .index(index).getSettings().getAsBoolean(KNN_JAVA_HNSW_OFF_HEAP, false);
+    }
+
+    /**
+     *
+     * @param index Name of the index
+     * @return true if the ivf indices of the index are kept off heap
+     */
+    public static boolean isIvfOffHeap(String index) {
+        return KNNSettings.state().clusterService.state().getMetadata()
+                .index(index).getSettings().getAsBoolean(KNN_IVF_OFF_HEAP, false);
+    }
+
     public static int getIndexSettingValue(String index, String settingName, int defaultValue) {
         return KNNSettings.state().clusterService.state().getMetadata()
                                                  .index(index).getSettings()
@@ -399,6 +625,15 @@ public class KNNSettings {
         }
     }
 
+    static class AdmissionPolicyValidator implements Setting.Validator<String> {
+
+        @Override public void validate(String value) {
+            if (!KNNIndexCache.ADMISSION_POLICY_NONE.equals(value) && !KNNIndexCache.ADMISSION_POLICY_TINYLFU.equals(value)) {
+                throw new IllegalArgumentException(String.format("Unsupported cache admission policy: %s", value));
+            }
+        }
+    }
+
     public void onIndexModule(IndexModule module) {
         module.addSettingsUpdateConsumer(
                 INDEX_KNN_ALGO_PARAM_EF_SEARCH_SETTING,
@@ -408,5 +643,31 @@ public class KNNSettings {
                     // TODO: replace cache-rebuild with index reload into the cache
                     KNNWeight.knnIndexCache.rebuild();
                 });
+        module.addSettingsUpdateConsumer(
+                INDEX_KNN_ALGO_PARAM_NPROBE_SETTING,
+                newVal -> {
+                    logger.debug("The value of [KNN] setting [{}] changed to [{}]", KNN_ALGO_PARAM_NPROBE, newVal);
+                    // nprobe is read when an ivf index is loaded, like ef_search
+                    KNNWeight.knnIndexCache.rebuild();
+                });
+
+        String indexName = module.getIndex().getName();
+        KNNIndexCache.getInstance().setIndexPinned(indexName, INDEX_KNN_CACHE_PINNED_SETTING.get(module.getSettings()));
+        module.addSettingsUpdateConsumer(
+                INDEX_KNN_CACHE_PINNED_SETTING,
+                newVal -> KNNIndexCache.getInstance().setIndexPinned(indexName, newVal));
+        KNNIndexCache.getInstance().setIndexQuota(indexName, INDEX_KNN_MEMORY_QUOTA_SETTING.get(module.getSettings()));
+        module.addSettingsUpdateConsumer(
+                INDEX_KNN_MEMORY_QUOTA_SETTING,
+                newVal -> KNNIndexCache.getInstance().setIndexQuota(indexName, newVal));
+        module.addIndexEventListener(new IndexEventListener() {
+            @Override
+            public void afterIndexRemoved(Index index, IndexSettings indexSettings,
+                                          IndicesClusterStateService.AllocatedIndices.IndexRemovalReason reason) {
+                KNNIndexCache.getInstance().onIndexRemoved(index.getName());
+                KNNLatency.removeIndexFromAll(index.getName());
+                KNNRecallEstimator.getInstance().onIndexRemoved(index.getName());
+            }
+        });
     }
 }
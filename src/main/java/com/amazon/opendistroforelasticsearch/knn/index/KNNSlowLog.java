@@ -0,0 +1,144 @@
+/*
+ *   Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License").
+ *   You may not use this file except in compliance with the License.
+ *   A copy of the License is located at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   or in the "license" file accompanying this file. This file is distributed
+ *   on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *   express or implied. See the License for the specific language governing
+ *   permissions and limitations under the License.
+ */
+
+
+package com.amazon.opendistroforelasticsearch.knn.index;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.QueryVisitor;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.IndexModule;
+import org.elasticsearch.index.shard.ShardId;
+import org.elasticsearch.search.internal.SearchContext;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Slow log of knn queries. When the query phase of a search on a shard takes longer than index.knn.slowlog.threshold,
+ * every knn query of the search is logged with where its time went: the number of segments searched, how many graphs
+ * had to be loaded, the total native search time, k, ef_search and the index. The query vector is only logged when
+ * index.knn.slowlog.include_vector is set. The breakdown is collected by {@link KNNQueryProfiler} while the slow log
+ * is enabled.
+ *
+ * Entries go to the index.knn.slowlog.query logger at WARN level, so they can be routed to their own file in
+ * log4j2.properties like the search slow log.
+ */
+public class KNNSlowLog {
+    private static Logger slowLogger = LogManager.getLogger("index.knn.slowlog.query");
+
+    private volatile long thresholdNanos;
+    private volatile boolean includeVector;
+
+    /**
+     * Constructor
+     *
+     * @param indexModule module of the index the slow log belongs to
+     */
+    public KNNSlowLog(IndexModule indexModule) {
+        setThreshold(KNNSettings.INDEX_KNN_SLOWLOG_THRESHOLD_SETTING.get(indexModule.getSettings()));
+        setIncludeVector(KNNSettings.INDEX_KNN_SLOWLOG_INCLUDE_VECTOR_SETTING.get(indexModule.getSettings()));
+        indexModule.addSettingsUpdateConsumer(KNNSettings.INDEX_KNN_SLOWLOG_THRESHOLD_SETTING, this::setThreshold);
+        indexModule.addSettingsUpdateConsumer(KNNSettings.INDEX_KNN_SLOWLOG_INCLUDE_VECTOR_SETTING,
+                this::setIncludeVector);
+    }
+
+    private void setThreshold(TimeValue threshold) {
+        this.thresholdNanos = threshold.nanos();
+    }
+
+    private void setIncludeVector(boolean includeVector) {
+        this.includeVector = includeVector;
+    }
+
+    /**
+     * Checks whether the slow log is enabled
+     *
+     * @return true if queries slower than the threshold are logged
+     */
+    public boolean isEnabled() {
+        return thresholdNanos >= 0;
+    }
+
+    /**
+     * Logs the knn queries of a search if its query phase on the shard was slower than the threshold
+     *
+     * @param searchContext context of the search
+     * @param tookInNanos duration of the query phase
+     * @param profile breakdown of the knn queries of the search
+     */
+    public void onQueryPhase(SearchContext searchContext, long tookInNanos, KNNQueryProfile profile) {
+        if (!isEnabled() || tookInNanos < thresholdNanos || searchContext.query() == null) {
+            return;
+        }
+
+        List<KNNQuery> knnQueries = findKNNQueries(searchContext.query());
+        if (knnQueries.isEmpty()) {
+            return;
+        }
+
+        int efSearch = searchContext.indexShard().indexSettings()
+                .getValue(KNNSettings.INDEX_KNN_ALGO_PARAM_EF_SEARCH_SETTING);
+        for (KNNQuery knnQuery : knnQueries) {
+            slowLogger.warn(formatMessage(searchContext.indexShard().shardId(), knnQuery,
+                    profile.getSegmentProfiles(knnQuery), efSearch, tookInNanos, includeVector));
+        }
+    }
+
+    /**
+     * Find the knn queries of a search, wherever they are nested
+     *
+     * @param query query of the search
+     * @return knn queries of the search
+     */
+    static List<KNNQuery> findKNNQueries(Query query) {
+        List<KNNQuery> knnQueries = new ArrayList<>();
+        query.visit(new QueryVisitor() {
+            @Override
+            public void visitLeaf(Query leaf) {
+                if (leaf instanceof KNNQuery) {
+                    knnQueries.add((KNNQuery) leaf);
+                }
+            }
+        });
+        return knnQueries;
+    }
+
+    static String formatMessage(ShardId shardId, KNNQuery knnQuery, List<KNNQueryProfile.SegmentProfile> profiles,
+                                int efSearch, long tookInNanos, boolean includeVector) {
+        long graphsLoaded = profiles.stream().filter(profile -> !profile.isCacheHit()).count();
+        long nativeSearchNanos = profiles.stream().mapToLong(KNNQueryProfile.SegmentProfile::getNativeSearchTime).sum();
+
+        StringBuilder message = new StringBuilder();
+        message.append(shardId).append(' ')
+                .append("took[").append(TimeValue.timeValueNanos(tookInNanos)).append("], ")
+                .append("took_millis[").append(TimeUnit.NANOSECONDS.toMillis(tookInNanos)).append("], ")
+                .append("field[").append(knnQuery.getField()).append("], ")
+                .append("k[").append(knnQuery.getK()).append("], ")
+                .append("ef_search[").append(efSearch).append("], ")
+                .append("segments[").append(profiles.size()).append("], ")
+                .append("graphs_loaded[").append(graphsLoaded).append("], ")
+                .append("native_search_time[").append(TimeValue.timeValueNanos(nativeSearchNanos)).append("], ")
+                .append("native_search_millis[").append(TimeUnit.NANOSECONDS.toMillis(nativeSearchNanos)).append("]");
+        if (includeVector) {
+            message.append(", vector").append(Arrays.toString(knnQuery.getQueryVector()));
+        }
+        return message.toString();
+    }
+}
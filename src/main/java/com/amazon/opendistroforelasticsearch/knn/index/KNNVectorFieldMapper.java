@@ -15,6 +15,8 @@
 
 package com.amazon.opendistroforelasticsearch.knn.index;
 
+import com.amazon.opendistroforelasticsearch.knn.index.engine.KNNEngines;
+import com.amazon.opendistroforelasticsearch.knn.index.hnsw.JavaHnswEngine;
 import com.amazon.opendistroforelasticsearch.knn.index.util.KNNConstants;
 
 import org.apache.lucene.document.FieldType;
@@ -87,6 +89,7 @@ public class KNNVectorFieldMapper extends FieldMapper {
     public static class Builder extends FieldMapper.Builder<Builder> {
         protected Boolean ignoreMalformed;
         int dimension = -1;
+        String engine = KNNEngines.DEFAULT.getName();
 
         public Builder(String name) {
             super(name, Defaults.FIELD_TYPE);
@@ -99,6 +102,19 @@ public class KNNVectorFieldMapper extends FieldMapper {
             return builder;
         }
 
+        /**
+         * Sets the engine building and searching the graphs of the field. It is recorded in the attributes of the
+         * field, from which the codec picks the engine when writing a segment.
+         *
+         * @param engine name of a registered engine
+         * @return builder
+         */
+        public Builder engine(String engine) {
+            this.engine = engine;
+            this.fieldType.putAttribute(KNNConstants.KNN_ENGINE, engine);
+            return builder;
+        }
+
         public Builder ignoreMalformed(boolean ignoreMalformed) {
             this.ignoreMalformed = ignoreMalformed;
             return builder;
@@ -134,7 +150,7 @@ public class KNNVectorFieldMapper extends FieldMapper {
 
         @Override
         public KNNVectorFieldMapper build(BuilderContext context) {
-            return build(context, name, fieldType, new KNNVectorFieldType(buildFullName(context), meta, dimension), context.indexSettings(),
+            return build(context, name, fieldType, new KNNVectorFieldType(buildFullName(context), meta, dimension, engine), context.indexSettings(),
                     multiFieldsBuilder.build(this, context), ignoreMalformed(context), copyTo);
         }
     }
@@ -150,6 +166,11 @@ public class KNNVectorFieldMapper extends FieldMapper {
                     KNNSettings.INDEX_KNN_ALGO_PARAM_M_SETTING));
             builder.algoParams(KNNConstants.HNSW_ALGO_EF_CONSTRUCTION, parserContext.mapperService().getIndexSettings()
                     .getValue(KNNSettings.INDEX_KNN_ALGO_PARAM_EF_CONSTRUCTION_SETTING));
+            builder.algoParams(KNNConstants.IVF_ALGO_NLIST, parserContext.mapperService().getIndexSettings().getValue(
+                    KNNSettings.INDEX_KNN_ALGO_PARAM_NLIST_SETTING));
+            int pqSubspaces = parserContext.mapperService().getIndexSettings().getValue(
+                    KNNSettings.INDEX_KNN_ALGO_PARAM_PQ_M_SETTING);
+            builder.algoParams(KNNConstants.PQ_ALGO_M, pqSubspaces);
 
             /**
              * If dimension not provided. Throw Exception
@@ -167,7 +188,26 @@ public class KNNVectorFieldMapper extends FieldMapper {
                         MAX_DIMENSION + " for vector: " + name);
             }
             /**
-             *  If trying to update an existing dimension, throw Exception
+             * If engine not provided, the field uses the default engine. If the engine is not registered, throw Exception
+             */
+            Object engineNode = node.remove(KNNConstants.KNN_ENGINE);
+            String engineValue = engineNode == null ? KNNEngines.DEFAULT.getName()
+                    : XContentMapValues.nodeStringValue(engineNode, null);
+            try {
+                KNNEngines.getEngine(engineValue);
+            } catch (IllegalArgumentException e) {
+                throw new MapperParsingException(e.getMessage() + " for vector: " + name);
+            }
+            /**
+             * If the vectors of the graphs are product quantized, the number of subspaces must divide the dimension
+             */
+            if (JavaHnswEngine.NAME.equals(engineValue) && pqSubspaces > 0 && dimensionValue % pqSubspaces != 0) {
+                throw new MapperParsingException("Dimension value must be a multiple of " + KNNSettings.KNN_ALGO_PARAM_PQ_M
+                        + " " + pqSubspaces + " for vector: " + name);
+            }
+
+            /**
+             *  If trying to update an existing dimension or engine, throw Exception
              */
             for (MappedFieldType fieldType : parserContext.mapperService().fieldTypes()) {
                 if (name.equals(fieldType.name())) {
@@ -177,10 +217,17 @@ public class KNNVectorFieldMapper extends FieldMapper {
                                 , originalDimension, dimensionValue);
                         throw new MapperParsingException(errorMessage);
                     }
+                    String originalEngine = ((KNNVectorFieldType)fieldType).engine;
+                    if (!originalEngine.equals(engineValue)) {
+                        String errorMessage = String.format("Engine cannot be updated. Previous value: %s, Current value: %s"
+                                , originalEngine, engineValue);
+                        throw new MapperParsingException(errorMessage);
+                    }
                 }
             }
 
             builder.setDimension(dimensionValue);
+            builder.engine(engineValue);
             TypeParsers.parseField(builder, name, node, parserContext);
             for (Iterator<Map.Entry<String, Object>> iterator = node.entrySet().iterator(); iterator.hasNext(); ) {
                 Map.Entry<String, Object> entry = iterator.next();
@@ -218,10 +265,21 @@ public class KNNVectorFieldMapper extends FieldMapper {
     public static class KNNVectorFieldType extends MappedFieldType {
 
         int dimension = -1;
+        String engine;
 
-        public KNNVectorFieldType(String name, Map<String, String> meta, int dimension) {
+        public KNNVectorFieldType(String name, Map<String, String> meta, int dimension, String engine) {
             super(name, false, true, TextSearchInfo.NONE, meta);
             this.dimension = dimension;
+            this.engine = engine;
+        }
+
+        /**
+         * Get the engine building and searching the graphs of the field
+         *
+         * @return engine name
+         */
+        public String getEngine() {
+            return engine;
         }
 
         @Override
@@ -253,11 +311,6 @@ public class KNNVectorFieldMapper extends FieldMapper {
                                                     "update knn.plugin.enabled setting to true");
         }
 
-        if (KNNSettings.isCircuitBreakerTriggered()) {
-            throw new IllegalStateException("Indexing knn vector fields is rejected as circuit breaker triggered." +
-                    " Check _opendistro/_knn/stats for detailed state");
-        }
-
         context.path().add(simpleName());
 
         ArrayList<Float> vector = new ArrayList<>();
@@ -327,5 +380,8 @@ public class KNNVectorFieldMapper extends FieldMapper {
             builder.field(Names.IGNORE_MALFORMED, ignoreMalformed.value());
         }
         builder.field("dimension", fieldType().dimension);
+        if (includeDefaults || !KNNEngines.DEFAULT.getName().equals(fieldType().engine)) {
+            builder.field(KNNConstants.KNN_ENGINE, fieldType().engine);
+        }
     }
 }
@@ -16,30 +16,32 @@
 package com.amazon.opendistroforelasticsearch.knn.index;
 
 import com.amazon.opendistroforelasticsearch.knn.index.codec.KNNCodecUtil;
-import com.amazon.opendistroforelasticsearch.knn.index.v206.KNNIndex;
+import com.amazon.opendistroforelasticsearch.knn.index.engine.KNNEngineIndex;
+import com.amazon.opendistroforelasticsearch.knn.index.util.VectorMath;
+import com.amazon.opendistroforelasticsearch.knn.plugin.stats.KNNLatency;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.BinaryDocValues;
 import org.apache.lucene.index.FilterLeafReader;
+import org.apache.lucene.index.LeafReader;
 import org.apache.lucene.index.LeafReaderContext;
 import org.apache.lucene.index.SegmentReader;
 import org.apache.lucene.index.Term;
-import org.apache.lucene.search.DocIdSetIterator;
 import org.apache.lucene.search.Explanation;
 import org.apache.lucene.search.Scorer;
 import org.apache.lucene.search.Weight;
 import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.store.FilterDirectory;
-import org.apache.lucene.util.DocIdSetBuilder;
 import org.elasticsearch.common.io.PathUtils;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 
 /**
@@ -49,13 +51,16 @@ public class KNNWeight extends Weight {
     private static Logger logger = LogManager.getLogger(KNNWeight.class);
     private final KNNQuery knnQuery;
     private final float boost;
+    private final KNNQueryProfile.WeightProfile profile;
 
     public static KNNIndexCache knnIndexCache = KNNIndexCache.getInstance();
+    private static KNNRecallEstimator recallEstimator = KNNRecallEstimator.getInstance();
 
     public KNNWeight(KNNQuery query, float boost) {
         super(query);
         this.knnQuery = query;
         this.boost = boost;
+        this.profile = KNNQueryProfile.newWeight(query);
     }
 
     @Override
@@ -69,6 +74,7 @@ public class KNNWeight extends Weight {
 
     @Override
     public Scorer scorer(LeafReaderContext context) throws IOException {
+            final long scorerStart = System.nanoTime();
             SegmentReader reader = (SegmentReader) FilterLeafReader.unwrap(context.reader());
             String directory = ((FSDirectory) FilterDirectory.unwrap(reader.directory())).getDirectory().toString();
 
@@ -88,35 +94,98 @@ public class KNNWeight extends Weight {
                 return null;
             }
 
-            FieldInfo queryFieldInfo = reader.getFieldInfos().fieldInfo(knnQuery.getField());
-
             /**
-             * TODO Add logic to pick up the right nmslib version based on the version
-             * in the name of the file. As of now we have one version 2.0.6
-             * So deferring this to future releases
+             * The cache loads the graph with the engine recorded in the name of the file, so segments written by
+             * different engines or engine versions can be searched side by side
              */
-
             Path indexPath = PathUtils.get(directory, hnswFiles.get(0));
-            final KNNIndex index = knnIndexCache.getIndex(indexPath.toString(), knnQuery.getIndexName());
-            final KNNQueryResult[] results = index.queryIndex(
-                    knnQuery.getQueryVector(),
-                    knnQuery.getK()
-            );
-
+            final AtomicBoolean loaded = new AtomicBoolean(false);
+            long stageStart = System.nanoTime();
+            final KNNEngineIndex index = knnIndexCache.getIndex(indexPath.toString(), knnQuery.getIndexName(), loaded);
+            final long graphLoadTime = recordLatency(KNNLatency.CACHE_LOOKUP, stageStart);
+
+            KNNQueryResult[] results;
+            final long[] searchStats = new long[KNNEngineIndex.SEARCH_STATS_SIZE];
+            stageStart = System.nanoTime();
             /**
-             * Scores represent the distance of the documents with respect to given query vector.
-             * Lesser the score, the closer the document is to the query vector.
-             * Since by default results are retrieved in the descending order of scores, to get the nearest
-             * neighbors we are inverting the scores.
+             * Indices with approximate distances return more candidates, ranked again by their exact distances
              */
-            Map<Integer, Float> scores = Arrays.stream(results).collect(
-                    Collectors.toMap(result -> result.getId(), result -> 1/(1 + result.getScore())));
-            int maxDoc = Collections.max(scores.keySet()) + 1;
-            DocIdSetBuilder docIdSetBuilder = new DocIdSetBuilder(maxDoc);
-            DocIdSetBuilder.BulkAdder setAdder = docIdSetBuilder.grow(maxDoc);
-            Arrays.stream(results).forEach(result -> setAdder.add(result.getId()));
-            DocIdSetIterator docIdSetIter = docIdSetBuilder.build().iterator();
-            return new KNNScorer(this, docIdSetIter, scores, boost);
+            final int rescoreFactor = index.hasApproximateDistances()
+                    ? KNNSettings.getPqRescoreFactor(knnQuery.getIndexName()) : 0;
+            final long distanceComputations;
+            try {
+                results = index.queryIndex(
+                        knnQuery.getQueryVector(),
+                        rescoreFactor > 0 ? knnQuery.getK() * rescoreFactor : knnQuery.getK(),
+                        searchStats
+                );
+                distanceComputations = index.countsDistanceComputations()
+                        ? searchStats[KNNEngineIndex.DISTANCE_COMPUTATIONS] : KNNQueryProfile.UNKNOWN;
+            } finally {
+                knnIndexCache.release(index);
+            }
+            final long nativeSearchTime = recordLatency(KNNLatency.NATIVE_SEARCH, stageStart);
+            long rescoreTime = 0;
+            if (rescoreFactor > 0) {
+                stageStart = System.nanoTime();
+                results = rescore(reader, knnQuery.getField(), knnQuery.getQueryVector(),
+                        KNNSettings.getSpaceType(knnQuery.getIndexName()), results, knnQuery.getK());
+                rescoreTime = recordLatency(KNNLatency.RESCORE, stageStart);
+            }
+            if (recallEstimator.shouldSample(KNNSettings.getRecallSampleRate(knnQuery.getIndexName()))) {
+                recallEstimator.sample(reader, knnQuery, results);
+            }
+            stageStart = System.nanoTime();
+            KNNScorer knnScorer = KNNScorer.fromResults(this, results, boost);
+            if (profile != null) {
+                profile.addSegmentProfile(new KNNQueryProfile.SegmentProfile(reader.getSegmentName(), !loaded.get(),
+                        graphLoadTime, nativeSearchTime, rescoreTime, results.length,
+                        distanceComputations, System.nanoTime() - stageStart));
+            }
+            recordLatency(KNNLatency.SCORER_CONSTRUCTION, scorerStart);
+            return knnScorer;
+    }
+
+    /**
+     * Replaces the distances of the results with the exact distances to the vectors of the segment, and keeps the k
+     * closest
+     *
+     * @param reader reader of the segment
+     * @param field vector field
+     * @param queryVector query vector
+     * @param spaceType space type of the index
+     * @param results results to rescore
+     * @param k number of results to keep
+     * @return k closest results by exact distance, closest first
+     * @throws IOException Thrown when the doc values of the field cannot be read
+     */
+    static KNNQueryResult[] rescore(LeafReader reader, String field, float[] queryVector, String spaceType,
+                                    KNNQueryResult[] results, int k) throws IOException {
+        BinaryDocValues values = reader.getBinaryDocValues(field);
+        if (values == null) {
+            return Arrays.copyOf(results, Math.min(k, results.length));
+        }
+        // Doc values are read in doc id order
+        KNNQueryResult[] byDoc = results.clone();
+        Arrays.sort(byDoc, Comparator.comparingInt(KNNQueryResult::getId));
+        List<KNNQueryResult> rescored = new ArrayList<>(byDoc.length);
+        for (KNNQueryResult result : byDoc) {
+            if (values.advanceExact(result.getId())) {
+                float[] vector = KNNCodecUtil.bytesToFloatArray(values.binaryValue());
+                rescored.add(new KNNQueryResult(result.getId(),
+                        VectorMath.exactDistance(spaceType, queryVector, vector)));
+            }
+        }
+        return rescored.stream()
+                .sorted(Comparator.comparingDouble(KNNQueryResult::getScore))
+                .limit(k)
+                .toArray(KNNQueryResult[]::new);
+    }
+
+    private long recordLatency(KNNLatency latency, long startNanos) {
+        long elapsed = System.nanoTime() - startNanos;
+        latency.record(knnQuery.getIndexName(), knnQuery.getField(), elapsed);
+        return elapsed;
     }
 
     @Override
@@ -15,9 +15,11 @@
 
 package com.amazon.opendistroforelasticsearch.knn.index.codec.KNN80Codec;
 
-import com.amazon.opendistroforelasticsearch.knn.index.SpaceTypes;
 import com.amazon.opendistroforelasticsearch.knn.index.codec.KNNCodecUtil;
+import com.amazon.opendistroforelasticsearch.knn.index.engine.KNNEngine;
+import com.amazon.opendistroforelasticsearch.knn.index.engine.KNNEngines;
 import com.amazon.opendistroforelasticsearch.knn.plugin.stats.KNNCounter;
+import com.amazon.opendistroforelasticsearch.knn.plugin.stats.KNNGraphBuild;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.lucene.codecs.CodecUtil;
@@ -33,19 +35,13 @@ import org.apache.lucene.store.FilterDirectory;
 import org.apache.lucene.store.IndexInput;
 import org.apache.lucene.store.IndexOutput;
 import org.apache.lucene.util.IOUtils;
-import com.amazon.opendistroforelasticsearch.knn.index.KNNSettings;
 import com.amazon.opendistroforelasticsearch.knn.index.KNNVectorFieldMapper;
-import com.amazon.opendistroforelasticsearch.knn.index.util.KNNConstants;
-import com.amazon.opendistroforelasticsearch.knn.index.util.NmsLibVersion;
-import com.amazon.opendistroforelasticsearch.knn.index.v206.KNNIndex;
 
 import java.io.Closeable;
 import java.io.IOException;
 import java.nio.file.Paths;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Map;
 
 /**
@@ -67,25 +63,25 @@ class KNN80DocValuesConsumer extends DocValuesConsumer implements Closeable {
     @Override
     public void addBinaryField(FieldInfo field, DocValuesProducer valuesProducer) throws IOException {
         delegatee.addBinaryField(field, valuesProducer);
-        addKNNBinaryField(field, valuesProducer);
+        addKNNBinaryField(field, valuesProducer, KNNGraphBuild.FLUSH);
     }
 
-    public void addKNNBinaryField(FieldInfo field, DocValuesProducer valuesProducer) throws IOException {
+    /**
+     * Builds the graph of a knn field and writes it to the segment
+     *
+     * @param field field to build the graph of
+     * @param valuesProducer producer of the vectors of the field
+     * @param graphBuild whether the segment is written by a flush or a merge, to record the build metrics
+     * @throws IOException Thrown when the graph cannot be written
+     */
+    public void addKNNBinaryField(FieldInfo field, DocValuesProducer valuesProducer, KNNGraphBuild graphBuild)
+            throws IOException {
         KNNCounter.GRAPH_INDEX_REQUESTS.increment();
         if (field.attributes().containsKey(KNNVectorFieldMapper.KNN_FIELD)) {
 
-            /**
-             * We always write with latest NMS library version
-             */
-            if (!isNmsLibLatest()) {
-                KNNCounter.GRAPH_INDEX_ERRORS.increment();
-                throw new IllegalStateException("Nms library version mismatch. Correct version: "
-                                                        + NmsLibVersion.LATEST.indexLibraryVersion());
-            }
-
+            KNNEngine engine = KNNEngines.getEngine(field.attributes());
             BinaryDocValues values = valuesProducer.getBinary(field);
-            String hnswFileName = String.format("%s_%s_%s%s", state.segmentInfo.name, NmsLibVersion.LATEST.buildVersion,
-                    field.name, KNNCodecUtil.HNSW_EXTENSION);
+            String hnswFileName = KNNEngines.graphFileName(state.segmentInfo.name, field.name, engine);
             String indexPath = Paths.get(((FSDirectory) (FilterDirectory.unwrap(state.directory))).getDirectory().toString(),
                     hnswFileName).toString();
 
@@ -95,19 +91,24 @@ class KNN80DocValuesConsumer extends DocValuesConsumer implements Closeable {
                 return;
             }
 
-            // Pass the path for the nms library to save the file
+            // Pass the path for the engine to save the file
             String tempIndexPath = indexPath + TEMP_SUFFIX;
             Map<String, String> fieldAttributes = field.attributes();
-            String spaceType = fieldAttributes.getOrDefault(KNNConstants.SPACE_TYPE, SpaceTypes.l2.getValue());
-            String[] algoParams = getKNNIndexParams(fieldAttributes);
-            AccessController.doPrivileged(
-                    new PrivilegedAction<Void>() {
-                        public Void run() {
-                            KNNIndex.saveIndex(pair.docs, pair.vectors, tempIndexPath, algoParams, spaceType);
-                            return null;
+            long buildStart = System.nanoTime();
+            try {
+                AccessController.doPrivileged(
+                        new PrivilegedAction<Void>() {
+                            public Void run() {
+                                engine.buildIndex(pair.docs, pair.vectors, tempIndexPath, fieldAttributes);
+                                return null;
+                            }
                         }
-                    }
-            );
+                );
+            } catch (RuntimeException ex) {
+                KNNCounter.GRAPH_INDEX_ERRORS.increment();
+                throw ex;
+            }
+            long buildTime = System.nanoTime() - buildStart;
 
             String hsnwTempFileName = hnswFileName + TEMP_SUFFIX;
 
@@ -120,10 +121,12 @@ class KNN80DocValuesConsumer extends DocValuesConsumer implements Closeable {
              * existing file will miss calculating checksum for the serialized graph
              * bytes and result in index corruption issues.
              */
+            long copyStart = System.nanoTime();
             try (IndexInput is = state.directory.openInput(hsnwTempFileName, state.context);
                  IndexOutput os = state.directory.createOutput(hnswFileName, state.context)) {
                 os.copyBytes(is, is.length());
                 CodecUtil.writeFooter(os);
+                graphBuild.record(pair.vectors.length, buildTime, System.nanoTime() - copyStart, os.getFilePointer());
             } catch (Exception ex) {
                 KNNCounter.GRAPH_INDEX_ERRORS.increment();
                 throw new RuntimeException("[KNN] Adding footer to serialized graph failed: " + ex);
@@ -147,7 +150,7 @@ class KNN80DocValuesConsumer extends DocValuesConsumer implements Closeable {
             for (FieldInfo fieldInfo : mergeState.mergeFieldInfos) {
                 DocValuesType type = fieldInfo.getDocValuesType();
                 if (type == DocValuesType.BINARY) {
-                    addKNNBinaryField(fieldInfo, new KNN80DocValuesReader(mergeState));
+                    addKNNBinaryField(fieldInfo, new KNN80DocValuesReader(mergeState), KNNGraphBuild.MERGE);
                 }
             }
         } catch (Exception e) {
@@ -179,36 +182,4 @@ class KNN80DocValuesConsumer extends DocValuesConsumer implements Closeable {
     public void close() throws IOException {
         delegatee.close();
     }
-
-    private boolean isNmsLibLatest() {
-        return AccessController.doPrivileged(
-                new PrivilegedAction<Boolean>() {
-                    public Boolean run() {
-                        if (!NmsLibVersion.LATEST.indexLibraryVersion().equals(KNNIndex.VERSION.indexLibraryVersion())) {
-                            String errorMessage = String.format("KNN codec nms library version mis match. Latest version: %s" +
-                                                                        "Current version: %s",
-                                    NmsLibVersion.LATEST.indexLibraryVersion(), KNNIndex.VERSION);
-                            logger.error(errorMessage);
-                            return false;
-                        }
-                        return true;
-                    }
-                }
-        );
-    }
-
-    private String[] getKNNIndexParams(Map<String, String> fieldAttributes) {
-        List<String> algoParams = new ArrayList<>();
-        if (fieldAttributes.containsKey(KNNConstants.HNSW_ALGO_M)) {
-            algoParams.add(KNNConstants.HNSW_ALGO_M + "=" + fieldAttributes.get(KNNConstants.HNSW_ALGO_M));
-        }
-        if (fieldAttributes.containsKey(KNNConstants.HNSW_ALGO_EF_CONSTRUCTION)) {
-            algoParams.add(KNNConstants.HNSW_ALGO_EF_CONSTRUCTION + "=" + fieldAttributes.get(KNNConstants.HNSW_ALGO_EF_CONSTRUCTION));
-        }
-        
-        // Cluster level setting so no need to specify for every index creation
-        algoParams.add(KNNConstants.HNSW_ALGO_INDEX_THREAD_QTY + "=" + KNNSettings.state().getSettingValue(
-                KNNSettings.KNN_ALGO_PARAM_INDEX_THREAD_QTY));
-        return algoParams.toArray(new String[0]);
-    }
 }
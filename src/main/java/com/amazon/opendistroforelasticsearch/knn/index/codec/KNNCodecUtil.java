@@ -44,16 +44,25 @@ public class KNNCodecUtil {
         ArrayList<float[]> vectorList = new ArrayList<>();
         ArrayList<Integer> docIdList = new ArrayList<>();
         for (int doc = values.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = values.nextDoc()) {
-            BytesRef bytesref = values.binaryValue();
-            try (ByteArrayInputStream byteStream = new ByteArrayInputStream(bytesref.bytes, bytesref.offset, bytesref.length);
-                ObjectInputStream objectStream = new ObjectInputStream(byteStream)) {
-                float[] vector = (float[]) objectStream.readObject();
-                vectorList.add(vector);
-            } catch (ClassNotFoundException e) {
-                throw new RuntimeException(e);
-            }
+            vectorList.add(bytesToFloatArray(values.binaryValue()));
             docIdList.add(doc);
         }
         return new KNNCodecUtil.Pair(docIdList.stream().mapToInt(Integer::intValue).toArray(), vectorList.toArray(new float[][]{}));
     }
+
+    /**
+     * Deserialize the vector stored in the binary doc value of a knn field
+     *
+     * @param bytesref binary doc value
+     * @return vector
+     * @throws IOException Thrown when the value cannot be read
+     */
+    public static float[] bytesToFloatArray(BytesRef bytesref) throws IOException {
+        try (ByteArrayInputStream byteStream = new ByteArrayInputStream(bytesref.bytes, bytesref.offset, bytesref.length);
+            ObjectInputStream objectStream = new ObjectInputStream(byteStream)) {
+            return (float[]) objectStream.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new RuntimeException(e);
+        }
+    }
 }
@@ -0,0 +1,73 @@
+/*
+ *   Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License").
+ *   You may not use this file except in compliance with the License.
+ *   A copy of the License is located at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   or in the "license" file accompanying this file. This file is distributed
+ *   on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *   express or implied. See the License for the specific language governing
+ *   permissions and limitations under the License.
+ */
+
+
+package com.amazon.opendistroforelasticsearch.knn.index.engine;
+
+import java.util.Map;
+
+/**
+ * Library that builds, loads and searches the graphs of k-NN fields. The engine of a field is picked in its mapping,
+ * recorded in the attributes of the field and in the name of the graph files it writes, so that every segment is
+ * read back by the engine that wrote it. Engines are registered in {@link KNNEngines}.
+ */
+public interface KNNEngine {
+
+    /**
+     * Name of the engine, as set in the mapping of a field
+     *
+     * @return engine name
+     */
+    String getName();
+
+    /**
+     * Tag identifying the engine and the version of its file format in the name of the graph files. It must be
+     * unique across engines and must not contain an underscore.
+     *
+     * @return file name tag
+     */
+    String getFileTag();
+
+    /**
+     * Builds the graph of the vectors of a segment and writes it to a file
+     *
+     * @param docs doc ids of the vectors
+     * @param vectors vectors to index
+     * @param indexPath path of the file to write the graph to
+     * @param fieldAttributes attributes of the field, holding the space type and the parameters of the graph
+     */
+    void buildIndex(int[] docs, float[][] vectors, String indexPath, Map<String, String> fieldAttributes);
+
+    /**
+     * Loads a graph written by {@link #buildIndex} into memory. The returned index holds one reference, owned by the
+     * caller.
+     *
+     * @param indexPath path of the graph file
+     * @param indexName name of the Elasticsearch index the graph belongs to, to read its query settings
+     * @return index that can be queried for k nearest neighbours
+     */
+    KNNEngineIndex loadIndex(String indexPath, String indexName);
+
+    /**
+     * Memory the graphs of an index are held in once loaded, known before loading them so that the cache can reserve
+     * it. It must match {@link KNNEngineIndex#getMemoryType()} of the loaded graphs.
+     *
+     * @param indexName name of the Elasticsearch index the graphs belong to
+     * @return memory type of the graphs
+     */
+    default KNNEngineIndex.MemoryType getMemoryType(String indexName) {
+        return KNNEngineIndex.MemoryType.NATIVE;
+    }
+}
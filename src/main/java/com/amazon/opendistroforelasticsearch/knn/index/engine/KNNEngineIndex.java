@@ -0,0 +1,252 @@
+/*
+ *   Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License").
+ *   You may not use this file except in compliance with the License.
+ *   A copy of the License is located at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   or in the "license" file accompanying this file. This file is distributed
+ *   on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *   express or implied. See the License for the specific language governing
+ *   permissions and limitations under the License.
+ */
+
+
+package com.amazon.opendistroforelasticsearch.knn.index.engine;
+
+import com.amazon.opendistroforelasticsearch.knn.index.KNNQueryResult;
+import com.amazon.opendistroforelasticsearch.knn.plugin.stats.KNNCounter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Graph of a segment loaded into memory by a {@link KNNEngine}. It takes care of the reference counting and of the
+ * query stats, so that engines only implement the search and the release of their memory.
+ */
+public abstract class KNNEngineIndex implements AutoCloseable {
+
+    /**
+     * Layout of the array filled by {@link #queryIndex(float[], int, long[])} with the traversal work of a search
+     */
+    public static final int DISTANCE_COMPUTATIONS = 0;
+    public static final int SEARCH_STATS_SIZE = 1;
+
+    /**
+     * Memory a loaded index is held in, which decides the limit the cache counts it towards
+     */
+    public enum MemoryType {
+        /**
+         * Allocated outside of the heap by a native library, counted towards knn.memory.circuit_breaker.limit
+         */
+        NATIVE,
+        /**
+         * Held on the Java heap, counted towards knn.memory.heap.limit
+         */
+        HEAP,
+        /**
+         * Read from a memory mapped file, whose pages the operating system reclaims as needed like those of the
+         * other files of the segment, so it counts towards no node limit
+         */
+        MAPPED
+    }
+
+    /**
+     * Number of graphs loaded into memory and not yet freed, across the node and the engines
+     */
+    private static final AtomicLong liveIndexCount = new AtomicLong();
+
+    /**
+     * The index starts with one reference, owned by whoever loaded it, and its memory is freed when the last
+     * reference is released. Queries acquire their own reference so that the graph is not freed under them when it is
+     * evicted, without having to take a lock on every query.
+     */
+    private final AtomicInteger refCount = new AtomicInteger(1);
+    private final AtomicBoolean isClosed = new AtomicBoolean(false);
+
+    private final long indexSize;
+
+    /**
+     * Constructor. Subclasses must only be instantiated once their memory is allocated, it is freed by
+     * {@link #free()} once the last reference is released.
+     *
+     * @param indexSize size of the index in KB, used as its weight in the cache
+     */
+    protected KNNEngineIndex(final long indexSize) {
+        this.indexSize = indexSize;
+        liveIndexCount.incrementAndGet();
+    }
+
+    /**
+     * This function is useful in computing the weight for caching. File sizes are stored in KiloBytes to prevent an
+     * Integer Overflow. The Guava Cache weigh method returns an int. The max size of a Java int is 2,147,483,647. So,
+     * a 2GB file, would lead to an overflow. With KB, however, 2,147,483,647 KB = 1.99 TB. So, it would take a 2 TB
+     * file to produce an Integer Overflow.
+     *
+     * @return size of the index in memory in KB.
+     */
+    public long getIndexSize() {
+        return this.indexSize;
+    }
+
+    /**
+     * Whether the distances returned by the searches are approximations, for example computed from compressed
+     * vectors. Results of such indices can be rescored with the exact distances to the vectors of the segment.
+     *
+     * @return true if the distances are approximate
+     */
+    public boolean hasApproximateDistances() {
+        return false;
+    }
+
+    /**
+     * Memory the index is held in
+     *
+     * @return memory type of the index
+     */
+    public MemoryType getMemoryType() {
+        return MemoryType.NATIVE;
+    }
+
+    /**
+     * Whether the searches report their distance computations in the search stats
+     *
+     * @return true if the search stats hold the number of distance computations of the search
+     */
+    public boolean countsDistanceComputations() {
+        return true;
+    }
+
+    /**
+     * Queries the index. The caller must hold a reference to the index, see {@link #tryIncRef()}.
+     *
+     * @param query query vector
+     * @param k number of neighbors to return
+     * @return k nearest neighbors of the query vector
+     * @throws IOException Thrown when the index has already been freed
+     */
+    public KNNQueryResult[] queryIndex(final float[] query, final int k) throws IOException {
+        return queryIndex(query, k, new long[SEARCH_STATS_SIZE]);
+    }
+
+    /**
+     * Queries the index and reports the traversal work of the search. The caller must hold a reference to the index,
+     * see {@link #tryIncRef()}.
+     *
+     * @param query query vector
+     * @param k number of neighbors to return
+     * @param searchStats array of at least SEARCH_STATS_SIZE elements, filled with the number of distance computations
+     *                    of the search at DISTANCE_COMPUTATIONS, if the index counts them
+     * @return k nearest neighbors of the query vector
+     * @throws IOException Thrown when the index has already been freed
+     */
+    public KNNQueryResult[] queryIndex(final float[] query, final int k, final long[] searchStats) throws IOException {
+        KNNCounter.GRAPH_QUERY_REQUESTS.increment();
+        if (refCount.get() <= 0) {
+            KNNCounter.GRAPH_QUERY_ERRORS.increment();
+            throw new IOException("Index is already closed");
+        }
+
+        final KNNQueryResult[] results;
+        try {
+            results = search(query, k, searchStats);
+        } catch (Exception ex) {
+            KNNCounter.GRAPH_QUERY_ERRORS.increment();
+            throw new RuntimeException("Unable to query the index: " + ex);
+        }
+        if (countsDistanceComputations()) {
+            KNNCounter.GRAPH_QUERY_DISTANCE_COMPUTATIONS.add(searchStats[DISTANCE_COMPUTATIONS]);
+        }
+        return results;
+    }
+
+    /**
+     * Acquires a reference to the index, unless its memory has already been freed
+     *
+     * @return true if a reference was acquired. It must be released with {@link #decRef()}.
+     */
+    public boolean tryIncRef() {
+        int count;
+        do {
+            count = refCount.get();
+            if (count <= 0) {
+                return false;
+            }
+        } while (!refCount.compareAndSet(count, count + 1));
+        return true;
+    }
+
+    /**
+     * Releases a reference to the index. Releasing the last reference frees the memory of the index.
+     */
+    public void decRef() {
+        int count = refCount.decrementAndGet();
+        if (count == 0) {
+            free();
+            liveIndexCount.decrementAndGet();
+        } else if (count < 0) {
+            throw new IllegalStateException("Index reference released more times than it was acquired");
+        }
+    }
+
+    /**
+     * Releases the reference of the owner of the index. The memory is freed right away unless queries still hold a
+     * reference, in which case the last of them frees it.
+     */
+    @Override
+    public void close() {
+        // Autocloseable documentation recommends making close idempotent. We don't expect to doubly close
+        // but this will help prevent a crash in that situation.
+        if (isClosed.compareAndSet(false, true)) {
+            decRef();
+        }
+    }
+
+    /**
+     * Returns the number of graphs loaded into memory and not yet freed. Once nothing holds a graph, a count that
+     * does not go back down means memory leaked.
+     *
+     * @return number of graphs in memory
+     */
+    public static long getLiveIndexCount() {
+        return liveIndexCount.get();
+    }
+
+    /**
+     * Determines the size of a graph file on disk, in KB rounded up
+     *
+     * @param indexPath absolute path of the graph file
+     * @return size in KB, 0 if the file does not exist
+     */
+    protected static long computeFileSize(String indexPath) {
+        if (indexPath == null || indexPath.isEmpty()) {
+            return 0;
+        }
+        File file = new File(indexPath);
+        if (!file.exists() || !file.isFile()) {
+            return 0;
+        }
+
+        return file.length() / 1024 + 1;
+    }
+
+    /**
+     * Searches the index. Called concurrently by queries holding a reference, never after {@link #free()}.
+     *
+     * @param query query vector
+     * @param k number of neighbors to return
+     * @param searchStats array to fill with the traversal work of the search
+     * @return k nearest neighbors of the query vector
+     */
+    protected abstract KNNQueryResult[] search(float[] query, int k, long[] searchStats);
+
+    /**
+     * Frees the memory of the index. Called exactly once, when the last reference is released.
+     */
+    protected abstract void free();
+}
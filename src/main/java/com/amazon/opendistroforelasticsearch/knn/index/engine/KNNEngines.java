@@ -0,0 +1,134 @@
+/*
+ *   Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License").
+ *   You may not use this file except in compliance with the License.
+ *   A copy of the License is located at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   or in the "license" file accompanying this file. This file is distributed
+ *   on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *   express or implied. See the License for the specific language governing
+ *   permissions and limitations under the License.
+ */
+
+
+package com.amazon.opendistroforelasticsearch.knn.index.engine;
+
+import com.amazon.opendistroforelasticsearch.knn.index.codec.KNNCodecUtil;
+import com.amazon.opendistroforelasticsearch.knn.index.hnsw.JavaHnswEngine;
+import com.amazon.opendistroforelasticsearch.knn.index.ivf.IvfEngine;
+import com.amazon.opendistroforelasticsearch.knn.index.util.KNNConstants;
+import com.amazon.opendistroforelasticsearch.knn.index.v206.NmsLibEngine;
+
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of the k-NN engines available on the node
+ */
+public final class KNNEngines {
+
+    /**
+     * Engine of the fields that do not set one, and of all of the segments written before engines were recorded
+     */
+    public static final KNNEngine DEFAULT = NmsLibEngine.INSTANCE;
+
+    private static final Map<String, KNNEngine> enginesByName = new ConcurrentHashMap<>();
+    private static final Map<String, KNNEngine> enginesByFileTag = new ConcurrentHashMap<>();
+
+    static {
+        register(DEFAULT);
+        register(JavaHnswEngine.INSTANCE);
+        register(IvfEngine.INSTANCE);
+    }
+
+    private KNNEngines() {}
+
+    /**
+     * Registers an engine, so that fields can be mapped to it and the graph files it writes can be read back
+     *
+     * @param engine engine to register
+     */
+    public static synchronized void register(KNNEngine engine) {
+        String fileTag = engine.getFileTag();
+        if (fileTag == null || fileTag.isEmpty() || fileTag.contains("_")) {
+            throw new IllegalArgumentException("Invalid file tag for k-NN engine " + engine.getName() + ": " + fileTag);
+        }
+        if (enginesByName.containsKey(engine.getName()) || enginesByFileTag.containsKey(fileTag)) {
+            throw new IllegalArgumentException("k-NN engine already registered: " + engine.getName());
+        }
+        enginesByFileTag.put(fileTag, engine);
+        enginesByName.put(engine.getName(), engine);
+    }
+
+    /**
+     * Get the engine of the given name
+     *
+     * @param name engine name
+     * @return engine
+     * @throws IllegalArgumentException if no engine of that name is registered
+     */
+    public static KNNEngine getEngine(String name) {
+        KNNEngine engine = enginesByName.get(name);
+        if (engine == null) {
+            throw new IllegalArgumentException("Unknown k-NN engine: " + name + ". Available engines: " + getNames());
+        }
+        return engine;
+    }
+
+    /**
+     * Get the engine recorded in the attributes of a field
+     *
+     * @param fieldAttributes attributes of the field
+     * @return engine of the field, the default engine if the field does not record one
+     */
+    public static KNNEngine getEngine(Map<String, String> fieldAttributes) {
+        String name = fieldAttributes.get(KNNConstants.KNN_ENGINE);
+        return name == null ? DEFAULT : getEngine(name);
+    }
+
+    /**
+     * Get the names of the registered engines
+     *
+     * @return sorted engine names
+     */
+    public static Set<String> getNames() {
+        return new TreeSet<>(enginesByName.keySet());
+    }
+
+    /**
+     * Name of the file holding the graph of a field in a segment: segment_tag_field.hnsw. Segment names never
+     * contain an underscore past the leading one, so the tag can be parsed back whatever the field name.
+     *
+     * @param segmentName name of the segment
+     * @param fieldName name of the field
+     * @param engine engine writing the graph
+     * @return graph file name
+     */
+    public static String graphFileName(String segmentName, String fieldName, KNNEngine engine) {
+        return String.format("%s_%s_%s%s", segmentName, engine.getFileTag(), fieldName, KNNCodecUtil.HNSW_EXTENSION);
+    }
+
+    /**
+     * Get the engine that wrote a graph file, from the tag in its name
+     *
+     * @param graphPath path of a graph file, named by {@link #graphFileName}
+     * @return engine to load the graph with
+     * @throws IllegalArgumentException if the name carries no tag or the tag of an engine that is not registered
+     */
+    public static KNNEngine getEngineForGraphFile(String graphPath) {
+        String fileName = Paths.get(graphPath).getFileName().toString();
+        int tagStart = fileName.indexOf('_', 1) + 1;
+        int tagEnd = tagStart > 0 ? fileName.indexOf('_', tagStart) : -1;
+        KNNEngine engine = tagEnd > 0 ? enginesByFileTag.get(fileName.substring(tagStart, tagEnd)) : null;
+        if (engine == null) {
+            throw new IllegalArgumentException("No k-NN engine registered for graph file " + graphPath);
+        }
+        return engine;
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ *   Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License").
+ *   You may not use this file except in compliance with the License.
+ *   A copy of the License is located at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   or in the "license" file accompanying this file. This file is distributed
+ *   on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *   express or implied. See the License for the specific language governing
+ *   permissions and limitations under the License.
+ */
+
+
+package com.amazon.opendistroforelasticsearch.knn.index.hnsw;
+
+import com.amazon.opendistroforelasticsearch.knn.index.engine.KNNEngineIndex;
+import com.amazon.opendistroforelasticsearch.knn.index.util.VectorMath;
+import org.apache.lucene.util.SparseFixedBitSet;
+
+/**
+ * Hierarchical Navigable Small World graph (Malkov and Yashunin, https://arxiv.org/abs/1603.09320) as implemented by
+ * hnswlib, which nmslib's hnsw method is built on. Subclasses hold the links and the vectors, this class searches
+ * them. Distances match nmslib's: the squared euclidean distance for l2, and 1 - cosine similarity for cosinesimil,
+ * computed as 1 - dot product over vectors normalized when they are added to the graph.
+ */
+abstract class HnswGraph {
+    protected final int spaceType;
+    protected final int dimension;
+
+    HnswGraph(int spaceType, int dimension) {
+        this.spaceType = spaceType;
+        this.dimension = dimension;
+    }
+
+    /**
+     * @return number of nodes of the graph
+     */
+    abstract int size();
+
+    /**
+     * @return node the searches start from, -1 if the graph is empty
+     */
+    abstract int entryPoint();
+
+    /**
+     * @return highest level of the graph
+     */
+    abstract int maxLevel();
+
+    abstract int neighborCount(int level, int node);
+
+    abstract int neighbor(int level, int node, int i);
+
+    /**
+     * Distance between a query, prepared with {@link #prepareQuery(float[])}, and a node
+     */
+    abstract float distance(float[] query, int node);
+
+    /**
+     * Searches the graph for the ef nodes closest to the query
+     *
+     * @param query query vector
+     * @param ef size of the dynamic list of candidates
+     * @param searchStats array to add the number of distance computations to, may be null
+     * @return max queue of at most ef nodes, the farthest on top
+     */
+    NeighborQueue search(float[] query, int ef, long[] searchStats) {
+        if (entryPoint() < 0) {
+            return new NeighborQueue(1, false);
+        }
+        float[] preparedQuery = prepareQuery(query);
+        int entry = entryPoint();
+        float entryDistance = distance(preparedQuery, entry);
+        int distanceComputations = 1;
+        for (int level = maxLevel(); level > 0; level--) {
+            int current = -1;
+            while (current != entry) {
+                current = entry;
+                int count = neighborCount(level, current);
+                for (int i = 0; i < count; i++) {
+                    int candidate = neighbor(level, current, i);
+                    float distance = distance(preparedQuery, candidate);
+                    distanceComputations++;
+                    if (distance < entryDistance) {
+                        entry = candidate;
+                        entryDistance = distance;
+                    }
+                }
+            }
+        }
+        if (searchStats != null) {
+            searchStats[KNNEngineIndex.DISTANCE_COMPUTATIONS] += distanceComputations;
+        }
+        return searchLevel(preparedQuery, entry, entryDistance, ef, 0, searchStats);
+    }
+
+    /**
+     * Best-first search of one level of the graph
+     *
+     * @return max queue of at most ef nodes, the farthest on top
+     */
+    NeighborQueue searchLevel(float[] query, int entry, float entryDistance, int ef, int level, long[] searchStats) {
+        NeighborQueue candidates = new NeighborQueue(ef, true);
+        NeighborQueue results = new NeighborQueue(ef + 1, false);
+        SparseFixedBitSet visited = new SparseFixedBitSet(size());
+        candidates.add(entry, entryDistance);
+        results.add(entry, entryDistance);
+        visited.set(entry);
+
+        int distanceComputations = 0;
+        while (candidates.size() > 0) {
+            if (results.size() >= ef && candidates.topDistance() > results.topDistance()) {
+                break;
+            }
+            int candidate = candidates.pop();
+            int count = neighborCount(level, candidate);
+            for (int i = 0; i < count; i++) {
+                int neighbor = neighbor(level, candidate, i);
+                if (visited.get(neighbor)) {
+                    continue;
+                }
+                visited.set(neighbor);
+                float distance = distance(query, neighbor);
+                distanceComputations++;
+                if (results.size() < ef || distance < results.topDistance()) {
+                    candidates.add(neighbor, distance);
+                    results.add(neighbor, distance);
+                    if (results.size() > ef) {
+                        results.pop();
+                    }
+                }
+            }
+        }
+        if (searchStats != null) {
+            searchStats[KNNEngineIndex.DISTANCE_COMPUTATIONS] += distanceComputations;
+        }
+        return results;
+    }
+
+    /**
+     * Returns the query to compute distances to the nodes with: normalized for cosinesimil, as is for l2
+     */
+    float[] prepareQuery(float[] query) {
+        return VectorMath.prepare(spaceType, query);
+    }
+}
@@ -0,0 +1,338 @@
+/*
+ *   Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License").
+ *   You may not use this file except in compliance with the License.
+ *   A copy of the License is located at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   or in the "license" file accompanying this file. This file is distributed
+ *   on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *   express or implied. See the License for the specific language governing
+ *   permissions and limitations under the License.
+ */
+
+
+package com.amazon.opendistroforelasticsearch.knn.index.hnsw;
+
+import com.amazon.opendistroforelasticsearch.knn.index.quantization.ProductQuantizer;
+import com.amazon.opendistroforelasticsearch.knn.index.util.VectorMath;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Builds an HNSW graph in memory by inserting the vectors one at a time, then writes it in the format read by
+ * {@link StoredHnswGraph}. Neighbors are picked with hnswlib's heuristic, which skips candidates closer to an already
+ * picked neighbor than to the node, so that links reach out in every direction.
+ */
+class HnswGraphBuilder extends HnswGraph {
+    static final int MAGIC = 0x4B4E4E48;
+    static final int VERSION = 2;
+
+    // Fixed seed, so that the same vectors always give the same graph
+    private static final long SEED = 42L;
+
+    private final int[] docs;
+    private final float[][] vectors;
+    private final int maxConnections;
+    private final int maxConnections0;
+    private final int efConstruction;
+    private final int pqSubspaces;
+    private final int[] levels;
+    // neighbors[node][level] holds the links of the node at the level, neighborCounts[node][level] how many are set
+    private final int[][][] neighbors;
+    private final int[][] neighborCounts;
+
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+    private ProductQuantizer quantizer;
+
+    /**
+     * Constructor
+     *
+     * @param docs doc ids of the vectors
+     * @param vectors vectors to insert
+     * @param spaceType space type of the graph
+     * @param m number of links of a node on the levels above 0, twice as many on level 0
+     * @param efConstruction size of the dynamic list of candidates when inserting a node
+     * @param pqSubspaces number of subspaces the stored vectors are product quantized with, 0 to store them in full.
+     *                    The graph is built with the full vectors either way.
+     */
+    HnswGraphBuilder(int[] docs, float[][] vectors, String spaceType, int m, int efConstruction, int pqSubspaces) {
+        super(VectorMath.spaceType(spaceType), vectors.length == 0 ? 0 : vectors[0].length);
+        if (m < 2) {
+            throw new IllegalArgumentException("M must be at least 2, got " + m);
+        }
+        if (pqSubspaces < 0 || (pqSubspaces > 0 && dimension % pqSubspaces != 0)) {
+            throw new IllegalArgumentException("The number of product quantization subspaces must divide the "
+                    + "dimension " + dimension + ", got " + pqSubspaces);
+        }
+        this.pqSubspaces = pqSubspaces;
+        this.docs = docs;
+        this.vectors = new float[vectors.length][];
+        for (int i = 0; i < vectors.length; i++) {
+            this.vectors[i] = prepareQuery(vectors[i]);
+        }
+        this.maxConnections = m;
+        this.maxConnections0 = 2 * m;
+        this.efConstruction = Math.max(efConstruction, m);
+        this.levels = new int[vectors.length];
+        this.neighbors = new int[vectors.length][][];
+        this.neighborCounts = new int[vectors.length][];
+
+        Random random = new Random(SEED);
+        double levelMultiplier = 1 / Math.log(m);
+        for (int node = 0; node < vectors.length; node++) {
+            levels[node] = (int) (-Math.log(1 - random.nextDouble()) * levelMultiplier);
+            neighbors[node] = new int[levels[node] + 1][];
+            neighborCounts[node] = new int[levels[node] + 1];
+            for (int level = 0; level <= levels[node]; level++) {
+                neighbors[node][level] = new int[maxConnections(level)];
+            }
+        }
+    }
+
+    /**
+     * Inserts all of the vectors into the graph, then trains the product quantizer if any
+     *
+     * @return this builder
+     */
+    HnswGraphBuilder build() {
+        for (int node = 0; node < vectors.length; node++) {
+            insert(node);
+        }
+        if (pqSubspaces > 0 && vectors.length > 0) {
+            quantizer = ProductQuantizer.train(vectors, pqSubspaces, new Random(SEED));
+        }
+        return this;
+    }
+
+    private void insert(int node) {
+        int nodeLevel = levels[node];
+        if (entryPoint < 0) {
+            entryPoint = node;
+            maxLevel = nodeLevel;
+            return;
+        }
+
+        float[] vector = vectors[node];
+        int entry = entryPoint;
+        float entryDistance = distance(vector, entry);
+        for (int level = maxLevel; level > nodeLevel; level--) {
+            int current = -1;
+            while (current != entry) {
+                current = entry;
+                for (int i = 0; i < neighborCounts[current][level]; i++) {
+                    int candidate = neighbors[current][level][i];
+                    float distance = distance(vector, candidate);
+                    if (distance < entryDistance) {
+                        entry = candidate;
+                        entryDistance = distance;
+                    }
+                }
+            }
+        }
+
+        for (int level = Math.min(nodeLevel, maxLevel); level >= 0; level--) {
+            NeighborQueue results = searchLevel(vector, entry, entryDistance, efConstruction, level, null);
+            int[] candidates = new int[results.size()];
+            float[] candidateDistances = new float[results.size()];
+            for (int i = candidates.length - 1; i >= 0; i--) {
+                candidateDistances[i] = results.topDistance();
+                candidates[i] = results.pop();
+            }
+
+            int count = selectNeighbors(candidates, candidateDistances, candidates.length, maxConnections,
+                    neighbors[node][level]);
+            neighborCounts[node][level] = count;
+            for (int i = 0; i < count; i++) {
+                int neighbor = neighbors[node][level][i];
+                connect(neighbor, node, distanceBetween(neighbor, node), level);
+            }
+            entry = candidates[0];
+            entryDistance = candidateDistances[0];
+        }
+
+        if (nodeLevel > maxLevel) {
+            entryPoint = node;
+            maxLevel = nodeLevel;
+        }
+    }
+
+    /**
+     * Adds a link from a node to a new neighbor. When the node has no room left, its links are picked again among the
+     * current ones and the new neighbor.
+     */
+    private void connect(int node, int newNeighbor, float newNeighborDistance, int level) {
+        int[] links = neighbors[node][level];
+        int count = neighborCounts[node][level];
+        if (count < links.length) {
+            links[count] = newNeighbor;
+            neighborCounts[node][level] = count + 1;
+            return;
+        }
+
+        NeighborQueue sorted = new NeighborQueue(count + 1, true);
+        sorted.add(newNeighbor, newNeighborDistance);
+        for (int i = 0; i < count; i++) {
+            sorted.add(links[i], distanceBetween(node, links[i]));
+        }
+        int[] candidates = new int[sorted.size()];
+        float[] candidateDistances = new float[sorted.size()];
+        for (int i = 0; i < candidates.length; i++) {
+            candidateDistances[i] = sorted.topDistance();
+            candidates[i] = sorted.pop();
+        }
+        neighborCounts[node][level] = selectNeighbors(candidates, candidateDistances, candidates.length, links.length,
+                links);
+    }
+
+    /**
+     * hnswlib's neighbor selection heuristic
+     *
+     * @param candidates candidate nodes, closest first
+     * @param candidateDistances distances of the candidates to the node the neighbors are picked for
+     * @param candidateCount number of candidates
+     * @param max most neighbors to pick
+     * @param selected array the picked neighbors are written to
+     * @return number of neighbors picked
+     */
+    private int selectNeighbors(int[] candidates, float[] candidateDistances, int candidateCount, int max,
+                                int[] selected) {
+        int count = 0;
+        for (int i = 0; i < candidateCount && count < max; i++) {
+            int candidate = candidates[i];
+            boolean diverse = true;
+            for (int j = 0; j < count; j++) {
+                if (distanceBetween(candidate, selected[j]) < candidateDistances[i]) {
+                    diverse = false;
+                    break;
+                }
+            }
+            if (diverse) {
+                selected[count++] = candidate;
+            }
+        }
+        return count;
+    }
+
+    private float distanceBetween(int node, int other) {
+        return VectorMath.distance(spaceType, vectors[node], vectors[other]);
+    }
+
+    private int maxConnections(int level) {
+        return level == 0 ? maxConnections0 : maxConnections;
+    }
+
+    @Override
+    int size() {
+        return vectors.length;
+    }
+
+    @Override
+    int entryPoint() {
+        return entryPoint;
+    }
+
+    @Override
+    int maxLevel() {
+        return maxLevel;
+    }
+
+    @Override
+    int neighborCount(int level, int node) {
+        return neighborCounts[node][level];
+    }
+
+    @Override
+    int neighbor(int level, int node, int i) {
+        return neighbors[node][level][i];
+    }
+
+    @Override
+    float distance(float[] query, int node) {
+        return VectorMath.distance(spaceType, query, vectors[node]);
+    }
+
+    /**
+     * Writes the graph: a header, then the doc ids, the vectors or, when they are product quantized, the codebooks
+     * followed by the codes of the vectors padded to a multiple of 4 bytes, the level 0 links of every node with a fixed stride of
+     * count followed by 2 * M slots, the offset of the upper level links of every node, and the upper level links with
+     * a stride of count followed by M slots per level of the node.
+     *
+     * @param path path of the file to write
+     * @throws IOException Thrown when the file cannot be written
+     */
+    void write(String path) throws IOException {
+        int upperSize = 0;
+        for (int level : levels) {
+            upperSize += level * (maxConnections + 1);
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path),
+                1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(spaceType);
+            out.writeInt(dimension);
+            out.writeInt(vectors.length);
+            out.writeInt(maxConnections);
+            out.writeInt(entryPoint);
+            out.writeInt(maxLevel);
+            out.writeInt(upperSize);
+            out.writeInt(quantizer == null ? 0 : quantizer.getSubspaces());
+            out.writeInt(quantizer == null ? 0 : quantizer.getCentroidCount());
+
+            for (int doc : docs) {
+                out.writeInt(doc);
+            }
+            if (quantizer == null) {
+                for (float[] vector : vectors) {
+                    for (float value : vector) {
+                        out.writeFloat(value);
+                    }
+                }
+            } else {
+                for (float value : quantizer.getCodebooks()) {
+                    out.writeFloat(value);
+                }
+                byte[] code = new byte[quantizer.getSubspaces()];
+                for (float[] vector : vectors) {
+                    quantizer.encode(vector, code, 0);
+                    out.write(code);
+                }
+                int codesSize = vectors.length * quantizer.getSubspaces();
+                for (int i = codesSize; i % 4 != 0; i++) {
+                    out.writeByte(0);
+                }
+            }
+            for (int node = 0; node < vectors.length; node++) {
+                writeLinks(out, node, 0);
+            }
+            int offset = 0;
+            for (int level : levels) {
+                out.writeInt(offset);
+                offset += level * (maxConnections + 1);
+            }
+            for (int node = 0; node < vectors.length; node++) {
+                for (int level = 1; level <= levels[node]; level++) {
+                    writeLinks(out, node, level);
+                }
+            }
+        }
+    }
+
+    private void writeLinks(DataOutputStream out, int node, int level) throws IOException {
+        int count = neighborCounts[node][level];
+        out.writeInt(count);
+        int[] links = neighbors[node][level];
+        for (int i = 0; i < links.length; i++) {
+            out.writeInt(i < count ? links[i] : -1);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ *   Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License").
+ *   You may not use this file except in compliance with the License.
+ *   A copy of the License is located at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   or in the "license" file accompanying this file. This file is distributed
+ *   on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *   express or implied. See the License for the specific language governing
+ *   permissions and limitations under the License.
+ */
+
+
+package com.amazon.opendistroforelasticsearch.knn.index.hnsw;
+
+import com.amazon.opendistroforelasticsearch.knn.index.KNNSettings;
+import com.amazon.opendistroforelasticsearch.knn.index.SpaceTypes;
+import com.amazon.opendistroforelasticsearch.knn.index.engine.KNNEngine;
+import com.amazon.opendistroforelasticsearch.knn.index.engine.KNNEngineIndex;
+import com.amazon.opendistroforelasticsearch.knn.index.util.KNNConstants;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.security.AccessController;
+import java.security.PrivilegedActionException;
+import java.security.PrivilegedExceptionAction;
+import java.util.Map;
+
+/**
+ * Engine building and searching HNSW graphs in Java. It needs no native library and skips the JNI calls, which
+ * makes it a fit for small indices, where they cost as much as the search. Graphs are built on a single thread and
+ * use the same parameters as nmslib's: M and efConstruction from the field, efSearch from the index settings. The
+ * stored vectors can be product quantized, in pqM subspaces, to cut the memory of the loaded graphs.
+ */
+public class JavaHnswEngine implements KNNEngine {
+    public static final String NAME = "java_hnsw";
+    public static final JavaHnswEngine INSTANCE = new JavaHnswEngine();
+
+    private static final int DEFAULT_M = 16;
+    private static final int DEFAULT_EF_CONSTRUCTION = 512;
+
+    private JavaHnswEngine() {}
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public String getFileTag() {
+        return "jhnsw" + HnswGraphBuilder.VERSION;
+    }
+
+    @Override
+    public void buildIndex(int[] docs, float[][] vectors, String indexPath, Map<String, String> fieldAttributes) {
+        String spaceType = fieldAttributes.getOrDefault(KNNConstants.SPACE_TYPE, SpaceTypes.l2.getValue());
+        int m = getIntAttribute(fieldAttributes, KNNConstants.HNSW_ALGO_M, DEFAULT_M);
+        int efConstruction = getIntAttribute(fieldAttributes, KNNConstants.HNSW_ALGO_EF_CONSTRUCTION,
+                DEFAULT_EF_CONSTRUCTION);
+        int pqSubspaces = getIntAttribute(fieldAttributes, KNNConstants.PQ_ALGO_M, 0);
+        try {
+            new HnswGraphBuilder(docs, vectors, spaceType, m, efConstruction, pqSubspaces).build().write(indexPath);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public KNNEngineIndex loadIndex(String indexPath, String indexName) {
+        int efSearch = KNNSettings.getEfSearchParam(indexName);
+        boolean offHeap = KNNSettings.isJavaHnswOffHeap(indexName);
+        try {
+            return AccessController.doPrivileged(
+                    new PrivilegedExceptionAction<KNNEngineIndex>() {
+                        public KNNEngineIndex run() throws IOException {
+                            return JavaHnswIndex.loadIndex(indexPath, efSearch, offHeap);
+                        }
+                    }
+            );
+        } catch (PrivilegedActionException e) {
+            throw new UncheckedIOException((IOException) e.getException());
+        }
+    }
+
+    @Override
+    public KNNEngineIndex.MemoryType getMemoryType(String indexName) {
+        return KNNSettings.isJavaHnswOffHeap(indexName) ? KNNEngineIndex.MemoryType.MAPPED
+                : KNNEngineIndex.MemoryType.HEAP;
+    }
+
+    private static int getIntAttribute(Map<String, String> fieldAttributes, String key, int defaultValue) {
+        String value = fieldAttributes.get(key);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ *   Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License").
+ *   You may not use this file except in compliance with the License.
+ *   A copy of the License is located at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   or in the "license" file accompanying this file. This file is distributed
+ *   on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *   express or implied. See the License for the specific language governing
+ *   permissions and limitations under the License.
+ */
+
+
+package com.amazon.opendistroforelasticsearch.knn.index.hnsw;
+
+import com.amazon.opendistroforelasticsearch.knn.index.KNNQueryResult;
+import com.amazon.opendistroforelasticsearch.knn.index.engine.KNNEngineIndex;
+
+import java.io.IOException;
+
+/**
+ * HNSW graph searched in Java, without crossing JNI. Its memory is not freed explicitly: releasing the last reference
+ * drops the graph, which the garbage collector then reclaims, memory mapping included.
+ */
+public class JavaHnswIndex extends KNNEngineIndex {
+    private final int efSearch;
+    private final boolean quantized;
+    private final MemoryType memoryType;
+    private volatile StoredHnswGraph graph;
+
+    private JavaHnswIndex(StoredHnswGraph graph, int efSearch, MemoryType memoryType) {
+        super(graph.sizeInBytes() / 1024 + 1);
+        this.graph = graph;
+        this.efSearch = efSearch;
+        this.quantized = graph.isQuantized();
+        this.memoryType = memoryType;
+    }
+
+    /**
+     * Loads a graph written by the java_hnsw engine
+     *
+     * @param indexPath path of the graph file
+     * @param efSearch size of the dynamic list of candidates of the searches, raised to k when lower
+     * @param offHeap true to read the graph from the memory mapped file rather than copy it to the heap
+     * @return index that can be queried for k nearest neighbours
+     * @throws IOException Thrown when the graph cannot be read
+     */
+    public static JavaHnswIndex loadIndex(String indexPath, int efSearch, boolean offHeap) throws IOException {
+        return new JavaHnswIndex(StoredHnswGraph.load(indexPath, offHeap), efSearch,
+                offHeap ? MemoryType.MAPPED : MemoryType.HEAP);
+    }
+
+    @Override
+    public MemoryType getMemoryType() {
+        return memoryType;
+    }
+
+    /**
+     * @return true if the graph holds product quantized vectors
+     */
+    @Override
+    public boolean hasApproximateDistances() {
+        return quantized;
+    }
+
+    @Override
+    protected KNNQueryResult[] search(float[] query, int k, long[] searchStats) {
+        StoredHnswGraph graph = this.graph;
+        if (query.length != graph.dimension) {
+            throw new IllegalArgumentException("Query vector dimension " + query.length + " does not match the graph's "
+                    + graph.dimension);
+        }
+        NeighborQueue neighbors = graph.search(query, Math.max(efSearch, k), searchStats);
+        while (neighbors.size() > k) {
+            neighbors.pop();
+        }
+        KNNQueryResult[] results = new KNNQueryResult[neighbors.size()];
+        for (int i = results.length - 1; i >= 0; i--) {
+            float distance = neighbors.topDistance();
+            results[i] = new KNNQueryResult(graph.doc(neighbors.pop()), distance);
+        }
+        return results;
+    }
+
+    @Override
+    protected void free() {
+        graph = null;
+    }
+}
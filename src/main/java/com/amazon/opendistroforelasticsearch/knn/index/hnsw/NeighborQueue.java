@@ -0,0 +1,108 @@
+/*
+ *   Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License").
+ *   You may not use this file except in compliance with the License.
+ *   A copy of the License is located at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   or in the "license" file accompanying this file. This file is distributed
+ *   on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *   express or implied. See the License for the specific language governing
+ *   permissions and limitations under the License.
+ */
+
+
+package com.amazon.opendistroforelasticsearch.knn.index.hnsw;
+
+import java.util.Arrays;
+
+/**
+ * Binary heap of graph nodes keyed by their distance to a query, kept in primitive arrays so that graph searches do
+ * not box. A min queue pops the closest node first, a max queue the farthest.
+ */
+public class NeighborQueue {
+    private final boolean minQueue;
+    private int[] nodes;
+    private float[] distances;
+    private int size;
+
+    public NeighborQueue(int initialCapacity, boolean minQueue) {
+        this.minQueue = minQueue;
+        this.nodes = new int[Math.max(initialCapacity, 1)];
+        this.distances = new float[Math.max(initialCapacity, 1)];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public void add(int node, float distance) {
+        if (size == nodes.length) {
+            nodes = Arrays.copyOf(nodes, size * 2);
+            distances = Arrays.copyOf(distances, size * 2);
+        }
+        int i = size++;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!before(distance, distances[parent])) {
+                break;
+            }
+            nodes[i] = nodes[parent];
+            distances[i] = distances[parent];
+            i = parent;
+        }
+        nodes[i] = node;
+        distances[i] = distance;
+    }
+
+    public int topNode() {
+        return nodes[0];
+    }
+
+    public float topDistance() {
+        return distances[0];
+    }
+
+    /**
+     * Removes the top of the queue
+     *
+     * @return node that was at the top
+     */
+    public int pop() {
+        int top = nodes[0];
+        size--;
+        if (size > 0) {
+            int node = nodes[size];
+            float distance = distances[size];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && before(distances[child + 1], distances[child])) {
+                    child++;
+                }
+                if (!before(distances[child], distance)) {
+                    break;
+                }
+                nodes[i] = nodes[child];
+                distances[i] = distances[child];
+                i = child;
+            }
+            nodes[i] = node;
+            distances[i] = distance;
+        }
+        return top;
+    }
+
+    private boolean before(float a, float b) {
+        return minQueue ? a < b : a > b;
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ *   Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License").
+ *   You may not use this file except in compliance with the License.
+ *   A copy of the License is located at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   or in the "license" file accompanying this file. This file is distributed
+ *   on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *   express or implied. See the License for the specific language governing
+ *   permissions and limitations under the License.
+ */
+
+
+package com.amazon.opendistroforelasticsearch.knn.index.hnsw;
+
+import com.amazon.opendistroforelasticsearch.knn.index.quantization.ProductQuantizer;
+import com.amazon.opendistroforelasticsearch.knn.index.util.VectorMath;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * HNSW graph read from a file written by {@link HnswGraphBuilder}. The links and the vectors are either copied into
+ * Java arrays on the heap, or read straight from the memory mapped file, whose pages belong to the page cache rather
+ * than to the process and are released with the mapping. Trailing bytes, like the Lucene footer of the segment file,
+ * are ignored. When the vectors are product quantized, only their codes are held and distances to a query are looked up
+ * in a table computed once per search.
+ */
+class StoredHnswGraph extends HnswGraph {
+    private static final int HEADER_INTS = 11;
+
+    private final int size;
+    private final int maxConnections;
+    private final int entryPoint;
+    private final int maxLevel;
+    private final IntBuffer docs;
+    private final FloatBuffer vectors;
+    private final ProductQuantizer quantizer;
+    private final ByteBuffer codes;
+    private final IntBuffer level0Links;
+    private final IntBuffer upperOffsets;
+    private final IntBuffer upperLinks;
+    private final long sizeInBytes;
+
+    private StoredHnswGraph(int spaceType, int dimension, int size, int maxConnections, int entryPoint, int maxLevel,
+                            IntBuffer docs, FloatBuffer vectors, ProductQuantizer quantizer, ByteBuffer codes,
+                            IntBuffer level0Links, IntBuffer upperOffsets, IntBuffer upperLinks) {
+        super(spaceType, dimension);
+        this.size = size;
+        this.maxConnections = maxConnections;
+        this.entryPoint = entryPoint;
+        this.maxLevel = maxLevel;
+        this.docs = docs;
+        this.vectors = vectors;
+        this.quantizer = quantizer;
+        this.codes = codes;
+        this.level0Links = level0Links;
+        this.upperOffsets = upperOffsets;
+        this.upperLinks = upperLinks;
+        long vectorsSize = quantizer == null ? 4L * vectors.capacity()
+                : 4L * quantizer.getCodebooks().length + codes.capacity();
+        this.sizeInBytes = vectorsSize + 4L * (docs.capacity() + level0Links.capacity() + upperOffsets.capacity()
+                + upperLinks.capacity());
+    }
+
+    /**
+     * Reads a graph
+     *
+     * @param path path of the graph file
+     * @param mapped true to read the graph from the memory mapped file rather than copy it to the heap
+     * @return graph
+     * @throws IOException Thrown when the file cannot be read
+     */
+    static StoredHnswGraph load(String path, boolean mapped) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            MappedByteBuffer file = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            IntBuffer header = file.asIntBuffer();
+            if (channel.size() < HEADER_INTS * 4 || header.get(0) != HnswGraphBuilder.MAGIC) {
+                throw new IllegalStateException("Not a java_hnsw graph: " + path);
+            }
+            if (header.get(1) != HnswGraphBuilder.VERSION) {
+                throw new IllegalStateException("Unsupported java_hnsw graph version " + header.get(1) + ": " + path);
+            }
+            int spaceType = header.get(2);
+            int dimension = header.get(3);
+            int size = header.get(4);
+            int maxConnections = header.get(5);
+            int entryPoint = header.get(6);
+            int maxLevel = header.get(7);
+            int upperSize = header.get(8);
+            int pqSubspaces = header.get(9);
+            int pqCentroids = header.get(10);
+
+            file.position(HEADER_INTS * 4);
+            IntBuffer docs = readInts(file, size, mapped);
+            FloatBuffer vectors = null;
+            ProductQuantizer quantizer = null;
+            ByteBuffer codes = null;
+            if (pqSubspaces == 0) {
+                vectors = readFloats(file, size * dimension, mapped);
+            } else {
+                float[] codebooks = new float[pqCentroids * dimension];
+                file.slice().asFloatBuffer().get(codebooks);
+                file.position(file.position() + codebooks.length * 4);
+                quantizer = new ProductQuantizer(dimension, pqSubspaces, pqCentroids, codebooks);
+                codes = readBytes(file, size * pqSubspaces, mapped);
+                // Codes are padded to keep the links aligned
+                file.position(file.position() + (4 - size * pqSubspaces % 4) % 4);
+            }
+            IntBuffer level0Links = readInts(file, size * (2 * maxConnections + 1), mapped);
+            IntBuffer upperOffsets = readInts(file, size, mapped);
+            IntBuffer upperLinks = readInts(file, upperSize, mapped);
+            return new StoredHnswGraph(spaceType, dimension, size, maxConnections, entryPoint, maxLevel, docs, vectors,
+                    quantizer, codes, level0Links, upperOffsets, upperLinks);
+        }
+    }
+
+    private static IntBuffer readInts(ByteBuffer file, int count, boolean mapped) {
+        IntBuffer source = file.slice().asIntBuffer();
+        source.limit(count);
+        file.position(file.position() + count * 4);
+        if (mapped) {
+            return source.slice();
+        }
+        IntBuffer target = IntBuffer.wrap(new int[count]);
+        target.put(source);
+        target.flip();
+        return target;
+    }
+
+    private static FloatBuffer readFloats(ByteBuffer file, int count, boolean mapped) {
+        FloatBuffer source = file.slice().asFloatBuffer();
+        source.limit(count);
+        file.position(file.position() + count * 4);
+        if (mapped) {
+            return source.slice();
+        }
+        FloatBuffer target = FloatBuffer.wrap(new float[count]);
+        target.put(source);
+        target.flip();
+        return target;
+    }
+
+    private static ByteBuffer readBytes(ByteBuffer file, int count, boolean mapped) {
+        ByteBuffer source = file.slice();
+        source.limit(count);
+        file.position(file.position() + count);
+        if (mapped) {
+            return source.slice();
+        }
+        ByteBuffer target = ByteBuffer.wrap(new byte[count]);
+        target.put(source);
+        target.flip();
+        return target;
+    }
+
+    /**
+     * @param node node of the graph
+     * @return doc id of the node
+     */
+    int doc(int node) {
+        return docs.get(node);
+    }
+
+    /**
+     * @return true if the distances to the nodes are computed from product quantized vectors
+     */
+    boolean isQuantized() {
+        return quantizer != null;
+    }
+
+    /**
+     * @return memory held by the graph in bytes
+     */
+    long sizeInBytes() {
+        return sizeInBytes;
+    }
+
+    @Override
+    int size() {
+        return size;
+    }
+
+    @Override
+    int entryPoint() {
+        return entryPoint;
+    }
+
+    @Override
+    int maxLevel() {
+        return maxLevel;
+    }
+
+    @Override
+    int neighborCount(int level, int node) {
+        return level == 0 ? level0Links.get(node * (2 * maxConnections + 1)) : upperLinks.get(upperStart(level, node));
+    }
+
+    @Override
+    int neighbor(int level, int node, int i) {
+        return level == 0 ? level0Links.get(node * (2 * maxConnections + 1) + 1 + i)
+                : upperLinks.get(upperStart(level, node) + 1 + i);
+    }
+
+    private int upperStart(int level, int node) {
+        return upperOffsets.get(node) + (level - 1) * (maxConnections + 1);
+    }
+
+    /**
+     * For a product quantized graph, the prepared query is the table of its distances to the centroids
+     */
+    @Override
+    float[] prepareQuery(float[] query) {
+        float[] preparedQuery = super.prepareQuery(query);
+        return quantizer == null ? preparedQuery
+                : quantizer.distanceTable(preparedQuery, spaceType == VectorMath.SPACE_COSINESIMIL);
+    }
+
+    @Override
+    float distance(float[] query, int node) {
+        if (quantizer != null) {
+            return quantizedDistance(query, node);
+        }
+        return VectorMath.distance(spaceType, query, vectors, node * dimension, dimension);
+    }
+
+    private float quantizedDistance(float[] distanceTable, int node) {
+        int subspaces = quantizer.getSubspaces();
+        int centroidCount = quantizer.getCentroidCount();
+        int offset = node * subspaces;
+        float sum = 0;
+        for (int subspace = 0; subspace < subspaces; subspace++) {
+            sum += distanceTable[subspace * centroidCount + (codes.get(offset + subspace) & 0xFF)];
+        }
+        return spaceType == VectorMath.SPACE_COSINESIMIL ? 1 - sum : sum;
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ *   Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License").
+ *   You may not use this file except in compliance with the License.
+ *   A copy of the License is located at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   or in the "license" file accompanying this file. This file is distributed
+ *   on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *   express or implied. See the License for the specific language governing
+ *   permissions and limitations under the License.
+ */
+
+
+package com.amazon.opendistroforelasticsearch.knn.index.ivf;
+
+import com.amazon.opendistroforelasticsearch.knn.index.KNNSettings;
+import com.amazon.opendistroforelasticsearch.knn.index.SpaceTypes;
+import com.amazon.opendistroforelasticsearch.knn.index.engine.KNNEngine;
+import com.amazon.opendistroforelasticsearch.knn.index.engine.KNNEngineIndex;
+import com.amazon.opendistroforelasticsearch.knn.index.util.KNNConstants;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.security.AccessController;
+import java.security.PrivilegedActionException;
+import java.security.PrivilegedExceptionAction;
+import java.util.Map;
+
+/**
+ * Engine building and searching inverted file indices in Java. Building trains nlist k-means centroids on the
+ * vectors of the segment and files every vector under its closest centroid, which is much cheaper than building a
+ * graph; searches scan the nprobe lists closest to the query, trading recall for latency.
+ */
+public class IvfEngine implements KNNEngine {
+    public static final String NAME = "ivf";
+    public static final IvfEngine INSTANCE = new IvfEngine();
+
+    private IvfEngine() {}
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public String getFileTag() {
+        return NAME + IvfIndexBuilder.VERSION;
+    }
+
+    @Override
+    public void buildIndex(int[] docs, float[][] vectors, String indexPath, Map<String, String> fieldAttributes) {
+        String spaceType = fieldAttributes.getOrDefault(KNNConstants.SPACE_TYPE, SpaceTypes.l2.getValue());
+        String nlist = fieldAttributes.get(KNNConstants.IVF_ALGO_NLIST);
+        try {
+            new IvfIndexBuilder(docs, vectors, spaceType, nlist == null ? 0 : Integer.parseInt(nlist)).build()
+                    .write(indexPath);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public KNNEngineIndex loadIndex(String indexPath, String indexName) {
+        int nprobe = KNNSettings.getNprobeParam(indexName);
+        boolean offHeap = KNNSettings.isIvfOffHeap(indexName);
+        try {
+            return AccessController.doPrivileged(
+                    new PrivilegedExceptionAction<KNNEngineIndex>() {
+                        public KNNEngineIndex run() throws IOException {
+                            return IvfIndex.loadIndex(indexPath, nprobe, offHeap);
+                        }
+                    }
+            );
+        } catch (PrivilegedActionException e) {
+            throw new UncheckedIOException((IOException) e.getException());
+        }
+    }
+
+    @Override
+    public KNNEngineIndex.MemoryType getMemoryType(String indexName) {
+        return KNNSettings.isIvfOffHeap(indexName) ? KNNEngineIndex.MemoryType.MAPPED
+                : KNNEngineIndex.MemoryType.HEAP;
+    }
+}
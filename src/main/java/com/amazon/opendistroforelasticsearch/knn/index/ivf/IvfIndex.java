@@ -0,0 +1,210 @@
+/*
+ *   Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License").
+ *   You may not use this file except in compliance with the License.
+ *   A copy of the License is located at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   or in the "license" file accompanying this file. This file is distributed
+ *   on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *   express or implied. See the License for the specific language governing
+ *   permissions and limitations under the License.
+ */
+
+
+package com.amazon.opendistroforelasticsearch.knn.index.ivf;
+
+import com.amazon.opendistroforelasticsearch.knn.index.KNNQueryResult;
+import com.amazon.opendistroforelasticsearch.knn.index.engine.KNNEngineIndex;
+import com.amazon.opendistroforelasticsearch.knn.index.hnsw.NeighborQueue;
+import com.amazon.opendistroforelasticsearch.knn.index.util.VectorMath;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Inverted file index searched in Java: the vectors of a segment are split into lists by their closest k-means
+ * centroid, and a search scans the lists of the nprobe centroids closest to the query. Distances match nmslib's: the
+ * squared euclidean distance for l2, and 1 - dot product over normalized vectors for cosinesimil. The index is either
+ * copied to the heap and reclaimed by the garbage collector once the last reference is released, or read straight from
+ * the memory mapped file.
+ */
+public class IvfIndex extends KNNEngineIndex {
+    static final int HEADER_INTS = 6;
+
+    private final int spaceType;
+    private final int dimension;
+    private final int listCount;
+    private final int nprobe;
+    private final MemoryType memoryType;
+    private volatile Lists lists;
+
+    private IvfIndex(int spaceType, int dimension, int listCount, Lists lists, int nprobe, boolean mapped) {
+        super(lists.sizeInBytes() / 1024 + 1);
+        this.spaceType = spaceType;
+        this.dimension = dimension;
+        this.listCount = listCount;
+        this.lists = lists;
+        this.nprobe = nprobe;
+        this.memoryType = mapped ? MemoryType.MAPPED : MemoryType.HEAP;
+    }
+
+    /**
+     * Loads an index written by the ivf engine. Trailing bytes, like the Lucene footer of the segment file, are
+     * ignored.
+     *
+     * @param indexPath path of the index file
+     * @param nprobe number of lists scanned by a search
+     * @param mapped true to read the index from the memory mapped file rather than copy it to the heap
+     * @return index that can be queried for k nearest neighbours
+     * @throws IOException Thrown when the index cannot be read
+     */
+    public static IvfIndex loadIndex(String indexPath, int nprobe, boolean mapped) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(indexPath), StandardOpenOption.READ)) {
+            if (channel.size() > IvfIndexBuilder.MAX_SIZE_IN_BYTES) {
+                throw new IllegalArgumentException("Ivf index of " + channel.size() + " bytes is larger than the "
+                        + IvfIndexBuilder.MAX_SIZE_IN_BYTES + " bytes that can be loaded: " + indexPath);
+            }
+            MappedByteBuffer file = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (channel.size() < HEADER_INTS * 4 || file.getInt(0) != IvfIndexBuilder.MAGIC) {
+                throw new IllegalStateException("Not an ivf index: " + indexPath);
+            }
+            if (file.getInt(4) != IvfIndexBuilder.VERSION) {
+                throw new IllegalStateException("Unsupported ivf index version " + file.getInt(4) + ": " + indexPath);
+            }
+            int spaceType = file.getInt(8);
+            int dimension = file.getInt(12);
+            int count = file.getInt(16);
+            int listCount = file.getInt(20);
+            long sizeInBytes = IvfIndexBuilder.sizeInBytes(dimension, count, listCount);
+            if (dimension < 0 || count < 0 || listCount < 0 || sizeInBytes > channel.size()) {
+                throw new IllegalStateException("Corrupted ivf index, its header describes " + sizeInBytes
+                        + " bytes but the file has " + channel.size() + ": " + indexPath);
+            }
+
+            file.position(HEADER_INTS * 4);
+            FloatBuffer centroids = readFloats(file, listCount * dimension, mapped);
+            IntBuffer listOffsets = readInts(file, listCount + 1, mapped);
+            IntBuffer docs = readInts(file, count, mapped);
+            FloatBuffer vectors = readFloats(file, count * dimension, mapped);
+            return new IvfIndex(spaceType, dimension, listCount, new Lists(centroids, listOffsets, docs, vectors),
+                    nprobe, mapped);
+        }
+    }
+
+    private static IntBuffer readInts(ByteBuffer file, int count, boolean mapped) {
+        IntBuffer source = file.slice().asIntBuffer();
+        source.limit(count);
+        file.position(file.position() + count * 4);
+        if (mapped) {
+            return source.slice();
+        }
+        IntBuffer target = IntBuffer.wrap(new int[count]);
+        target.put(source);
+        target.flip();
+        return target;
+    }
+
+    private static FloatBuffer readFloats(ByteBuffer file, int count, boolean mapped) {
+        FloatBuffer source = file.slice().asFloatBuffer();
+        source.limit(count);
+        file.position(file.position() + count * 4);
+        if (mapped) {
+            return source.slice();
+        }
+        FloatBuffer target = FloatBuffer.wrap(new float[count]);
+        target.put(source);
+        target.flip();
+        return target;
+    }
+
+    @Override
+    public MemoryType getMemoryType() {
+        return memoryType;
+    }
+
+    @Override
+    protected KNNQueryResult[] search(float[] query, int k, long[] searchStats) {
+        Lists lists = this.lists;
+        if (query.length != dimension) {
+            throw new IllegalArgumentException("Query vector dimension " + query.length + " does not match the index's "
+                    + dimension);
+        }
+        float[] preparedQuery = VectorMath.prepare(spaceType, query);
+
+        // Closest centroids, by euclidean distance as they were trained with
+        int probes = Math.min(Math.max(nprobe, 1), listCount);
+        NeighborQueue closestLists = new NeighborQueue(probes + 1, false);
+        for (int list = 0; list < listCount; list++) {
+            float distance = VectorMath.squaredDistance(preparedQuery, lists.centroids, list * dimension, dimension);
+            if (closestLists.size() < probes || distance < closestLists.topDistance()) {
+                closestLists.add(list, distance);
+                if (closestLists.size() > probes) {
+                    closestLists.pop();
+                }
+            }
+        }
+
+        long distanceComputations = listCount;
+        NeighborQueue neighbors = new NeighborQueue(k + 1, false);
+        while (closestLists.size() > 0) {
+            int list = closestLists.pop();
+            int start = lists.listOffsets.get(list);
+            int end = lists.listOffsets.get(list + 1);
+            for (int i = start; i < end; i++) {
+                float distance = VectorMath.distance(spaceType, preparedQuery, lists.vectors, i * dimension,
+                        dimension);
+                if (neighbors.size() < k || distance < neighbors.topDistance()) {
+                    neighbors.add(i, distance);
+                    if (neighbors.size() > k) {
+                        neighbors.pop();
+                    }
+                }
+            }
+            distanceComputations += end - start;
+        }
+        searchStats[DISTANCE_COMPUTATIONS] += distanceComputations;
+
+        KNNQueryResult[] results = new KNNQueryResult[neighbors.size()];
+        for (int i = results.length - 1; i >= 0; i--) {
+            float distance = neighbors.topDistance();
+            results[i] = new KNNQueryResult(lists.docs.get(neighbors.pop()), distance);
+        }
+        return results;
+    }
+
+    @Override
+    protected void free() {
+        lists = null;
+    }
+
+    /**
+     * Centroids and lists of the index, dropped as a whole when the index is freed. They wrap arrays on the heap, or
+     * slices of the mapped file.
+     */
+    private static class Lists {
+        private final FloatBuffer centroids;
+        private final IntBuffer listOffsets;
+        private final IntBuffer docs;
+        private final FloatBuffer vectors;
+
+        private Lists(FloatBuffer centroids, IntBuffer listOffsets, IntBuffer docs, FloatBuffer vectors) {
+            this.centroids = centroids;
+            this.listOffsets = listOffsets;
+            this.docs = docs;
+            this.vectors = vectors;
+        }
+
+        private long sizeInBytes() {
+            return 4L * (centroids.capacity() + listOffsets.capacity() + docs.capacity() + vectors.capacity());
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ *   Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License").
+ *   You may not use this file except in compliance with the License.
+ *   A copy of the License is located at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   or in the "license" file accompanying this file. This file is distributed
+ *   on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *   express or implied. See the License for the specific language governing
+ *   permissions and limitations under the License.
+ */
+
+
+package com.amazon.opendistroforelasticsearch.knn.index.ivf;
+
+import com.amazon.opendistroforelasticsearch.knn.index.quantization.KMeans;
+import com.amazon.opendistroforelasticsearch.knn.index.util.VectorMath;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Builds an IVF index: trains centroids with k-means, assigns every vector to its closest centroid and writes the
+ * vectors grouped by centroid in the format read by {@link IvfIndex}. Building costs a few passes over the vectors
+ * against the centroids, far less than inserting them into a graph.
+ */
+class IvfIndexBuilder {
+    static final int MAGIC = 0x4B4E4E49;
+    static final int VERSION = 1;
+    // Indices are read through a single mapping of the file, and arrays are indexed by int
+    static final long MAX_SIZE_IN_BYTES = Integer.MAX_VALUE;
+
+    // Fixed seed, so that the same vectors always give the same lists
+    private static final long SEED = 42L;
+
+    private final int[] docs;
+    private final float[] vectors;
+    private final int spaceType;
+    private final int dimension;
+    private final int count;
+    private final int listCount;
+
+    private float[] centroids;
+    private int[] listOffsets;
+    private int[] order;
+
+    /**
+     * Constructor
+     *
+     * @param docs doc ids of the vectors
+     * @param vectors vectors to index
+     * @param spaceType space type of the index
+     * @param nlist number of lists, 0 for the square root of the number of vectors. Capped to the number of vectors.
+     * @throws IllegalArgumentException Thrown when nlist is negative, or when the index would be larger than
+     *                                  {@link #MAX_SIZE_IN_BYTES}
+     */
+    IvfIndexBuilder(int[] docs, float[][] vectors, String spaceType, int nlist) {
+        if (nlist < 0) {
+            throw new IllegalArgumentException("nlist must not be negative, got " + nlist);
+        }
+        this.docs = docs;
+        this.spaceType = VectorMath.spaceType(spaceType);
+        this.count = vectors.length;
+        this.dimension = count == 0 ? 0 : vectors[0].length;
+        int lists = nlist == 0 ? (int) Math.round(Math.sqrt(count)) : nlist;
+        this.listCount = Math.max(1, Math.min(lists, count));
+        long sizeInBytes = sizeInBytes(dimension, count, listCount);
+        if (sizeInBytes > MAX_SIZE_IN_BYTES) {
+            throw new IllegalArgumentException("Ivf index of " + count + " vectors of dimension " + dimension
+                    + " would take " + sizeInBytes + " bytes, more than the limit of " + MAX_SIZE_IN_BYTES
+                    + " bytes per segment");
+        }
+        this.vectors = new float[count * dimension];
+        for (int i = 0; i < count; i++) {
+            float[] vector = VectorMath.prepare(this.spaceType, vectors[i]);
+            System.arraycopy(vector, 0, this.vectors, i * dimension, dimension);
+        }
+    }
+
+    /**
+     * Size of an index file, without trailing bytes, computed in longs so that it does not overflow
+     *
+     * @param dimension dimension of the vectors
+     * @param count number of vectors
+     * @param listCount number of lists
+     * @return size in bytes
+     */
+    static long sizeInBytes(int dimension, int count, int listCount) {
+        return 4L * (IvfIndex.HEADER_INTS + (long) listCount * dimension + listCount + 1 + count
+                + (long) count * dimension);
+    }
+
+    /**
+     * Trains the centroids and assigns the vectors to their lists
+     *
+     * @return this builder
+     */
+    IvfIndexBuilder build() {
+        if (count == 0) {
+            centroids = new float[0];
+            listOffsets = new int[listCount + 1];
+            order = new int[0];
+            return this;
+        }
+        centroids = KMeans.train(vectors, count, dimension, listCount, new Random(SEED));
+
+        int[] assignments = new int[count];
+        listOffsets = new int[listCount + 1];
+        for (int i = 0; i < count; i++) {
+            assignments[i] = KMeans.nearest(centroids, listCount, dimension, vectors, i * dimension);
+            listOffsets[assignments[i] + 1]++;
+        }
+        for (int list = 0; list < listCount; list++) {
+            listOffsets[list + 1] += listOffsets[list];
+        }
+        // Counting sort of the vectors by list
+        order = new int[count];
+        int[] next = new int[listCount];
+        System.arraycopy(listOffsets, 0, next, 0, listCount);
+        for (int i = 0; i < count; i++) {
+            order[next[assignments[i]]++] = i;
+        }
+        return this;
+    }
+
+    /**
+     * Writes the index: a header, then the centroids, the offset of every list followed by the end of the last one,
+     * and the doc ids and vectors ordered by list.
+     *
+     * @param path path of the file to write
+     * @throws IOException Thrown when the file cannot be written
+     */
+    void write(String path) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path),
+                1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(spaceType);
+            out.writeInt(dimension);
+            out.writeInt(count);
+            out.writeInt(listCount);
+
+            for (float value : centroids) {
+                out.writeFloat(value);
+            }
+            for (int offset : listOffsets) {
+                out.writeInt(offset);
+            }
+            for (int i : order) {
+                out.writeInt(docs[i]);
+            }
+            for (int i : order) {
+                for (int d = 0; d < dimension; d++) {
+                    out.writeFloat(vectors[i * dimension + d]);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ *   Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License").
+ *   You may not use this file except in compliance with the License.
+ *   A copy of the License is located at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   or in the "license" file accompanying this file. This file is distributed
+ *   on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *   express or implied. See the License for the specific language governing
+ *   permissions and limitations under the License.
+ */
+
+
+package com.amazon.opendistroforelasticsearch.knn.index.quantization;
+
+import com.amazon.opendistroforelasticsearch.knn.index.util.VectorMath;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Lloyd's k-means over vectors stored one after the other in a flat array, used to train the coarse quantizer of an
+ * IVF index and the codebooks of a product quantizer. Training runs on a random sample of at most {@link #MAX_POINTS_PER_CENTROID} points per centroid, which
+ * bounds its cost independently of the segment size; centroids left without points are moved to the point farthest
+ * from its own centroid, splitting the loosest cluster.
+ */
+public final class KMeans {
+    public static final int MAX_POINTS_PER_CENTROID = 64;
+    public static final int ITERATIONS = 10;
+
+    private KMeans() {}
+
+    /**
+     * Trains centroids
+     *
+     * @param vectors vectors, dimension floats each
+     * @param count number of vectors
+     * @param dimension dimension of the vectors
+     * @param centroidCount number of centroids to train, at most count
+     * @param random source of the sample and of the initial centroids
+     * @return centroids, dimension floats each
+     */
+    public static float[] train(float[] vectors, int count, int dimension, int centroidCount, Random random) {
+        int sampleCount = (int) Math.min(count, (long) centroidCount * MAX_POINTS_PER_CENTROID);
+        int[] sample = sample(count, sampleCount, random);
+
+        // Initial centroids are the first points of the shuffled sample, so they are distinct points of the data
+        float[] centroids = new float[centroidCount * dimension];
+        for (int c = 0; c < centroidCount; c++) {
+            System.arraycopy(vectors, sample[c] * dimension, centroids, c * dimension, dimension);
+        }
+
+        int[] assignments = new int[sampleCount];
+        float[] assignmentDistances = new float[sampleCount];
+        float[] sums = new float[centroidCount * dimension];
+        int[] sizes = new int[centroidCount];
+        for (int iteration = 0; iteration < ITERATIONS; iteration++) {
+            for (int i = 0; i < sampleCount; i++) {
+                int centroid = nearest(centroids, centroidCount, dimension, vectors, sample[i] * dimension);
+                assignments[i] = centroid;
+                assignmentDistances[i] = VectorMath.squaredDistance(centroids, centroid * dimension, vectors,
+                        sample[i] * dimension, dimension);
+            }
+
+            Arrays.fill(sums, 0);
+            Arrays.fill(sizes, 0);
+            for (int i = 0; i < sampleCount; i++) {
+                int offset = sample[i] * dimension;
+                int centroidOffset = assignments[i] * dimension;
+                for (int d = 0; d < dimension; d++) {
+                    sums[centroidOffset + d] += vectors[offset + d];
+                }
+                sizes[assignments[i]]++;
+            }
+            for (int c = 0; c < centroidCount; c++) {
+                if (sizes[c] == 0) {
+                    int farthest = farthest(assignmentDistances);
+                    System.arraycopy(vectors, sample[farthest] * dimension, centroids, c * dimension, dimension);
+                    assignmentDistances[farthest] = 0;
+                    continue;
+                }
+                for (int d = 0; d < dimension; d++) {
+                    centroids[c * dimension + d] = sums[c * dimension + d] / sizes[c];
+                }
+            }
+        }
+        return centroids;
+    }
+
+    /**
+     * @return centroid closest to the vector at the given offset, by euclidean distance
+     */
+    public static int nearest(float[] centroids, int centroidCount, int dimension, float[] vectors, int offset) {
+        int nearest = 0;
+        float nearestDistance = Float.MAX_VALUE;
+        for (int c = 0; c < centroidCount; c++) {
+            float distance = VectorMath.squaredDistance(centroids, c * dimension, vectors, offset, dimension);
+            if (distance < nearestDistance) {
+                nearest = c;
+                nearestDistance = distance;
+            }
+        }
+        return nearest;
+    }
+
+    /**
+     * Partial Fisher-Yates shuffle of the point indices
+     */
+    private static int[] sample(int count, int sampleCount, Random random) {
+        int[] points = new int[count];
+        for (int i = 0; i < count; i++) {
+            points[i] = i;
+        }
+        for (int i = 0; i < sampleCount; i++) {
+            int j = i + random.nextInt(count - i);
+            int point = points[j];
+            points[j] = points[i];
+            points[i] = point;
+        }
+        return Arrays.copyOf(points, sampleCount);
+    }
+
+    private static int farthest(float[] distances) {
+        int farthest = 0;
+        for (int i = 1; i < distances.length; i++) {
+            if (distances[i] > distances[farthest]) {
+                farthest = i;
+            }
+        }
+        return farthest;
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ *   Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License").
+ *   You may not use this file except in compliance with the License.
+ *   A copy of the License is located at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   or in the "license" file accompanying this file. This file is distributed
+ *   on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *   express or implied. See the License for the specific language governing
+ *   permissions and limitations under the License.
+ */
+
+
+package com.amazon.opendistroforelasticsearch.knn.index.quantization;
+
+import com.amazon.opendistroforelasticsearch.knn.index.util.VectorMath;
+
+import java.util.Random;
+
+/**
+ * Product quantizer (Jegou et al., https://hal.inria.fr/inria-00514462): vectors are split into subspaces of equal
+ * dimension, and each subvector is replaced by the one byte index of its closest centroid in the codebook of its
+ * subspace. Distances between a full query and encoded vectors are asymmetric: the distances from the query to every
+ * centroid are computed once per query, after which each encoded vector costs one table lookup per subspace.
+ */
+public final class ProductQuantizer {
+    public static final int MAX_CENTROIDS = 256;
+
+    private final int dimension;
+    private final int subspaces;
+    private final int subDimension;
+    private final int centroidCount;
+    // codebooks[(subspace * centroidCount + centroid) * subDimension + i]
+    private final float[] codebooks;
+
+    /**
+     * Constructor
+     *
+     * @param dimension dimension of the vectors
+     * @param subspaces number of subspaces, which must divide the dimension
+     * @param centroidCount number of centroids of each subspace, at most {@link #MAX_CENTROIDS}
+     * @param codebooks centroids of every subspace
+     */
+    public ProductQuantizer(int dimension, int subspaces, int centroidCount, float[] codebooks) {
+        checkSubspaces(dimension, subspaces);
+        if (centroidCount < 1 || centroidCount > MAX_CENTROIDS) {
+            throw new IllegalArgumentException("Product quantization supports 1 to " + MAX_CENTROIDS
+                    + " centroids per subspace, got " + centroidCount);
+        }
+        if (codebooks.length != centroidCount * dimension) {
+            throw new IllegalArgumentException("Expected " + centroidCount * dimension + " codebook values, got "
+                    + codebooks.length);
+        }
+        this.dimension = dimension;
+        this.subspaces = subspaces;
+        this.subDimension = dimension / subspaces;
+        this.centroidCount = centroidCount;
+        this.codebooks = codebooks;
+    }
+
+    /**
+     * Trains the codebooks with k-means on each subspace
+     *
+     * @param vectors vectors to train on, at least one
+     * @param subspaces number of subspaces, which must divide the dimension of the vectors
+     * @param random source of the k-means samples
+     * @return quantizer
+     */
+    public static ProductQuantizer train(float[][] vectors, int subspaces, Random random) {
+        int dimension = vectors[0].length;
+        checkSubspaces(dimension, subspaces);
+        int subDimension = dimension / subspaces;
+        int centroidCount = Math.min(MAX_CENTROIDS, vectors.length);
+
+        float[] codebooks = new float[centroidCount * dimension];
+        float[] subvectors = new float[vectors.length * subDimension];
+        for (int subspace = 0; subspace < subspaces; subspace++) {
+            for (int i = 0; i < vectors.length; i++) {
+                System.arraycopy(vectors[i], subspace * subDimension, subvectors, i * subDimension, subDimension);
+            }
+            float[] centroids = KMeans.train(subvectors, vectors.length, subDimension, centroidCount, random);
+            System.arraycopy(centroids, 0, codebooks, subspace * centroidCount * subDimension, centroids.length);
+        }
+        return new ProductQuantizer(dimension, subspaces, centroidCount, codebooks);
+    }
+
+    private static void checkSubspaces(int dimension, int subspaces) {
+        if (subspaces < 1 || dimension % subspaces != 0) {
+            throw new IllegalArgumentException("The number of product quantization subspaces must divide the dimension "
+                    + dimension + ", got " + subspaces);
+        }
+    }
+
+    /**
+     * Encodes a vector
+     *
+     * @param vector vector to encode
+     * @param codes array to write the code of the vector to, one byte per subspace
+     * @param offset offset of the code in the array
+     */
+    public void encode(float[] vector, byte[] codes, int offset) {
+        for (int subspace = 0; subspace < subspaces; subspace++) {
+            int nearest = 0;
+            float nearestDistance = Float.MAX_VALUE;
+            for (int centroid = 0; centroid < centroidCount; centroid++) {
+                float distance = VectorMath.squaredDistance(codebooks,
+                        (subspace * centroidCount + centroid) * subDimension, vector, subspace * subDimension,
+                        subDimension);
+                if (distance < nearestDistance) {
+                    nearest = centroid;
+                    nearestDistance = distance;
+                }
+            }
+            codes[offset + subspace] = (byte) nearest;
+        }
+    }
+
+    /**
+     * Computes the table of the distances from a query to the centroids, to add up over the subspaces of an encoded
+     * vector
+     *
+     * @param query full query vector
+     * @param innerProduct true for the inner products of the subvectors, false for their squared euclidean distances
+     * @return table indexed by subspace * centroid count + centroid
+     */
+    public float[] distanceTable(float[] query, boolean innerProduct) {
+        float[] table = new float[subspaces * centroidCount];
+        for (int subspace = 0; subspace < subspaces; subspace++) {
+            int queryOffset = subspace * subDimension;
+            for (int centroid = 0; centroid < centroidCount; centroid++) {
+                int centroidOffset = (subspace * centroidCount + centroid) * subDimension;
+                table[subspace * centroidCount + centroid] = innerProduct
+                        ? VectorMath.dotProduct(query, queryOffset, codebooks, centroidOffset, subDimension)
+                        : VectorMath.squaredDistance(query, queryOffset, codebooks, centroidOffset, subDimension);
+            }
+        }
+        return table;
+    }
+
+    public int getDimension() {
+        return dimension;
+    }
+
+    public int getSubspaces() {
+        return subspaces;
+    }
+
+    public int getCentroidCount() {
+        return centroidCount;
+    }
+
+    public float[] getCodebooks() {
+        return codebooks;
+    }
+}
@@ -21,4 +21,7 @@ public class KNNConstants {
     public static final String HNSW_ALGO_EF_CONSTRUCTION = "efConstruction";
     public static final String HNSW_ALGO_EF_SEARCH = "efSearch";
     public static final String HNSW_ALGO_INDEX_THREAD_QTY = "indexThreadQty";
+    public static final String IVF_ALGO_NLIST = "nlist";
+    public static final String PQ_ALGO_M = "pqM";
+    public static final String KNN_ENGINE = "engine";
 }
@@ -0,0 +1,155 @@
+/*
+ *   Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License").
+ *   You may not use this file except in compliance with the License.
+ *   A copy of the License is located at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   or in the "license" file accompanying this file. This file is distributed
+ *   on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *   express or implied. See the License for the specific language governing
+ *   permissions and limitations under the License.
+ */
+
+
+package com.amazon.opendistroforelasticsearch.knn.index.util;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Builds of the native library for different SIMD instruction sets, from the widest to the generic one. Each is built
+ * by jni/CMakeLists.txt with -DKNN_SIMD set to its suffix. The widest variant that the host CPU supports and that is
+ * installed is loaded.
+ */
+public enum NativeLibraryVariant {
+    AVX512("avx512", "avx512f", "avx512cd", "avx512bw", "avx512dq", "avx512vl", "avx2", "fma"),
+    AVX2("avx2", "avx2", "fma"),
+    SSE4("sse4", "sse4_2", "popcnt"),
+    GENERIC("");
+
+    private static Logger logger = LogManager.getLogger(NativeLibraryVariant.class);
+
+    private static final Path CPU_INFO = Paths.get("/proc/cpuinfo");
+
+    private static volatile NativeLibraryVariant loaded;
+
+    private final String suffix;
+    private final Set<String> requiredCpuFlags;
+
+    NativeLibraryVariant(String suffix, String... requiredCpuFlags) {
+        this.suffix = suffix;
+        this.requiredCpuFlags = new HashSet<>(Arrays.asList(requiredCpuFlags));
+    }
+
+    /**
+     * Name of the library of this variant
+     *
+     * @param baseName name of the generic library, see {@link NmsLibVersion#indexLibraryVersion()}
+     * @return library name to pass to System.loadLibrary
+     */
+    public String libraryName(String baseName) {
+        return this == GENERIC ? baseName : baseName + "_" + suffix;
+    }
+
+    /**
+     * Returns whether a CPU with the given flags can run this variant
+     *
+     * @param cpuFlags flags of the CPU, as listed in /proc/cpuinfo
+     * @return true if the CPU supports every instruction set the variant is built with
+     */
+    public boolean isSupported(Set<String> cpuFlags) {
+        return cpuFlags.containsAll(requiredCpuFlags);
+    }
+
+    /**
+     * Load the widest variant of the library that the host CPU supports. Variants that are not installed are
+     * skipped. Must be called with the permissions to read /proc/cpuinfo and load the libraries.
+     *
+     * @param baseName name of the generic library
+     * @return variant loaded
+     * @throws UnsatisfiedLinkError if not even the generic library can be loaded
+     */
+    public static synchronized NativeLibraryVariant load(String baseName) {
+        Set<String> cpuFlags = readCpuFlags();
+        for (NativeLibraryVariant variant : values()) {
+            if (!variant.isSupported(cpuFlags)) {
+                continue;
+            }
+            try {
+                System.loadLibrary(variant.libraryName(baseName));
+            } catch (UnsatisfiedLinkError e) {
+                if (variant == GENERIC) {
+                    throw e;
+                }
+                logger.debug("[KNN] Native library {} is not installed", variant.libraryName(baseName));
+                continue;
+            }
+            logger.info("[KNN] Loaded native library {}", variant.libraryName(baseName));
+            loaded = variant;
+            return variant;
+        }
+        throw new IllegalStateException("No native library variant for this CPU");
+    }
+
+    /**
+     * Returns the variant of the library loaded on this node
+     *
+     * @return variant loaded, or null if the library has not been loaded yet
+     */
+    public static NativeLibraryVariant getLoaded() {
+        return loaded;
+    }
+
+    /**
+     * Name of the variant, as reported in stats
+     *
+     * @return lowercase name of the variant
+     */
+    public String getName() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+
+    private static Set<String> readCpuFlags() {
+        if (!Files.isReadable(CPU_INFO)) {
+            return Collections.emptySet();
+        }
+        try {
+            return parseCpuFlags(Files.readAllLines(CPU_INFO, StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            logger.warn("[KNN] Unable to read the CPU flags, loading the generic native library", e);
+            return Collections.emptySet();
+        }
+    }
+
+    /**
+     * Parse the flags of the first processor listed in /proc/cpuinfo. All processors of a host support the same
+     * instruction sets.
+     *
+     * @param cpuInfo lines of /proc/cpuinfo
+     * @return flags of the CPU
+     */
+    static Set<String> parseCpuFlags(List<String> cpuInfo) {
+        for (String line : cpuInfo) {
+            int separator = line.indexOf(':');
+            if (separator > 0 && line.substring(0, separator).trim().equals("flags")) {
+                return new HashSet<>(Arrays.asList(line.substring(separator + 1).trim().split("\\s+")));
+            }
+        }
+        return Collections.emptySet();
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ *   Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License").
+ *   You may not use this file except in compliance with the License.
+ *   A copy of the License is located at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   or in the "license" file accompanying this file. This file is distributed
+ *   on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *   express or implied. See the License for the specific language governing
+ *   permissions and limitations under the License.
+ */
+
+
+package com.amazon.opendistroforelasticsearch.knn.index.util;
+
+import com.amazon.opendistroforelasticsearch.knn.index.SpaceTypes;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Space types and vector math shared by the engines searched in Java, the quantizers and the exact rescoring. The
+ * distances match nmslib's: the squared euclidean distance for l2, and 1 - cosine similarity for cosinesimil. Indices
+ * compute the latter as 1 - dot product over vectors normalized up front, see {@link #prepare(int, float[])}.
+ */
+public final class VectorMath {
+    public static final int SPACE_L2 = 0;
+    public static final int SPACE_COSINESIMIL = 1;
+
+    private VectorMath() {}
+
+    /**
+     * @param spaceType name of the space type, see {@link SpaceTypes}
+     * @return id of the space type that indices store and compute distances with
+     */
+    public static int spaceType(String spaceType) {
+        return SpaceTypes.cosinesimil.getValue().equals(spaceType) ? SPACE_COSINESIMIL : SPACE_L2;
+    }
+
+    /**
+     * Returns the vector to compute distances with: normalized for cosinesimil, as is for l2
+     */
+    public static float[] prepare(int spaceType, float[] vector) {
+        return spaceType == SPACE_COSINESIMIL ? normalize(vector) : vector;
+    }
+
+    /**
+     * @return copy of the vector scaled to unit length, the vector itself if it is all zeros
+     */
+    public static float[] normalize(float[] vector) {
+        double norm = 0;
+        for (float value : vector) {
+            norm += value * value;
+        }
+        if (norm == 0) {
+            return vector;
+        }
+        float scale = (float) (1 / Math.sqrt(norm));
+        float[] normalized = new float[vector.length];
+        for (int i = 0; i < vector.length; i++) {
+            normalized[i] = vector[i] * scale;
+        }
+        return normalized;
+    }
+
+    /**
+     * Distance between two vectors prepared with {@link #prepare(int, float[])}
+     */
+    public static float distance(int spaceType, float[] a, float[] b) {
+        return spaceType == SPACE_COSINESIMIL ? 1 - dotProduct(a, 0, b, 0, a.length)
+                : squaredDistance(a, 0, b, 0, a.length);
+    }
+
+    /**
+     * Distance between a prepared query and the prepared vector at the given offset of a buffer
+     */
+    public static float distance(int spaceType, float[] query, FloatBuffer vectors, int offset, int dimension) {
+        return spaceType == SPACE_COSINESIMIL ? 1 - dotProduct(query, vectors, offset, dimension)
+                : squaredDistance(query, vectors, offset, dimension);
+    }
+
+    /**
+     * Exact distance between two vectors as they were indexed, neither of them normalized
+     *
+     * @param spaceType name of the space type of the index
+     * @param queryVector query vector
+     * @param vector vector of a document
+     * @return distance, lower is closer
+     */
+    public static float exactDistance(String spaceType, float[] queryVector, float[] vector) {
+        if (spaceType(spaceType) == SPACE_COSINESIMIL) {
+            float queryNorm = dotProduct(queryVector, 0, queryVector, 0, queryVector.length);
+            float norm = dotProduct(vector, 0, vector, 0, vector.length);
+            return 1 - (float) (dotProduct(queryVector, 0, vector, 0, queryVector.length)
+                    / Math.sqrt((double) queryNorm * norm));
+        }
+        return squaredDistance(queryVector, 0, vector, 0, queryVector.length);
+    }
+
+    public static float squaredDistance(float[] a, int aOffset, float[] b, int bOffset, int dimension) {
+        float sum = 0;
+        for (int d = 0; d < dimension; d++) {
+            float diff = a[aOffset + d] - b[bOffset + d];
+            sum += diff * diff;
+        }
+        return sum;
+    }
+
+    public static float squaredDistance(float[] query, FloatBuffer vectors, int offset, int dimension) {
+        float sum = 0;
+        for (int d = 0; d < dimension; d++) {
+            float diff = query[d] - vectors.get(offset + d);
+            sum += diff * diff;
+        }
+        return sum;
+    }
+
+    public static float dotProduct(float[] a, int aOffset, float[] b, int bOffset, int dimension) {
+        float sum = 0;
+        for (int d = 0; d < dimension; d++) {
+            sum += a[aOffset + d] * b[bOffset + d];
+        }
+        return sum;
+    }
+
+    public static float dotProduct(float[] query, FloatBuffer vectors, int offset, int dimension) {
+        float sum = 0;
+        for (int d = 0; d < dimension; d++) {
+            sum += query[d] * vectors.get(offset + d);
+        }
+        return sum;
+    }
+}
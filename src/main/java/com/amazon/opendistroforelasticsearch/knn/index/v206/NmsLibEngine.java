@@ -0,0 +1,86 @@
+/*
+ *   Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License").
+ *   You may not use this file except in compliance with the License.
+ *   A copy of the License is located at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   or in the "license" file accompanying this file. This file is distributed
+ *   on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *   express or implied. See the License for the specific language governing
+ *   permissions and limitations under the License.
+ */
+
+
+package com.amazon.opendistroforelasticsearch.knn.index.v206;
+
+import com.amazon.opendistroforelasticsearch.knn.index.KNNSettings;
+import com.amazon.opendistroforelasticsearch.knn.index.SpaceTypes;
+import com.amazon.opendistroforelasticsearch.knn.index.engine.KNNEngine;
+import com.amazon.opendistroforelasticsearch.knn.index.engine.KNNEngineIndex;
+import com.amazon.opendistroforelasticsearch.knn.index.util.KNNConstants;
+import com.amazon.opendistroforelasticsearch.knn.index.util.NmsLibVersion;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Engine building and searching HNSW graphs with nmslib 2.0.6 through {@link KNNIndex}. Its file tag is the nmslib
+ * build version, which graph files carried before engines were pluggable, so existing segments keep loading.
+ */
+public class NmsLibEngine implements KNNEngine {
+    public static final String NAME = "nmslib";
+    public static final NmsLibEngine INSTANCE = new NmsLibEngine();
+
+    private NmsLibEngine() {}
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public String getFileTag() {
+        return NmsLibVersion.LATEST.buildVersion;
+    }
+
+    @Override
+    public void buildIndex(int[] docs, float[][] vectors, String indexPath, Map<String, String> fieldAttributes) {
+        /**
+         * We always write with latest NMS library version
+         */
+        if (!NmsLibVersion.LATEST.indexLibraryVersion().equals(KNNIndex.VERSION.indexLibraryVersion())) {
+            throw new IllegalStateException(String.format("KNN codec nms library version mis match. Latest version: %s " +
+                    "Current version: %s", NmsLibVersion.LATEST.indexLibraryVersion(), KNNIndex.VERSION));
+        }
+        String spaceType = fieldAttributes.getOrDefault(KNNConstants.SPACE_TYPE, SpaceTypes.l2.getValue());
+        KNNIndex.saveIndex(docs, vectors, indexPath, getIndexParams(fieldAttributes), spaceType);
+    }
+
+    @Override
+    public KNNEngineIndex loadIndex(String indexPath, String indexName) {
+        return KNNIndex.loadIndex(indexPath, getQueryParams(indexName), KNNSettings.getSpaceType(indexName));
+    }
+
+    private String[] getIndexParams(Map<String, String> fieldAttributes) {
+        List<String> algoParams = new ArrayList<>();
+        if (fieldAttributes.containsKey(KNNConstants.HNSW_ALGO_M)) {
+            algoParams.add(KNNConstants.HNSW_ALGO_M + "=" + fieldAttributes.get(KNNConstants.HNSW_ALGO_M));
+        }
+        if (fieldAttributes.containsKey(KNNConstants.HNSW_ALGO_EF_CONSTRUCTION)) {
+            algoParams.add(KNNConstants.HNSW_ALGO_EF_CONSTRUCTION + "=" + fieldAttributes.get(KNNConstants.HNSW_ALGO_EF_CONSTRUCTION));
+        }
+
+        // Cluster level setting so no need to specify for every index creation
+        algoParams.add(KNNConstants.HNSW_ALGO_INDEX_THREAD_QTY + "=" + KNNSettings.state().getSettingValue(
+                KNNSettings.KNN_ALGO_PARAM_INDEX_THREAD_QTY));
+        return algoParams.toArray(new String[0]);
+    }
+
+    private String[] getQueryParams(String indexName) {
+        return new String[] {KNNConstants.HNSW_ALGO_EF_SEARCH + "=" + KNNSettings.getEfSearchParam(indexName)};
+    }
+}
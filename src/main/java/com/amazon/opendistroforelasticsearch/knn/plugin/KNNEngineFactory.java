@@ -16,14 +16,15 @@
 
 package com.amazon.opendistroforelasticsearch.knn.plugin;
 
+import com.amazon.opendistroforelasticsearch.knn.index.KNNGraphWarmer;
 import org.elasticsearch.index.codec.CodecService;
 import org.elasticsearch.index.engine.Engine;
 import org.elasticsearch.index.engine.EngineConfig;
 import org.elasticsearch.index.engine.EngineFactory;
-import org.elasticsearch.index.engine.InternalEngine;
 
 /**
- * EngineFactory to inject the KNNCodecService to help segments write using the KNNCodec.
+ * EngineFactory to inject the KNNCodecService to help segments write using the KNNCodec, and to back off indexing
+ * while the k-NN circuit breaker is tripped.
  */
 class KNNEngineFactory implements EngineFactory {
 
@@ -31,14 +32,15 @@ class KNNEngineFactory implements EngineFactory {
 
     @Override
     public Engine newReadWriteEngine(EngineConfig config) {
+        Engine.Warmer warmer = new KNNGraphWarmer(config.getWarmer(), config.getIndexSettings());
         EngineConfig engineConfig = new EngineConfig(config.getShardId(), config.getAllocationId(),
-                config.getThreadPool(), config.getIndexSettings(), config.getWarmer(), config.getStore(),
+                config.getThreadPool(), config.getIndexSettings(), warmer, config.getStore(),
                 config.getMergePolicy(), config.getAnalyzer(), config.getSimilarity(), codecService,
                 config.getEventListener(), config.getQueryCache(), config.getQueryCachingPolicy(),
                 config.getTranslogConfig(), config.getFlushMergesAfter(), config.getExternalRefreshListener(),
                 config.getInternalRefreshListener(), config.getIndexSort(), config.getCircuitBreakerService(),
                 config.getGlobalCheckpointSupplier(), config.retentionLeasesSupplier(), config.getPrimaryTermSupplier(),
                 config.getTombstoneDocSupplier());
-        return new InternalEngine(engineConfig);
+        return new KNNInternalEngine(engineConfig);
     }
 }
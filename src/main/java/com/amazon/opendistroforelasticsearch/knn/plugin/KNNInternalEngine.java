@@ -0,0 +1,65 @@
+/*
+ *   Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License").
+ *   You may not use this file except in compliance with the License.
+ *   A copy of the License is located at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   or in the "license" file accompanying this file. This file is distributed
+ *   on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *   express or implied. See the License for the specific language governing
+ *   permissions and limitations under the License.
+ */
+
+
+package com.amazon.opendistroforelasticsearch.knn.plugin;
+
+import com.amazon.opendistroforelasticsearch.knn.index.KNNCircuitBreaker;
+import com.amazon.opendistroforelasticsearch.knn.index.VectorField;
+import org.apache.lucene.index.IndexableField;
+import org.elasticsearch.common.breaker.CircuitBreakingException;
+import org.elasticsearch.index.engine.EngineConfig;
+import org.elasticsearch.index.engine.InternalEngine;
+import org.elasticsearch.index.mapper.ParseContext;
+
+import java.io.IOException;
+
+/**
+ * Engine of k-NN indices. Rejects documents with knn_vector fields while the k-NN circuit breaker of the node is
+ * tripped. Only operations on the primary are rejected, as a document-level failure that is not replicated: a replica
+ * must apply every operation its primary accepted, otherwise it would be failed.
+ */
+class KNNInternalEngine extends InternalEngine {
+
+    KNNInternalEngine(EngineConfig engineConfig) {
+        super(engineConfig);
+    }
+
+    @Override
+    public IndexResult index(Index index) throws IOException {
+        if (index.origin() == Operation.Origin.PRIMARY && KNNCircuitBreaker.getInstance().isTripped()) {
+            String vectorField = getVectorField(index);
+            if (vectorField != null) {
+                try {
+                    KNNCircuitBreaker.getInstance().checkIndexing(vectorField);
+                } catch (CircuitBreakingException e) {
+                    return new IndexResult(e, index.version());
+                }
+            }
+        }
+        return super.index(index);
+    }
+
+    private static String getVectorField(Index index) {
+        for (ParseContext.Document document : index.docs()) {
+            for (IndexableField field : document.getFields()) {
+                if (field instanceof VectorField) {
+                    return field.name();
+                }
+            }
+        }
+        return null;
+    }
+}
@@ -15,18 +15,25 @@
 
 package com.amazon.opendistroforelasticsearch.knn.plugin;
 
+import com.amazon.opendistroforelasticsearch.knn.index.KNNCacheManifest;
 import com.amazon.opendistroforelasticsearch.knn.index.KNNCircuitBreaker;
 import com.amazon.opendistroforelasticsearch.knn.index.KNNIndexCache;
 import com.amazon.opendistroforelasticsearch.knn.index.KNNQueryBuilder;
+import com.amazon.opendistroforelasticsearch.knn.index.KNNQueryProfiler;
 import com.amazon.opendistroforelasticsearch.knn.index.KNNSettings;
+import com.amazon.opendistroforelasticsearch.knn.index.KNNSlowLog;
 import com.amazon.opendistroforelasticsearch.knn.index.KNNVectorFieldMapper;
 
+import com.amazon.opendistroforelasticsearch.knn.plugin.rest.RestKNNEvictHandler;
 import com.amazon.opendistroforelasticsearch.knn.plugin.rest.RestKNNStatsHandler;
 import com.amazon.opendistroforelasticsearch.knn.plugin.rest.RestKNNWarmupHandler;
 import com.amazon.opendistroforelasticsearch.knn.plugin.stats.KNNStats;
+import com.amazon.opendistroforelasticsearch.knn.plugin.transport.KNNEvictAction;
+import com.amazon.opendistroforelasticsearch.knn.plugin.transport.KNNEvictTransportAction;
 import com.amazon.opendistroforelasticsearch.knn.plugin.transport.KNNStatsAction;
 import com.amazon.opendistroforelasticsearch.knn.plugin.transport.KNNStatsTransportAction;
 import com.amazon.opendistroforelasticsearch.knn.plugin.transport.KNNWarmupAction;
+import com.amazon.opendistroforelasticsearch.knn.plugin.transport.KNNWarmupShardTask;
 import com.amazon.opendistroforelasticsearch.knn.plugin.transport.KNNWarmupTransportAction;
 import com.google.common.collect.ImmutableList;
 
@@ -36,12 +43,14 @@ import org.elasticsearch.client.Client;
 import org.elasticsearch.cluster.metadata.IndexNameExpressionResolver;
 import org.elasticsearch.cluster.node.DiscoveryNodes;
 import org.elasticsearch.cluster.service.ClusterService;
+import org.elasticsearch.common.breaker.CircuitBreaker;
 import org.elasticsearch.common.io.stream.NamedWriteableRegistry;
 import org.elasticsearch.common.settings.ClusterSettings;
 import org.elasticsearch.common.settings.IndexScopedSettings;
 import org.elasticsearch.common.settings.Setting;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.settings.SettingsFilter;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
 import org.elasticsearch.common.xcontent.NamedXContentRegistry;
 import org.elasticsearch.env.Environment;
 import org.elasticsearch.env.NodeEnvironment;
@@ -49,7 +58,9 @@ import org.elasticsearch.index.IndexModule;
 import org.elasticsearch.index.IndexSettings;
 import org.elasticsearch.index.engine.EngineFactory;
 import org.elasticsearch.index.mapper.Mapper;
+import org.elasticsearch.indices.breaker.BreakerSettings;
 import org.elasticsearch.plugins.ActionPlugin;
+import org.elasticsearch.plugins.CircuitBreakerPlugin;
 import org.elasticsearch.plugins.EnginePlugin;
 import org.elasticsearch.plugins.MapperPlugin;
 import org.elasticsearch.plugins.Plugin;
@@ -58,6 +69,9 @@ import org.elasticsearch.repositories.RepositoriesService;
 import org.elasticsearch.rest.RestController;
 import org.elasticsearch.rest.RestHandler;
 import org.elasticsearch.script.ScriptService;
+import org.elasticsearch.tasks.Task;
+import org.elasticsearch.threadpool.ExecutorBuilder;
+import org.elasticsearch.threadpool.FixedExecutorBuilder;
 import org.elasticsearch.threadpool.ThreadPool;
 import org.elasticsearch.watcher.ResourceWatcherService;
 
@@ -102,12 +116,15 @@ import static java.util.Collections.singletonList;
  *   }
  *
  */
-public class KNNPlugin extends Plugin implements MapperPlugin, SearchPlugin, ActionPlugin, EnginePlugin {
+public class KNNPlugin extends Plugin implements MapperPlugin, SearchPlugin, ActionPlugin, EnginePlugin,
+        CircuitBreakerPlugin {
 
     public static final String KNN_BASE_URI = "/_opendistro/_knn";
+    public static final String KNN_WARMUP_THREAD_POOL = "knn_warmup";
 
     private KNNStats knnStats;
     private ClusterService clusterService;
+    private KNNCacheManifest knnCacheManifest;
 
     @Override
     public Map<String, Mapper.TypeParser> getMappers() {
@@ -129,9 +146,9 @@ public class KNNPlugin extends Plugin implements MapperPlugin, SearchPlugin, Act
         this.clusterService = clusterService;
         KNNIndexCache.setResourceWatcherService(resourceWatcherService);
         KNNSettings.state().initialize(client, clusterService);
-        KNNCircuitBreaker.getInstance().initialize(threadPool, clusterService, client);
         knnStats = new KNNStats(KNN_STATS);
-        return ImmutableList.of(knnStats);
+        knnCacheManifest = new KNNCacheManifest(environment.settings(), nodeEnvironment, threadPool);
+        return ImmutableList.of(knnStats, knnCacheManifest);
     }
 
     @Override
@@ -150,8 +167,10 @@ public class KNNPlugin extends Plugin implements MapperPlugin, SearchPlugin, Act
         RestKNNStatsHandler restKNNStatsHandler = new RestKNNStatsHandler(settings, restController, knnStats);
         RestKNNWarmupHandler restKNNWarmupHandler = new RestKNNWarmupHandler(settings, restController, clusterService,
                 indexNameExpressionResolver);
+        RestKNNEvictHandler restKNNEvictHandler = new RestKNNEvictHandler(settings, restController, clusterService,
+                indexNameExpressionResolver);
 
-        return Arrays.asList(restKNNStatsHandler, restKNNWarmupHandler);
+        return Arrays.asList(restKNNStatsHandler, restKNNWarmupHandler, restKNNEvictHandler);
     }
 
     /**
@@ -161,10 +180,38 @@ public class KNNPlugin extends Plugin implements MapperPlugin, SearchPlugin, Act
     public List<ActionHandler<? extends ActionRequest, ? extends ActionResponse>> getActions() {
         return Arrays.asList(
                 new ActionHandler<>(KNNStatsAction.INSTANCE, KNNStatsTransportAction.class),
-                new ActionHandler<>(KNNWarmupAction.INSTANCE, KNNWarmupTransportAction.class)
+                new ActionHandler<>(KNNWarmupAction.INSTANCE, KNNWarmupTransportAction.class),
+                new ActionHandler<>(KNNEvictAction.INSTANCE, KNNEvictTransportAction.class)
         );
     }
 
+    @Override
+    public List<NamedWriteableRegistry.Entry> getNamedWriteables() {
+        return singletonList(new NamedWriteableRegistry.Entry(Task.Status.class, KNNWarmupShardTask.Status.NAME,
+                KNNWarmupShardTask.Status::new));
+    }
+
+    /**
+     * Graphs are loaded by the warmup API on a dedicated pool so that warming up does not take threads away from search.
+     * Its size, thread_pool.knn_warmup.size, is the number of graphs a node loads concurrently.
+     */
+    @Override
+    public List<ExecutorBuilder<?>> getExecutorBuilders(Settings settings) {
+        int warmupThreads = Math.max(1, EsExecutors.allocatedProcessors(settings) / 2);
+        return singletonList(new FixedExecutorBuilder(settings, KNN_WARMUP_THREAD_POOL, warmupThreads, -1,
+                "thread_pool." + KNN_WARMUP_THREAD_POOL));
+    }
+
+    @Override
+    public BreakerSettings getCircuitBreaker(Settings settings) {
+        return KNNCircuitBreaker.getBreakerSettings(settings);
+    }
+
+    @Override
+    public void setCircuitBreaker(CircuitBreaker circuitBreaker) {
+        KNNCircuitBreaker.getInstance().setCircuitBreaker(circuitBreaker);
+    }
+
     @Override
     public Optional<EngineFactory> getEngineFactory(IndexSettings indexSettings) {
         if (indexSettings.getValue(KNNSettings.IS_KNN_INDEX_SETTING)) {
@@ -176,5 +223,9 @@ public class KNNPlugin extends Plugin implements MapperPlugin, SearchPlugin, Act
     @Override
     public void onIndexModule(IndexModule indexModule) {
         KNNSettings.state().onIndexModule(indexModule);
+        if (KNNSettings.IS_KNN_INDEX_SETTING.get(indexModule.getSettings())) {
+            indexModule.addIndexEventListener(knnCacheManifest);
+            indexModule.addSearchOperationListener(new KNNQueryProfiler(new KNNSlowLog(indexModule)));
+        }
     }
 }
@@ -0,0 +1,100 @@
+/*
+ *   Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License").
+ *   You may not use this file except in compliance with the License.
+ *   A copy of the License is located at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   or in the "license" file accompanying this file. This file is distributed
+ *   on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *   express or implied. See the License for the specific language governing
+ *   permissions and limitations under the License.
+ */
+
+package com.amazon.opendistroforelasticsearch.knn.plugin.rest;
+
+import com.amazon.opendistroforelasticsearch.knn.common.exception.KNNInvalidIndicesException;
+import com.amazon.opendistroforelasticsearch.knn.plugin.KNNPlugin;
+import com.amazon.opendistroforelasticsearch.knn.plugin.transport.KNNEvictAction;
+import com.amazon.opendistroforelasticsearch.knn.plugin.transport.KNNEvictRequest;
+import com.google.common.collect.ImmutableList;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.elasticsearch.client.node.NodeClient;
+import org.elasticsearch.cluster.metadata.IndexNameExpressionResolver;
+import org.elasticsearch.cluster.service.ClusterService;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.index.Index;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.action.RestActions;
+
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static com.amazon.opendistroforelasticsearch.knn.index.KNNSettings.KNN_INDEX;
+import static org.elasticsearch.action.support.IndicesOptions.strictExpandOpen;
+
+/**
+ * RestHandler for k-NN graph eviction API. API provides the ability for a user to free the native memory used by the
+ * graphs of specific indices on all nodes without closing the indices. Evicted graphs are loaded again by the next
+ * search or warmup.
+ */
+public class RestKNNEvictHandler extends BaseRestHandler {
+    public static String NAME = "knn_evict_action";
+
+    private static final Logger logger = LogManager.getLogger(RestKNNEvictHandler.class);
+
+    private IndexNameExpressionResolver indexNameExpressionResolver;
+    private ClusterService clusterService;
+
+    public RestKNNEvictHandler(Settings settings, RestController controller, ClusterService clusterService,
+                               IndexNameExpressionResolver indexNameExpressionResolver) {
+        this.clusterService = clusterService;
+        this.indexNameExpressionResolver = indexNameExpressionResolver;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public List<Route> routes() {
+        return ImmutableList.of(
+                new Route(RestRequest.Method.POST, KNNPlugin.KNN_BASE_URI + "/evict/{index}")
+        );
+    }
+
+    @Override
+    protected RestChannelConsumer prepareRequest(RestRequest request, NodeClient client) {
+        KNNEvictRequest knnEvictRequest = createKNNEvictRequest(request);
+        logger.info("[KNN] Evicting graphs of the following indices: " + String.join(",", knnEvictRequest.indices()));
+        return channel -> client.execute(KNNEvictAction.INSTANCE, knnEvictRequest,
+                new RestActions.NodesResponseRestListener<>(channel));
+    }
+
+    private KNNEvictRequest createKNNEvictRequest(RestRequest request) {
+        String[] indexNames = Strings.splitStringByCommaToArray(request.param("index"));
+        Index[] indices =  indexNameExpressionResolver.concreteIndices(clusterService.state(), strictExpandOpen(),
+                indexNames);
+
+        List<String> invalidIndexNames = Stream.of(indices)
+                .filter(index -> !"true".equals(clusterService.state().metadata().getIndexSafe(index).getSettings()
+                        .get(KNN_INDEX)))
+                .map(Index::getName)
+                .collect(Collectors.toList());
+
+        if (invalidIndexNames.size() != 0) {
+            throw new KNNInvalidIndicesException(invalidIndexNames,
+                    "Evict request rejected. One or more indices have 'index.knn' set to false.");
+        }
+
+        return new KNNEvictRequest(Stream.of(indices).map(Index::getName).toArray(String[]::new));
+    }
+}
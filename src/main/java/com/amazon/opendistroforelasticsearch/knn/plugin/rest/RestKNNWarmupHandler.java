@@ -27,11 +27,16 @@ import org.elasticsearch.cluster.metadata.IndexNameExpressionResolver;
 import org.elasticsearch.cluster.service.ClusterService;
 import org.elasticsearch.common.Strings;
 import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.index.Index;
 import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.BytesRestResponse;
 import org.elasticsearch.rest.RestController;
 import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.RestStatus;
 import org.elasticsearch.rest.action.RestToXContentListener;
+import org.elasticsearch.tasks.LoggingTaskListener;
+import org.elasticsearch.tasks.Task;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -42,7 +47,7 @@ import static org.elasticsearch.action.support.IndicesOptions.strictExpandOpen;
 
 /**
  * RestHandler for k-NN index warmup API. API provides the ability for a user to load specific indices' k-NN graphs
- * into memory.
+ * into memory. With wait_for_completion=false the warmup runs in the background and the id of its task is returned.
  */
 public class RestKNNWarmupHandler extends BaseRestHandler {
     public static String NAME = "knn_warmup_action";
@@ -75,7 +80,22 @@ public class RestKNNWarmupHandler extends BaseRestHandler {
         KNNWarmupRequest knnWarmupRequest = createKNNWarmupRequest(request);
         logger.info("[KNN] Warmup started for the following indices: "
                 + String.join(",", knnWarmupRequest.indices()));
-        return channel -> client.execute(KNNWarmupAction.INSTANCE, knnWarmupRequest, new RestToXContentListener<>(channel));
+
+        if (request.paramAsBoolean("wait_for_completion", true)) {
+            return channel -> client.execute(KNNWarmupAction.INSTANCE, knnWarmupRequest,
+                    new RestToXContentListener<>(channel));
+        }
+
+        knnWarmupRequest.setShouldStoreResult(true);
+        Task task = client.executeLocally(KNNWarmupAction.INSTANCE, knnWarmupRequest, LoggingTaskListener.instance());
+        return channel -> {
+            try (XContentBuilder builder = channel.newBuilder()) {
+                builder.startObject();
+                builder.field("task", client.getLocalNodeId() + ":" + task.getId());
+                builder.endObject();
+                channel.sendResponse(new BytesRestResponse(RestStatus.OK, builder));
+            }
+        };
     }
 
     private KNNWarmupRequest createKNNWarmupRequest(RestRequest request) {
@@ -23,6 +23,7 @@ import java.util.concurrent.atomic.AtomicLong;
 public enum KNNCounter {
     GRAPH_QUERY_ERRORS("graph_query_errors"),
     GRAPH_QUERY_REQUESTS("graph_query_requests"),
+    GRAPH_QUERY_DISTANCE_COMPUTATIONS("graph_query_distance_computations"),
     GRAPH_INDEX_ERRORS("graph_index_errors"),
     GRAPH_INDEX_REQUESTS("graph_index_requests"),
     KNN_QUERY_REQUESTS("knn_query_requests");
@@ -65,6 +66,15 @@ public enum KNNCounter {
         count.getAndIncrement();
     }
 
+    /**
+     * Add a value to a counter
+     *
+     * @param value value to add
+     */
+    public void add(long value) {
+        count.getAndAdd(value);
+    }
+
     /**
      * @param value counter value
      * Set the value of a counter
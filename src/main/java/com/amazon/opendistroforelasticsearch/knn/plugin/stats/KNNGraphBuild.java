@@ -0,0 +1,142 @@
+/*
+ *   Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License").
+ *   You may not use this file except in compliance with the License.
+ *   A copy of the License is located at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   or in the "license" file accompanying this file. This file is distributed
+ *   on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *   express or implied. See the License for the specific language governing
+ *   permissions and limitations under the License.
+ */
+
+
+package com.amazon.opendistroforelasticsearch.knn.plugin.stats;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics of the graphs built by the codec, split by whether the segment was written by a flush or a merge
+ */
+public enum KNNGraphBuild {
+    FLUSH("flush"),
+    MERGE("merge");
+
+    public static final String BUILD_COUNT = "build_count";
+    public static final String VECTORS_INDEXED = "vectors_indexed";
+    public static final String VECTORS_PER_SECOND = "vectors_per_second";
+    public static final String TOTAL_BUILD_TIME = "total_build_time";
+    public static final String BUILD_TIME = "build_time";
+    public static final String GRAPH_BYTES_WRITTEN = "graph_bytes_written";
+    public static final String TOTAL_COPY_TIME = "total_copy_time";
+
+    private static final int SIGNIFICANT_DIGITS = 2;
+
+    private String name;
+    private final LongAdder buildCount = new LongAdder();
+    private final LongAdder vectorsIndexed = new LongAdder();
+    private final LongAdder totalBuildTime = new LongAdder();
+    private final LongAdder graphBytesWritten = new LongAdder();
+    private final LongAdder totalCopyTime = new LongAdder();
+    private volatile Histogram buildTime = new ConcurrentHistogram(SIGNIFICANT_DIGITS);
+
+    /**
+     * Constructor
+     *
+     * @param name name of the kind of segment write
+     */
+    KNNGraphBuild(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Get name of the kind of segment write
+     *
+     * @return name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Record a graph that was built and written to the segment
+     *
+     * @param vectors number of vectors in the graph
+     * @param buildNanos time spent building and serializing the graph in nmslib, in nanoseconds
+     * @param copyNanos time spent copying the serialized graph to the segment file with its footer, in nanoseconds
+     * @param bytesWritten size of the graph file written to the segment
+     */
+    public void record(long vectors, long buildNanos, long copyNanos, long bytesWritten) {
+        buildCount.increment();
+        vectorsIndexed.add(vectors);
+        totalBuildTime.add(buildNanos);
+        totalCopyTime.add(copyNanos);
+        graphBytesWritten.add(bytesWritten);
+        buildTime.recordValue(Math.max(0, TimeUnit.NANOSECONDS.toMicros(buildNanos)));
+    }
+
+    public long getBuildCount() {
+        return buildCount.sum();
+    }
+
+    public long getVectorsIndexed() {
+        return vectorsIndexed.sum();
+    }
+
+    public long getTotalBuildTime() {
+        return totalBuildTime.sum();
+    }
+
+    public long getGraphBytesWritten() {
+        return graphBytesWritten.sum();
+    }
+
+    public long getTotalCopyTime() {
+        return totalCopyTime.sum();
+    }
+
+    /**
+     * Reset all metrics
+     */
+    public void reset() {
+        buildCount.reset();
+        vectorsIndexed.reset();
+        totalBuildTime.reset();
+        graphBytesWritten.reset();
+        totalCopyTime.reset();
+        buildTime = new ConcurrentHistogram(SIGNIFICANT_DIGITS);
+    }
+
+    /**
+     * Summarize the metrics of flushes and merges
+     *
+     * @return map of flush and merge to their metrics
+     */
+    public static Map<String, Map<String, Object>> getBuildStats() {
+        Map<String, Map<String, Object>> stats = new HashMap<>();
+        for (KNNGraphBuild graphBuild : values()) {
+            Map<String, Object> buildStats = new HashMap<>();
+            long vectors = graphBuild.getVectorsIndexed();
+            long buildNanos = graphBuild.getTotalBuildTime();
+            buildStats.put(BUILD_COUNT, graphBuild.getBuildCount());
+            buildStats.put(VECTORS_INDEXED, vectors);
+            buildStats.put(VECTORS_PER_SECOND, buildNanos == 0 ? 0.0 :
+                    vectors / (buildNanos / (double) TimeUnit.SECONDS.toNanos(1)));
+            buildStats.put(TOTAL_BUILD_TIME, buildNanos);
+            buildStats.put(BUILD_TIME, KNNLatency.summarize(graphBuild.buildTime.copy()));
+            buildStats.put(GRAPH_BYTES_WRITTEN, graphBuild.getGraphBytesWritten());
+            buildStats.put(TOTAL_COPY_TIME, graphBuild.getTotalCopyTime());
+            stats.put(graphBuild.getName(), buildStats);
+        }
+        return stats;
+    }
+}
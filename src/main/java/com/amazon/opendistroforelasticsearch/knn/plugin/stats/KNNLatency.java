@@ -0,0 +1,162 @@
+/*
+ *   Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License").
+ *   You may not use this file except in compliance with the License.
+ *   A copy of the License is located at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   or in the "license" file accompanying this file. This file is distributed
+ *   on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *   express or implied. See the License for the specific language governing
+ *   permissions and limitations under the License.
+ */
+
+
+package com.amazon.opendistroforelasticsearch.knn.plugin.stats;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency histograms of the stages of a k-NN query, kept per index and field. Values are recorded in microseconds
+ * in auto-resizing HDR histograms with 2 significant digits, so each histogram stays a few kilobytes no matter how
+ * many values it holds.
+ */
+public enum KNNLatency {
+    CACHE_LOOKUP("cache_lookup"),
+    NATIVE_SEARCH("native_search"),
+    RESCORE("rescore"),
+    SCORER_CONSTRUCTION("scorer_construction");
+
+    public static final String COUNT = "count";
+    public static final String MIN = "min_in_micros";
+    public static final String MAX = "max_in_micros";
+    public static final String MEAN = "mean_in_micros";
+    public static final String P50 = "p50_in_micros";
+    public static final String P90 = "p90_in_micros";
+    public static final String P99 = "p99_in_micros";
+    public static final String P999 = "p999_in_micros";
+
+    private static final int SIGNIFICANT_DIGITS = 2;
+
+    private String name;
+    private ConcurrentMap<String, ConcurrentMap<String, Histogram>> histograms;
+
+    /**
+     * Constructor
+     *
+     * @param name name of the query stage
+     */
+    KNNLatency(String name) {
+        this.name = name;
+        this.histograms = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Get name of the query stage
+     *
+     * @return name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Record the time a query stage took
+     *
+     * @param indexName name of the Elasticsearch index queried
+     * @param field name of the knn_vector field queried
+     * @param nanos elapsed time in nanoseconds
+     */
+    public void record(String indexName, String field, long nanos) {
+        histograms.computeIfAbsent(indexName, k -> new ConcurrentHashMap<>())
+                .computeIfAbsent(field, k -> new ConcurrentHistogram(SIGNIFICANT_DIGITS))
+                .recordValue(Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos)));
+    }
+
+    /**
+     * Get a copy of the histogram of an index field
+     *
+     * @param indexName name of the Elasticsearch index
+     * @param field name of the knn_vector field
+     * @return copy of the histogram, or null if nothing was recorded for the field
+     */
+    public Histogram getHistogram(String indexName, String field) {
+        Map<String, Histogram> fieldHistograms = histograms.get(indexName);
+        Histogram histogram = fieldHistograms == null ? null : fieldHistograms.get(field);
+        return histogram == null ? null : histogram.copy();
+    }
+
+    /**
+     * Drop the histograms of an index
+     *
+     * @param indexName name of the Elasticsearch index
+     */
+    public void removeIndex(String indexName) {
+        histograms.remove(indexName);
+    }
+
+    /**
+     * Drop all histograms
+     */
+    public void reset() {
+        histograms.clear();
+    }
+
+    /**
+     * Drop the histograms of an index for every query stage
+     *
+     * @param indexName name of the Elasticsearch index
+     */
+    public static void removeIndexFromAll(String indexName) {
+        for (KNNLatency latency : values()) {
+            latency.removeIndex(indexName);
+        }
+    }
+
+    /**
+     * Summarize every histogram as index name to field name to query stage to percentiles
+     *
+     * @return summary of the latency of every query stage per index and field
+     */
+    public static Map<String, Map<String, Map<String, Map<String, Object>>>> getLatencyStats() {
+        Map<String, Map<String, Map<String, Map<String, Object>>>> stats = new HashMap<>();
+        for (KNNLatency latency : values()) {
+            for (Map.Entry<String, ConcurrentMap<String, Histogram>> index : latency.histograms.entrySet()) {
+                for (Map.Entry<String, Histogram> field : index.getValue().entrySet()) {
+                    stats.computeIfAbsent(index.getKey(), k -> new HashMap<>())
+                            .computeIfAbsent(field.getKey(), k -> new HashMap<>())
+                            .put(latency.getName(), summarize(field.getValue().copy()));
+                }
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Summarize a histogram of values in microseconds
+     *
+     * @param histogram histogram to summarize
+     * @return count, min, max, mean and percentiles of the histogram
+     */
+    static Map<String, Object> summarize(Histogram histogram) {
+        Map<String, Object> summary = new HashMap<>();
+        summary.put(COUNT, histogram.getTotalCount());
+        summary.put(MIN, histogram.getMinValue());
+        summary.put(MAX, histogram.getMaxValue());
+        summary.put(MEAN, histogram.getMean());
+        summary.put(P50, histogram.getValueAtPercentile(50.0));
+        summary.put(P90, histogram.getValueAtPercentile(90.0));
+        summary.put(P99, histogram.getValueAtPercentile(99.0));
+        summary.put(P999, histogram.getValueAtPercentile(99.9));
+        return summary;
+    }
+}
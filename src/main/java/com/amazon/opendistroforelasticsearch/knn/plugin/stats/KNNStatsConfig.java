@@ -16,10 +16,15 @@
 package com.amazon.opendistroforelasticsearch.knn.plugin.stats;
 
 import com.amazon.opendistroforelasticsearch.knn.index.KNNIndexCache;
+import com.amazon.opendistroforelasticsearch.knn.index.KNNRecallEstimator;
 import com.amazon.opendistroforelasticsearch.knn.plugin.stats.suppliers.KNNCacheSupplier;
 import com.amazon.opendistroforelasticsearch.knn.plugin.stats.suppliers.KNNCircuitBreakerSupplier;
 import com.amazon.opendistroforelasticsearch.knn.plugin.stats.suppliers.KNNCounterSupplier;
+import com.amazon.opendistroforelasticsearch.knn.plugin.stats.suppliers.KNNGraphBuildSupplier;
 import com.amazon.opendistroforelasticsearch.knn.plugin.stats.suppliers.KNNInnerCacheStatsSupplier;
+import com.amazon.opendistroforelasticsearch.knn.plugin.stats.suppliers.KNNLatencySupplier;
+import com.amazon.opendistroforelasticsearch.knn.plugin.stats.suppliers.KNNNativeLibrarySupplier;
+import com.amazon.opendistroforelasticsearch.knn.plugin.stats.suppliers.KNNRecallSupplier;
 import com.google.common.cache.CacheStats;
 import com.google.common.collect.ImmutableMap;
 
@@ -38,7 +43,13 @@ public class KNNStatsConfig {
             .put(StatNames.TOTAL_LOAD_TIME.getName(), new KNNStat<>(false,
                     new KNNInnerCacheStatsSupplier(CacheStats::totalLoadTime)))
             .put(StatNames.EVICTION_COUNT.getName(), new KNNStat<>(false,
-                    new KNNInnerCacheStatsSupplier(CacheStats::evictionCount)))
+                    new KNNCacheSupplier<>(KNNIndexCache::getEvictionCount)))
+            .put(StatNames.FREE_QUEUE_DEPTH.getName(), new KNNStat<>(false,
+                    new KNNCacheSupplier<>(KNNIndexCache::getFreeQueueDepth)))
+            .put(StatNames.FREE_COUNT.getName(), new KNNStat<>(false,
+                    new KNNCacheSupplier<>(KNNIndexCache::getFreeCount)))
+            .put(StatNames.TOTAL_FREE_TIME.getName(), new KNNStat<>(false,
+                    new KNNCacheSupplier<>(KNNIndexCache::getTotalFreeTime)))
             .put(StatNames.GRAPH_MEMORY_USAGE.getName(), new KNNStat<>(false,
                     new KNNCacheSupplier<>(KNNIndexCache::getWeightInKilobytes)))
             .put(StatNames.GRAPH_MEMORY_USAGE_PERCENTAGE.getName(), new KNNStat<>(false,
@@ -49,14 +60,26 @@ public class KNNStatsConfig {
                     new KNNCounterSupplier(KNNCounter.GRAPH_QUERY_ERRORS)))
             .put(StatNames.GRAPH_QUERY_REQUESTS.getName(), new KNNStat<>(false,
                     new KNNCounterSupplier(KNNCounter.GRAPH_QUERY_REQUESTS)))
+            .put(StatNames.GRAPH_QUERY_DISTANCE_COMPUTATIONS.getName(), new KNNStat<>(false,
+                    new KNNCounterSupplier(KNNCounter.GRAPH_QUERY_DISTANCE_COMPUTATIONS)))
             .put(StatNames.GRAPH_INDEX_ERRORS.getName(), new KNNStat<>(false,
                     new KNNCounterSupplier(KNNCounter.GRAPH_INDEX_ERRORS)))
             .put(StatNames.GRAPH_INDEX_REQUESTS.getName(), new KNNStat<>(false,
                     new KNNCounterSupplier(KNNCounter.GRAPH_INDEX_REQUESTS)))
+            .put(StatNames.GRAPH_BUILD.getName(), new KNNStat<>(false,
+                    new KNNGraphBuildSupplier()))
             .put(StatNames.CIRCUIT_BREAKER_TRIGGERED.getName(), new KNNStat<>(true,
                     new KNNCircuitBreakerSupplier()))
             .put(StatNames.KNN_QUERY_REQUESTS.getName(), new KNNStat<>(false,
                     new KNNCounterSupplier(KNNCounter.KNN_QUERY_REQUESTS)))
+            .put(StatNames.QUERY_LATENCY.getName(), new KNNStat<>(false,
+                    new KNNLatencySupplier()))
+            .put(StatNames.RECALL.getName(), new KNNStat<>(false,
+                    new KNNRecallSupplier<>(KNNRecallEstimator::getRecallStats)))
+            .put(StatNames.RECALL_DROPPED_SAMPLES.getName(), new KNNStat<>(false,
+                    new KNNRecallSupplier<>(KNNRecallEstimator::getDroppedSampleCount)))
+            .put(StatNames.NATIVE_LIBRARY_VARIANT.getName(), new KNNStat<>(false,
+                    new KNNNativeLibrarySupplier()))
             .put(StatNames.INDICES_IN_CACHE.getName(), new KNNStat<>(false,
                     new KNNCacheSupplier<>(KNNIndexCache::getIndicesCacheStats))).build();
 }
\ No newline at end of file
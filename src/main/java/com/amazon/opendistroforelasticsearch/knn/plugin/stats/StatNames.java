@@ -28,13 +28,22 @@ public enum StatNames {
     LOAD_EXCEPTION_COUNT("load_exception_count"),
     TOTAL_LOAD_TIME("total_load_time"),
     EVICTION_COUNT("eviction_count"),
+    FREE_QUEUE_DEPTH("free_queue_depth"),
+    FREE_COUNT("free_count"),
+    TOTAL_FREE_TIME("total_free_time"),
     GRAPH_MEMORY_USAGE("graph_memory_usage"),
     GRAPH_MEMORY_USAGE_PERCENTAGE("graph_memory_usage_percentage"),
     CACHE_CAPACITY_REACHED("cache_capacity_reached"),
     INDICES_IN_CACHE("indices_in_cache"),
     CIRCUIT_BREAKER_TRIGGERED("circuit_breaker_triggered"),
+    QUERY_LATENCY("query_latency"),
+    GRAPH_BUILD("graph_build"),
+    RECALL("recall"),
+    RECALL_DROPPED_SAMPLES("recall_dropped_sample_count"),
+    NATIVE_LIBRARY_VARIANT("native_library_variant"),
     GRAPH_QUERY_ERRORS(KNNCounter.GRAPH_QUERY_ERRORS.getName()),
     GRAPH_QUERY_REQUESTS(KNNCounter.GRAPH_QUERY_REQUESTS.getName()),
+    GRAPH_QUERY_DISTANCE_COMPUTATIONS(KNNCounter.GRAPH_QUERY_DISTANCE_COMPUTATIONS.getName()),
     GRAPH_INDEX_ERRORS(KNNCounter.GRAPH_INDEX_ERRORS.getName()),
     GRAPH_INDEX_REQUESTS(KNNCounter.GRAPH_INDEX_REQUESTS.getName()),
     KNN_QUERY_REQUESTS(KNNCounter.KNN_QUERY_REQUESTS.getName());
@@ -14,7 +14,7 @@
  */
 
 package com.amazon.opendistroforelasticsearch.knn.plugin.stats.suppliers;
-import com.amazon.opendistroforelasticsearch.knn.index.KNNSettings;
+import com.amazon.opendistroforelasticsearch.knn.index.KNNCircuitBreaker;
 
 import java.util.function.Supplier;
 
@@ -30,6 +30,6 @@ public class KNNCircuitBreakerSupplier implements Supplier<Boolean> {
 
     @Override
     public Boolean get() {
-        return KNNSettings.isCircuitBreakerTriggered();
+        return KNNCircuitBreaker.getInstance().isTripped();
     }
 }
\ No newline at end of file
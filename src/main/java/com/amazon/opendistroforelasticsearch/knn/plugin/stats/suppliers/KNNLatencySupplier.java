@@ -0,0 +1,35 @@
+/*
+ *   Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License").
+ *   You may not use this file except in compliance with the License.
+ *   A copy of the License is located at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   or in the "license" file accompanying this file. This file is distributed
+ *   on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *   express or implied. See the License for the specific language governing
+ *   permissions and limitations under the License.
+ */
+
+
+package com.amazon.opendistroforelasticsearch.knn.plugin.stats.suppliers;
+
+import com.amazon.opendistroforelasticsearch.knn.plugin.stats.KNNLatency;
+
+import java.util.Map;
+import java.util.function.Supplier;
+
+public class KNNLatencySupplier implements Supplier<Map<String, Map<String, Map<String, Map<String, Object>>>>> {
+
+    /**
+     * Constructor
+     */
+    public KNNLatencySupplier() {}
+
+    @Override
+    public Map<String, Map<String, Map<String, Map<String, Object>>>> get() {
+        return KNNLatency.getLatencyStats();
+    }
+}
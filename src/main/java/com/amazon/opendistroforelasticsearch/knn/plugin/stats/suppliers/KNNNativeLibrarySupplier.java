@@ -0,0 +1,39 @@
+/*
+ *   Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License").
+ *   You may not use this file except in compliance with the License.
+ *   A copy of the License is located at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   or in the "license" file accompanying this file. This file is distributed
+ *   on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *   express or implied. See the License for the specific language governing
+ *   permissions and limitations under the License.
+ */
+
+
+package com.amazon.opendistroforelasticsearch.knn.plugin.stats.suppliers;
+
+import com.amazon.opendistroforelasticsearch.knn.index.util.NativeLibraryVariant;
+
+import java.util.function.Supplier;
+
+/**
+ * Supplies the variant of the native library loaded on the node
+ */
+public class KNNNativeLibrarySupplier implements Supplier<String> {
+    public static final String NOT_LOADED = "not_loaded";
+
+    /**
+     * Constructor
+     */
+    public KNNNativeLibrarySupplier() {}
+
+    @Override
+    public String get() {
+        NativeLibraryVariant variant = NativeLibraryVariant.getLoaded();
+        return variant == null ? NOT_LOADED : variant.getName();
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ *   Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License").
+ *   You may not use this file except in compliance with the License.
+ *   A copy of the License is located at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   or in the "license" file accompanying this file. This file is distributed
+ *   on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *   express or implied. See the License for the specific language governing
+ *   permissions and limitations under the License.
+ */
+
+
+package com.amazon.opendistroforelasticsearch.knn.plugin.stats.suppliers;
+
+import com.amazon.opendistroforelasticsearch.knn.index.KNNRecallEstimator;
+
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+public class KNNRecallSupplier<T> implements Supplier<T> {
+    private Function<KNNRecallEstimator, T> getter;
+
+    /**
+     * Constructor
+     *
+     * @param getter KNNRecallEstimator Method to supply a value
+     */
+    public KNNRecallSupplier(Function<KNNRecallEstimator, T> getter) {
+        this.getter = getter;
+    }
+
+    @Override
+    public T get() {
+        return getter.apply(KNNRecallEstimator.getInstance());
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ *   Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License").
+ *   You may not use this file except in compliance with the License.
+ *   A copy of the License is located at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   or in the "license" file accompanying this file. This file is distributed
+ *   on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *   express or implied. See the License for the specific language governing
+ *   permissions and limitations under the License.
+ */
+
+package com.amazon.opendistroforelasticsearch.knn.plugin.transport;
+
+import org.elasticsearch.action.ActionType;
+import org.elasticsearch.common.io.stream.Writeable;
+
+/**
+ * Action associated with evicting the graphs of k-NN indices from the cache
+ */
+public class KNNEvictAction extends ActionType<KNNEvictResponse> {
+
+    public static final KNNEvictAction INSTANCE = new KNNEvictAction();
+    public static final String NAME = "cluster:admin/knn_evict_action";
+
+    private KNNEvictAction() {
+        super(NAME, KNNEvictResponse::new);
+    }
+
+    @Override
+    public Writeable.Reader<KNNEvictResponse> getResponseReader() {
+        return KNNEvictResponse::new;
+    }
+}
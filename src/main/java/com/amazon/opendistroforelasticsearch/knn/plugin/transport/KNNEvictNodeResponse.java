@@ -0,0 +1,79 @@
+/*
+ *   Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License").
+ *   You may not use this file except in compliance with the License.
+ *   A copy of the License is located at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   or in the "license" file accompanying this file. This file is distributed
+ *   on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *   express or implied. See the License for the specific language governing
+ *   permissions and limitations under the License.
+ */
+
+package com.amazon.opendistroforelasticsearch.knn.plugin.transport;
+
+import org.elasticsearch.action.support.nodes.BaseNodeResponse;
+import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.xcontent.ToXContentFragment;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * KNNEvictNodeResponse holds, for each index, what a node evicted from its cache
+ */
+public class KNNEvictNodeResponse extends BaseNodeResponse implements ToXContentFragment {
+
+    private Map<String, Map<String, Object>> evictedIndices;
+
+    /**
+     * Constructor
+     *
+     * @param in stream
+     * @throws IOException in case of I/O errors
+     */
+    public KNNEvictNodeResponse(StreamInput in) throws IOException {
+        super(in);
+        this.evictedIndices = in.readMap(StreamInput::readString, StreamInput::readMap);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param node node
+     * @param evictedIndices mapping of index name to the number of graphs and memory evicted for it
+     */
+    public KNNEvictNodeResponse(DiscoveryNode node, Map<String, Map<String, Object>> evictedIndices) {
+        super(node);
+        this.evictedIndices = evictedIndices;
+    }
+
+    /**
+     * Get what was evicted for each index
+     *
+     * @return map of index name to eviction stats
+     */
+    public Map<String, Map<String, Object>> getEvictedIndices() {
+        return evictedIndices;
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        super.writeTo(out);
+        out.writeMap(evictedIndices, StreamOutput::writeString, StreamOutput::writeMap);
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        for (Map.Entry<String, Map<String, Object>> evictedIndex : evictedIndices.entrySet()) {
+            builder.field(evictedIndex.getKey(), evictedIndex.getValue());
+        }
+        return builder;
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ *   Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License").
+ *   You may not use this file except in compliance with the License.
+ *   A copy of the License is located at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   or in the "license" file accompanying this file. This file is distributed
+ *   on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *   express or implied. See the License for the specific language governing
+ *   permissions and limitations under the License.
+ */
+
+package com.amazon.opendistroforelasticsearch.knn.plugin.transport;
+
+import org.elasticsearch.action.support.nodes.BaseNodesRequest;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+
+import java.io.IOException;
+
+/**
+ * k-NN Evict Request. Sent to every node, each of which evicts the graphs of the given indices from its cache.
+ */
+public class KNNEvictRequest extends BaseNodesRequest<KNNEvictRequest> {
+
+    private String[] indices;
+
+    /**
+     * Constructor
+     *
+     * @param in input stream
+     * @throws IOException in case of I/O errors
+     */
+    public KNNEvictRequest(StreamInput in) throws IOException {
+        super(in);
+        indices = in.readStringArray();
+    }
+
+    /**
+     * Constructor
+     *
+     * @param indices concrete names of the indices whose graphs should be evicted
+     */
+    public KNNEvictRequest(String... indices) {
+        super((String[]) null);
+        this.indices = indices;
+    }
+
+    /**
+     * Get the indices whose graphs should be evicted
+     *
+     * @return index names
+     */
+    public String[] indices() {
+        return indices;
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        super.writeTo(out);
+        out.writeStringArray(indices);
+    }
+}
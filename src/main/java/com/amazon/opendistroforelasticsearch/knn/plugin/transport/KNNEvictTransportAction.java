@@ -0,0 +1,79 @@
+/*
+ *   Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License").
+ *   You may not use this file except in compliance with the License.
+ *   A copy of the License is located at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   or in the "license" file accompanying this file. This file is distributed
+ *   on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *   express or implied. See the License for the specific language governing
+ *   permissions and limitations under the License.
+ */
+
+package com.amazon.opendistroforelasticsearch.knn.plugin.transport;
+
+import com.amazon.opendistroforelasticsearch.knn.index.KNNIndexCache;
+import org.elasticsearch.action.FailedNodeException;
+import org.elasticsearch.action.support.ActionFilters;
+import org.elasticsearch.action.support.nodes.TransportNodesAction;
+import org.elasticsearch.cluster.service.ClusterService;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.transport.TransportService;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Transport Action for evicting the graphs of k-NN indices. Every node evicts the graphs of the given indices from
+ * its cache, whether or not it currently holds shards of them.
+ */
+public class KNNEvictTransportAction extends TransportNodesAction<KNNEvictRequest, KNNEvictResponse,
+        KNNEvictNodeRequest, KNNEvictNodeResponse> {
+
+    /**
+     * Constructor
+     *
+     * @param threadPool ThreadPool to use
+     * @param clusterService ClusterService
+     * @param transportService TransportService
+     * @param actionFilters Action Filters
+     */
+    @Inject
+    public KNNEvictTransportAction(ThreadPool threadPool, ClusterService clusterService,
+                                   TransportService transportService, ActionFilters actionFilters) {
+        super(KNNEvictAction.NAME, threadPool, clusterService, transportService, actionFilters, KNNEvictRequest::new,
+                KNNEvictNodeRequest::new, ThreadPool.Names.MANAGEMENT, KNNEvictNodeResponse.class);
+    }
+
+    @Override
+    protected KNNEvictResponse newResponse(KNNEvictRequest request, List<KNNEvictNodeResponse> responses,
+                                           List<FailedNodeException> failures) {
+        return new KNNEvictResponse(clusterService.getClusterName(), responses, failures);
+    }
+
+    @Override
+    protected KNNEvictNodeRequest newNodeRequest(KNNEvictRequest request) {
+        return new KNNEvictNodeRequest(request);
+    }
+
+    @Override
+    protected KNNEvictNodeResponse newNodeResponse(StreamInput in) throws IOException {
+        return new KNNEvictNodeResponse(in);
+    }
+
+    @Override
+    protected KNNEvictNodeResponse nodeOperation(KNNEvictNodeRequest request) {
+        Map<String, Map<String, Object>> evictedIndices = new HashMap<>();
+        for (String indexName : request.getKNNEvictRequest().indices()) {
+            evictedIndices.put(indexName, KNNIndexCache.getInstance().evictGraphsForIndex(indexName));
+        }
+        return new KNNEvictNodeResponse(clusterService.localNode(), evictedIndices);
+    }
+}
@@ -16,6 +16,7 @@
 package com.amazon.opendistroforelasticsearch.knn.plugin.transport;
 
 import com.amazon.opendistroforelasticsearch.knn.plugin.stats.KNNStats;
+import com.amazon.opendistroforelasticsearch.knn.plugin.stats.StatNames;
 
 import org.elasticsearch.action.FailedNodeException;
 import org.elasticsearch.action.support.ActionFilters;
@@ -75,6 +76,14 @@ public class KNNStatsTransportAction extends TransportNodesAction<KNNStatsReques
             }
         }
 
+        // The circuit breaker is tracked per node: it is triggered for the cluster if it is tripped on any node
+        String circuitBreakerTriggered = StatNames.CIRCUIT_BREAKER_TRIGGERED.getName();
+        if (clusterStats.containsKey(circuitBreakerTriggered)) {
+            clusterStats.put(circuitBreakerTriggered, (Boolean) clusterStats.get(circuitBreakerTriggered)
+                    || responses.stream().anyMatch(response -> Boolean.TRUE.equals(
+                            response.getStatsMap().get(StatNames.CACHE_CAPACITY_REACHED.getName()))));
+        }
+
         return new KNNStatsResponse(
                 clusterService.getClusterName(),
                 responses,
@@ -108,6 +117,12 @@ public class KNNStatsTransportAction extends TransportNodesAction<KNNStatsReques
             }
         }
 
+        // Needed to compute circuit_breaker_triggered, and tells which nodes tripped
+        if (statsToBeRetrieved.contains(StatNames.CIRCUIT_BREAKER_TRIGGERED.getName())) {
+            statValues.put(StatNames.CACHE_CAPACITY_REACHED.getName(),
+                    knnStats.getStats().get(StatNames.CACHE_CAPACITY_REACHED.getName()).getValue());
+        }
+
         return new KNNStatsNodeResponse(clusterService.localNode(), statValues);
     }
 }
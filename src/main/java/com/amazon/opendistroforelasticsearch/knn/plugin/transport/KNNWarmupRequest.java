@@ -17,14 +17,19 @@ package com.amazon.opendistroforelasticsearch.knn.plugin.transport;
 
 import org.elasticsearch.action.support.broadcast.BroadcastRequest;
 import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.tasks.Task;
+import org.elasticsearch.tasks.TaskId;
 
 import java.io.IOException;
+import java.util.Map;
 
 /**
  * k-NN Warmup Request. This request contains a list of indices for which warmup should be performed.
  */
 public class KNNWarmupRequest extends BroadcastRequest<KNNWarmupRequest> {
 
+    private boolean shouldStoreResult;
+
     public KNNWarmupRequest(StreamInput in) throws IOException {
         super(in);
     }
@@ -32,4 +37,50 @@ public class KNNWarmupRequest extends BroadcastRequest<KNNWarmupRequest> {
     public KNNWarmupRequest(String... indices) {
         super(indices);
     }
+
+    /**
+     * Get the id of the task of this request on the coordinating node. Shard warmups register themselves as its
+     * children.
+     *
+     * @return TaskId of the coordinating task or TaskId.EMPTY_TASK_ID if it has not been started
+     */
+    public TaskId getWarmupTaskId() {
+        return getParentTask();
+    }
+
+    /**
+     * Set the id of the task of this request on the coordinating node. It is sent as the parent task id that every
+     * transport request carries, so the wire format of the request is unchanged: nodes of earlier versions of the
+     * plugin read it and ignore it, and can exchange warmup requests with this one during a rolling upgrade.
+     *
+     * @param warmupTaskId TaskId of the coordinating task
+     */
+    public void setWarmupTaskId(TaskId warmupTaskId) {
+        setParentTask(warmupTaskId);
+    }
+
+    /**
+     * Store the response in the tasks index, so that it can be retrieved through the tasks API once a request that
+     * was not waited for completes
+     *
+     * @param shouldStoreResult whether to store the result
+     */
+    public void setShouldStoreResult(boolean shouldStoreResult) {
+        this.shouldStoreResult = shouldStoreResult;
+    }
+
+    @Override
+    public boolean getShouldStoreResult() {
+        return shouldStoreResult;
+    }
+
+    @Override
+    public String getDescription() {
+        return "warmup indices " + String.join(",", indices());
+    }
+
+    @Override
+    public Task createTask(long id, String type, String action, TaskId parentTaskId, Map<String, String> headers) {
+        return new KNNWarmupTask(id, type, action, getDescription(), parentTaskId, headers);
+    }
 }
@@ -0,0 +1,212 @@
+/*
+ *   Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License").
+ *   You may not use this file except in compliance with the License.
+ *   A copy of the License is located at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   or in the "license" file accompanying this file. This file is distributed
+ *   on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *   express or implied. See the License for the specific language governing
+ *   permissions and limitations under the License.
+ */
+
+package com.amazon.opendistroforelasticsearch.knn.plugin.transport;
+
+import com.amazon.opendistroforelasticsearch.knn.index.KNNIndexShard;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.index.shard.ShardId;
+import org.elasticsearch.tasks.CancellableTask;
+import org.elasticsearch.tasks.Task;
+import org.elasticsearch.tasks.TaskCancelledException;
+import org.elasticsearch.tasks.TaskId;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Task that tracks the warmup of a single shard on the node holding it. It is registered as a child of the
+ * {@link KNNWarmupTask} so that its progress is visible through the tasks API and it is cancelled along with the
+ * warmup request.
+ */
+public class KNNWarmupShardTask extends CancellableTask implements KNNIndexShard.WarmupListener {
+
+    private final ShardId shardId;
+    private final AtomicInteger totalGraphs = new AtomicInteger();
+    private final AtomicInteger loadedGraphs = new AtomicInteger();
+    private final AtomicLong totalBytes = new AtomicLong();
+    private final AtomicLong loadedBytes = new AtomicLong();
+    private volatile long startTimeNanos;
+
+    public KNNWarmupShardTask(long id, String type, String action, String description, TaskId parentTaskId,
+                              Map<String, String> headers, ShardId shardId) {
+        super(id, type, action, description, parentTaskId, headers);
+        this.shardId = shardId;
+    }
+
+    @Override
+    public boolean shouldCancelChildrenOnCancellation() {
+        return false;
+    }
+
+    @Override
+    public void onStart(int totalGraphs, long totalBytes) {
+        this.totalGraphs.set(totalGraphs);
+        this.totalBytes.set(totalBytes);
+        this.startTimeNanos = System.nanoTime();
+    }
+
+    @Override
+    public void beforeGraphLoad(String hnswPath) {
+        ensureNotCancelled();
+    }
+
+    @Override
+    public void beforeGraphRead(String hnswPath) {
+        ensureNotCancelled();
+    }
+
+    @Override
+    public void onGraphLoaded(String hnswPath, long bytes) {
+        loadedGraphs.incrementAndGet();
+        loadedBytes.addAndGet(bytes);
+    }
+
+    private void ensureNotCancelled() {
+        if (isCancelled()) {
+            throw new TaskCancelledException("warmup of " + shardId + " cancelled: " + getReasonCancelled());
+        }
+    }
+
+    @Override
+    public Status getStatus() {
+        long loaded = loadedBytes.get();
+        long total = totalBytes.get();
+        long etaMillis = -1;
+        if (loaded > 0) {
+            long elapsedNanos = System.nanoTime() - startTimeNanos;
+            etaMillis = TimeUnit.NANOSECONDS.toMillis((long) (elapsedNanos * ((double) (total - loaded) / loaded)));
+        }
+        return new Status(shardId, totalGraphs.get(), loadedGraphs.get(), total, loaded, etaMillis);
+    }
+
+    /**
+     * Progress of a shard warmup as reported by the tasks API
+     */
+    public static class Status implements Task.Status {
+        public static final String NAME = "knn_warmup_shard";
+
+        private final ShardId shardId;
+        private final int totalGraphs;
+        private final int loadedGraphs;
+        private final long totalBytes;
+        private final long loadedBytes;
+        private final long etaMillis;
+
+        public Status(ShardId shardId, int totalGraphs, int loadedGraphs, long totalBytes, long loadedBytes,
+                      long etaMillis) {
+            this.shardId = shardId;
+            this.totalGraphs = totalGraphs;
+            this.loadedGraphs = loadedGraphs;
+            this.totalBytes = totalBytes;
+            this.loadedBytes = loadedBytes;
+            this.etaMillis = etaMillis;
+        }
+
+        public Status(StreamInput in) throws IOException {
+            this.shardId = new ShardId(in);
+            this.totalGraphs = in.readVInt();
+            this.loadedGraphs = in.readVInt();
+            this.totalBytes = in.readVLong();
+            this.loadedBytes = in.readVLong();
+            this.etaMillis = in.readLong();
+        }
+
+        @Override
+        public void writeTo(StreamOutput out) throws IOException {
+            shardId.writeTo(out);
+            out.writeVInt(totalGraphs);
+            out.writeVInt(loadedGraphs);
+            out.writeVLong(totalBytes);
+            out.writeVLong(loadedBytes);
+            out.writeLong(etaMillis);
+        }
+
+        @Override
+        public String getWriteableName() {
+            return NAME;
+        }
+
+        public int getTotalGraphs() {
+            return totalGraphs;
+        }
+
+        public int getLoadedGraphs() {
+            return loadedGraphs;
+        }
+
+        public long getTotalBytes() {
+            return totalBytes;
+        }
+
+        public long getLoadedBytes() {
+            return loadedBytes;
+        }
+
+        /**
+         * @return estimated milliseconds until the shard is warm, or -1 before the first graph has been loaded
+         */
+        public long getEtaMillis() {
+            return etaMillis;
+        }
+
+        @Override
+        public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+            builder.startObject();
+            builder.field("index", shardId.getIndexName());
+            builder.field("shard", shardId.id());
+            builder.field("total_graphs", totalGraphs);
+            builder.field("loaded_graphs", loadedGraphs);
+            builder.field("total_bytes", totalBytes);
+            builder.field("loaded_bytes", loadedBytes);
+            if (etaMillis >= 0) {
+                builder.humanReadableField("eta_in_millis", "eta", TimeValue.timeValueMillis(etaMillis));
+            }
+            return builder.endObject();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Status status = (Status) o;
+            return totalGraphs == status.totalGraphs && loadedGraphs == status.loadedGraphs
+                    && totalBytes == status.totalBytes && loadedBytes == status.loadedBytes
+                    && etaMillis == status.etaMillis && shardId.equals(status.shardId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(shardId, totalGraphs, loadedGraphs, totalBytes, loadedBytes, etaMillis);
+        }
+
+        @Override
+        public String toString() {
+            return Strings.toString(this);
+        }
+    }
+}
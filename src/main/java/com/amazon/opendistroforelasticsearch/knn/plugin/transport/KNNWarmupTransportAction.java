@@ -16,8 +16,10 @@
 package com.amazon.opendistroforelasticsearch.knn.plugin.transport;
 
 import com.amazon.opendistroforelasticsearch.knn.index.KNNIndexShard;
+import com.amazon.opendistroforelasticsearch.knn.plugin.KNNPlugin;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.action.support.ActionFilters;
 import org.elasticsearch.action.support.DefaultShardOperationFailedException;
 import org.elasticsearch.action.support.broadcast.node.TransportBroadcastByNodeAction;
@@ -30,17 +32,26 @@ import org.elasticsearch.cluster.routing.ShardsIterator;
 import org.elasticsearch.cluster.service.ClusterService;
 import org.elasticsearch.common.inject.Inject;
 import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.index.shard.ShardId;
 import org.elasticsearch.indices.IndicesService;
+import org.elasticsearch.tasks.Task;
+import org.elasticsearch.tasks.TaskAwareRequest;
+import org.elasticsearch.tasks.TaskId;
 import org.elasticsearch.transport.TransportService;
 import org.elasticsearch.threadpool.ThreadPool;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Transport Action for warming up k-NN indices. TransportBroadcastByNodeAction will distribute the request to
  * all shards across the cluster for the given indices. For each shard, shardOperation will be called and the
- * warmup will take place.
+ * warmup will take place. The shard's graphs are loaded concurrently on the knn_warmup thread pool; the node level
+ * request only waits for them on the generic pool so that search threads are never blocked by a warmup.
+ *
+ * Each shard warmup is registered as a {@link KNNWarmupShardTask}, a child of the coordinating {@link KNNWarmupTask},
+ * which reports the progress of the shard and stops loading graphs when the warmup is cancelled.
  */
 public class KNNWarmupTransportAction extends TransportBroadcastByNodeAction<KNNWarmupRequest, KNNWarmupResponse,
         TransportBroadcastByNodeAction.EmptyResult> {
@@ -48,13 +59,24 @@ public class KNNWarmupTransportAction extends TransportBroadcastByNodeAction<KNN
     public static Logger logger = LogManager.getLogger(KNNWarmupTransportAction.class);
 
     private IndicesService indicesService;
+    private ThreadPool threadPool;
+    private ClusterService clusterService;
 
     @Inject
     public KNNWarmupTransportAction(ClusterService clusterService, TransportService transportService, IndicesService indicesService,
-                                    ActionFilters actionFilters, IndexNameExpressionResolver indexNameExpressionResolver) {
+                                    ThreadPool threadPool, ActionFilters actionFilters,
+                                    IndexNameExpressionResolver indexNameExpressionResolver) {
         super(KNNWarmupAction.NAME, clusterService, transportService, actionFilters, indexNameExpressionResolver,
-                KNNWarmupRequest::new, ThreadPool.Names.SEARCH);
+                KNNWarmupRequest::new, ThreadPool.Names.GENERIC);
         this.indicesService = indicesService;
+        this.threadPool = threadPool;
+        this.clusterService = clusterService;
+    }
+
+    @Override
+    protected void doExecute(Task task, KNNWarmupRequest request, ActionListener<KNNWarmupResponse> listener) {
+        request.setWarmupTaskId(new TaskId(clusterService.localNode().getId(), task.getId()));
+        super.doExecute(task, request, listener);
     }
 
     @Override
@@ -79,7 +101,13 @@ public class KNNWarmupTransportAction extends TransportBroadcastByNodeAction<KNN
     protected EmptyResult shardOperation(KNNWarmupRequest request, ShardRouting shardRouting) throws IOException {
         KNNIndexShard knnIndexShard = new KNNIndexShard(indicesService.indexServiceSafe(shardRouting.shardId()
                 .getIndex()).getShard(shardRouting.shardId().id()));
-        knnIndexShard.warmup();
+        KNNWarmupShardTask shardTask = (KNNWarmupShardTask) taskManager.register("transport", actionName + "[s]",
+                new ShardWarmupTaskRequest(request.getWarmupTaskId(), shardRouting.shardId()));
+        try {
+            knnIndexShard.warmup(threadPool.executor(KNNPlugin.KNN_WARMUP_THREAD_POOL), shardTask);
+        } finally {
+            taskManager.unregister(shardTask);
+        }
         return EmptyResult.INSTANCE;
     }
 
@@ -97,4 +125,38 @@ public class KNNWarmupTransportAction extends TransportBroadcastByNodeAction<KNN
     protected ClusterBlockException checkRequestBlock(ClusterState state, KNNWarmupRequest request, String[] concreteIndices) {
         return state.blocks().indicesBlockedException(ClusterBlockLevel.METADATA_READ, concreteIndices);
     }
+
+    /**
+     * Registers a shard warmup with the TaskManager. Shard operations of a broadcast action do not get a task of
+     * their own, so one is created here as a child of the coordinating task.
+     */
+    private static class ShardWarmupTaskRequest implements TaskAwareRequest {
+        private TaskId parentTaskId;
+        private final ShardId shardId;
+
+        ShardWarmupTaskRequest(TaskId parentTaskId, ShardId shardId) {
+            this.parentTaskId = parentTaskId;
+            this.shardId = shardId;
+        }
+
+        @Override
+        public void setParentTask(TaskId taskId) {
+            this.parentTaskId = taskId;
+        }
+
+        @Override
+        public TaskId getParentTask() {
+            return parentTaskId;
+        }
+
+        @Override
+        public String getDescription() {
+            return "warmup " + shardId;
+        }
+
+        @Override
+        public Task createTask(long id, String type, String action, TaskId parentTaskId, Map<String, String> headers) {
+            return new KNNWarmupShardTask(id, type, action, getDescription(), parentTaskId, headers, shardId);
+        }
+    }
 }
@@ -360,6 +360,21 @@ public class KNNRestTestCase extends ESRestTestCase {
         return client().performRequest(request);
     }
 
+    /**
+     * Evict the graphs of KNN Indices from the cache
+     */
+    protected Response knnEvict(List<String> indices) throws IOException {
+
+        String indicesSuffix = "/" + String.join(",", indices);
+
+        Request request = new Request(
+                "POST",
+                KNNPlugin.KNN_BASE_URI + "/evict" + indicesSuffix
+        );
+
+        return client().performRequest(request);
+    }
+
     /**
      * Parse KNN Cluster stats from response
      */
@@ -16,7 +16,10 @@
 package com.amazon.opendistroforelasticsearch.knn;
 
 import com.amazon.opendistroforelasticsearch.knn.index.KNNIndexCache;
+import com.amazon.opendistroforelasticsearch.knn.index.KNNRecallEstimator;
 import com.amazon.opendistroforelasticsearch.knn.plugin.stats.KNNCounter;
+import com.amazon.opendistroforelasticsearch.knn.plugin.stats.KNNGraphBuild;
+import com.amazon.opendistroforelasticsearch.knn.plugin.stats.KNNLatency;
 import org.elasticsearch.test.ESTestCase;
 
 /**
@@ -35,6 +38,15 @@ public class KNNTestCase extends ESTestCase {
             knnCounter.set(0L);
         }
 
+        for (KNNLatency knnLatency : KNNLatency.values()) {
+            knnLatency.reset();
+        }
+
+        for (KNNGraphBuild knnGraphBuild : KNNGraphBuild.values()) {
+            knnGraphBuild.reset();
+        }
+        KNNRecallEstimator.getInstance().reset();
+
         // Clean up the cache
         KNNIndexCache.getInstance().evictAllGraphsFromCache();
         KNNIndexCache.getInstance().close();
@@ -0,0 +1,229 @@
+/*
+ *   Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License").
+ *   You may not use this file except in compliance with the License.
+ *   A copy of the License is located at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   or in the "license" file accompanying this file. This file is distributed
+ *   on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *   express or implied. See the License for the specific language governing
+ *   permissions and limitations under the License.
+ */
+
+
+package com.amazon.opendistroforelasticsearch.knn.benchmark;
+
+import com.amazon.opendistroforelasticsearch.knn.index.SpaceTypes;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * Vectors, queries and exact neighbors used by {@link KNNBenchmarkIT}. Datasets are either generated or read from the
+ * fvecs/ivecs files distributed with the SIFT and GIST benchmarks: each record is a little endian int32 dimension
+ * followed by that many float32 (fvecs) or int32 (ivecs) values.
+ */
+public class KNNBenchmarkDataset {
+    private final float[][] vectors;
+    private final float[][] queries;
+    private final int[][] groundTruth;
+
+    KNNBenchmarkDataset(float[][] vectors, float[][] queries, int[][] groundTruth) {
+        this.vectors = vectors;
+        this.queries = queries;
+        this.groundTruth = groundTruth;
+    }
+
+    /**
+     * Generate a dataset of uniformly distributed vectors. The exact neighbors are computed by brute force.
+     *
+     * @param size number of vectors to index
+     * @param queryCount number of queries
+     * @param dimension dimension of the vectors
+     * @param maxK largest k the exact neighbors are needed for
+     * @param spaceType space to compute the exact neighbors in
+     * @param seed seed of the generator
+     * @return generated dataset
+     */
+    public static KNNBenchmarkDataset random(int size, int queryCount, int dimension, int maxK, String spaceType,
+                                             long seed) {
+        Random random = new Random(seed);
+        float[][] vectors = randomVectors(random, size, dimension);
+        float[][] queries = randomVectors(random, queryCount, dimension);
+        return new KNNBenchmarkDataset(vectors, queries, exactNeighbors(vectors, queries, maxK, spaceType));
+    }
+
+    /**
+     * Read a dataset from fvecs files
+     *
+     * @param vectorsPath fvecs file of the vectors to index
+     * @param queriesPath fvecs file of the queries
+     * @param groundTruthPath ivecs file of the exact neighbors of the queries, or null to compute them by brute force.
+     *                        Must not be set when size truncates the vectors, as the file refers to the full set.
+     * @param size maximum number of vectors to read, or -1 for all
+     * @param queryCount maximum number of queries to read, or -1 for all
+     * @param maxK largest k the exact neighbors are needed for
+     * @param spaceType space to compute the exact neighbors in
+     * @return dataset read
+     * @throws IOException if a file cannot be read
+     */
+    public static KNNBenchmarkDataset read(Path vectorsPath, Path queriesPath, Path groundTruthPath, int size,
+                                           int queryCount, int maxK, String spaceType) throws IOException {
+        float[][] vectors = readFvecs(vectorsPath, size);
+        float[][] queries = readFvecs(queriesPath, queryCount);
+        int[][] groundTruth = groundTruthPath != null ? readIvecs(groundTruthPath, queries.length)
+                : exactNeighbors(vectors, queries, maxK, spaceType);
+        return new KNNBenchmarkDataset(vectors, queries, groundTruth);
+    }
+
+    public float[][] getVectors() {
+        return vectors;
+    }
+
+    public float[][] getQueries() {
+        return queries;
+    }
+
+    /**
+     * @return for every query, the ordinals of its exact neighbors, nearest first
+     */
+    public int[][] getGroundTruth() {
+        return groundTruth;
+    }
+
+    public int getDimension() {
+        return vectors[0].length;
+    }
+
+    /**
+     * Fraction of the k exact neighbors of a query that are in the results
+     *
+     * @param queryOrdinal ordinal of the query
+     * @param results ordinals of the vectors returned for the query
+     * @param k number of neighbors requested
+     * @return recall at k, between 0 and 1
+     */
+    public double recall(int queryOrdinal, int[] results, int k) {
+        int[] truth = groundTruth[queryOrdinal];
+        if (truth.length < k) {
+            throw new IllegalArgumentException("Ground truth has " + truth.length + " neighbors per query, " +
+                    "which is less than k " + k);
+        }
+
+        int matches = 0;
+        for (int result : results) {
+            for (int i = 0; i < k; i++) {
+                if (truth[i] == result) {
+                    matches++;
+                    break;
+                }
+            }
+        }
+        return (double) matches / k;
+    }
+
+    static float[][] readFvecs(Path path, int limit) throws IOException {
+        ByteBuffer buffer = map(path);
+        int count = countRecords(buffer, limit);
+        float[][] vectors = new float[count][];
+        for (int i = 0; i < count; i++) {
+            vectors[i] = new float[buffer.getInt()];
+            buffer.asFloatBuffer().get(vectors[i]);
+            buffer.position(buffer.position() + vectors[i].length * Float.BYTES);
+        }
+        return vectors;
+    }
+
+    static int[][] readIvecs(Path path, int limit) throws IOException {
+        ByteBuffer buffer = map(path);
+        int count = countRecords(buffer, limit);
+        int[][] values = new int[count][];
+        for (int i = 0; i < count; i++) {
+            values[i] = new int[buffer.getInt()];
+            buffer.asIntBuffer().get(values[i]);
+            buffer.position(buffer.position() + values[i].length * Integer.BYTES);
+        }
+        return values;
+    }
+
+    static int[][] exactNeighbors(float[][] vectors, float[][] queries, int k, String spaceType) {
+        int neighbors = Math.min(k, vectors.length);
+        int[][] groundTruth = new int[queries.length][];
+        IntStream.range(0, queries.length).parallel().forEach(q -> {
+            float[] query = queries[q];
+            double[] distances = new double[vectors.length];
+            for (int i = 0; i < vectors.length; i++) {
+                distances[i] = distance(query, vectors[i], spaceType);
+            }
+            groundTruth[q] = IntStream.range(0, vectors.length).boxed()
+                    .sorted(Comparator.comparingDouble(i -> distances[i]))
+                    .limit(neighbors)
+                    .mapToInt(Integer::intValue)
+                    .toArray();
+        });
+        return groundTruth;
+    }
+
+    static double distance(float[] a, float[] b, String spaceType) {
+        if (SpaceTypes.cosinesimil.getValue().equals(spaceType)) {
+            double dot = 0, normA = 0, normB = 0;
+            for (int i = 0; i < a.length; i++) {
+                dot += a[i] * b[i];
+                normA += a[i] * a[i];
+                normB += b[i] * b[i];
+            }
+            return 1 - dot / Math.sqrt(normA * normB);
+        }
+
+        double sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            double diff = a[i] - b[i];
+            sum += diff * diff;
+        }
+        return sum;
+    }
+
+    private static float[][] randomVectors(Random random, int count, int dimension) {
+        float[][] vectors = new float[count][dimension];
+        for (float[] vector : vectors) {
+            for (int i = 0; i < dimension; i++) {
+                vector[i] = random.nextFloat();
+            }
+        }
+        return vectors;
+    }
+
+    private static ByteBuffer map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    private static int countRecords(ByteBuffer buffer, int limit) {
+        if (buffer.remaining() < Integer.BYTES) {
+            throw new IllegalArgumentException("Empty vector file");
+        }
+        // Every record of a file has the same dimension and all values are 4 bytes wide
+        int recordSize = Integer.BYTES + buffer.getInt(0) * 4;
+        int count = buffer.remaining() / recordSize;
+        return limit < 0 ? count : Math.min(count, limit);
+    }
+
+    @Override
+    public String toString() {
+        return "KNNBenchmarkDataset{vectors=" + vectors.length + ", queries=" + queries.length + ", dimension=" +
+                getDimension() + ", groundTruth=" + Arrays.stream(groundTruth).mapToInt(t -> t.length).max()
+                .orElse(0) + " neighbors}";
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ *   Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License").
+ *   You may not use this file except in compliance with the License.
+ *   A copy of the License is located at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   or in the "license" file accompanying this file. This file is distributed
+ *   on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *   express or implied. See the License for the specific language governing
+ *   permissions and limitations under the License.
+ */
+
+
+package com.amazon.opendistroforelasticsearch.knn.benchmark;
+
+import com.amazon.opendistroforelasticsearch.knn.KNNTestCase;
+import com.amazon.opendistroforelasticsearch.knn.index.SpaceTypes;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class KNNBenchmarkDatasetTests extends KNNTestCase {
+    public void testReadFvecs() throws IOException {
+        float[][] vectors = {{1.0f, 2.0f, 3.0f}, {4.0f, 5.0f, 6.0f}, {7.0f, 8.0f, 9.0f}};
+        ByteBuffer buffer = ByteBuffer.allocate(vectors.length * (1 + 3) * 4).order(ByteOrder.LITTLE_ENDIAN);
+        for (float[] vector : vectors) {
+            buffer.putInt(vector.length);
+            for (float value : vector) {
+                buffer.putFloat(value);
+            }
+        }
+        Path path = createTempFile("vectors", ".fvecs");
+        Files.write(path, buffer.array());
+
+        float[][] read = KNNBenchmarkDataset.readFvecs(path, -1);
+        assertEquals(vectors.length, read.length);
+        for (int i = 0; i < vectors.length; i++) {
+            assertArrayEquals(vectors[i], read[i], 0.0f);
+        }
+
+        assertEquals(2, KNNBenchmarkDataset.readFvecs(path, 2).length);
+    }
+
+    public void testReadIvecs() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(2 * (1 + 2) * 4).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(2).putInt(3).putInt(1);
+        buffer.putInt(2).putInt(0).putInt(2);
+        Path path = createTempFile("ground_truth", ".ivecs");
+        Files.write(path, buffer.array());
+
+        int[][] read = KNNBenchmarkDataset.readIvecs(path, -1);
+        assertArrayEquals(new int[] {3, 1}, read[0]);
+        assertArrayEquals(new int[] {0, 2}, read[1]);
+    }
+
+    public void testExactNeighbors() {
+        float[][] vectors = {{0.0f, 0.0f}, {1.0f, 1.0f}, {2.0f, 2.0f}, {3.0f, 3.0f}};
+        float[][] queries = {{2.9f, 2.9f}, {0.1f, 0.0f}};
+
+        int[][] neighbors = KNNBenchmarkDataset.exactNeighbors(vectors, queries, 2, SpaceTypes.l2.getValue());
+        assertArrayEquals(new int[] {3, 2}, neighbors[0]);
+        assertArrayEquals(new int[] {0, 1}, neighbors[1]);
+    }
+
+    public void testRecall() {
+        KNNBenchmarkDataset dataset = new KNNBenchmarkDataset(new float[][] {{0.0f}}, new float[][] {{0.0f}},
+                new int[][] {{4, 2, 7, 1}});
+
+        assertEquals(1.0, dataset.recall(0, new int[] {2, 4}, 2), 0.0);
+        assertEquals(0.5, dataset.recall(0, new int[] {4, 7}, 2), 0.0);
+        assertEquals(0.75, dataset.recall(0, new int[] {1, 2, 3, 4}, 4), 0.0);
+        expectThrows(IllegalArgumentException.class, () -> dataset.recall(0, new int[] {4}, 5));
+    }
+
+    public void testPercentile() {
+        long[] sorted = {1, 2, 3, 4, 5, 6, 7, 8, 9, 10};
+        assertEquals(5, KNNBenchmarkIT.percentile(sorted, 50));
+        assertEquals(10, KNNBenchmarkIT.percentile(sorted, 99));
+        assertEquals(1, KNNBenchmarkIT.percentile(sorted, 0));
+    }
+}
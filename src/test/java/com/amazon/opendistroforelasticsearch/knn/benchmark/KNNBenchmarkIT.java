@@ -0,0 +1,263 @@
+/*
+ *   Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License").
+ *   You may not use this file except in compliance with the License.
+ *   A copy of the License is located at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   or in the "license" file accompanying this file. This file is distributed
+ *   on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *   express or implied. See the License for the specific language governing
+ *   permissions and limitations under the License.
+ */
+
+
+package com.amazon.opendistroforelasticsearch.knn.benchmark;
+
+import com.amazon.opendistroforelasticsearch.knn.KNNRestTestCase;
+import com.amazon.opendistroforelasticsearch.knn.index.KNNQueryBuilder;
+import com.amazon.opendistroforelasticsearch.knn.index.KNNSettings;
+import com.amazon.opendistroforelasticsearch.knn.index.SpaceTypes;
+import com.amazon.opendistroforelasticsearch.knn.index.engine.KNNEngines;
+import com.amazon.opendistroforelasticsearch.knn.index.util.KNNConstants;
+import org.apache.http.util.EntityUtils;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.rest.RestStatus;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.amazon.opendistroforelasticsearch.knn.plugin.stats.StatNames.GRAPH_BUILD;
+import static com.amazon.opendistroforelasticsearch.knn.plugin.stats.StatNames.GRAPH_MEMORY_USAGE;
+import static com.amazon.opendistroforelasticsearch.knn.plugin.stats.StatNames.INDICES_IN_CACHE;
+
+/**
+ * End to end ANN benchmark against the test cluster. Indexes a dataset, force merges it to a single segment, warms
+ * it up and then runs every query of the dataset for each combination of ef_search and k, from a single client.
+ * Reports QPS, latency percentiles, recall, build time and graph memory to the log and, if configured, to a JSON file
+ * so that runs of different releases can be compared.
+ *
+ * Skipped unless tests.knn.benchmark.enabled is true. Configured with the following system properties:
+ * <ul>
+ *     <li>tests.knn.benchmark.vectors, tests.knn.benchmark.queries: fvecs files of the dataset. A random dataset
+ *     is generated when not set.</li>
+ *     <li>tests.knn.benchmark.ground_truth: ivecs file of the exact neighbors of the queries. Computed by brute force
+ *     when not set.</li>
+ *     <li>tests.knn.benchmark.size, tests.knn.benchmark.query_count, tests.knn.benchmark.dimension: size of the
+ *     generated dataset, or limits on the one read from files.</li>
+ *     <li>tests.knn.benchmark.k, tests.knn.benchmark.ef_search: comma separated values to sweep over.</li>
+ *     <li>tests.knn.benchmark.m, tests.knn.benchmark.ef_construction, tests.knn.benchmark.space_type: graph
+ *     parameters of the index.</li>
+ *     <li>tests.knn.benchmark.engine: engine of the field, nmslib by default, to compare engines.</li>
+ *     <li>tests.knn.benchmark.output: file to write the JSON report to.</li>
+ * </ul>
+ */
+public class KNNBenchmarkIT extends KNNRestTestCase {
+    private static final String PREFIX = "tests.knn.benchmark.";
+    private static final String INDEX = "knn-benchmark";
+    private static final String FIELD = "vector";
+    private static final int BULK_SIZE = 500;
+    private static final int WARMUP_QUERIES = 100;
+
+    public void testBenchmark() throws Exception {
+        assumeTrue("Set " + PREFIX + "enabled to run the benchmark", Boolean.getBoolean(PREFIX + "enabled"));
+
+        int[] ks = intList("k", "10,100");
+        int[] efSearches = intList("ef_search", "16,64,256,512");
+        String spaceType = System.getProperty(PREFIX + "space_type", SpaceTypes.l2.getValue());
+        String engine = System.getProperty(PREFIX + "engine", KNNEngines.DEFAULT.getName());
+        int maxK = Arrays.stream(ks).max().getAsInt();
+
+        KNNBenchmarkDataset dataset = loadDataset(maxK, spaceType);
+        logger.info("[KNN] Benchmarking {}", dataset);
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("vectors", dataset.getVectors().length);
+        report.put("queries", dataset.getQueries().length);
+        report.put("dimension", dataset.getDimension());
+        report.put("space_type", spaceType);
+        report.put("engine", engine);
+
+        Settings.Builder settings = Settings.builder().put(getKNNDefaultIndexSettings())
+                .put(KNNSettings.KNN_SPACE_TYPE, spaceType)
+                .put("refresh_interval", "-1");
+        if (System.getProperty(PREFIX + "m") != null) {
+            settings.put(KNNSettings.KNN_ALGO_PARAM_M, Integer.getInteger(PREFIX + "m"));
+        }
+        if (System.getProperty(PREFIX + "ef_construction") != null) {
+            settings.put(KNNSettings.KNN_ALGO_PARAM_EF_CONSTRUCTION, Integer.getInteger(PREFIX + "ef_construction"));
+        }
+        createKnnIndex(INDEX, settings.build(), Strings.toString(XContentFactory.jsonBuilder().startObject()
+                .startObject("properties")
+                .startObject(FIELD)
+                .field("type", "knn_vector")
+                .field("dimension", dataset.getDimension())
+                .field(KNNConstants.KNN_ENGINE, engine)
+                .endObject()
+                .endObject()
+                .endObject()));
+
+        long start = System.nanoTime();
+        bulkIndex(dataset.getVectors());
+        long indexNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        forceMergeKnnIndex(INDEX);
+        long mergeNanos = System.nanoTime() - start;
+        report.put("index_time_in_millis", TimeUnit.NANOSECONDS.toMillis(indexNanos));
+        report.put("force_merge_time_in_millis", TimeUnit.NANOSECONDS.toMillis(mergeNanos));
+        report.put(GRAPH_BUILD.getName(), getNodeStat(GRAPH_BUILD.getName()));
+
+        List<Map<String, Object>> runs = new ArrayList<>();
+        for (int efSearch : efSearches) {
+            // Changing ef_search evicts the graphs, warmup reloads them with the new value outside of the timings
+            updateIndexSettings(INDEX, Settings.builder().put(KNNSettings.KNN_ALGO_PARAM_EF_SEARCH, efSearch));
+            knnWarmup(Collections.singletonList(INDEX));
+            report.put("graph_memory_usage_in_kb", getGraphMemoryUsage());
+
+            for (int k : ks) {
+                Map<String, Object> run = runQueries(dataset, efSearch, k);
+                logger.info("[KNN] Benchmark run {}", run);
+                runs.add(run);
+            }
+        }
+        report.put("runs", runs);
+
+        String json = Strings.toString(XContentFactory.jsonBuilder().prettyPrint().map(report));
+        logger.info("[KNN] Benchmark report:\n{}", json);
+        String output = System.getProperty(PREFIX + "output");
+        if (output != null) {
+            Files.write(Paths.get(output), json.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private KNNBenchmarkDataset loadDataset(int maxK, String spaceType) throws IOException {
+        int size = Integer.getInteger(PREFIX + "size", -1);
+        int queryCount = Integer.getInteger(PREFIX + "query_count", -1);
+        String vectors = System.getProperty(PREFIX + "vectors");
+        if (vectors == null) {
+            return KNNBenchmarkDataset.random(size < 0 ? 10000 : size, queryCount < 0 ? 1000 : queryCount,
+                    Integer.getInteger(PREFIX + "dimension", 128), maxK, spaceType, 42);
+        }
+
+        String groundTruth = System.getProperty(PREFIX + "ground_truth");
+        if (groundTruth != null && size >= 0) {
+            throw new IllegalArgumentException(PREFIX + "ground_truth refers to the full dataset and cannot be used " +
+                    "with " + PREFIX + "size");
+        }
+        return KNNBenchmarkDataset.read(Paths.get(vectors), Paths.get(System.getProperty(PREFIX + "queries")),
+                groundTruth == null ? null : Paths.get(groundTruth), size, queryCount, maxK, spaceType);
+    }
+
+    private Map<String, Object> runQueries(KNNBenchmarkDataset dataset, int efSearch, int k) throws IOException {
+        float[][] queries = dataset.getQueries();
+        for (int i = 0; i < Math.min(WARMUP_QUERIES, queries.length); i++) {
+            search(queries[i], k);
+        }
+
+        long[] latencies = new long[queries.length];
+        double recall = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < queries.length; i++) {
+            long queryStart = System.nanoTime();
+            int[] results = search(queries[i], k);
+            latencies[i] = System.nanoTime() - queryStart;
+            recall += dataset.recall(i, results, k);
+        }
+        long totalNanos = System.nanoTime() - start;
+        Arrays.sort(latencies);
+
+        Map<String, Object> run = new LinkedHashMap<>();
+        run.put("ef_search", efSearch);
+        run.put("k", k);
+        run.put("qps", queries.length / (totalNanos / 1e9));
+        run.put("p50_latency_in_millis", percentile(latencies, 50) / 1e6);
+        run.put("p99_latency_in_millis", percentile(latencies, 99) / 1e6);
+        run.put("recall", recall / queries.length);
+        return run;
+    }
+
+    /**
+     * Nearest rank percentile of sorted values
+     */
+    static long percentile(long[] sorted, double percentile) {
+        int rank = (int) Math.ceil(percentile / 100 * sorted.length);
+        return sorted[Math.max(0, rank - 1)];
+    }
+
+    private int[] search(float[] query, int k) throws IOException {
+        XContentBuilder builder = XContentFactory.jsonBuilder().startObject()
+                .field("size", k)
+                .field("_source", false)
+                .startObject("query");
+        new KNNQueryBuilder(FIELD, query, k).doXContent(builder, ToXContent.EMPTY_PARAMS);
+        builder.endObject().endObject();
+
+        Request request = new Request("POST", "/" + INDEX + "/_search");
+        request.setJsonEntity(Strings.toString(builder));
+        Response response = client().performRequest(request);
+        assertEquals(RestStatus.OK, RestStatus.fromCode(response.getStatusLine().getStatusCode()));
+
+        @SuppressWarnings("unchecked")
+        List<Map<String, Object>> hits = (List<Map<String, Object>>) ((Map<String, Object>) createParser(
+                XContentType.JSON.xContent(), EntityUtils.toString(response.getEntity())).map().get("hits")).get("hits");
+        return hits.stream().mapToInt(hit -> Integer.parseInt((String) hit.get("_id"))).toArray();
+    }
+
+    private void bulkIndex(float[][] vectors) throws IOException {
+        for (int from = 0; from < vectors.length; from += BULK_SIZE) {
+            StringBuilder body = new StringBuilder();
+            for (int i = from; i < Math.min(from + BULK_SIZE, vectors.length); i++) {
+                body.append("{\"index\":{\"_id\":\"").append(i).append("\"}}\n");
+                body.append(Strings.toString(XContentFactory.jsonBuilder().startObject()
+                        .field(FIELD, vectors[i])
+                        .endObject())).append('\n');
+            }
+
+            Request request = new Request("POST", "/" + INDEX + "/_bulk");
+            request.setJsonEntity(body.toString());
+            Response response = client().performRequest(request);
+            Map<String, Object> responseMap = createParser(XContentType.JSON.xContent(),
+                    EntityUtils.toString(response.getEntity())).map();
+            assertFalse("Bulk request failed: " + responseMap, (Boolean) responseMap.get("errors"));
+        }
+    }
+
+    private Object getNodeStat(String stat) throws IOException {
+        Response response = getKnnStats(Collections.emptyList(), Collections.singletonList(stat));
+        return parseNodeStatsResponse(EntityUtils.toString(response.getEntity())).get(0).get(stat);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object getGraphMemoryUsage() throws IOException {
+        Map<String, Map<String, Object>> indicesInCache =
+                (Map<String, Map<String, Object>>) getNodeStat(INDICES_IN_CACHE.getName());
+        Map<String, Object> indexStats = indicesInCache.get(INDEX);
+        return indexStats == null ? 0 : indexStats.get(GRAPH_MEMORY_USAGE.getName());
+    }
+
+    private static int[] intList(String name, String defaultValue) {
+        return Arrays.stream(System.getProperty(PREFIX + name, defaultValue).split(","))
+                .map(String::trim)
+                .mapToInt(Integer::parseInt)
+                .toArray();
+    }
+}
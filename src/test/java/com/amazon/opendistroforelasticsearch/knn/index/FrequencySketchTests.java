@@ -0,0 +1,57 @@
+/*
+ *   Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License").
+ *   You may not use this file except in compliance with the License.
+ *   A copy of the License is located at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   or in the "license" file accompanying this file. This file is distributed
+ *   on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *   express or implied. See the License for the specific language governing
+ *   permissions and limitations under the License.
+ */
+
+package com.amazon.opendistroforelasticsearch.knn.index;
+
+import com.amazon.opendistroforelasticsearch.knn.KNNTestCase;
+
+public class FrequencySketchTests extends KNNTestCase {
+
+    public void testFrequency() {
+        FrequencySketch frequencySketch = new FrequencySketch(64);
+        assertEquals(0, frequencySketch.frequency("hot"));
+
+        for (int i = 0; i < 5; i++) {
+            frequencySketch.increment("hot");
+        }
+        frequencySketch.increment("cold");
+
+        assertEquals(5, frequencySketch.frequency("hot"));
+        assertEquals(1, frequencySketch.frequency("cold"));
+    }
+
+    public void testFrequencySaturates() {
+        FrequencySketch frequencySketch = new FrequencySketch(64);
+        for (int i = 0; i < 2 * FrequencySketch.MAX_FREQUENCY; i++) {
+            frequencySketch.increment("hot");
+        }
+        assertEquals(FrequencySketch.MAX_FREQUENCY, frequencySketch.frequency("hot"));
+    }
+
+    public void testAging() {
+        FrequencySketch frequencySketch = new FrequencySketch(64, 16);
+        for (int i = 0; i < 8; i++) {
+            frequencySketch.increment("hot");
+        }
+        assertEquals(8, frequencySketch.frequency("hot"));
+
+        // Reaching the sample size halves every counter
+        for (int i = 0; i < 8; i++) {
+            frequencySketch.increment("cold");
+        }
+        assertEquals(4, frequencySketch.frequency("hot"));
+        assertEquals(4, frequencySketch.frequency("cold"));
+    }
+}
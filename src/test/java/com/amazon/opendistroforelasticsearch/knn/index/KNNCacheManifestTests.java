@@ -0,0 +1,150 @@
+/*
+ *   Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License").
+ *   You may not use this file except in compliance with the License.
+ *   A copy of the License is located at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   or in the "license" file accompanying this file. This file is distributed
+ *   on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *   express or implied. See the License for the specific language governing
+ *   permissions and limitations under the License.
+ */
+
+
+package com.amazon.opendistroforelasticsearch.knn.index;
+
+import com.amazon.opendistroforelasticsearch.knn.KNNSingleNodeTestCase;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.IndexService;
+import org.elasticsearch.index.shard.IndexShard;
+import org.elasticsearch.threadpool.ThreadPool;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+import static com.amazon.opendistroforelasticsearch.knn.index.KNNIndexCache.GRAPH_COUNT;
+
+public class KNNCacheManifestTests extends KNNSingleNodeTestCase {
+    private final String testIndexName = "test-index";
+    private final String testFieldName = "test-field";
+    private final int dimensions = 2;
+
+    public void testPersistAndReload() throws InterruptedException, ExecutionException, IOException {
+        IndexService indexService = createKNNIndex(testIndexName);
+        createKnnIndexMapping(testIndexName, testFieldName, dimensions);
+        addKnnDoc(testIndexName, "1", testFieldName, new Float[] {2.5F, 3.5F});
+        searchKNNIndex(testIndexName, testFieldName, new float[] {1.0f, 2.0f}, 1);
+        searchKNNIndex(testIndexName, testFieldName, new float[] {1.0f, 2.0f}, 1);
+
+        Map<String, Integer> frequencies = KNNIndexCache.getInstance().getGraphFrequencies();
+        assertEquals(1, frequencies.size());
+        String graphPath = frequencies.keySet().iterator().next();
+        assertEquals(2, (int) frequencies.get(graphPath));
+
+        Path manifestPath = createTempDir().resolve(KNNCacheManifest.MANIFEST_FILE_NAME);
+        ThreadPool threadPool = getInstanceFromNode(ThreadPool.class);
+        new KNNCacheManifest(manifestPath, TimeValue.timeValueMinutes(1), threadPool).persist();
+        assertTrue(Files.exists(manifestPath));
+
+        // Simulate a restart: the cache is empty and a new manifest reads what was persisted
+        KNNIndexCache.getInstance().evictAllGraphsFromCache();
+        assertFalse(KNNIndexCache.getInstance().isIndexLoaded(graphPath));
+
+        KNNCacheManifest knnCacheManifest = new KNNCacheManifest(manifestPath, TimeValue.timeValueMinutes(1),
+                threadPool);
+        knnCacheManifest.load();
+        knnCacheManifest.reload(indexService.iterator().next());
+
+        assertTrue(KNNIndexCache.getInstance().isIndexLoaded(graphPath));
+        assertEquals(1, KNNIndexCache.getInstance().getIndicesCacheStats().get(testIndexName).get(GRAPH_COUNT));
+        assertEquals(2, (int) KNNIndexCache.getInstance().getGraphFrequencies().get(graphPath));
+    }
+
+    public void testReload_graphNoLongerInShard() throws InterruptedException, ExecutionException, IOException {
+        IndexService indexService = createKNNIndex(testIndexName);
+        createKnnIndexMapping(testIndexName, testFieldName, dimensions);
+        addKnnDoc(testIndexName, "1", testFieldName, new Float[] {2.5F, 3.5F});
+        IndexShard indexShard = indexService.iterator().next();
+
+        // A graph of a segment that was merged away while the node was down
+        Path manifestPath = createTempDir().resolve(KNNCacheManifest.MANIFEST_FILE_NAME);
+        String deletedGraph = indexShard.shardPath().resolveIndex().resolve("_0_deleted.hnsw").toString();
+        Files.write(manifestPath, ("{\"graphs\":[{\"path\":\"" + deletedGraph.replace("\\", "\\\\")
+                + "\",\"frequency\":5}]}").getBytes("UTF-8"));
+
+        KNNCacheManifest knnCacheManifest = new KNNCacheManifest(manifestPath, TimeValue.timeValueMinutes(1),
+                getInstanceFromNode(ThreadPool.class));
+        knnCacheManifest.load();
+        knnCacheManifest.reload(indexShard);
+
+        assertFalse(KNNIndexCache.getInstance().isIndexLoaded(deletedGraph));
+        assertFalse(KNNIndexCache.getInstance().getIndicesCacheStats().containsKey(testIndexName));
+    }
+
+    public void testReload_leavesRoomForMoreFrequentlyUsedGraphs() throws Exception {
+        IndexService indexService = createKNNIndex(testIndexName);
+        createKnnIndexMapping(testIndexName, testFieldName, dimensions);
+        addKnnDoc(testIndexName, "1", testFieldName, new Float[] {2.5F, 3.5F});
+        searchKNNIndex(testIndexName, testFieldName, new float[] {1.0f, 2.0f}, 1);
+        String graphPath = KNNIndexCache.getInstance().getGraphFrequencies().keySet().iterator().next();
+        KNNIndexCache.getInstance().evictAllGraphsFromCache();
+
+        client().admin().cluster().prepareUpdateSettings()
+                .setTransientSettings(Settings.builder().put(KNNSettings.KNN_MEMORY_CIRCUIT_BREAKER_LIMIT, "16kb"))
+                .get();
+        assertBusy(() -> assertEquals(16 * 1024L, KNNCircuitBreaker.getInstance().getCircuitBreaker().getLimit()));
+
+        // A hotter graph of a shard that has not started yet, which takes up the whole limit
+        String hotGraph = createTempDir().resolve(Paths.get(graphPath).getFileName()).toString();
+        Files.write(Paths.get(hotGraph), new byte[16 * 1024]);
+        Path manifestPath = createTempDir().resolve(KNNCacheManifest.MANIFEST_FILE_NAME);
+        Files.write(manifestPath, ("{\"graphs\":[{\"path\":\"" + hotGraph.replace("\\", "\\\\")
+                + "\",\"index\":\"" + testIndexName + "\",\"frequency\":5},{\"path\":\""
+                + graphPath.replace("\\", "\\\\") + "\",\"index\":\"" + testIndexName
+                + "\",\"frequency\":1}]}").getBytes("UTF-8"));
+
+        ThreadPool threadPool = getInstanceFromNode(ThreadPool.class);
+        KNNCacheManifest knnCacheManifest = new KNNCacheManifest(manifestPath, TimeValue.timeValueMinutes(1),
+                threadPool);
+        knnCacheManifest.load();
+        knnCacheManifest.reload(indexService.iterator().next());
+        assertFalse(KNNIndexCache.getInstance().isIndexLoaded(graphPath));
+
+        // Without the hotter graph, there is room for it
+        Files.delete(Paths.get(hotGraph));
+        knnCacheManifest = new KNNCacheManifest(manifestPath, TimeValue.timeValueMinutes(1), threadPool);
+        knnCacheManifest.load();
+        knnCacheManifest.reload(indexService.iterator().next());
+        assertTrue(KNNIndexCache.getInstance().isIndexLoaded(graphPath));
+    }
+
+    public void testPersist_dropsGraphsWhoseFileIsGone() throws IOException {
+        Path dataPath = createTempDir();
+        String existingGraph = Files.createFile(dataPath.resolve("_0_existing.hnsw")).toString();
+        String deletedGraph = dataPath.resolve("_1_deleted.hnsw").toString();
+
+        // Graphs of shards that have not started, one of which was deleted since
+        Path manifestPath = createTempDir().resolve(KNNCacheManifest.MANIFEST_FILE_NAME);
+        Files.write(manifestPath, ("{\"graphs\":[{\"path\":\"" + existingGraph.replace("\\", "\\\\")
+                + "\",\"frequency\":3},{\"path\":\"" + deletedGraph.replace("\\", "\\\\")
+                + "\",\"frequency\":5}]}").getBytes("UTF-8"));
+
+        ThreadPool threadPool = getInstanceFromNode(ThreadPool.class);
+        KNNCacheManifest knnCacheManifest = new KNNCacheManifest(manifestPath, TimeValue.timeValueMinutes(1),
+                threadPool);
+        knnCacheManifest.load();
+        knnCacheManifest.persist();
+
+        String manifest = new String(Files.readAllBytes(manifestPath), "UTF-8");
+        assertTrue(manifest, manifest.contains("_0_existing.hnsw"));
+        assertFalse(manifest, manifest.contains("_1_deleted.hnsw"));
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ *   Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License").
+ *   You may not use this file except in compliance with the License.
+ *   A copy of the License is located at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   or in the "license" file accompanying this file. This file is distributed
+ *   on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *   express or implied. See the License for the specific language governing
+ *   permissions and limitations under the License.
+ */
+
+
+package com.amazon.opendistroforelasticsearch.knn.index;
+
+import com.amazon.opendistroforelasticsearch.knn.KNNSingleNodeTestCase;
+import com.amazon.opendistroforelasticsearch.knn.index.engine.KNNEngineIndex;
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.support.WriteRequest;
+import org.elasticsearch.common.breaker.CircuitBreakingException;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.watcher.ResourceWatcherService;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Stress harness for the graph cache. Queries run concurrently with explicit evictions, cache rebuilds and merges
+ * that delete graph files, under a circuit breaker limit small enough that the cache keeps evicting. Reports the
+ * throughput of each operation and fails on any query error, such as a graph queried after it was freed, and on
+ * graphs that stay in native memory once the cache is emptied.
+ *
+ * Skipped unless tests.knn.stress.seconds is set to the duration of the run. tests.knn.stress.query_threads sets the
+ * number of query threads, 4 by default.
+ */
+public class KNNCacheStressTests extends KNNSingleNodeTestCase {
+    private static final String PREFIX = "tests.knn.stress.";
+    private static final String INDEX_NAME = "stress-index";
+    private static final String FIELD_NAME = "stress-field";
+    private static final int DIMENSION = 32;
+    private static final int DOCS_PER_SEGMENT = 200;
+    private static final int SEGMENTS = 8;
+    private static final String BREAKER_LIMIT = "128kb";
+    private static final int MAX_REPORTED_FAILURES = 10;
+
+    private final LongAdder queries = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder rebuilds = new LongAdder();
+    private final LongAdder merges = new LongAdder();
+    private final List<Exception> failures = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicBoolean running = new AtomicBoolean(true);
+
+    @Override
+    protected Settings nodeSettings() {
+        // Graph file deletions are picked up by the resource watcher, poll it often so they race with the queries
+        return Settings.builder()
+                .put(super.nodeSettings())
+                .put(ResourceWatcherService.RELOAD_INTERVAL_MEDIUM.getKey(), TimeValue.timeValueMillis(100))
+                .build();
+    }
+
+    public void testStress() throws Exception {
+        int seconds = Integer.getInteger(PREFIX + "seconds", 0);
+        assumeTrue("Set " + PREFIX + "seconds to run the stress harness", seconds > 0);
+        int queryThreads = Integer.getInteger(PREFIX + "query_threads", 4);
+
+        client().admin().cluster().prepareUpdateSettings()
+                .setTransientSettings(Settings.builder().put(KNNSettings.KNN_MEMORY_CIRCUIT_BREAKER_LIMIT, BREAKER_LIMIT))
+                .get();
+        createKNNIndex(INDEX_NAME);
+        createKnnIndexMapping(INDEX_NAME, FIELD_NAME, DIMENSION);
+        Random random = new Random(randomLong());
+        for (int i = 0; i < SEGMENTS; i++) {
+            assertFalse(indexSegment(random, i * DOCS_PER_SEGMENT).hasFailures());
+        }
+
+        // Let a rebuild triggered by the limit change settle, then take the baseline of other tests' leftovers
+        KNNIndexCache.getInstance().evictAllGraphsFromCache();
+        assertBusy(() -> assertEquals(0, (int) KNNIndexCache.getInstance().getFreeQueueDepth()));
+        long baselineLiveIndices = KNNEngineIndex.getLiveIndexCount();
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < queryThreads; i++) {
+            threads.add(newThread("query-" + i, () -> query(new Random(random.nextLong()))));
+        }
+        threads.add(newThread("evict", () -> evict(new Random(random.nextLong()))));
+        threads.add(newThread("rebuild", this::rebuild));
+        threads.add(newThread("merge", () -> merge(new Random(random.nextLong()))));
+
+        long start = System.nanoTime();
+        threads.forEach(Thread::start);
+        TimeUnit.SECONDS.sleep(seconds);
+        running.set(false);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        double elapsedSeconds = (System.nanoTime() - start) / 1e9;
+
+        logger.info("[KNN] Stress harness ran for {}s: {} queries/s, {} evictions/s, {} rebuilds/s, {} merges/s, " +
+                        "{} failures", String.format("%.1f", elapsedSeconds), rate(queries, elapsedSeconds),
+                rate(evictions, elapsedSeconds), rate(rebuilds, elapsedSeconds), rate(merges, elapsedSeconds),
+                failures.size());
+        synchronized (failures) {
+            for (Exception failure : failures.subList(0, Math.min(failures.size(), MAX_REPORTED_FAILURES))) {
+                logger.error("[KNN] Stress harness failure", failure);
+            }
+            assertTrue(failures.size() + " operations failed, see the log for the first ones", failures.isEmpty());
+        }
+
+        // A graph whose file was deleted would never be used again, it must not stay in the cache
+        assertBusy(() -> {
+            for (String graphPath : KNNIndexCache.getInstance().getGraphFrequencies().keySet()) {
+                assertTrue("Graph " + graphPath + " is cached but its file was deleted", new File(graphPath).exists());
+            }
+        });
+
+        // Once the cache is emptied and every free has run, nothing may be left in native memory
+        KNNIndexCache.getInstance().evictAllGraphsFromCache();
+        assertBusy(() -> {
+            assertEquals(0, (int) KNNIndexCache.getInstance().getFreeQueueDepth());
+            assertEquals("Graphs leaked in native memory", baselineLiveIndices, KNNEngineIndex.getLiveIndexCount());
+            assertEquals(0L, (long) KNNIndexCache.getInstance().getWeightInKilobytes());
+        });
+    }
+
+    private void query(Random random) {
+        while (running.get()) {
+            try {
+                SearchResponse response = client().prepareSearch(INDEX_NAME)
+                        .setQuery(new KNNQueryBuilder(FIELD_NAME, randomVector(random), 10))
+                        .get();
+                if (response.status() != RestStatus.OK || response.getFailedShards() > 0) {
+                    throw new IllegalStateException("Query failed: " + response);
+                }
+                queries.increment();
+            } catch (Exception e) {
+                failures.add(e);
+            }
+        }
+    }
+
+    private void evict(Random random) {
+        while (running.get()) {
+            if (random.nextBoolean()) {
+                KNNIndexCache.getInstance().evictGraphsForIndex(INDEX_NAME);
+            } else {
+                KNNIndexCache.getInstance().evictAllGraphsFromCache();
+            }
+            evictions.increment();
+            pause(10);
+        }
+    }
+
+    private void rebuild() {
+        while (running.get()) {
+            KNNIndexCache.getInstance().rebuild();
+            rebuilds.increment();
+            pause(50);
+        }
+    }
+
+    /**
+     * Adds a segment, deletes some documents and merges everything back into fewer segments, which deletes the graph
+     * files of the merged segments while queries may be loading them
+     */
+    private void merge(Random random) {
+        int nextId = SEGMENTS * DOCS_PER_SEGMENT;
+        while (running.get()) {
+            try {
+                BulkResponse bulkResponse = indexSegment(random, nextId);
+                nextId += DOCS_PER_SEGMENT;
+                // Indexing is rejected while the breaker is tripped, which the small limit makes frequent
+                for (BulkItemResponse item : bulkResponse.getItems()) {
+                    if (item.isFailed() && !(ExceptionsHelper.unwrapCause(item.getFailure().getCause())
+                            instanceof CircuitBreakingException)) {
+                        throw new IllegalStateException(bulkResponse.buildFailureMessage());
+                    }
+                }
+                for (int i = 0; i < DOCS_PER_SEGMENT / 2; i++) {
+                    client().prepareDelete(INDEX_NAME, "_doc", Integer.toString(random.nextInt(nextId))).get();
+                }
+                client().admin().indices().prepareForceMerge(INDEX_NAME)
+                        .setMaxNumSegments(random.nextInt(SEGMENTS) + 1)
+                        .get();
+                client().admin().indices().prepareRefresh(INDEX_NAME).get();
+                merges.increment();
+            } catch (Exception e) {
+                failures.add(e);
+            }
+        }
+    }
+
+    private BulkResponse indexSegment(Random random, int firstId) {
+        BulkRequestBuilder bulk = client().prepareBulk().setRefreshPolicy(WriteRequest.RefreshPolicy.IMMEDIATE);
+        for (int i = 0; i < DOCS_PER_SEGMENT; i++) {
+            bulk.add(client().prepareIndex(INDEX_NAME, "_doc", Integer.toString(firstId + i))
+                    .setSource(FIELD_NAME, randomVector(random)));
+        }
+        return bulk.get();
+    }
+
+    private Thread newThread(String name, Runnable runnable) {
+        Thread thread = new Thread(runnable, "knn-stress-" + name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    private static float[] randomVector(Random random) {
+        float[] vector = new float[DIMENSION];
+        for (int i = 0; i < DIMENSION; i++) {
+            vector[i] = random.nextFloat();
+        }
+        return vector;
+    }
+
+    private static String rate(LongAdder count, double seconds) {
+        return String.format("%.1f", count.sum() / seconds);
+    }
+
+    private static void pause(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -17,14 +17,15 @@ package com.amazon.opendistroforelasticsearch.knn.index;
 
 import com.amazon.opendistroforelasticsearch.knn.KNNRestTestCase;
 import org.apache.http.util.EntityUtils;
+import org.elasticsearch.client.Request;
 import org.elasticsearch.client.Response;
 import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentType;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Map;
 
-import static com.amazon.opendistroforelasticsearch.knn.index.KNNCircuitBreaker.CB_TIME_INTERVAL;
-
 /**
  * Integration tests to test Circuit Breaker functionality
  */
@@ -77,8 +78,7 @@ public class KNNCircuitBreakerIT extends KNNRestTestCase {
             searchKNNIndex(indexName2, new KNNQueryBuilder(FIELD_NAME, qvector, k), k);
         }
 
-        // Give cluster 5 seconds to update settings and then assert that Cb get triggered
-        Thread.sleep(5*1000); // seconds
+        // The breaker of each node trips as soon as its cache evicts a graph
         assertTrue(isCbTripped());
     }
 
@@ -95,16 +95,22 @@ public class KNNCircuitBreakerIT extends KNNRestTestCase {
     }
 
     public void testCbUntrips() throws Exception {
-        updateClusterSettings("knn.circuit_breaker.triggered", "true");
-        assertTrue(isCbTripped());
+        tripCb();
 
-        int backOffInterval = 5; // seconds
-        for (int i = 0; i < CB_TIME_INTERVAL; i+=backOffInterval) {
-            if (!isCbTripped()) {
-                break;
-            }
-            Thread.sleep(backOffInterval*1000);
-        }
+        // Freeing the graphs brings every cache back under the unset percentage
+        knnEvict(Arrays.asList(INDEX_NAME + "1", INDEX_NAME + "2"));
         assertFalse(isCbTripped());
     }
-}
\ No newline at end of file
+
+    @SuppressWarnings("unchecked")
+    public void testCbRegisteredWithBreakerService() throws Exception {
+        Response response = client().performRequest(new Request("GET", "_nodes/stats/breaker"));
+        Map<String, Object> nodes = (Map<String, Object>) createParser(XContentType.JSON.xContent(),
+                EntityUtils.toString(response.getEntity())).map().get("nodes");
+
+        for (Object node : nodes.values()) {
+            Map<String, Object> breakers = (Map<String, Object>) ((Map<String, Object>) node).get("breakers");
+            assertTrue(breakers.containsKey(KNNCircuitBreaker.KNN_CIRCUIT_BREAKER_NAME));
+        }
+    }
+}
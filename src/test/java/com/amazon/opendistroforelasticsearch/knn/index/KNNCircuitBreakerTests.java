@@ -0,0 +1,94 @@
+/*
+ *   Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License").
+ *   You may not use this file except in compliance with the License.
+ *   A copy of the License is located at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   or in the "license" file accompanying this file. This file is distributed
+ *   on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *   express or implied. See the License for the specific language governing
+ *   permissions and limitations under the License.
+ */
+
+
+package com.amazon.opendistroforelasticsearch.knn.index;
+
+import com.amazon.opendistroforelasticsearch.knn.KNNSingleNodeTestCase;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.support.WriteRequest;
+import org.elasticsearch.common.breaker.CircuitBreaker;
+import org.elasticsearch.common.breaker.CircuitBreakingException;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.indices.breaker.CircuitBreakerService;
+
+import java.io.IOException;
+
+public class KNNCircuitBreakerTests extends KNNSingleNodeTestCase {
+    private final String testIndexName = "test-index";
+    private final String testFieldName = "test-field";
+    private final int dimensions = 2;
+
+    public void testBreakerAccounting() throws Exception {
+        CircuitBreaker breaker = getInstanceFromNode(CircuitBreakerService.class)
+                .getBreaker(KNNCircuitBreaker.KNN_CIRCUIT_BREAKER_NAME);
+        assertSame(breaker, KNNCircuitBreaker.getInstance().getCircuitBreaker());
+        long used = breaker.getUsed();
+
+        createKNNIndex(testIndexName);
+        createKnnIndexMapping(testIndexName, testFieldName, dimensions);
+        addKnnDoc(testIndexName, "1", testFieldName, new Float[] {2.5F, 3.5F});
+        searchKNNIndex(testIndexName, testFieldName, new float[] {1.0f, 2.0f}, 1);
+
+        // Loading the graph reserves its size, evicting it gives it back
+        long graphBytes = KNNIndexCache.getInstance().getWeightInKilobytes(testIndexName) * 1024;
+        assertEquals(used + graphBytes, breaker.getUsed());
+
+        KNNIndexCache.getInstance().evictGraphsForIndex(testIndexName);
+        assertEquals(used, breaker.getUsed());
+    }
+
+    public void testIndexingRejectedWhileTripped() throws Exception {
+        createKNNIndex(testIndexName);
+        createKnnIndexMapping(testIndexName, testFieldName, dimensions);
+        addKnnDoc(testIndexName, "1", testFieldName, new Float[] {2.5F, 3.5F});
+        searchKNNIndex(testIndexName, testFieldName, new float[] {1.0f, 2.0f}, 1);
+
+        // With an unset percentage of 0 the breaker stays tripped as long as any graph is loaded
+        updateUnsetPercentage(0);
+        try {
+            KNNIndexCache.getInstance().setCacheCapacityReached(true);
+            assertTrue(KNNCircuitBreaker.getInstance().isTripped());
+            expectThrows(CircuitBreakingException.class, () -> client().index(knnDocRequest("2")).actionGet());
+
+            // Documents without knn_vector fields are still accepted
+            client().index(new IndexRequest(testIndexName).id("3").source("other-field", "value")).actionGet();
+
+            // The breaker resets as soon as the graphs are freed
+            KNNIndexCache.getInstance().evictGraphsForIndex(testIndexName);
+            assertFalse(KNNCircuitBreaker.getInstance().isTripped());
+            client().index(knnDocRequest("2")).actionGet();
+        } finally {
+            KNNIndexCache.getInstance().setCacheCapacityReached(false);
+            updateUnsetPercentage(75);
+        }
+    }
+
+    private IndexRequest knnDocRequest(String docId) throws IOException {
+        return new IndexRequest(testIndexName).id(docId)
+                .source(XContentFactory.jsonBuilder().startObject()
+                        .field(testFieldName, new Float[] {1.5F, 2.5F})
+                        .endObject())
+                .setRefreshPolicy(WriteRequest.RefreshPolicy.IMMEDIATE);
+    }
+
+    private void updateUnsetPercentage(double percentage) {
+        client().admin().cluster().prepareUpdateSettings()
+                .setTransientSettings(Settings.builder()
+                        .put(KNNSettings.KNN_CIRCUIT_BREAKER_UNSET_PERCENTAGE, percentage))
+                .get();
+    }
+}
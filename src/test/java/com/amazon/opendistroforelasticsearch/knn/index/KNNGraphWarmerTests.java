@@ -0,0 +1,76 @@
+/*
+ *   Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License").
+ *   You may not use this file except in compliance with the License.
+ *   A copy of the License is located at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   or in the "license" file accompanying this file. This file is distributed
+ *   on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *   express or implied. See the License for the specific language governing
+ *   permissions and limitations under the License.
+ */
+
+package com.amazon.opendistroforelasticsearch.knn.index;
+
+import com.amazon.opendistroforelasticsearch.knn.KNNSingleNodeTestCase;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.index.IndexService;
+import org.elasticsearch.index.engine.Engine;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import static com.amazon.opendistroforelasticsearch.knn.index.KNNIndexCache.GRAPH_COUNT;
+
+public class KNNGraphWarmerTests extends KNNSingleNodeTestCase {
+    private final String testIndexName = "test-index";
+    private final String testFieldName = "test-field";
+    private final int dimensions = 2;
+
+    public void testPreloadDisabled() throws InterruptedException, ExecutionException, IOException {
+        createKNNIndex(testIndexName);
+        createKnnIndexMapping(testIndexName, testFieldName, dimensions);
+        addKnnDoc(testIndexName, "1", testFieldName, new Float[] {2.5F, 3.5F});
+
+        assertFalse(KNNIndexCache.getInstance().getIndicesCacheStats().containsKey(testIndexName));
+    }
+
+    public void testPreloadOnRefresh() throws InterruptedException, ExecutionException, IOException {
+        createIndex(testIndexName, preloadSettings());
+        createKnnIndexMapping(testIndexName, testFieldName, dimensions);
+
+        // Each refresh exposes a new segment whose graph must be in the cache before any search runs
+        addKnnDoc(testIndexName, "1", testFieldName, new Float[] {2.5F, 3.5F});
+        assertEquals(1, KNNIndexCache.getInstance().getIndicesCacheStats().get(testIndexName).get(GRAPH_COUNT));
+
+        addKnnDoc(testIndexName, "2", testFieldName, new Float[] {1.5F, 2.5F});
+        assertEquals(2, KNNIndexCache.getInstance().getIndicesCacheStats().get(testIndexName).get(GRAPH_COUNT));
+    }
+
+    public void testGetHNSWPaths() throws InterruptedException, ExecutionException, IOException {
+        IndexService indexService = createKNNIndex(testIndexName);
+        createKnnIndexMapping(testIndexName, testFieldName, dimensions);
+        addKnnDoc(testIndexName, "1", testFieldName, new Float[] {2.5F, 3.5F});
+
+        KNNIndexShard knnIndexShard = new KNNIndexShard(indexService.iterator().next());
+        Engine.Searcher searcher = knnIndexShard.getIndexShard().acquireSearcher("test-warmer");
+        try {
+            List<String> warmerPaths = KNNIndexShard.getHNSWPaths(searcher.getIndexReader(),
+                    KNNGraphWarmer.getIndexDirectory(searcher.getDirectoryReader()));
+            assertEquals(knnIndexShard.getHNSWPaths(searcher.getIndexReader()), warmerPaths);
+        } finally {
+            searcher.close();
+        }
+    }
+
+    private Settings preloadSettings() {
+        return Settings.builder()
+                .put(getKNNDefaultIndexSettings())
+                .put(KNNSettings.KNN_PRELOAD, true)
+                .build();
+    }
+}
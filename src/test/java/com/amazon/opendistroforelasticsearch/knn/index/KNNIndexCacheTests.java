@@ -15,12 +15,15 @@
 
 package com.amazon.opendistroforelasticsearch.knn.index;
 
-import com.amazon.opendistroforelasticsearch.knn.index.v206.KNNIndex;
+import com.amazon.opendistroforelasticsearch.knn.index.engine.KNNEngineIndex;
+import com.amazon.opendistroforelasticsearch.knn.index.hnsw.JavaHnswEngine;
 import com.amazon.opendistroforelasticsearch.knn.KNNTestCase;
 import com.amazon.opendistroforelasticsearch.knn.plugin.KNNPlugin;
+import com.amazon.opendistroforelasticsearch.knn.plugin.stats.StatNames;
 import org.elasticsearch.action.admin.indices.mapping.put.PutMappingRequest;
 import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.action.search.SearchPhaseExecutionException;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.action.support.WriteRequest;
 import org.elasticsearch.common.settings.Settings;
@@ -224,6 +227,222 @@ public class KNNIndexCacheTests extends ESSingleNodeTestCase {
         assertEquals(0, KNNIndexCache.getInstance().getIndicesCacheStats().size());
     }
 
+    public void testEvictGraphsForIndex() throws IOException, InterruptedException, ExecutionException {
+        String testIndexName1 = testIndexName + "1";
+        String testIndexName2 = testIndexName + "2";
+        for (String indexName : new String[] {testIndexName1, testIndexName2}) {
+            createIndex(indexName, getKNNDefaultIndexSettings());
+            createKnnIndexMapping(indexName, testFieldName, 2);
+            addKnnDoc(indexName, "1", testFieldName, new Long[] {0L, 0L});
+            searchKNNIndex(indexName, testFieldName, new float[] {0L, 0L}, 1);
+        }
+
+        Long weight = KNNIndexCache.getInstance().getWeightInKilobytes(testIndexName1);
+        Map<String, Object> evicted = KNNIndexCache.getInstance().evictGraphsForIndex(testIndexName1);
+        assertEquals(1, evicted.get(GRAPH_COUNT));
+        assertEquals(weight, evicted.get(StatNames.GRAPH_MEMORY_USAGE.getName()));
+
+        // Only the graphs of the requested index are evicted
+        assertFalse(KNNIndexCache.getInstance().getIndicesCacheStats().containsKey(testIndexName1));
+        assertEquals(1, KNNIndexCache.getInstance().getIndicesCacheStats().get(testIndexName2).get(GRAPH_COUNT));
+    }
+
+    public void testFreeStats() throws Exception {
+        createIndex(testIndexName, getKNNDefaultIndexSettings());
+        createKnnIndexMapping(testIndexName, testFieldName, 2);
+        addKnnDoc(testIndexName, "1", testFieldName, new Long[] {0L, 0L});
+        searchKNNIndex(testIndexName, testFieldName, new float[] {0L, 0L}, 1);
+
+        long freeCount = KNNIndexCache.getInstance().getFreeCount();
+        long totalFreeTime = KNNIndexCache.getInstance().getTotalFreeTime();
+        KNNIndexCache.getInstance().evictGraphsForIndex(testIndexName);
+
+        // The graph is freed in the background
+        assertBusy(() -> {
+            assertEquals(freeCount + 1, (long) KNNIndexCache.getInstance().getFreeCount());
+            assertEquals(0, (int) KNNIndexCache.getInstance().getFreeQueueDepth());
+        });
+        assertTrue(KNNIndexCache.getInstance().getTotalFreeTime() > totalFreeTime);
+    }
+
+    public void testHitRatio() throws IOException, InterruptedException, ExecutionException {
+        createIndex(testIndexName, getKNNDefaultIndexSettings());
+        createKnnIndexMapping(testIndexName, testFieldName, 2);
+        addKnnDoc(testIndexName, "1", testFieldName, new Long[] {0L, 0L});
+
+        // The first search loads the graph, the next three find it in the cache
+        for (int i = 0; i < 4; i++) {
+            searchKNNIndex(testIndexName, testFieldName, new float[] {0L, 0L}, 1);
+        }
+
+        Map<String, Object> indexStats = KNNIndexCache.getInstance().getIndicesCacheStats().get(testIndexName);
+        assertEquals(3L, indexStats.get(KNNIndexCache.HIT_COUNT));
+        assertEquals(1L, indexStats.get(KNNIndexCache.MISS_COUNT));
+        assertEquals(0.75, (double) indexStats.get(KNNIndexCache.HIT_RATIO), 0.0);
+    }
+
+    public void testIndexQuota() throws IOException, InterruptedException, ExecutionException {
+        createIndex(testIndexName, getKNNDefaultIndexSettings());
+        createKnnIndexMapping(testIndexName, testFieldName, 2);
+
+        // Each refresh creates a segment, so the index has two graphs of the same size
+        addKnnDoc(testIndexName, "1", testFieldName, new Long[] {0L, 0L});
+        addKnnDoc(testIndexName, "2", testFieldName, new Long[] {1L, 1L});
+        searchKNNIndex(testIndexName, testFieldName, new float[] {0L, 0L}, 2);
+        assertEquals(2, KNNIndexCache.getInstance().getIndicesCacheStats().get(testIndexName).get(GRAPH_COUNT));
+        long graphKiloBytes = KNNIndexCache.getInstance().getWeightInKilobytes(testIndexName) / 2;
+
+        // Lowering the quota to one graph evicts the other one right away
+        client().admin().indices().prepareUpdateSettings(testIndexName)
+                .setSettings(Settings.builder().put(KNNSettings.KNN_MEMORY_QUOTA, graphKiloBytes + "kb")).get();
+        Map<String, Object> indexStats = KNNIndexCache.getInstance().getIndicesCacheStats().get(testIndexName);
+        assertEquals(1, indexStats.get(GRAPH_COUNT));
+        assertEquals(graphKiloBytes, indexStats.get(KNNIndexCache.GRAPH_MEMORY_QUOTA));
+        assertEquals(100f, (float) indexStats.get(KNNIndexCache.GRAPH_MEMORY_QUOTA_PERCENTAGE), 0.0f);
+
+        // Searching both segments swaps the graphs in and out, but never holds more than the quota
+        searchKNNIndex(testIndexName, testFieldName, new float[] {0L, 0L}, 2);
+        assertEquals(1, KNNIndexCache.getInstance().getIndicesCacheStats().get(testIndexName).get(GRAPH_COUNT));
+
+        // A graph larger than the whole quota is rejected rather than loaded outside of the cache
+        client().admin().indices().prepareUpdateSettings(testIndexName)
+                .setSettings(Settings.builder().put(KNNSettings.KNN_MEMORY_QUOTA, (graphKiloBytes - 1) + "kb")).get();
+        assertFalse(KNNIndexCache.getInstance().getIndicesCacheStats().containsKey(testIndexName));
+        long breakerUsed = KNNCircuitBreaker.getInstance().getCircuitBreaker().getUsed();
+        SearchPhaseExecutionException e = expectThrows(SearchPhaseExecutionException.class, () -> client()
+                .prepareSearch(testIndexName).setQuery(new KNNQueryBuilder(testFieldName, new float[] {0L, 0L}, 2))
+                .get());
+        assertEquals(RestStatus.TOO_MANY_REQUESTS, e.status());
+        assertEquals(breakerUsed, KNNCircuitBreaker.getInstance().getCircuitBreaker().getUsed());
+
+        // Removing the quota lets both graphs in again
+        client().admin().indices().prepareUpdateSettings(testIndexName)
+                .setSettings(Settings.builder().putNull(KNNSettings.KNN_MEMORY_QUOTA)).get();
+        searchKNNIndex(testIndexName, testFieldName, new float[] {0L, 0L}, 2);
+        indexStats = KNNIndexCache.getInstance().getIndicesCacheStats().get(testIndexName);
+        assertEquals(2, indexStats.get(GRAPH_COUNT));
+        assertFalse(indexStats.containsKey(KNNIndexCache.GRAPH_MEMORY_QUOTA));
+    }
+
+    public void testPinnedIndex() throws IOException, InterruptedException, ExecutionException {
+        createIndex(testIndexName, Settings.builder()
+                .put(getKNNDefaultIndexSettings())
+                .put(KNNSettings.KNN_CACHE_PINNED, true)
+                .build());
+        createKnnIndexMapping(testIndexName, testFieldName, 2);
+        assertTrue(KNNIndexCache.getInstance().isIndexPinned(testIndexName));
+
+        addKnnDoc(testIndexName, "1", testFieldName, new Long[] {0L, 0L});
+        searchKNNIndex(testIndexName, testFieldName, new float[] {0L, 0L}, 1);
+
+        // Unpinning leaves the loaded graphs in place, they stay usable
+        client().admin().indices().prepareUpdateSettings(testIndexName)
+                .setSettings(Settings.builder().put(KNNSettings.KNN_CACHE_PINNED, false)).get();
+        assertFalse(KNNIndexCache.getInstance().isIndexPinned(testIndexName));
+        assertEquals(1, KNNIndexCache.getInstance().getIndicesCacheStats().get(testIndexName).get(GRAPH_COUNT));
+        searchKNNIndex(testIndexName, testFieldName, new float[] {0L, 0L}, 1);
+
+        client().admin().indices().prepareUpdateSettings(testIndexName)
+                .setSettings(Settings.builder().put(KNNSettings.KNN_CACHE_PINNED, true)).get();
+        assertTrue(KNNIndexCache.getInstance().isIndexPinned(testIndexName));
+        client().admin().indices().prepareDelete(testIndexName).get();
+        assertFalse(KNNIndexCache.getInstance().isIndexPinned(testIndexName));
+    }
+
+    public void testPinnedGraphsCountTowardsTheLimit() throws Exception {
+        // Room for a single small graph, once the rebuild triggered by the new limit is done
+        client().admin().cluster().prepareUpdateSettings()
+                .setTransientSettings(Settings.builder().put(KNNSettings.KNN_MEMORY_CIRCUIT_BREAKER_LIMIT, "1kb")).get();
+        assertBusy(() -> assertEquals(1024L, KNNCircuitBreaker.getInstance().getCircuitBreaker().getLimit()));
+
+        String pinnedIndexName = testIndexName + "_pinned";
+        createIndex(pinnedIndexName, Settings.builder()
+                .put(getKNNDefaultIndexSettings())
+                .put(KNNSettings.KNN_CACHE_PINNED, true)
+                .build());
+        createIndex(testIndexName, getKNNDefaultIndexSettings());
+        for (String indexName : new String[] {pinnedIndexName, testIndexName}) {
+            createKnnIndexMapping(indexName, testFieldName, 2);
+            addKnnDoc(indexName, "1", testFieldName, new Long[] {0L, 0L});
+        }
+
+        searchKNNIndex(pinnedIndexName, testFieldName, new float[] {0L, 0L}, 1);
+        long pinnedKiloBytes = KNNIndexCache.getInstance().getWeightInKilobytes(pinnedIndexName);
+        assertEquals(pinnedKiloBytes * 1024, KNNCircuitBreaker.getInstance().getCircuitBreaker().getUsed());
+
+        // The pinned graph cannot be evicted to make room
+        SearchPhaseExecutionException e = expectThrows(SearchPhaseExecutionException.class, () -> client()
+                .prepareSearch(testIndexName).setQuery(new KNNQueryBuilder(testFieldName, new float[] {0L, 0L}, 1))
+                .get());
+        assertEquals(RestStatus.TOO_MANY_REQUESTS, e.status());
+        assertFalse(KNNIndexCache.getInstance().getIndicesCacheStats().containsKey(testIndexName));
+
+        // Once unpinned, it is evicted like any other graph
+        client().admin().indices().prepareUpdateSettings(pinnedIndexName)
+                .setSettings(Settings.builder().put(KNNSettings.KNN_CACHE_PINNED, false)).get();
+        searchKNNIndex(testIndexName, testFieldName, new float[] {0L, 0L}, 1);
+        assertFalse(KNNIndexCache.getInstance().getIndicesCacheStats().containsKey(pinnedIndexName));
+        assertEquals(1, KNNIndexCache.getInstance().getIndicesCacheStats().get(testIndexName).get(GRAPH_COUNT));
+    }
+
+    public void testHeapGraphsCountTowardsTheHeapLimit() throws Exception {
+        createIndex(testIndexName, getKNNDefaultIndexSettings());
+        PutMappingRequest request = new PutMappingRequest(testIndexName).type("_doc");
+        request.source(testFieldName, "type=knn_vector,dimension=2,engine=" + JavaHnswEngine.NAME);
+        ElasticsearchAssertions.assertAcked(client().admin().indices().putMapping(request).actionGet());
+        addKnnDoc(testIndexName, "1", testFieldName, new Long[] {0L, 0L});
+
+        // java_hnsw graphs live on the heap, so the native memory breaker is left alone
+        searchKNNIndex(testIndexName, testFieldName, new float[] {0L, 0L}, 1);
+        assertTrue(KNNIndexCache.getInstance().getWeightInKilobytes(testIndexName) > 0);
+        assertEquals(0L, KNNCircuitBreaker.getInstance().getCircuitBreaker().getUsed());
+
+        // and are rejected once they no longer fit under knn.memory.heap.limit
+        client().admin().cluster().prepareUpdateSettings()
+                .setTransientSettings(Settings.builder().put(KNNSettings.KNN_MEMORY_HEAP_LIMIT, "0b")).get();
+        assertBusy(() -> assertEquals(0L, (long) KNNIndexCache.getInstance().getWeightInKilobytes()));
+        SearchPhaseExecutionException e = expectThrows(SearchPhaseExecutionException.class, () -> client()
+                .prepareSearch(testIndexName).setQuery(new KNNQueryBuilder(testFieldName, new float[] {0L, 0L}, 1))
+                .get());
+        assertEquals(RestStatus.TOO_MANY_REQUESTS, e.status());
+        assertEquals(0L, KNNCircuitBreaker.getInstance().getCircuitBreaker().getUsed());
+    }
+
+    public void testGraphNotAdmitted() throws Exception {
+        // Room for a single small graph, once the rebuild triggered by the new limit is done
+        client().admin().cluster().prepareUpdateSettings()
+                .setTransientSettings(Settings.builder()
+                        .put(KNNSettings.KNN_MEMORY_CIRCUIT_BREAKER_LIMIT, "1kb")
+                        .put(KNNSettings.KNN_CACHE_ADMISSION_POLICY, KNNIndexCache.ADMISSION_POLICY_TINYLFU)).get();
+        assertBusy(() -> assertEquals(1024L, KNNCircuitBreaker.getInstance().getCircuitBreaker().getLimit()));
+
+        String hotIndexName = testIndexName + "_hot";
+        for (String indexName : new String[] {hotIndexName, testIndexName}) {
+            createIndex(indexName, getKNNDefaultIndexSettings());
+            createKnnIndexMapping(indexName, testFieldName, 2);
+            addKnnDoc(indexName, "1", testFieldName, new Long[] {0L, 0L});
+        }
+        searchKNNIndex(hotIndexName, testFieldName, new float[] {0L, 0L}, 1);
+        searchKNNIndex(hotIndexName, testFieldName, new float[] {0L, 0L}, 1);
+
+        // The graph used less often than the cached one is rejected right away, without being loaded
+        for (int i = 0; i < 2; i++) {
+            SearchPhaseExecutionException e = expectThrows(SearchPhaseExecutionException.class, () -> client()
+                    .prepareSearch(testIndexName).setQuery(new KNNQueryBuilder(testFieldName, new float[] {0L, 0L}, 1))
+                    .get());
+            assertEquals(RestStatus.TOO_MANY_REQUESTS, e.status());
+            assertFalse(KNNIndexCache.getInstance().getIndicesCacheStats().containsKey(testIndexName));
+            assertEquals(1, KNNIndexCache.getInstance().getIndicesCacheStats().get(hotIndexName).get(GRAPH_COUNT));
+            assertEquals(KNNIndexCache.getInstance().getWeightInKilobytes() * 1024,
+                    KNNCircuitBreaker.getInstance().getCircuitBreaker().getUsed());
+        }
+
+        // Rejected queries count as accesses, so the graph is admitted once it is used more often than the cached one
+        searchKNNIndex(testIndexName, testFieldName, new float[] {0L, 0L}, 1);
+        assertEquals(1, KNNIndexCache.getInstance().getIndicesCacheStats().get(testIndexName).get(GRAPH_COUNT));
+        assertFalse(KNNIndexCache.getInstance().getIndicesCacheStats().containsKey(hotIndexName));
+    }
+
     public void testGetIndices() throws InterruptedException, ExecutionException, IOException {
         assertEquals(0, KNNIndexCache.getInstance().getIndicesCacheStats().size());
 
@@ -238,7 +457,7 @@ public class KNNIndexCacheTests extends ESSingleNodeTestCase {
         Engine.Searcher searcher = knnIndexShard.getIndexShard().acquireSearcher("test-cache");
         List<String> segmentPaths = knnIndexShard.getHNSWPaths(searcher.getIndexReader());
 
-        List<KNNIndex> knnIndices = KNNIndexCache.getInstance().getIndices(segmentPaths, testIndexName);
+        List<KNNEngineIndex> knnIndices = KNNIndexCache.getInstance().getIndices(segmentPaths, testIndexName);
         assertEquals(2, knnIndices.size());
         assertEquals(2, KNNIndexCache.getInstance().getIndicesCacheStats().get(testIndexName).get(GRAPH_COUNT));
 
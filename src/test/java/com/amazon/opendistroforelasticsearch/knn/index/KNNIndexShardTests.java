@@ -16,13 +16,18 @@
 package com.amazon.opendistroforelasticsearch.knn.index;
 
 import com.amazon.opendistroforelasticsearch.knn.KNNSingleNodeTestCase;
+import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.index.IndexService;
 import org.elasticsearch.index.engine.Engine;
 import org.elasticsearch.index.shard.IndexShard;
+import org.elasticsearch.tasks.TaskCancelledException;
 
 import java.io.IOException;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.amazon.opendistroforelasticsearch.knn.index.KNNIndexCache.GRAPH_COUNT;
 import static java.util.Collections.emptyList;
@@ -98,6 +103,57 @@ public class KNNIndexShardTests extends KNNSingleNodeTestCase {
         assertEquals(2, KNNIndexCache.getInstance().getIndicesCacheStats().get(testIndexName).get(GRAPH_COUNT));
     }
 
+    public void testWarmup_parallel() throws InterruptedException, ExecutionException, IOException {
+        IndexService indexService = createKNNIndex(testIndexName);
+        createKnnIndexMapping(testIndexName, testFieldName, dimensions);
+
+        // Each refreshed document produces its own segment and therefore its own graph
+        addKnnDoc(testIndexName, "1", testFieldName, new Float[] {2.5F, 3.5F});
+        addKnnDoc(testIndexName, "2", testFieldName, new Float[] {1.5F, 2.5F});
+        addKnnDoc(testIndexName, "3", testFieldName, new Float[] {0.5F, 1.5F});
+
+        IndexShard indexShard = indexService.iterator().next();
+        KNNIndexShard knnIndexShard = new KNNIndexShard(indexShard);
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            assertEquals(3, knnIndexShard.warmup(executor).size());
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(3, KNNIndexCache.getInstance().getIndicesCacheStats().get(testIndexName).get(GRAPH_COUNT));
+    }
+
+    public void testWarmup_throttledReadCancelled() throws InterruptedException, ExecutionException, IOException {
+        client().admin().cluster().prepareUpdateSettings()
+                .setTransientSettings(Settings.builder().put(KNNSettings.KNN_WARMUP_MAX_BYTES_PER_SEC, "1mb")).get();
+        IndexService indexService = createKNNIndex(testIndexName);
+        createKnnIndexMapping(testIndexName, testFieldName, dimensions);
+        addKnnDoc(testIndexName, "1", testFieldName, new Float[] {2.5F, 3.5F});
+
+        // Cancellation is checked before every throttled read, and stops the load of the graph
+        AtomicInteger reads = new AtomicInteger();
+        KNNIndexShard.WarmupListener listener = new KNNIndexShard.WarmupListener() {
+            @Override
+            public void onStart(int totalGraphs, long totalBytes) {}
+
+            @Override
+            public void beforeGraphLoad(String hnswPath) {}
+
+            @Override
+            public void beforeGraphRead(String hnswPath) {
+                reads.incrementAndGet();
+                throw new TaskCancelledException("cancelled");
+            }
+
+            @Override
+            public void onGraphLoaded(String hnswPath, long bytes) {}
+        };
+        KNNIndexShard knnIndexShard = new KNNIndexShard(indexService.iterator().next());
+        expectThrows(TaskCancelledException.class, () -> knnIndexShard.warmup(Runnable::run, listener));
+        assertEquals(1, reads.get());
+        assertFalse(KNNIndexCache.getInstance().getIndicesCacheStats().containsKey(testIndexName));
+    }
+
     public void testGetHNSWPaths() throws IOException, ExecutionException, InterruptedException {
         IndexService indexService = createKNNIndex(testIndexName);
         createKnnIndexMapping(testIndexName, testFieldName, dimensions);
@@ -24,6 +24,7 @@ import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.store.FilterDirectory;
 
+import java.io.IOException;
 import java.nio.file.Paths;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
@@ -234,6 +235,42 @@ public class KNNJNITests extends KNNTestCase {
         dir.close();
     }
 
+    public void testReferenceCounting() throws Exception {
+        int[] docs = {0, 1};
+        float[][] vectors = {
+                {1.0f, 2.0f},
+                {3.0f, 4.0f}
+        };
+
+        Directory dir = newFSDirectory(createTempDir());
+        String indexPath = getIndexPath(dir);
+        String[] algoParams = {};
+        AccessController.doPrivileged(
+                new PrivilegedAction<Void>() {
+                    public Void run() {
+                        KNNIndex.saveIndex(docs, vectors, indexPath, algoParams, "l2");
+                        return null;
+                    }
+                }
+        );
+
+        String[] algoQueryParams = {"efSearch=20"};
+        final KNNIndex index = KNNIndex.loadIndex(indexPath, algoQueryParams, "l2");
+        float[] queryVector = {1.0f, 2.0f};
+
+        // A query holding a reference keeps the index alive after its owner closes it
+        assertTrue(index.tryIncRef());
+        index.close();
+        index.close();
+        assertEquals(2, index.queryIndex(queryVector, 2).length);
+
+        // Releasing the last reference frees it
+        index.decRef();
+        assertFalse(index.tryIncRef());
+        expectThrows(IOException.class, () -> index.queryIndex(queryVector, 2));
+        dir.close();
+    }
+
     private String getIndexPath(Directory dir ) {
         String segmentName = "_dummy1";
         return Paths.get(((FSDirectory) (FilterDirectory.unwrap(dir))).getDirectory().toString(),
@@ -0,0 +1,62 @@
+/*
+ *   Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License").
+ *   You may not use this file except in compliance with the License.
+ *   A copy of the License is located at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   or in the "license" file accompanying this file. This file is distributed
+ *   on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *   express or implied. See the License for the specific language governing
+ *   permissions and limitations under the License.
+ */
+
+
+package com.amazon.opendistroforelasticsearch.knn.index;
+
+import com.amazon.opendistroforelasticsearch.knn.KNNSingleNodeTestCase;
+import org.elasticsearch.common.settings.Settings;
+
+import java.util.Map;
+
+public class KNNRecallEstimatorTests extends KNNSingleNodeTestCase {
+    private final String testIndexName = "test-index";
+    private final String testFieldName = "test-field";
+
+    public void testSampledRecall() throws Exception {
+        createIndex(testIndexName, Settings.builder()
+                .put(getKNNDefaultIndexSettings())
+                .put(KNNSettings.KNN_RECALL_SAMPLE_RATE, 1.0)
+                .build());
+        createKnnIndexMapping(testIndexName, testFieldName, 2);
+        addKnnDoc(testIndexName, "1", testFieldName, new Float[] {2.5F, 3.5F});
+        addKnnDoc(testIndexName, "2", testFieldName, new Float[] {1.5F, 2.5F});
+
+        searchKNNIndex(testIndexName, testFieldName, new float[] {1.0F, 2.0F}, 1);
+
+        // Every segment searched is sampled, and a graph this small is exact
+        assertBusy(() -> {
+            Map<String, Object> recallStats = KNNRecallEstimator.getInstance().getRecallStats().get(testIndexName);
+            assertNotNull(recallStats);
+            assertEquals(1.0, (Double) recallStats.get(KNNRecallEstimator.RECALL_AT_K), 0.0);
+        });
+    }
+
+    public void testRollingRecall() {
+        KNNRecallEstimator recallEstimator = KNNRecallEstimator.getInstance();
+        recallEstimator.record(testIndexName, 0.0);
+        for (int i = 0; i < KNNRecallEstimator.WINDOW_SIZE; i++) {
+            recallEstimator.record(testIndexName, 0.5);
+        }
+
+        // The first sample left the window
+        Map<String, Object> recallStats = recallEstimator.getRecallStats().get(testIndexName);
+        assertEquals(0.5, (Double) recallStats.get(KNNRecallEstimator.RECALL_AT_K), 0.0001);
+        assertEquals((long) KNNRecallEstimator.WINDOW_SIZE + 1, recallStats.get(KNNRecallEstimator.SAMPLE_COUNT));
+
+        recallEstimator.onIndexRemoved(testIndexName);
+        assertNull(recallEstimator.getRecallStats().get(testIndexName));
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ *   Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License").
+ *   You may not use this file except in compliance with the License.
+ *   A copy of the License is located at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   or in the "license" file accompanying this file. This file is distributed
+ *   on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *   express or implied. See the License for the specific language governing
+ *   permissions and limitations under the License.
+ */
+
+
+package com.amazon.opendistroforelasticsearch.knn.index;
+
+import com.amazon.opendistroforelasticsearch.knn.KNNTestCase;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.TermQuery;
+import org.elasticsearch.index.shard.ShardId;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class KNNSlowLogTests extends KNNTestCase {
+    private final ShardId shardId = new ShardId("test-index", "_na_", 0);
+
+    public void testFindKNNQueries() {
+        KNNQuery knnQuery = new KNNQuery("test-field", new float[] {1.0f, 2.0f}, 3, "test-index");
+        BooleanQuery query = new BooleanQuery.Builder()
+                .add(knnQuery, BooleanClause.Occur.SHOULD)
+                .add(new TermQuery(new Term("color", "red")), BooleanClause.Occur.FILTER)
+                .build();
+
+        assertEquals(Collections.singletonList(knnQuery), KNNSlowLog.findKNNQueries(query));
+        assertTrue(KNNSlowLog.findKNNQueries(new TermQuery(new Term("color", "red"))).isEmpty());
+    }
+
+    public void testFormatMessage() {
+        KNNQuery knnQuery = new KNNQuery("test-field", new float[] {1.0f, 2.0f}, 3, "test-index");
+        List<KNNQueryProfile.SegmentProfile> profiles = Arrays.asList(
+                new KNNQueryProfile.SegmentProfile("_0", false, TimeUnit.MILLISECONDS.toNanos(40),
+                        TimeUnit.MILLISECONDS.toNanos(2), 0, 3, 30, 1000),
+                new KNNQueryProfile.SegmentProfile("_1", true, 1000, TimeUnit.MILLISECONDS.toNanos(3), 0, 3, 30,
+                        1000));
+
+        String message = KNNSlowLog.formatMessage(shardId, knnQuery, profiles, 100,
+                TimeUnit.MILLISECONDS.toNanos(50), false);
+        assertTrue(message, message.startsWith("[test-index][0] "));
+        assertTrue(message, message.contains("took_millis[50]"));
+        assertTrue(message, message.contains("field[test-field], k[3], ef_search[100]"));
+        assertTrue(message, message.contains("segments[2], graphs_loaded[1]"));
+        assertTrue(message, message.contains("native_search_millis[5]"));
+        assertFalse(message, message.contains("vector"));
+
+        message = KNNSlowLog.formatMessage(shardId, knnQuery, profiles, 100,
+                TimeUnit.MILLISECONDS.toNanos(50), true);
+        assertTrue(message, message.endsWith("vector[1.0, 2.0]"));
+    }
+}
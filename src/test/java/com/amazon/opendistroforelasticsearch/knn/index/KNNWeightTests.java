@@ -0,0 +1,139 @@
+/*
+ *   Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License").
+ *   You may not use this file except in compliance with the License.
+ *   A copy of the License is located at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   or in the "license" file accompanying this file. This file is distributed
+ *   on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *   express or implied. See the License for the specific language governing
+ *   permissions and limitations under the License.
+ */
+
+
+package com.amazon.opendistroforelasticsearch.knn.index;
+
+import com.amazon.opendistroforelasticsearch.knn.KNNSingleNodeTestCase;
+import com.amazon.opendistroforelasticsearch.knn.index.hnsw.JavaHnswEngine;
+import com.amazon.opendistroforelasticsearch.knn.plugin.stats.KNNLatency;
+import org.elasticsearch.action.admin.indices.mapping.put.PutMappingRequest;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.support.WriteRequest;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.index.mapper.MapperParsingException;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.profile.ProfileResult;
+import org.elasticsearch.search.profile.ProfileShardResult;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+public class KNNWeightTests extends KNNSingleNodeTestCase {
+    private final String testIndexName = "test-index";
+    private final String testFieldName = "test-field";
+
+    public void testProfileBreakdown() throws InterruptedException, ExecutionException, IOException {
+        createKNNIndex(testIndexName);
+        createKnnIndexMapping(testIndexName, testFieldName, 2);
+        addKnnDoc(testIndexName, "1", testFieldName, new Float[] {2.5F, 3.5F});
+
+        ProfileResult cold = profileSearch();
+        List<Map<String, Object>> coldSegments = getSegmentBreakdown(cold);
+        assertEquals(1, coldSegments.size());
+        assertEquals(false, coldSegments.get(0).get("cache_hit"));
+        assertEquals(1, coldSegments.get(0).get("result_count"));
+        // nmslib computes l2 distances with its optimized functions, which it does not count
+        assertFalse(coldSegments.get(0).containsKey("distance_computations"));
+
+        ProfileResult warm = profileSearch();
+        List<Map<String, Object>> warmSegments = getSegmentBreakdown(warm);
+        assertEquals(1, warmSegments.size());
+        assertEquals(true, warmSegments.get(0).get("cache_hit"));
+
+        // The breakdown is not kept on the query
+        assertEquals(cold.getLuceneDescription(), warm.getLuceneDescription());
+        assertNull(KNNQueryProfile.newWeight(new KNNQuery(testFieldName, new float[] {2.5F, 3.5F}, 1, testIndexName)));
+    }
+
+    public void testProfileDistanceComputations() throws InterruptedException, ExecutionException, IOException {
+        createKNNIndex(testIndexName);
+        PutMappingRequest request = new PutMappingRequest(testIndexName).type("_doc");
+        request.source(testFieldName, "type=knn_vector,dimension=2,engine=" + JavaHnswEngine.NAME);
+        client().admin().indices().putMapping(request).actionGet();
+        addKnnDoc(testIndexName, "1", testFieldName, new Float[] {2.5F, 3.5F});
+        addKnnDoc(testIndexName, "2", testFieldName, new Float[] {1.5F, 0.5F});
+
+        List<Map<String, Object>> segments = getSegmentBreakdown(profileSearch());
+        assertFalse(segments.isEmpty());
+        for (Map<String, Object> segment : segments) {
+            assertTrue(segment.toString(), ((Number) segment.get("distance_computations")).longValue() > 0);
+        }
+    }
+
+    public void testRescoreQuantizedGraph() throws IOException {
+        createIndex(testIndexName, Settings.builder()
+                .put(getKNNDefaultIndexSettings())
+                .put(KNNSettings.KNN_ALGO_PARAM_PQ_M, 2)
+                .put(KNNSettings.KNN_PQ_RESCORE_FACTOR, 10)
+                .build());
+        PutMappingRequest request = new PutMappingRequest(testIndexName).type("_doc");
+        request.source(testFieldName, "type=knn_vector,dimension=4,engine=" + JavaHnswEngine.NAME);
+        client().admin().indices().putMapping(request).actionGet();
+
+        // A single segment with more vectors than centroids, so that most vectors are not encoded exactly
+        float[][] vectors = new float[1000][];
+        BulkRequestBuilder bulk = client().prepareBulk().setRefreshPolicy(WriteRequest.RefreshPolicy.IMMEDIATE);
+        for (int i = 0; i < vectors.length; i++) {
+            vectors[i] = new float[] {randomFloat(), randomFloat(), randomFloat(), randomFloat()};
+            bulk.add(client().prepareIndex(testIndexName, "_doc", Integer.toString(i))
+                    .setSource(XContentFactory.jsonBuilder().startObject().field(testFieldName, vectors[i]).endObject()));
+        }
+        assertFalse(bulk.get().hasFailures());
+
+        for (int i = 0; i < 10; i++) {
+            int doc = randomInt(vectors.length - 1);
+            SearchHit hit = client().prepareSearch(testIndexName)
+                    .setQuery(new KNNQueryBuilder(testFieldName, vectors[doc], 1))
+                    .get()
+                    .getHits()
+                    .getAt(0);
+            // Rescored with the exact distance, 0 to the doc itself
+            assertEquals(Integer.toString(doc), hit.getId());
+            assertEquals(1.0f, hit.getScore(), 0.0f);
+        }
+        // The rescore is timed as its own stage
+        assertEquals(10L, KNNLatency.RESCORE.getHistogram(testIndexName, testFieldName).getTotalCount());
+    }
+
+    public void testQuantizationSubspacesMustDivideDimension() {
+        createIndex(testIndexName, Settings.builder()
+                .put(getKNNDefaultIndexSettings())
+                .put(KNNSettings.KNN_ALGO_PARAM_PQ_M, 3)
+                .build());
+        PutMappingRequest request = new PutMappingRequest(testIndexName).type("_doc");
+        request.source(testFieldName, "type=knn_vector,dimension=4,engine=" + JavaHnswEngine.NAME);
+        expectThrows(MapperParsingException.class, () -> client().admin().indices().putMapping(request).actionGet());
+    }
+
+    private ProfileResult profileSearch() {
+        SearchResponse response = client().prepareSearch(testIndexName)
+                .setQuery(new KNNQueryBuilder(testFieldName, new float[] {2.5F, 3.5F}, 1))
+                .setProfile(true)
+                .get();
+        ProfileShardResult shardResult = response.getProfileResults().values().iterator().next();
+        return shardResult.getQueryProfileResults().get(0).getQueryResults().get(0);
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Map<String, Object>> getSegmentBreakdown(ProfileResult profileResult) {
+        assertEquals(KNNQuery.class.getSimpleName(), profileResult.getQueryName());
+        return (List<Map<String, Object>>) profileResult.getDebugInfo().get(KNNQueryProfiler.SEGMENTS);
+    }
+}
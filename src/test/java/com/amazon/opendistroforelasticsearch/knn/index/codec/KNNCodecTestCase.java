@@ -22,6 +22,7 @@ import com.amazon.opendistroforelasticsearch.knn.index.KNNSettings;
 import com.amazon.opendistroforelasticsearch.knn.index.KNNVectorFieldMapper;
 import com.amazon.opendistroforelasticsearch.knn.index.VectorField;
 import com.amazon.opendistroforelasticsearch.knn.index.codec.KNN86Codec.KNN86Codec;
+import com.amazon.opendistroforelasticsearch.knn.plugin.stats.KNNGraphBuild;
 import org.apache.lucene.codecs.Codec;
 import org.apache.lucene.codecs.CodecUtil;
 import org.apache.lucene.document.Document;
@@ -101,6 +102,11 @@ public class  KNNCodecTestCase extends KNNTestCase {
         CodecUtil.checkFooter(indexInput); // If footer is not valid, it would throw exception and test fails
         indexInput.close();
 
+        // The refresh flushed the graph, whose file size includes the footer
+        assertTrue(KNNGraphBuild.FLUSH.getBuildCount() >= 1);
+        assertTrue(KNNGraphBuild.FLUSH.getVectorsIndexed() >= 1);
+        assertTrue(KNNGraphBuild.FLUSH.getGraphBytesWritten() >= dir.fileLength(hnswFiles.get(0)));
+
         IndexSearcher searcher = new IndexSearcher(reader);
         assertEquals(1, searcher.count(new KNNQuery("test_vector", new float[] {1.0f, 2.5f}, 1, "myindex")));
 
@@ -0,0 +1,123 @@
+/*
+ *   Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License").
+ *   You may not use this file except in compliance with the License.
+ *   A copy of the License is located at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   or in the "license" file accompanying this file. This file is distributed
+ *   on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *   express or implied. See the License for the specific language governing
+ *   permissions and limitations under the License.
+ */
+
+
+package com.amazon.opendistroforelasticsearch.knn.index.engine;
+
+import com.amazon.opendistroforelasticsearch.knn.KNNSingleNodeTestCase;
+import com.amazon.opendistroforelasticsearch.knn.index.KNNIndexShard;
+import com.amazon.opendistroforelasticsearch.knn.index.util.KNNConstants;
+import com.amazon.opendistroforelasticsearch.knn.index.v206.NmsLibEngine;
+import org.apache.lucene.index.LeafReaderContext;
+import org.elasticsearch.action.admin.indices.mapping.put.PutMappingRequest;
+import org.elasticsearch.index.IndexService;
+import org.elasticsearch.index.engine.Engine;
+import org.elasticsearch.index.mapper.MapperParsingException;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+public class KNNEnginesTests extends KNNSingleNodeTestCase {
+    private final String testIndexName = "test-index";
+    private final String testFieldName = "test_field";
+
+    public void testGraphFileName() {
+        String fileName = KNNEngines.graphFileName("_a", "my_knn_field", NmsLibEngine.INSTANCE);
+        assertEquals("_a_206_my_knn_field.hnsw", fileName);
+        assertSame(NmsLibEngine.INSTANCE, KNNEngines.getEngineForGraphFile(fileName));
+        assertSame(NmsLibEngine.INSTANCE, KNNEngines.getEngineForGraphFile("/data/index/_a_206_my_knn_field.hnswc"));
+    }
+
+    public void testGetEngineForUnknownGraphFile() {
+        expectThrows(IllegalArgumentException.class, () -> KNNEngines.getEngineForGraphFile("_a_unknown_field.hnsw"));
+        expectThrows(IllegalArgumentException.class, () -> KNNEngines.getEngineForGraphFile("_dummy.hnsw"));
+    }
+
+    public void testGetEngine() {
+        assertSame(KNNEngines.DEFAULT, KNNEngines.getEngine(Collections.emptyMap()));
+        assertSame(NmsLibEngine.INSTANCE, KNNEngines.getEngine(
+                Collections.singletonMap(KNNConstants.KNN_ENGINE, NmsLibEngine.NAME)));
+        expectThrows(IllegalArgumentException.class, () -> KNNEngines.getEngine("unknown"));
+        assertTrue(KNNEngines.getNames().contains(NmsLibEngine.NAME));
+    }
+
+    public void testRegisterInvalidEngine() {
+        expectThrows(IllegalArgumentException.class, () -> KNNEngines.register(engine("test", "bad_tag")));
+        expectThrows(IllegalArgumentException.class, () -> KNNEngines.register(engine(NmsLibEngine.NAME, "test")));
+        expectThrows(IllegalArgumentException.class, () -> KNNEngines.register(engine("test",
+                NmsLibEngine.INSTANCE.getFileTag())));
+        assertFalse(KNNEngines.getNames().contains("test"));
+    }
+
+    public void testMappingWithUnknownEngine() {
+        createKNNIndex(testIndexName);
+        PutMappingRequest request = new PutMappingRequest(testIndexName).type("_doc");
+        request.source(testFieldName, "type=knn_vector,dimension=2,engine=unknown");
+        expectThrows(MapperParsingException.class, () -> client().admin().indices().putMapping(request).actionGet());
+    }
+
+    public void testEngineRecordedInSegment() throws InterruptedException, ExecutionException, IOException {
+        IndexService indexService = createKNNIndex(testIndexName);
+        PutMappingRequest request = new PutMappingRequest(testIndexName).type("_doc");
+        request.source(testFieldName, "type=knn_vector,dimension=2,engine=" + NmsLibEngine.NAME);
+        client().admin().indices().putMapping(request).actionGet();
+        addKnnDoc(testIndexName, "1", testFieldName, new Float[] {1.0f, 2.0f});
+
+        KNNIndexShard knnIndexShard = new KNNIndexShard(indexService.iterator().next());
+        Engine.Searcher searcher = knnIndexShard.getIndexShard().acquireSearcher("test-engine");
+        try {
+            List<String> hnswPaths = knnIndexShard.getHNSWPaths(searcher.getIndexReader());
+            assertEquals(1, hnswPaths.size());
+            assertSame(NmsLibEngine.INSTANCE, KNNEngines.getEngineForGraphFile(hnswPaths.get(0)));
+
+            for (LeafReaderContext leafReaderContext : searcher.getIndexReader().leaves()) {
+                Map<String, String> attributes = leafReaderContext.reader().getFieldInfos().fieldInfo(testFieldName)
+                        .attributes();
+                assertEquals(NmsLibEngine.NAME, attributes.get(KNNConstants.KNN_ENGINE));
+            }
+        } finally {
+            searcher.close();
+        }
+
+        searchKNNIndex(testIndexName, testFieldName, new float[] {1.0f, 2.0f}, 1);
+    }
+
+    private static KNNEngine engine(String name, String fileTag) {
+        return new KNNEngine() {
+            @Override
+            public String getName() {
+                return name;
+            }
+
+            @Override
+            public String getFileTag() {
+                return fileTag;
+            }
+
+            @Override
+            public void buildIndex(int[] docs, float[][] vectors, String indexPath, Map<String, String> fieldAttributes) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public KNNEngineIndex loadIndex(String indexPath, String indexName) {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ *   Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License").
+ *   You may not use this file except in compliance with the License.
+ *   A copy of the License is located at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   or in the "license" file accompanying this file. This file is distributed
+ *   on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *   express or implied. See the License for the specific language governing
+ *   permissions and limitations under the License.
+ */
+
+
+package com.amazon.opendistroforelasticsearch.knn.index.hnsw;
+
+import com.amazon.opendistroforelasticsearch.knn.KNNTestCase;
+import com.amazon.opendistroforelasticsearch.knn.index.KNNQueryResult;
+import com.amazon.opendistroforelasticsearch.knn.index.SpaceTypes;
+import com.amazon.opendistroforelasticsearch.knn.index.engine.KNNEngineIndex;
+import com.amazon.opendistroforelasticsearch.knn.index.util.KNNConstants;
+import com.amazon.opendistroforelasticsearch.knn.index.util.VectorMath;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+public class JavaHnswIndexTests extends KNNTestCase {
+    private static final int DIMENSION = 8;
+    private static final int K = 10;
+
+    public void testRecallL2() throws IOException {
+        assertRecall(SpaceTypes.l2.getValue(), false);
+    }
+
+    public void testRecallCosineSimilarity() throws IOException {
+        assertRecall(SpaceTypes.cosinesimil.getValue(), false);
+    }
+
+    public void testRecallOffHeap() throws IOException {
+        assertRecall(SpaceTypes.l2.getValue(), true);
+    }
+
+    public void testTrailingBytesIgnored() throws IOException {
+        float[][] vectors = randomVectors(100);
+        String indexPath = buildIndex(vectors, SpaceTypes.l2.getValue());
+        // Like the footer the codec appends to the graph file
+        Files.write(Paths.get(indexPath), new byte[16], StandardOpenOption.APPEND);
+
+        try (JavaHnswIndex index = JavaHnswIndex.loadIndex(indexPath, 100, false)) {
+            KNNQueryResult[] results = index.queryIndex(vectors[7], 1);
+            assertEquals(1, results.length);
+            assertEquals(7, results[0].getId());
+            assertEquals(0, results[0].getScore(), 0);
+        }
+    }
+
+    public void testSingleVector() throws IOException {
+        float[][] vectors = randomVectors(1);
+        String indexPath = buildIndex(vectors, SpaceTypes.l2.getValue());
+        try (JavaHnswIndex index = JavaHnswIndex.loadIndex(indexPath, 100, false)) {
+            KNNQueryResult[] results = index.queryIndex(randomVector(), K);
+            assertEquals(1, results.length);
+            assertEquals(0, results[0].getId());
+        }
+    }
+
+    public void testSearchStatsAndClose() throws IOException {
+        String indexPath = buildIndex(randomVectors(500), SpaceTypes.l2.getValue());
+        long liveIndexCount = KNNEngineIndex.getLiveIndexCount();
+        JavaHnswIndex index = JavaHnswIndex.loadIndex(indexPath, 100, false);
+        assertEquals(liveIndexCount + 1, KNNEngineIndex.getLiveIndexCount());
+        assertTrue(index.getIndexSize() > 0);
+
+        long[] searchStats = new long[KNNEngineIndex.SEARCH_STATS_SIZE];
+        assertEquals(K, index.queryIndex(randomVector(), K, searchStats).length);
+        assertTrue(searchStats[KNNEngineIndex.DISTANCE_COMPUTATIONS] >= K);
+
+        index.close();
+        assertEquals(liveIndexCount, KNNEngineIndex.getLiveIndexCount());
+        expectThrows(IOException.class, () -> index.queryIndex(randomVector(), K));
+    }
+
+    public void testProductQuantization() throws IOException {
+        float[][] vectors = randomVectors(1000);
+        String fullPath = buildIndex(vectors, SpaceTypes.l2.getValue());
+        Map<String, String> fieldAttributes = fieldAttributes(SpaceTypes.l2.getValue());
+        fieldAttributes.put(KNNConstants.PQ_ALGO_M, "4");
+        String quantizedPath = createTempDir().resolve("test.hnsw").toString();
+        JavaHnswEngine.INSTANCE.buildIndex(IntStream.range(0, vectors.length).toArray(), vectors, quantizedPath,
+                fieldAttributes);
+
+        try (JavaHnswIndex full = JavaHnswIndex.loadIndex(fullPath, 100, false);
+             JavaHnswIndex quantized = JavaHnswIndex.loadIndex(quantizedPath, 100, randomBoolean())) {
+            assertFalse(full.hasApproximateDistances());
+            assertTrue(quantized.hasApproximateDistances());
+            assertTrue(quantized.getIndexSize() < full.getIndexSize());
+
+            // The vector itself is among the closest by approximate distance
+            int doc = randomInt(vectors.length - 1);
+            KNNQueryResult[] results = quantized.queryIndex(vectors[doc], K);
+            assertEquals(K, results.length);
+            assertTrue(Arrays.stream(results).anyMatch(result -> result.getId() == doc));
+        }
+    }
+
+    public void testProductQuantizationSubspacesMustDivideDimension() {
+        Map<String, String> fieldAttributes = fieldAttributes(SpaceTypes.l2.getValue());
+        fieldAttributes.put(KNNConstants.PQ_ALGO_M, "3");
+        String indexPath = createTempDir().resolve("test.hnsw").toString();
+        expectThrows(IllegalArgumentException.class, () -> JavaHnswEngine.INSTANCE.buildIndex(new int[] {0},
+                new float[][] {randomVector()}, indexPath, fieldAttributes));
+    }
+
+    public void testLoadInvalidFile() throws IOException {
+        String indexPath = createTempDir().resolve("invalid.hnsw").toString();
+        Files.write(Paths.get(indexPath), new byte[64]);
+        expectThrows(IllegalStateException.class, () -> JavaHnswIndex.loadIndex(indexPath, 100, false));
+    }
+
+    private void assertRecall(String spaceType, boolean offHeap) throws IOException {
+        float[][] vectors = randomVectors(2000);
+        int[] docs = IntStream.range(0, vectors.length).map(i -> i * 3).toArray();
+        String indexPath = createTempDir().resolve("test.hnsw").toString();
+        JavaHnswEngine.INSTANCE.buildIndex(docs, vectors, indexPath, fieldAttributes(spaceType));
+
+        int spaceTypeId = VectorMath.spaceType(spaceType);
+        float[][] preparedVectors = Arrays.stream(vectors).map(vector -> VectorMath.prepare(spaceTypeId, vector))
+                .toArray(float[][]::new);
+        int queries = 50;
+        int matches = 0;
+        try (JavaHnswIndex index = JavaHnswIndex.loadIndex(indexPath, 100, offHeap)) {
+            for (int q = 0; q < queries; q++) {
+                float[] query = randomVector();
+                float[] preparedQuery = VectorMath.prepare(spaceTypeId, query);
+                Set<Integer> exact = new HashSet<>();
+                IntStream.range(0, vectors.length).boxed()
+                        .sorted(Comparator.comparingDouble(i -> VectorMath.distance(spaceTypeId, preparedQuery,
+                                preparedVectors[i])))
+                        .limit(K)
+                        .forEach(i -> exact.add(docs[i]));
+
+                KNNQueryResult[] results = index.queryIndex(query, K);
+                assertEquals(K, results.length);
+                for (KNNQueryResult result : results) {
+                    if (exact.contains(result.getId())) {
+                        matches++;
+                    }
+                }
+            }
+        }
+        double recall = (double) matches / (queries * K);
+        assertTrue("Recall too low: " + recall, recall >= 0.9);
+    }
+
+    private String buildIndex(float[][] vectors, String spaceType) throws IOException {
+        int[] docs = IntStream.range(0, vectors.length).toArray();
+        String indexPath = createTempDir().resolve("test.hnsw").toString();
+        JavaHnswEngine.INSTANCE.buildIndex(docs, vectors, indexPath, fieldAttributes(spaceType));
+        return indexPath;
+    }
+
+    private Map<String, String> fieldAttributes(String spaceType) {
+        Map<String, String> fieldAttributes = new HashMap<>();
+        fieldAttributes.put(KNNConstants.SPACE_TYPE, spaceType);
+        fieldAttributes.put(KNNConstants.HNSW_ALGO_M, "8");
+        fieldAttributes.put(KNNConstants.HNSW_ALGO_EF_CONSTRUCTION, "100");
+        return fieldAttributes;
+    }
+
+    private float[][] randomVectors(int count) {
+        float[][] vectors = new float[count][];
+        for (int i = 0; i < count; i++) {
+            vectors[i] = randomVector();
+        }
+        return vectors;
+    }
+
+    private float[] randomVector() {
+        float[] vector = new float[DIMENSION];
+        for (int i = 0; i < DIMENSION; i++) {
+            vector[i] = randomFloat();
+        }
+        return vector;
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ *   Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License").
+ *   You may not use this file except in compliance with the License.
+ *   A copy of the License is located at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   or in the "license" file accompanying this file. This file is distributed
+ *   on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *   express or implied. See the License for the specific language governing
+ *   permissions and limitations under the License.
+ */
+
+
+package com.amazon.opendistroforelasticsearch.knn.index.ivf;
+
+import com.amazon.opendistroforelasticsearch.knn.KNNTestCase;
+import com.amazon.opendistroforelasticsearch.knn.index.KNNQueryResult;
+import com.amazon.opendistroforelasticsearch.knn.index.SpaceTypes;
+import com.amazon.opendistroforelasticsearch.knn.index.engine.KNNEngineIndex;
+import com.amazon.opendistroforelasticsearch.knn.index.engine.KNNEngines;
+import com.amazon.opendistroforelasticsearch.knn.index.util.KNNConstants;
+import com.amazon.opendistroforelasticsearch.knn.index.util.VectorMath;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+public class IvfIndexTests extends KNNTestCase {
+    private static final int DIMENSION = 8;
+    private static final int K = 10;
+
+    public void testEngineRegistered() {
+        assertSame(IvfEngine.INSTANCE, KNNEngines.getEngine(IvfEngine.NAME));
+    }
+
+    public void testAllListsExactL2() throws IOException {
+        assertExact(SpaceTypes.l2.getValue(), false);
+    }
+
+    public void testAllListsExactCosineSimilarity() throws IOException {
+        assertExact(SpaceTypes.cosinesimil.getValue(), false);
+    }
+
+    public void testAllListsExactMapped() throws IOException {
+        assertExact(SpaceTypes.l2.getValue(), true);
+    }
+
+    public void testMemoryType() throws IOException {
+        String indexPath = buildIndex(randomVectors(10), SpaceTypes.l2.getValue(), 0);
+        try (IvfIndex heap = IvfIndex.loadIndex(indexPath, 1, false);
+             IvfIndex mapped = IvfIndex.loadIndex(indexPath, 1, true)) {
+            assertEquals(KNNEngineIndex.MemoryType.HEAP, heap.getMemoryType());
+            assertEquals(KNNEngineIndex.MemoryType.MAPPED, mapped.getMemoryType());
+        }
+    }
+
+    public void testNprobe() throws IOException {
+        float[][] vectors = randomVectors(1000);
+        String indexPath = buildIndex(vectors, SpaceTypes.l2.getValue(), 20);
+        float[] query = randomVector();
+
+        long[] oneListStats = new long[KNNEngineIndex.SEARCH_STATS_SIZE];
+        long[] allListsStats = new long[KNNEngineIndex.SEARCH_STATS_SIZE];
+        try (IvfIndex oneList = IvfIndex.loadIndex(indexPath, 1, false);
+             IvfIndex allLists = IvfIndex.loadIndex(indexPath, 20, true)) {
+            oneList.queryIndex(query, K, oneListStats);
+            allLists.queryIndex(query, K, allListsStats);
+        }
+        // The 20 centroids, then the vectors of the scanned lists
+        assertEquals(20 + vectors.length, allListsStats[KNNEngineIndex.DISTANCE_COMPUTATIONS]);
+        assertTrue(oneListStats[KNNEngineIndex.DISTANCE_COMPUTATIONS] < allListsStats[KNNEngineIndex.DISTANCE_COMPUTATIONS]);
+    }
+
+    public void testMoreListsThanVectors() throws IOException {
+        float[][] vectors = randomVectors(3);
+        String indexPath = buildIndex(vectors, SpaceTypes.l2.getValue(), 100);
+        try (IvfIndex index = IvfIndex.loadIndex(indexPath, 100, randomBoolean())) {
+            KNNQueryResult[] results = index.queryIndex(vectors[1], K);
+            assertEquals(3, results.length);
+            assertEquals(1, results[0].getId());
+            assertEquals(0, results[0].getScore(), 0);
+        }
+    }
+
+    public void testTrailingBytesIgnored() throws IOException {
+        float[][] vectors = randomVectors(100);
+        String indexPath = buildIndex(vectors, SpaceTypes.l2.getValue(), 0);
+        // Like the footer the codec appends to the index file
+        Files.write(Paths.get(indexPath), new byte[16], StandardOpenOption.APPEND);
+
+        try (IvfIndex index = IvfIndex.loadIndex(indexPath, 100, randomBoolean())) {
+            KNNQueryResult[] results = index.queryIndex(vectors[7], 1);
+            assertEquals(1, results.length);
+            assertEquals(7, results[0].getId());
+        }
+    }
+
+    public void testLoadInvalidFile() throws IOException {
+        String indexPath = createTempDir().resolve("invalid.ivf").toString();
+        Files.write(Paths.get(indexPath), new byte[64]);
+        expectThrows(IllegalStateException.class, () -> IvfIndex.loadIndex(indexPath, 1, false));
+    }
+
+    public void testLoadTruncatedFile() throws IOException {
+        String indexPath = buildIndex(randomVectors(100), SpaceTypes.l2.getValue(), 0);
+        byte[] bytes = Files.readAllBytes(Paths.get(indexPath));
+        Files.write(Paths.get(indexPath), Arrays.copyOf(bytes, bytes.length - 4));
+        expectThrows(IllegalStateException.class, () -> IvfIndex.loadIndex(indexPath, 1, false));
+    }
+
+    public void testSizeDoesNotOverflow() {
+        // count * dimension overflows an int
+        long sizeInBytes = IvfIndexBuilder.sizeInBytes(1024, 4 * 1024 * 1024, 1);
+        assertTrue(sizeInBytes > IvfIndexBuilder.MAX_SIZE_IN_BYTES);
+        assertEquals(4L * (IvfIndex.HEADER_INTS + 1024 + 2 + 4L * 1024 * 1024 * 1025), sizeInBytes);
+    }
+
+    public void testNegativeNlist() {
+        expectThrows(IllegalArgumentException.class, () -> buildIndex(randomVectors(10), SpaceTypes.l2.getValue(), -1));
+    }
+
+    /**
+     * Scanning every list is an exact search, so it must return the brute force neighbors
+     */
+    private void assertExact(String spaceType, boolean mapped) throws IOException {
+        float[][] vectors = randomVectors(500);
+        String indexPath = buildIndex(vectors, spaceType, 0);
+        int spaceTypeId = VectorMath.spaceType(spaceType);
+        try (IvfIndex index = IvfIndex.loadIndex(indexPath, vectors.length, mapped)) {
+            for (int q = 0; q < 10; q++) {
+                float[] query = randomVector();
+                float[] distances = new float[vectors.length];
+                for (int i = 0; i < vectors.length; i++) {
+                    distances[i] = distance(spaceTypeId, query, vectors[i]);
+                }
+                int[] exact = IntStream.range(0, vectors.length).boxed()
+                        .sorted(Comparator.comparingDouble(i -> distances[i]))
+                        .limit(K)
+                        .mapToInt(i -> i)
+                        .toArray();
+
+                KNNQueryResult[] results = index.queryIndex(query, K);
+                assertEquals(K, results.length);
+                for (int i = 0; i < K; i++) {
+                    assertEquals(distances[exact[i]], results[i].getScore(), 1e-5);
+                }
+                assertEquals(Arrays.stream(exact).boxed().collect(Collectors.toSet()),
+                        Arrays.stream(results).map(KNNQueryResult::getId).collect(Collectors.toSet()));
+            }
+        }
+    }
+
+    private float distance(int spaceType, float[] query, float[] vector) {
+        float sum = 0;
+        if (spaceType == VectorMath.SPACE_COSINESIMIL) {
+            float[] a = VectorMath.normalize(query);
+            float[] b = VectorMath.normalize(vector);
+            for (int i = 0; i < DIMENSION; i++) {
+                sum += a[i] * b[i];
+            }
+            return 1 - sum;
+        }
+        for (int i = 0; i < DIMENSION; i++) {
+            float diff = query[i] - vector[i];
+            sum += diff * diff;
+        }
+        return sum;
+    }
+
+    private String buildIndex(float[][] vectors, String spaceType, int nlist) throws IOException {
+        int[] docs = IntStream.range(0, vectors.length).toArray();
+        String indexPath = createTempDir().resolve("test.ivf").toString();
+        Map<String, String> fieldAttributes = new HashMap<>();
+        fieldAttributes.put(KNNConstants.SPACE_TYPE, spaceType);
+        fieldAttributes.put(KNNConstants.IVF_ALGO_NLIST, String.valueOf(nlist));
+        IvfEngine.INSTANCE.buildIndex(docs, vectors, indexPath, fieldAttributes);
+        return indexPath;
+    }
+
+    private float[][] randomVectors(int count) {
+        float[][] vectors = new float[count][];
+        for (int i = 0; i < count; i++) {
+            vectors[i] = randomVector();
+        }
+        return vectors;
+    }
+
+    private float[] randomVector() {
+        float[] vector = new float[DIMENSION];
+        for (int i = 0; i < DIMENSION; i++) {
+            vector[i] = randomFloat();
+        }
+        return vector;
+    }
+}
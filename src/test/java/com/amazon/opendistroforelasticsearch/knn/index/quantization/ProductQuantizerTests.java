@@ -0,0 +1,65 @@
+/*
+ *   Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License").
+ *   You may not use this file except in compliance with the License.
+ *   A copy of the License is located at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   or in the "license" file accompanying this file. This file is distributed
+ *   on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *   express or implied. See the License for the specific language governing
+ *   permissions and limitations under the License.
+ */
+
+
+package com.amazon.opendistroforelasticsearch.knn.index.quantization;
+
+import com.amazon.opendistroforelasticsearch.knn.KNNTestCase;
+
+import java.util.Random;
+
+public class ProductQuantizerTests extends KNNTestCase {
+
+    public void testDistanceTable() {
+        // Two subspaces of dimension 2, with two centroids each
+        float[] codebooks = new float[] {
+                0, 0, 1, 1,
+                2, 2, 3, 3
+        };
+        ProductQuantizer quantizer = new ProductQuantizer(4, 2, 2, codebooks);
+
+        byte[] code = new byte[2];
+        quantizer.encode(new float[] {0.9f, 1.1f, 2.1f, 1.9f}, code, 0);
+        assertArrayEquals(new byte[] {1, 0}, code);
+
+        float[] query = new float[] {1, 0, 2, 3};
+        float[] l2Table = quantizer.distanceTable(query, false);
+        assertArrayEquals(new float[] {1, 1, 1, 1}, l2Table, 0);
+        float[] innerProductTable = quantizer.distanceTable(query, true);
+        assertArrayEquals(new float[] {0, 1, 10, 15}, innerProductTable, 0);
+    }
+
+    public void testTrainEncodesEveryVectorExactlyWhenFewerThanCentroids() {
+        float[][] vectors = new float[10][];
+        for (int i = 0; i < vectors.length; i++) {
+            vectors[i] = new float[] {randomFloat(), randomFloat(), randomFloat(), randomFloat()};
+        }
+        ProductQuantizer quantizer = ProductQuantizer.train(vectors, 2, new Random(randomLong()));
+        assertEquals(vectors.length, quantizer.getCentroidCount());
+
+        // Each vector is its own centroid, so its distance to itself is 0
+        byte[] code = new byte[2];
+        for (float[] vector : vectors) {
+            quantizer.encode(vector, code, 0);
+            float[] table = quantizer.distanceTable(vector, false);
+            assertEquals(0, table[code[0] & 0xFF] + table[quantizer.getCentroidCount() + (code[1] & 0xFF)], 0);
+        }
+    }
+
+    public void testInvalidSubspaces() {
+        expectThrows(IllegalArgumentException.class, () -> new ProductQuantizer(4, 3, 1, new float[4]));
+        expectThrows(IllegalArgumentException.class, () -> new ProductQuantizer(4, 2, 257, new float[4 * 257]));
+    }
+}
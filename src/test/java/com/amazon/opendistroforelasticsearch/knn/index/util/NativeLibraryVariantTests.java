@@ -0,0 +1,54 @@
+/*
+ *   Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License").
+ *   You may not use this file except in compliance with the License.
+ *   A copy of the License is located at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   or in the "license" file accompanying this file. This file is distributed
+ *   on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *   express or implied. See the License for the specific language governing
+ *   permissions and limitations under the License.
+ */
+
+
+package com.amazon.opendistroforelasticsearch.knn.index.util;
+
+import com.amazon.opendistroforelasticsearch.knn.KNNTestCase;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+public class NativeLibraryVariantTests extends KNNTestCase {
+    public void testParseCpuFlags() {
+        Set<String> flags = NativeLibraryVariant.parseCpuFlags(Arrays.asList(
+                "processor\t: 0",
+                "model name\t: Intel(R) Xeon(R) Platinum 8175M CPU @ 2.50GHz",
+                "flags\t\t: fpu sse4_2 popcnt avx2 fma avx512f",
+                "processor\t: 1",
+                "flags\t\t: fpu"));
+        assertEquals(new HashSet<>(Arrays.asList("fpu", "sse4_2", "popcnt", "avx2", "fma", "avx512f")), flags);
+
+        assertTrue(NativeLibraryVariant.parseCpuFlags(Collections.singletonList("Features\t: fp asimd")).isEmpty());
+    }
+
+    public void testIsSupported() {
+        Set<String> avx2Flags = new HashSet<>(Arrays.asList("sse4_2", "popcnt", "avx", "avx2", "fma"));
+        assertFalse(NativeLibraryVariant.AVX512.isSupported(avx2Flags));
+        assertTrue(NativeLibraryVariant.AVX2.isSupported(avx2Flags));
+        assertTrue(NativeLibraryVariant.SSE4.isSupported(avx2Flags));
+        assertTrue(NativeLibraryVariant.GENERIC.isSupported(avx2Flags));
+        assertTrue(NativeLibraryVariant.GENERIC.isSupported(Collections.emptySet()));
+    }
+
+    public void testLibraryName() {
+        String baseName = NmsLibVersion.V206.indexLibraryVersion();
+        assertEquals("KNNIndexV2_0_6", NativeLibraryVariant.GENERIC.libraryName(baseName));
+        assertEquals("KNNIndexV2_0_6_avx512", NativeLibraryVariant.AVX512.libraryName(baseName));
+        assertEquals("avx2", NativeLibraryVariant.AVX2.getName());
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ *   Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License").
+ *   You may not use this file except in compliance with the License.
+ *   A copy of the License is located at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   or in the "license" file accompanying this file. This file is distributed
+ *   on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *   express or implied. See the License for the specific language governing
+ *   permissions and limitations under the License.
+ */
+
+
+package com.amazon.opendistroforelasticsearch.knn.index.util;
+
+import com.amazon.opendistroforelasticsearch.knn.KNNTestCase;
+import com.amazon.opendistroforelasticsearch.knn.index.SpaceTypes;
+
+import java.nio.FloatBuffer;
+
+public class VectorMathTests extends KNNTestCase {
+    public void testExactDistance() {
+        float[] query = {1.0F, 0.0F};
+        assertEquals(8.0F, VectorMath.exactDistance(SpaceTypes.l2.getValue(), query, new float[] {3.0F, 2.0F}),
+                0.0F);
+        assertEquals(1.0F, VectorMath.exactDistance(SpaceTypes.cosinesimil.getValue(), query,
+                new float[] {0.0F, 5.0F}), 0.0001F);
+    }
+
+    public void testPreparedDistanceMatchesExactDistance() {
+        float[] query = {1.0F, 2.0F, -1.0F};
+        float[] vector = {3.0F, -2.0F, 4.0F};
+        for (String spaceType : SpaceTypes.getValues()) {
+            int spaceTypeId = VectorMath.spaceType(spaceType);
+            float[] preparedQuery = VectorMath.prepare(spaceTypeId, query);
+            float[] preparedVector = VectorMath.prepare(spaceTypeId, vector);
+            float expected = VectorMath.exactDistance(spaceType, query, vector);
+            assertEquals(expected, VectorMath.distance(spaceTypeId, preparedQuery, preparedVector), 0.0001F);
+            assertEquals(expected, VectorMath.distance(spaceTypeId, preparedQuery,
+                    FloatBuffer.wrap(new float[] {0.0F, 0.0F, 0.0F, preparedVector[0], preparedVector[1],
+                            preparedVector[2]}), 3, 3), 0.0001F);
+        }
+    }
+
+    public void testNormalizeZeroVector() {
+        float[] zero = {0.0F, 0.0F};
+        assertSame(zero, VectorMath.normalize(zero));
+    }
+}
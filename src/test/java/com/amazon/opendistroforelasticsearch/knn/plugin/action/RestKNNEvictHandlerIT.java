@@ -0,0 +1,66 @@
+/*
+ *   Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License").
+ *   You may not use this file except in compliance with the License.
+ *   A copy of the License is located at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   or in the "license" file accompanying this file. This file is distributed
+ *   on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *   express or implied. See the License for the specific language governing
+ *   permissions and limitations under the License.
+ */
+
+package com.amazon.opendistroforelasticsearch.knn.plugin.action;
+
+import com.amazon.opendistroforelasticsearch.knn.KNNRestTestCase;
+
+import org.elasticsearch.client.ResponseException;
+import org.elasticsearch.common.settings.Settings;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Integration tests to check the correctness of KNN Evict API
+ */
+
+public class RestKNNEvictHandlerIT extends KNNRestTestCase {
+
+    private final String testIndexName = "test-index";
+    private final String testFieldName = "test-field";
+    private final int dimensions = 2;
+
+    @Test(expected = ResponseException.class)
+    public void testNonExistentIndex() throws IOException {
+        knnEvict(Collections.singletonList("non-existent"));
+    }
+
+    @Test(expected = ResponseException.class)
+    public void testNonKnnIndex() throws IOException {
+        createIndex("not-knn-index", Settings.EMPTY);
+
+        knnEvict(Collections.singletonList("not-knn-index"));
+    }
+
+    public void testEvictIndices() throws IOException {
+        createKnnIndex(testIndexName + "1", getKNNDefaultIndexSettings(), createKnnIndexMapping(testFieldName, dimensions));
+        addKnnDoc(testIndexName + "1", "1", testFieldName, new Float[] {6.0f, 6.0f});
+        createKnnIndex(testIndexName + "2", getKNNDefaultIndexSettings(), createKnnIndexMapping(testFieldName, dimensions));
+        addKnnDoc(testIndexName + "2", "1", testFieldName, new Float[] {6.0f, 6.0f});
+
+        int graphCountBefore = getTotalGraphsInCache();
+        knnWarmup(Arrays.asList(testIndexName + "1", testIndexName + "2"));
+        assertEquals(graphCountBefore + 2, getTotalGraphsInCache());
+
+        knnEvict(Collections.singletonList(testIndexName + "1"));
+        assertEquals(graphCountBefore + 1, getTotalGraphsInCache());
+
+        knnEvict(Collections.singletonList(testIndexName + "*"));
+        assertEquals(graphCountBefore, getTotalGraphsInCache());
+    }
+}
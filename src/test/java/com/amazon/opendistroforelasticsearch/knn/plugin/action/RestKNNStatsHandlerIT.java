@@ -17,6 +17,7 @@ package com.amazon.opendistroforelasticsearch.knn.plugin.action;
 
 import com.amazon.opendistroforelasticsearch.knn.KNNRestTestCase;
 import com.amazon.opendistroforelasticsearch.knn.index.KNNQueryBuilder;
+import com.amazon.opendistroforelasticsearch.knn.plugin.stats.KNNLatency;
 import com.amazon.opendistroforelasticsearch.knn.plugin.stats.KNNStats;
 
 import com.amazon.opendistroforelasticsearch.knn.plugin.stats.StatNames;
@@ -115,6 +116,36 @@ public class RestKNNStatsHandlerIT extends KNNRestTestCase {
         assertEquals((Integer) (hitCount1 + 1), hitCount2);
     }
 
+    /**
+     * Test checks that the latency of every query stage is reported for the queried field
+     * @throws IOException throws IOException
+     */
+    @SuppressWarnings("unchecked")
+    public void testQueryLatencyStats() throws IOException {
+        createKnnIndex(INDEX_NAME, createKnnIndexMapping(FIELD_NAME, 2));
+        addKnnDoc(INDEX_NAME, "1", FIELD_NAME, new Float[] {6.0f, 6.0f});
+        searchKNNIndex(INDEX_NAME, new KNNQueryBuilder(FIELD_NAME, new float[] {6.0f, 6.0f}, 1), 1);
+
+        Response response = getKnnStats(Collections.emptyList(),
+                Collections.singletonList(StatNames.QUERY_LATENCY.getName()));
+        String responseBody = EntityUtils.toString(response.getEntity());
+
+        Map<String, Object> nodeStats = parseNodeStatsResponse(responseBody).get(0);
+        Map<String, Object> latencies = (Map<String, Object>) nodeStats.get(StatNames.QUERY_LATENCY.getName());
+        Map<String, Object> fieldLatencies = (Map<String, Object>) ((Map<String, Object>) latencies.get(INDEX_NAME))
+                .get(FIELD_NAME);
+        for (KNNLatency latency : KNNLatency.values()) {
+            if (latency == KNNLatency.RESCORE) {
+                // Only searches of graphs with approximate distances are rescored
+                assertFalse(fieldLatencies.containsKey(latency.getName()));
+                continue;
+            }
+            Map<String, Object> summary = (Map<String, Object>) fieldLatencies.get(latency.getName());
+            assertEquals(1, summary.get(KNNLatency.COUNT));
+            assertTrue(summary.containsKey(KNNLatency.P99));
+        }
+    }
+
     /**
      *  Test checks that handler correctly returns selected metrics
      * @throws IOException throws IOException
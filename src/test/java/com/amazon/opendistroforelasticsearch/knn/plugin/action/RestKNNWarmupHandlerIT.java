@@ -17,13 +17,19 @@ package com.amazon.opendistroforelasticsearch.knn.plugin.action;
 
 import com.amazon.opendistroforelasticsearch.knn.KNNRestTestCase;
 
+import com.amazon.opendistroforelasticsearch.knn.plugin.KNNPlugin;
+import org.apache.http.util.EntityUtils;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.Response;
 import org.elasticsearch.client.ResponseException;
 import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentType;
 import org.junit.Test;
 
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Map;
 
 /**
  * Integration tests to check the correctness of KNN Warmup API
@@ -66,6 +72,27 @@ public class RestKNNWarmupHandlerIT extends KNNRestTestCase {
         assertEquals(graphCountBefore + 1, getTotalGraphsInCache());
     }
 
+    public void testAsyncWarmup() throws IOException {
+        int graphCountBefore = getTotalGraphsInCache();
+        createKnnIndex(testIndexName, getKNNDefaultIndexSettings(), createKnnIndexMapping(testFieldName, dimensions));
+        addKnnDoc(testIndexName, "1", testFieldName, new Float[] {6.0f, 6.0f});
+
+        Request request = new Request("GET", KNNPlugin.KNN_BASE_URI + "/warmup/" + testIndexName);
+        request.addParameter("wait_for_completion", "false");
+        Response response = client().performRequest(request);
+        String taskId = (String) createParser(XContentType.JSON.xContent(),
+                EntityUtils.toString(response.getEntity())).map().get("task");
+        assertNotNull(taskId);
+
+        Request taskRequest = new Request("GET", "/_tasks/" + taskId);
+        taskRequest.addParameter("wait_for_completion", "true");
+        Map<String, Object> taskResponse = createParser(XContentType.JSON.xContent(),
+                EntityUtils.toString(client().performRequest(taskRequest).getEntity())).map();
+        assertEquals(true, taskResponse.get("completed"));
+
+        assertEquals(graphCountBefore + 1, getTotalGraphsInCache());
+    }
+
     public void testMultipleIndices() throws IOException {
         int graphCountBefore = getTotalGraphsInCache();
 
@@ -30,4 +30,11 @@ public class KNNCounterTests extends KNNTestCase {
             assertEquals((Long) (i+1), KNNCounter.GRAPH_QUERY_ERRORS.getCount());
         }
     }
+
+    public void testAdd() {
+        assertEquals((Long) 0L, KNNCounter.GRAPH_QUERY_DISTANCE_COMPUTATIONS.getCount());
+        KNNCounter.GRAPH_QUERY_DISTANCE_COMPUTATIONS.add(42);
+        KNNCounter.GRAPH_QUERY_DISTANCE_COMPUTATIONS.add(8);
+        assertEquals((Long) 50L, KNNCounter.GRAPH_QUERY_DISTANCE_COMPUTATIONS.getCount());
+    }
 }
\ No newline at end of file
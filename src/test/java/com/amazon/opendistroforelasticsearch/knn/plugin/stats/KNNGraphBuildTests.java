@@ -0,0 +1,52 @@
+/*
+ *   Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License").
+ *   You may not use this file except in compliance with the License.
+ *   A copy of the License is located at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   or in the "license" file accompanying this file. This file is distributed
+ *   on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *   express or implied. See the License for the specific language governing
+ *   permissions and limitations under the License.
+ */
+
+
+package com.amazon.opendistroforelasticsearch.knn.plugin.stats;
+
+import com.amazon.opendistroforelasticsearch.knn.KNNTestCase;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+public class KNNGraphBuildTests extends KNNTestCase {
+    public void testRecord() {
+        KNNGraphBuild.MERGE.record(1000, TimeUnit.SECONDS.toNanos(2), 500, 4096);
+        KNNGraphBuild.MERGE.record(3000, TimeUnit.SECONDS.toNanos(2), 700, 8192);
+
+        assertEquals(2, KNNGraphBuild.MERGE.getBuildCount());
+        assertEquals(4000, KNNGraphBuild.MERGE.getVectorsIndexed());
+        assertEquals(TimeUnit.SECONDS.toNanos(4), KNNGraphBuild.MERGE.getTotalBuildTime());
+        assertEquals(1200, KNNGraphBuild.MERGE.getTotalCopyTime());
+        assertEquals(12288, KNNGraphBuild.MERGE.getGraphBytesWritten());
+        assertEquals(0, KNNGraphBuild.FLUSH.getBuildCount());
+    }
+
+    @SuppressWarnings("unchecked")
+    public void testGetBuildStats() {
+        KNNGraphBuild.FLUSH.record(1000, TimeUnit.SECONDS.toNanos(2), 500, 4096);
+
+        Map<String, Map<String, Object>> stats = KNNGraphBuild.getBuildStats();
+        Map<String, Object> flushStats = stats.get(KNNGraphBuild.FLUSH.getName());
+        assertEquals(1L, flushStats.get(KNNGraphBuild.BUILD_COUNT));
+        assertEquals(500.0, (Double) flushStats.get(KNNGraphBuild.VECTORS_PER_SECOND), 0.001);
+        assertEquals(1L, ((Map<String, Object>) flushStats.get(KNNGraphBuild.BUILD_TIME)).get(KNNLatency.COUNT));
+        assertEquals(0L, stats.get(KNNGraphBuild.MERGE.getName()).get(KNNGraphBuild.BUILD_COUNT));
+        assertEquals(0.0, stats.get(KNNGraphBuild.MERGE.getName()).get(KNNGraphBuild.VECTORS_PER_SECOND));
+
+        KNNGraphBuild.FLUSH.reset();
+        assertEquals(0L, KNNGraphBuild.getBuildStats().get(KNNGraphBuild.FLUSH.getName()).get(KNNGraphBuild.BUILD_COUNT));
+    }
+}
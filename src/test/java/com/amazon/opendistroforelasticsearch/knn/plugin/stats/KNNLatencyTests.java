@@ -0,0 +1,57 @@
+/*
+ *   Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License").
+ *   You may not use this file except in compliance with the License.
+ *   A copy of the License is located at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   or in the "license" file accompanying this file. This file is distributed
+ *   on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *   express or implied. See the License for the specific language governing
+ *   permissions and limitations under the License.
+ */
+
+
+package com.amazon.opendistroforelasticsearch.knn.plugin.stats;
+
+import com.amazon.opendistroforelasticsearch.knn.KNNTestCase;
+import org.HdrHistogram.Histogram;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+public class KNNLatencyTests extends KNNTestCase {
+    private final String indexName = "test-index";
+    private final String fieldName = "test-field";
+
+    public void testRecord() {
+        assertNull(KNNLatency.NATIVE_SEARCH.getHistogram(indexName, fieldName));
+
+        for (long i = 1; i <= 100; i++) {
+            KNNLatency.NATIVE_SEARCH.record(indexName, fieldName, TimeUnit.MILLISECONDS.toNanos(i));
+        }
+
+        Histogram histogram = KNNLatency.NATIVE_SEARCH.getHistogram(indexName, fieldName);
+        assertEquals(100, histogram.getTotalCount());
+        assertTrue(histogram.valuesAreEquivalent(99000, histogram.getValueAtPercentile(99.0)));
+        assertNull(KNNLatency.CACHE_LOOKUP.getHistogram(indexName, fieldName));
+    }
+
+    public void testGetLatencyStats() {
+        KNNLatency.CACHE_LOOKUP.record(indexName, fieldName, 1000);
+        KNNLatency.NATIVE_SEARCH.record(indexName, fieldName, 2000);
+        KNNLatency.NATIVE_SEARCH.record(indexName, "other-field", 3000);
+
+        Map<String, Map<String, Map<String, Map<String, Object>>>> stats = KNNLatency.getLatencyStats();
+        Map<String, Map<String, Object>> fieldStats = stats.get(indexName).get(fieldName);
+        assertEquals(2, fieldStats.size());
+        assertEquals(1L, fieldStats.get(KNNLatency.CACHE_LOOKUP.getName()).get(KNNLatency.COUNT));
+        assertEquals(2L, fieldStats.get(KNNLatency.NATIVE_SEARCH.getName()).get(KNNLatency.P50));
+        assertEquals(1, stats.get(indexName).get("other-field").size());
+
+        KNNLatency.removeIndexFromAll(indexName);
+        assertTrue(KNNLatency.getLatencyStats().isEmpty());
+    }
+}
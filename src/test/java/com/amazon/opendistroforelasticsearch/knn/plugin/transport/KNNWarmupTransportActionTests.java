@@ -17,6 +17,7 @@ package com.amazon.opendistroforelasticsearch.knn.plugin.transport;
 
 import com.amazon.opendistroforelasticsearch.knn.KNNSingleNodeTestCase;
 import com.amazon.opendistroforelasticsearch.knn.index.KNNIndexCache;
+import org.elasticsearch.action.support.broadcast.BroadcastRequest;
 import org.elasticsearch.cluster.ClusterName;
 import org.elasticsearch.cluster.ClusterState;
 import org.elasticsearch.cluster.block.ClusterBlock;
@@ -25,10 +26,18 @@ import org.elasticsearch.cluster.block.ClusterBlocks;
 import org.elasticsearch.cluster.routing.ShardRouting;
 import org.elasticsearch.cluster.routing.ShardsIterator;
 import org.elasticsearch.cluster.service.ClusterService;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.io.stream.StreamInput;
 import org.elasticsearch.index.IndexService;
+import org.elasticsearch.index.shard.ShardId;
 import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.tasks.TaskCancelledException;
+import org.elasticsearch.tasks.TaskId;
+import org.elasticsearch.tasks.TaskManager;
+import org.elasticsearch.transport.TransportService;
 
 import java.io.IOException;
+import java.util.Collections;
 import java.util.EnumSet;
 import java.util.concurrent.ExecutionException;
 
@@ -60,6 +69,78 @@ public class KNNWarmupTransportActionTests extends KNNSingleNodeTestCase {
         assertEquals(1, KNNIndexCache.getInstance().getIndicesCacheStats().size());
     }
 
+    public void testShardOperation_cancelled() throws IOException, ExecutionException, InterruptedException {
+        KNNWarmupTransportAction knnWarmupTransportAction = node().injector().getInstance(KNNWarmupTransportAction.class);
+        TaskManager taskManager = node().injector().getInstance(TransportService.class).getTaskManager();
+
+        IndexService indexService = createKNNIndex(testIndexName);
+        createKnnIndexMapping(testIndexName, testFieldName, dimensions);
+        addKnnDoc(testIndexName, "1", testFieldName, new Long[] {0L, 1L});
+        ShardRouting shardRouting = indexService.iterator().next().routingEntry();
+
+        KNNWarmupRequest knnWarmupRequest = new KNNWarmupRequest(testIndexName);
+        TaskId warmupTaskId = new TaskId("test-node", randomNonNegativeLong());
+        knnWarmupRequest.setWarmupTaskId(warmupTaskId);
+
+        // A ban is what cancelling the coordinating task puts in place on every node it sent the warmup to
+        taskManager.setBan(warmupTaskId, "test");
+        try {
+            expectThrows(TaskCancelledException.class,
+                    () -> knnWarmupTransportAction.shardOperation(knnWarmupRequest, shardRouting));
+        } finally {
+            taskManager.removeBan(warmupTaskId);
+        }
+        assertEquals(0, KNNIndexCache.getInstance().getIndicesCacheStats().size());
+        assertTrue(taskManager.getTasks().values().stream().noneMatch(task -> task instanceof KNNWarmupShardTask));
+
+        knnWarmupTransportAction.shardOperation(knnWarmupRequest, shardRouting);
+        assertEquals(1, KNNIndexCache.getInstance().getIndicesCacheStats().size());
+    }
+
+    public void testShardTaskStatus() throws IOException {
+        ShardId shardId = new ShardId(testIndexName, "_na_", 0);
+        KNNWarmupShardTask task = new KNNWarmupShardTask(1, "transport", KNNWarmupAction.NAME + "[s]", "",
+                TaskId.EMPTY_TASK_ID, Collections.emptyMap(), shardId);
+        task.onStart(2, 300);
+        assertEquals(-1, task.getStatus().getEtaMillis());
+
+        task.onGraphLoaded("graph-1", 100);
+        KNNWarmupShardTask.Status status = task.getStatus();
+        assertEquals(2, status.getTotalGraphs());
+        assertEquals(1, status.getLoadedGraphs());
+        assertEquals(300, status.getTotalBytes());
+        assertEquals(100, status.getLoadedBytes());
+        assertTrue(status.getEtaMillis() >= 0);
+
+        assertEquals(status, copyWriteable(status, writableRegistry(), KNNWarmupShardTask.Status::new));
+    }
+
+    public void testWarmupRequestSerialization() throws IOException {
+        KNNWarmupRequest request = new KNNWarmupRequest(testIndexName);
+        request.setWarmupTaskId(new TaskId("node-1", 7));
+
+        KNNWarmupRequest copy = copyWriteable(request, writableRegistry(), KNNWarmupRequest::new);
+        assertArrayEquals(request.indices(), copy.indices());
+        assertEquals(request.getWarmupTaskId(), copy.getWarmupTaskId());
+
+        // Nodes running an earlier version of the plugin read the request as a plain broadcast request
+        try (BytesStreamOutput out = new BytesStreamOutput()) {
+            request.writeTo(out);
+            try (StreamInput in = out.bytes().streamInput()) {
+                PreviousWarmupRequest previous = new PreviousWarmupRequest(in);
+                assertArrayEquals(request.indices(), previous.indices());
+                assertEquals(0, in.available());
+            }
+        }
+        try (BytesStreamOutput out = new BytesStreamOutput()) {
+            new PreviousWarmupRequest(testIndexName).writeTo(out);
+            try (StreamInput in = out.bytes().streamInput()) {
+                assertEquals(TaskId.EMPTY_TASK_ID, new KNNWarmupRequest(in).getWarmupTaskId());
+                assertEquals(0, in.available());
+            }
+        }
+    }
+
     public void testShards() throws InterruptedException, ExecutionException, IOException {
         ClusterService clusterService = node().injector().getInstance(ClusterService.class);
         KNNWarmupTransportAction knnWarmupTransportAction = node().injector().getInstance(KNNWarmupTransportAction.class);
@@ -102,4 +183,17 @@ public class KNNWarmupTransportActionTests extends KNNSingleNodeTestCase {
         assertNotNull(knnWarmupTransportAction.checkRequestBlock(clusterService.state(), knnWarmupRequest,
                 new String[] {testIndexName}));
     }
+
+    /**
+     * Warmup request as sent and read by the plugin before the warmup ran as a task
+     */
+    private static class PreviousWarmupRequest extends BroadcastRequest<PreviousWarmupRequest> {
+        PreviousWarmupRequest(StreamInput in) throws IOException {
+            super(in);
+        }
+
+        PreviousWarmupRequest(String... indices) {
+            super(indices);
+        }
+    }
 }